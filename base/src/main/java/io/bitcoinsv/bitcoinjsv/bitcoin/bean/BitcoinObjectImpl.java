@@ -11,6 +11,7 @@ import io.bitcoinsv.bitcoinjsv.core.*;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 public abstract class BitcoinObjectImpl<C extends BitcoinObject> implements BitcoinObject<C> {
 
@@ -18,6 +19,8 @@ public abstract class BitcoinObjectImpl<C extends BitcoinObject> implements Bitc
 
     private final BitcoinObject parent;
     private boolean mutable = false;
+    // If true the payload is not trimmed after parsing, see sharesPayload().
+    private boolean sharedPayload;
 
     // The offset is how many bytes into the provided byte array this message payload starts at.
     protected int offset;
@@ -37,9 +40,22 @@ public abstract class BitcoinObjectImpl<C extends BitcoinObject> implements Bitc
      * @param offset
      */
     public BitcoinObjectImpl(BitcoinObject parent, byte[] payload, int offset) {
+        this(parent, payload, offset, parent instanceof BitcoinObjectImpl && ((BitcoinObjectImpl) parent).sharesPayload());
+    }
+
+    /**
+     * Constructor for parsing an object from byte array payload.
+     * @param parent
+     * @param payload
+     * @param offset
+     * @param sharePayload if true this object and its children keep a view of {@code payload} rather than
+     *                     copying their own part of it, see {@link #sharesPayload()}.
+     */
+    public BitcoinObjectImpl(BitcoinObject<?> parent, byte[] payload, int offset, boolean sharePayload) {
         this.parent = parent;
         this.payload = payload;
         this.offset = offset;
+        this.sharedPayload = sharePayload;
         _parse();
     }
 
@@ -76,7 +92,7 @@ public abstract class BitcoinObjectImpl<C extends BitcoinObject> implements Bitc
         cursor = offset;
         parse();
         length = cursor - offset;
-        if (length != payload.length) {
+        if (!sharedPayload && length != payload.length) {
             byte[] trimmed = new byte[length];
             System.arraycopy(payload, offset, trimmed, 0, length);
             payload = trimmed;
@@ -117,12 +133,47 @@ public abstract class BitcoinObjectImpl<C extends BitcoinObject> implements Bitc
         return isFixedSize() ? fixedSize() : length;
     }
 
+    /**
+     * Returns true if this object was parsed in shared payload mode. Rather than copying its own part of the payload
+     * into a fresh array, as objects normally do once parsed, the object keeps a view of the array it was parsed from
+     * ({@link #payload}, {@link #offset}, {@link #getMessageSize()}). Children parsed from the same array inherit the
+     * mode, so a whole block costs one buffer plus the objects themselves. Large fields such as scripts are copied
+     * out of the payload when they are first asked for, and the payload is dropped when the object is made mutable.
+     */
+    public boolean sharesPayload() {
+        return sharedPayload;
+    }
+
+    /**
+     * Returns true if the serialized form of this object is available unchanged in {@link #payload}.
+     */
+    protected boolean hasPayload() {
+        return !isMutable() && payload != null && length >= 0;
+    }
+
+    /**
+     * Writes the unchanged payload of this object to the stream if it has one.
+     * @return false if nothing was written and the object needs to be serialized from its fields.
+     */
+    protected boolean writePayloadTo(OutputStream stream) throws IOException {
+        if (!hasPayload())
+            return false;
+        stream.write(payload, offset, length);
+        return true;
+    }
+
+    /** Copies a range of the payload, for fields that are only materialised on demand. */
+    protected byte[] copyPayload(int from, int length) {
+        return Arrays.copyOfRange(payload, from, from + length);
+    }
+
     @Override
     public byte[] serialize() {
-        if (!isMutable() && payload != null
-                && offset == 0
-                && payload.length == length) {
-            return payload;
+        if (hasPayload()) {
+            if (offset == 0 && payload.length == length)
+                return payload;
+            if (sharedPayload)
+                return copyPayload(offset, length);
         }
         int len = isFixedSize() ? fixedSize() : length == UNKNOWN_MESSAGE_LENGTH ? estimateMessageLength() : length;
         ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(len);
@@ -245,6 +296,22 @@ public abstract class BitcoinObjectImpl<C extends BitcoinObject> implements Bitc
         }
     }
 
+    /**
+     * Skips over the given number of bytes without copying them.
+     * @return the offset in the payload of the first byte skipped.
+     */
+    protected int skipBytes(int length) throws ProtocolException {
+        if (length > MAX_SIZE) {
+            throw new ProtocolException("Claimed value length too large: " + length);
+        }
+        if (length < 0 || cursor + length > payload.length) {
+            throw new ProtocolException("Not enough bytes in payload for length: " + length);
+        }
+        int start = cursor;
+        cursor += length;
+        return start;
+    }
+
     protected byte[] readByteArray() throws ProtocolException {
         long len = readVarInt();
         return readBytes((int) len);
@@ -16,6 +16,7 @@ import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.FullBlock;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Header;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
 import io.bitcoinsv.bitcoinjsv.bitcoin.bean.extended.LiteBlockBean;
+import io.bitcoinsv.bitcoinjsv.merkle.FlatMerkleTree;
 import io.bitcoinsv.bitcoinjsv.utils.Threading;
 
 import java.io.IOException;
@@ -24,14 +25,20 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static io.bitcoinsv.bitcoinjsv.core.Sha256Hash.hashTwice;
 import static io.bitcoinsv.bitcoinjsv.core.Sha256Hash.of;
 
 public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock {
 
+    /**
+     * Transactions hashed per task by {@link #calculateTxHashes()}. Big enough that scheduling is noise next to
+     * hashing, small enough for the ranges of a large block to balance across threads.
+     */
+    public static final int TX_HASH_CHUNK = 256;
+
     private Header header;
 
     private BlockMetaBean metaData;
@@ -46,6 +53,15 @@ public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock
         super(null, payload, 0);
     }
 
+    /**
+     * @param sharePayload if true the transactions and their children are parsed as views of {@code payload}
+     *                     instead of each taking a copy of its own bytes, see {@link #sharesPayload()}. The caller
+     *                     must not modify the array afterwards.
+     */
+    public FullBlockBean(byte[] payload, int offset, boolean sharePayload) {
+        super(null, payload, offset, sharePayload);
+    }
+
     public FullBlockBean(InputStream in) {
         super(null, in);
     }
@@ -76,33 +92,36 @@ public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock
         return isMutable() ? transactions : Collections.unmodifiableList(transactions);
     }
 
+    /** Returns the transaction list itself, rather than the unmodifiable view handed out while immutable. */
+    protected List<Tx> getTransactionList() {
+        return transactions;
+    }
+
     @Override
     public void setTransactions(List<Tx> transactions) {
         checkMutable();
         this.transactions = transactions;
     }
 
+    /**
+     * Calculates and caches the hash of every transaction on {@link Threading#COMPUTE_POOL}, see
+     * {@link #calculateTxHashes(ForkJoinPool)}.
+     */
     public void calculateTxHashes() {
-        CountDownLatch hashLatch = new CountDownLatch(getTransactions().size());
-        for (Tx tx: getTransactions()) {
-            //we are doing batches of hashes so we can take advantage of multi threading
-            Threading.THREAD_POOL.execute(new Runnable() {
-                @Override
-                public void run() {
-                    //calculates hash and caches it, this is 99% of the runtime
-                    tx.getHash();
-                    hashLatch.countDown();
-                }
-            });
-
-            try {
-                ExecutorService exec = Threading.THREAD_POOL;
-                long awaiting = hashLatch.getCount();
-                hashLatch.await();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        calculateTxHashes(Threading.COMPUTE_POOL);
+    }
+
+    /**
+     * Calculates and caches the hash of every transaction. The list is split into ranges of
+     * {@link #TX_HASH_CHUNK} transactions which are hashed in parallel on the given pool, each transaction hashing
+     * its serialized bytes in place when it was parsed. Returns once every hash is cached.
+     */
+    public void calculateTxHashes(ForkJoinPool pool) {
+        List<Tx> txs = transactions;
+        if (txs.size() <= TX_HASH_CHUNK)
+            TxHashTask.hashRange(txs, 0, txs.size());
+        else
+            pool.invoke(new TxHashTask(txs, 0, txs.size()));
     }
 
     @Override
@@ -112,17 +131,23 @@ public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock
         cursor += header.getMessageSize();
 
         int numTransactions = (int) readVarInt();
-        transactions = new ArrayList<>(numTransactions);
-        CountDownLatch hashLatch = new CountDownLatch(numTransactions);
+        transactions = parseTransactions(numTransactions);
 
+        //fill in the meta data
+        buildMetaData();
+    }
+
+    /**
+     * Parses the given number of transactions starting at the cursor, leaving the cursor after the last one.
+     */
+    protected List<Tx> parseTransactions(int numTransactions) {
+        List<Tx> transactions = new ArrayList<>(numTransactions);
         for (int i = 0; i < numTransactions; i++) {
             TxBean tx = new TxBean(this, payload, cursor);
             transactions.add(tx);
             cursor += tx.getMessageSize();
         }
-
-        //fill in the meta data
-        buildMetaData();
+        return transactions;
     }
 
     @Override
@@ -158,6 +183,8 @@ public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock
 
     @Override
     public void serializeTo(OutputStream stream) throws IOException {
+        if (writePayloadTo(stream))
+            return;
         header.serializeTo(stream);
         stream.write(new VarInt(transactions.size()).encode());
         for (Tx tx : transactions) {
@@ -192,12 +219,13 @@ public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock
     }
 
     /**
-     * This is here for early testing, we'll replace it with something more efficient.
-     * @return
+     * Calculates the merkle root from the transactions. In large blocks the transactions are hashed in parallel,
+     * see {@link #calculateTxHashes()}, as are the lower levels of the tree, see {@link FlatMerkleTree}.
      */
-
     @Override
     public Sha256Hash calculateMerkleRoot() {
+        if (transactions.size() > TX_HASH_CHUNK)
+            calculateTxHashes();
         return MerkleBuilder.calculateMerkleRootFromTxs(transactions);
     }
 
@@ -214,4 +242,35 @@ public class FullBlockBean extends HashableImpl<FullBlock> implements FullBlock
         lite.getBlockMeta().setTxCount(getTransactions().size());
         return lite;
     }
+
+    /** Hashes a range of transactions, splitting it in half until it is no bigger than {@link #TX_HASH_CHUNK}. */
+    private static class TxHashTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Tx> txs;
+        private final int from;
+        private final int to;
+
+        TxHashTask(List<Tx> txs, int from, int to) {
+            this.txs = txs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TX_HASH_CHUNK) {
+                hashRange(txs, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TxHashTask(txs, from, mid), new TxHashTask(txs, mid, to));
+            }
+        }
+
+        static void hashRange(List<Tx> txs, int from, int to) {
+            for (int i = from; i < to; i++)
+                txs.get(i).getHash(); // calculates the hash and caches it
+        }
+    }
 }
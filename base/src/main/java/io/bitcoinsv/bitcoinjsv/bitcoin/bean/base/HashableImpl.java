@@ -21,6 +21,10 @@ public abstract class HashableImpl<C extends Hashable> extends BitcoinObjectImpl
         super(parent, payload, offset);
     }
 
+    public HashableImpl(BitcoinObject<?> parent, byte[] payload, int offset, boolean sharePayload) {
+        super(parent, payload, offset, sharePayload);
+    }
+
     public HashableImpl(BitcoinObject parent) {
         super(parent);
     }
@@ -0,0 +1,167 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.bitcoin.bean.base;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.FullBlock;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.merkle.FlatMerkleTree;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link FullBlockBean} that doesn't parse its transactions up front. Parsing only walks the payload to record
+ * where each transaction starts, {@link #getTransactions()} then parses a {@link TxBean} the first time it is
+ * accessed. This suits consumers such as indexers that need the header, the transaction count, the txids and
+ * perhaps a handful of transactions from each block.
+ *
+ * The block always shares its payload (see {@link #sharesPayload()}) so the caller must not modify the array.
+ * While the block is unmodified {@link #serialize()} returns the original bytes. Making the block mutable parses
+ * every remaining transaction.
+ */
+public class LazyFullBlockBean extends FullBlockBean {
+
+    private static final long serialVersionUID = 1L;
+
+    // Payload offset of each transaction, plus one entry for the end of the last one. Assigned during parsing,
+    // which runs from the super constructor, so these must not have initializers.
+    private int[] txOffsets;
+    private byte[] txPayload;
+
+    public LazyFullBlockBean(byte[] payload, int offset) {
+        super(payload, offset, true);
+    }
+
+    public LazyFullBlockBean(byte[] payload) {
+        this(payload, 0);
+    }
+
+    @Override
+    protected List<Tx> parseTransactions(int numTransactions) {
+        txPayload = payload;
+        txOffsets = new int[numTransactions + 1];
+        for (int i = 0; i < numTransactions; i++) {
+            txOffsets[i] = cursor;
+            skipTransaction();
+        }
+        txOffsets[numTransactions] = cursor;
+        return new LazyTxList(numTransactions);
+    }
+
+    private void skipTransaction() {
+        skipBytes(4); // version
+        long numInputs = readVarInt();
+        for (long i = 0; i < numInputs; i++) {
+            skipBytes(36); // outpoint
+            skipBytes((int) readVarInt());
+            skipBytes(4); // sequence
+        }
+        long numOutputs = readVarInt();
+        for (long i = 0; i < numOutputs; i++) {
+            skipBytes(8); // value
+            skipBytes((int) readVarInt());
+        }
+        skipBytes(4); // lock time
+    }
+
+    /**
+     * Returns the hash of the transaction at the given index. Transactions that haven't been parsed are hashed
+     * straight from the payload without being parsed.
+     */
+    public Sha256Hash getTxHash(int index) {
+        if (!(getTransactionList() instanceof LazyTxList))
+            return getTransactionList().get(index).getHash();
+        Tx tx = ((LazyTxList) getTransactionList()).parsed(index);
+        if (tx != null)
+            return tx.getHash();
+        int start = txOffsets[index];
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(txPayload, start, txOffsets[index + 1] - start));
+    }
+
+    /** Returns the number of transactions that have been parsed so far. */
+    public int getParsedTxCount() {
+        List<Tx> txs = getTransactionList();
+        return txs instanceof LazyTxList ? ((LazyTxList) txs).parsedCount() : txs.size();
+    }
+
+    @Override
+    public Sha256Hash calculateMerkleRoot() {
+        if (!(getTransactionList() instanceof LazyTxList))
+            return super.calculateMerkleRoot();
+        // Unparsed transactions are hashed from the payload straight into the leaves, already in internal order.
+        LazyTxList txs = (LazyTxList) getTransactionList();
+        byte[] leaves = new byte[txs.size() * FlatMerkleTree.HASH_LENGTH];
+        for (int i = 0; i < txs.size(); i++) {
+            Tx tx = txs.parsed(i);
+            if (tx != null) {
+                FlatMerkleTree.setLeaf(leaves, i, tx.getHash());
+            } else {
+                int start = txOffsets[i];
+                byte[] hash = Sha256Hash.hashTwice(txPayload, start, txOffsets[i + 1] - start);
+                System.arraycopy(hash, 0, leaves, i * FlatMerkleTree.HASH_LENGTH, FlatMerkleTree.HASH_LENGTH);
+            }
+        }
+        return Sha256Hash.wrapReversed(FlatMerkleTree.calculateRootInPlace(leaves, txs.size()));
+    }
+
+    @Override
+    public void makeSelfMutable() {
+        super.makeSelfMutable();
+        // Callers are free to modify the list of a mutable block. Once every transaction is parsed the block no
+        // longer needs its view of the payload.
+        if (getTransactionList() instanceof LazyTxList) {
+            setTransactions(new ArrayList<>(getTransactionList()));
+            txPayload = null;
+            txOffsets = null;
+        }
+    }
+
+    @Override
+    public FullBlock makeNew(byte[] serialized) {
+        return new LazyFullBlockBean(serialized);
+    }
+
+    private class LazyTxList extends AbstractList<Tx> implements RandomAccess {
+
+        private final AtomicReferenceArray<Tx> txs;
+
+        LazyTxList(int size) {
+            txs = new AtomicReferenceArray<>(size);
+        }
+
+        @Override
+        public Tx get(int index) {
+            Tx tx = txs.get(index);
+            if (tx == null) {
+                tx = new TxBean(LazyFullBlockBean.this, txPayload, txOffsets[index]);
+                // If another thread got there first use its copy, so each index only ever has one instance.
+                if (!txs.compareAndSet(index, null, tx))
+                    tx = txs.get(index);
+            }
+            return tx;
+        }
+
+        Tx parsed(int index) {
+            return txs.get(index);
+        }
+
+        int parsedCount() {
+            int count = 0;
+            for (int i = 0; i < txs.length(); i++)
+                if (txs.get(i) != null)
+                    count++;
+            return count;
+        }
+
+        @Override
+        public int size() {
+            return txs.length();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.bitcoin.bean.base;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Header;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.core.ProtocolException;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.VarInt;
+import io.bitcoinsv.bitcoinjsv.exception.VerificationException;
+import io.bitcoinsv.bitcoinjsv.merkle.MerkleAccumulator;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Parses a serialized block from a stream one transaction at a time, for blocks too large to hold in memory as a
+ * {@link FullBlockBean}. The header is read first, then {@link #next()} returns each transaction in turn. Only the
+ * transaction being parsed, a fixed size read buffer and the merkle frontier are held, so memory is bounded by the
+ * largest transaction rather than by the block.
+ *
+ * Each transaction is hashed from its bytes as they are read and its hash set on the returned {@link Tx}, and the
+ * merkle root is accumulated as the block goes by. Once every transaction has been read {@link #getMerkleRoot()}
+ * returns it, and {@link #verifyMerkleRoot()} checks it against the header.
+ *
+ * The returned transactions have no parent block. This class is not thread safe.
+ */
+public class StreamingBlockParser implements Iterator<Tx> {
+
+    /** Receives the parts of a block from {@link #parse(InputStream, Listener)}, in order. */
+    public interface Listener {
+        void onHeader(Header<?> header, long txCount);
+
+        void onTransaction(long index, Tx tx);
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final HashingInputStream in;
+    private final MerkleAccumulator merkle = new MerkleAccumulator();
+    private Header<?> header;
+    private long txCount;
+    private long txIndex;
+
+    public StreamingBlockParser(InputStream in, int bufferSize) {
+        this.in = new HashingInputStream(new BufferedInputStream(in, bufferSize));
+    }
+
+    public StreamingBlockParser(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Parses the whole block, passing the header and then every transaction to the listener, and checks the merkle
+     * root once the last transaction has been read.
+     * @return the header of the block
+     * @throws ProtocolException if the stream doesn't hold a well formed block
+     * @throws VerificationException if the transactions don't match the merkle root in the header
+     */
+    public static Header<?> parse(InputStream in, Listener listener) {
+        StreamingBlockParser parser = new StreamingBlockParser(in);
+        listener.onHeader(parser.getHeader(), parser.getTxCount());
+        while (parser.hasNext()) {
+            long index = parser.txIndex;
+            listener.onTransaction(index, parser.next());
+        }
+        parser.verifyMerkleRoot();
+        return parser.getHeader();
+    }
+
+    /** Returns the block header, reading it and the transaction count from the stream if that hasn't happened yet. */
+    public Header<?> getHeader() {
+        if (header == null) {
+            header = new HeaderBean(null, in);
+            try {
+                txCount = new VarInt(in).value;
+            } catch (IOException e) {
+                throw new ProtocolException("failed to read transaction count", e);
+            }
+            if (txCount < 1)
+                throw new ProtocolException("block has no transactions");
+        }
+        return header;
+    }
+
+    public long getTxCount() {
+        getHeader();
+        return txCount;
+    }
+
+    /** Returns the number of bytes read from the stream so far, which is the block size once it has all been read. */
+    public long getBytesRead() {
+        return in.count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return txIndex < getTxCount();
+    }
+
+    @Override
+    public Tx next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        in.resetDigest();
+        TxBean tx = new TxBean(null, in);
+        byte[] hash = in.digestTwice();
+        merkle.addInternal(hash);
+        // The hash field is set directly, a parsed transaction is immutable and setHash would refuse.
+        tx.hash = Sha256Hash.wrapReversed(hash);
+        txIndex++;
+        return tx;
+    }
+
+    /** Returns the merkle root calculated from the transactions, which must all have been read. */
+    public Sha256Hash getMerkleRoot() {
+        checkState(!hasNext(), "%s of %s transactions read", txIndex, txCount);
+        return merkle.getRoot();
+    }
+
+    /**
+     * Checks the calculated merkle root against the header.
+     * @throws VerificationException if they differ
+     */
+    public void verifyMerkleRoot() {
+        Sha256Hash calculated = getMerkleRoot();
+        if (!calculated.equals(header.getMerkleRoot()))
+            throw new VerificationException("Merkle hashes do not match: " + calculated + " vs " + header.getMerkleRoot());
+    }
+
+    /** Counts the bytes read through it, and hashes them between calls to {@link #resetDigest()}. */
+    private static class HashingInputStream extends FilterInputStream {
+
+        private final MessageDigest digest = Sha256Hash.newDigest();
+        private long count;
+
+        HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        void resetDigest() {
+            digest.reset();
+        }
+
+        /** Returns the double SHA256 of the bytes read since the last reset, in internal byte order. */
+        byte[] digestTwice() {
+            byte[] first = digest.digest();
+            return digest.digest(first);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                digest.update((byte) b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                digest.update(b, off, read);
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            throw new UnsupportedOperationException("skipped bytes would not be hashed");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -104,6 +104,8 @@ public class TxBean extends HashableImpl<Tx> implements Tx {
 
     @Override
     public Sha256Hash calculateHash() {
+        if (hasPayload())
+            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, getMessageSize()));
         Sha256Hash hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(serialize()));
         return hash;
     }
@@ -208,6 +210,7 @@ public class TxBean extends HashableImpl<Tx> implements Tx {
 
         // Now the outputs
         long numOutputs = new VarInt(in).value;
+        read += VarInt.sizeOf(numOutputs);
         outputs = new ArrayList<>((int) numOutputs);
         for (long i = 0; i < numOutputs; i++) {
             TxOutput output = new TxOutputBean(this, in);
@@ -222,6 +225,8 @@ public class TxBean extends HashableImpl<Tx> implements Tx {
 
     @Override
     public void serializeTo(OutputStream stream) throws IOException {
+        if (writePayloadTo(stream))
+            return;
         Utils.uint32ToByteStreamLE(version, stream);
         stream.write(new VarInt(inputs.size()).encode());
         for (TxInput in : inputs)
@@ -29,6 +29,10 @@ public class TxInputBean extends BitcoinObjectImpl<TxInput> implements TxInput {
     // is no input transaction, so instead the scriptBytes contains some extra stuff (like a rollover nonce) that we
     // don't care about much. The bytes are turned into a Script object (cached below) on demand via a getter.
     private byte[] scriptBytes;
+    // When sharing the parent's payload the script is left there until it is first asked for.
+    private boolean scriptInPayload;
+    private int scriptOffset;
+    private int scriptLength;
     // The Script object obtained from parsing scriptBytes. Only filled in on demand and if the transaction is not
     // coinbase.
     private Script scriptSig;
@@ -84,6 +88,7 @@ public class TxInputBean extends BitcoinObjectImpl<TxInput> implements TxInput {
     public byte[] getScriptBytes() {
         //never return null, use empty array instead but if scriptSig
         //is available to covert that to bytes
+        loadScriptBytes();
         if (scriptBytes == null || EMPTY_ARRAY == scriptBytes) {
             scriptBytes = scriptSig == null ? EMPTY_ARRAY : scriptSig.getProgram();
         }
@@ -99,6 +104,7 @@ public class TxInputBean extends BitcoinObjectImpl<TxInput> implements TxInput {
 
     @Override
     public Script getScriptSig() {
+        loadScriptBytes();
         if (scriptSig == null && scriptBytes != EMPTY_ARRAY)
             scriptSig = new Script(scriptBytes);
         return scriptSig;
@@ -124,12 +130,25 @@ public class TxInputBean extends BitcoinObjectImpl<TxInput> implements TxInput {
         this.value = value;
     }
 
+    private void loadScriptBytes() {
+        if (scriptInPayload) {
+            scriptBytes = copyPayload(scriptOffset, scriptLength);
+            scriptInPayload = false;
+        }
+    }
+
     @Override
     protected void parse() {
         outpoint = new TxOutPointBean(this, payload, cursor);
         cursor += outpoint.getMessageSize();
         int scriptLen = (int) readVarInt();
-        scriptBytes = readBytes(scriptLen);
+        if (sharesPayload()) {
+            scriptOffset = skipBytes(scriptLen);
+            scriptLength = scriptLen;
+            scriptInPayload = true;
+        } else {
+            scriptBytes = readBytes(scriptLen);
+        }
         sequenceNumber = readUint32();
     }
 
@@ -168,6 +187,8 @@ public class TxInputBean extends BitcoinObjectImpl<TxInput> implements TxInput {
 
     @Override
     public void makeSelfMutable() {
+        //the payload is about to be dropped
+        loadScriptBytes();
         super.makeSelfMutable();
         if (outpoint != null)
             outpoint.makeSelfMutable();
@@ -20,6 +20,9 @@ public class TxOutPointBean extends BitcoinObjectImpl<TxOutPoint> implements TxO
 
     /** Hash of the transaction to which we refer. */
     private Sha256Hash hash;
+    // When sharing the parent's payload the hash is left there until it is first asked for.
+    private boolean hashInPayload;
+    private int hashOffset;
     /** Which output of that transaction we are talking about. */
     private long index;
 
@@ -46,6 +49,10 @@ public class TxOutPointBean extends BitcoinObjectImpl<TxOutPoint> implements TxO
 
     @Override
     public Sha256Hash getHash() {
+        if (hashInPayload) {
+            hash = Sha256Hash.wrapReversed(copyPayload(hashOffset, Sha256Hash.LENGTH));
+            hashInPayload = false;
+        }
         return hash;
     }
 
@@ -68,13 +75,18 @@ public class TxOutPointBean extends BitcoinObjectImpl<TxOutPoint> implements TxO
 
     @Override
     protected void parse() {
-        hash = readHash();
+        if (sharesPayload()) {
+            hashOffset = skipBytes(Sha256Hash.LENGTH);
+            hashInPayload = true;
+        } else {
+            hash = readHash();
+        }
         index = readUint32();
     }
 
     @Override
     public void serializeTo(OutputStream stream) throws IOException {
-        stream.write(hash.getReversedBytes());
+        stream.write(getHash().getReversedBytes());
         Utils.uint32ToByteStreamLE(index, stream);
     }
 
@@ -89,11 +101,18 @@ public class TxOutPointBean extends BitcoinObjectImpl<TxOutPoint> implements TxO
         if (o == null || getClass() != o.getClass()) return false;
         TxOutPointBean that = (TxOutPointBean) o;
         return index == that.index &&
-                Objects.equals(hash, that.hash);
+                Objects.equals(getHash(), that.getHash());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(hash, index);
+        return Objects.hash(getHash(), index);
+    }
+
+    @Override
+    public void makeSelfMutable() {
+        //the payload is about to be dropped
+        getHash();
+        super.makeSelfMutable();
     }
 }
@@ -27,6 +27,10 @@ public class TxOutputBean extends BitcoinObjectImpl<TxOutput> implements TxOutpu
     // A transaction output has a script used for authenticating that the redeemer is allowed to spend
     // this output.
     private byte[] scriptBytes;
+    // When sharing the parent's payload the script is left there until it is first asked for.
+    private boolean scriptInPayload;
+    private int scriptOffset;
+    private int scriptLength;
 
     // The script bytes are parsed and turned into a Script on demand.
     private Script scriptPubKey;
@@ -62,6 +66,7 @@ public class TxOutputBean extends BitcoinObjectImpl<TxOutput> implements TxOutpu
     public byte[] getScriptBytes() {
         //never return null, use empty array instead but if scriptPubKey
         //is available to covert that to bytes
+        loadScriptBytes();
         if (scriptBytes == null || EMPTY_ARRAY == scriptBytes) {
             scriptBytes = scriptPubKey == null ? EMPTY_ARRAY : scriptPubKey.getProgram();
         }
@@ -89,11 +94,24 @@ public class TxOutputBean extends BitcoinObjectImpl<TxOutput> implements TxOutpu
         scriptBytes = scriptPubKey.getProgram();
     }
 
+    private void loadScriptBytes() {
+        if (scriptInPayload) {
+            scriptBytes = copyPayload(scriptOffset, scriptLength);
+            scriptInPayload = false;
+        }
+    }
+
     @Override
     protected void parse() {
         value = Coin.valueOf(readInt64());
         int scriptLen = (int) readVarInt();
-        scriptBytes = readBytes(scriptLen);
+        if (sharesPayload()) {
+            scriptOffset = skipBytes(scriptLen);
+            scriptLength = scriptLen;
+            scriptInPayload = true;
+        } else {
+            scriptBytes = readBytes(scriptLen);
+        }
     }
 
     @Override
@@ -110,6 +128,7 @@ public class TxOutputBean extends BitcoinObjectImpl<TxOutput> implements TxOutpu
 
     @Override
     public void serializeTo(OutputStream stream) throws IOException {
+        loadScriptBytes();
         checkNotNull(scriptBytes);
         Utils.int64ToByteStreamLE(value.value, stream);
         // TODO: Move script serialization into the Script class, where it belongs.
@@ -127,4 +146,11 @@ public class TxOutputBean extends BitcoinObjectImpl<TxOutput> implements TxOutpu
     public TxOutput makeNew(byte[] serialized) {
         return new TxOutputBean(serialized);
     }
+
+    @Override
+    public void makeSelfMutable() {
+        //the payload is about to be dropped
+        loadScriptBytes();
+        super.makeSelfMutable();
+    }
 }
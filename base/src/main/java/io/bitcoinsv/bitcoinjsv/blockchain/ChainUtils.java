@@ -4,6 +4,7 @@
  */
 package io.bitcoinsv.bitcoinjsv.blockchain;
 
+import com.google.common.collect.Lists;
 import io.bitcoinsv.bitcoinjsv.blockstore.BlockStore;
 import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
 import io.bitcoinsv.bitcoinjsv.exception.VerificationException;
@@ -42,10 +43,42 @@ public class ChainUtils {
         long[] timestamps = new long[11];
         int unused = 9;
         timestamps[10] = storedBlock.getHeader().getTime();
-        while (unused >= 0 && (storedBlock = store.getPrev(storedBlock)) != null)
-            timestamps[unused--] = storedBlock.getHeader().getTime();
+        if (isOnMainChain(storedBlock, store)) {
+            int height = storedBlock.getHeight();
+            for (LiteBlock<?> block : Lists.reverse(store.getRange(height - 10, height - 1)))
+                timestamps[unused--] = block.getHeader().getTime();
+        } else {
+            while (unused >= 0 && (storedBlock = store.getPrev(storedBlock)) != null)
+                timestamps[unused--] = storedBlock.getHeader().getTime();
+        }
 
         Arrays.sort(timestamps, unused+1, 11);
         return timestamps[unused + (11-unused)/2];
     }
+
+    /**
+     * Returns true if the given block is on the main chain of the store, that is it's the block
+     * {@link BlockStore#getByHeight(int)} returns for its height.
+     */
+    public static <B extends LiteBlock<?>> boolean isOnMainChain(B block, BlockStore<B> store) throws BlockStoreException {
+        B mainChainBlock = store.getByHeight(block.getHeight());
+        return mainChainBlock != null && mainChainBlock.getHash().equals(block.getHash());
+    }
+
+    /**
+     * Returns the ancestor of the given block at the given height, or null if the store doesn't hold it. For a block
+     * on the main chain this is a single height lookup, a block on a fork is walked back with
+     * {@link BlockStore#getPrev(Object)} until it joins the main chain.
+     */
+    public static <B extends LiteBlock<?>> B getAncestor(B block, int height, BlockStore<B> store) throws BlockStoreException {
+        if (height < 0 || height > block.getHeight())
+            return null;
+        B cursor = block;
+        while (cursor != null && cursor.getHeight() > height) {
+            if (isOnMainChain(cursor, store))
+                return store.getByHeight(height);
+            cursor = store.getPrev(cursor);
+        }
+        return cursor;
+    }
 }
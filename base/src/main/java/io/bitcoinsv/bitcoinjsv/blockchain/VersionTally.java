@@ -16,6 +16,7 @@
 
 package io.bitcoinsv.bitcoinjsv.blockchain;
 
+import com.google.common.collect.Lists;
 import io.bitcoinsv.bitcoinjsv.blockstore.BlockStore;
 import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
@@ -104,12 +105,18 @@ public class VersionTally {
 
         // We don't know how many blocks back we can go, so load what we can first
         versions.push(versionBlock.getHeader().getVersion());
-        for (int headOffset = 0; headOffset < versionWindow.length; headOffset++) {
-            versionBlock = blockStore.get(versionBlock.getHeader().getPrevBlockHash());
-            if (null == versionBlock) {
-                break;
+        if (ChainUtils.isOnMainChain(chainHead, blockStore)) {
+            int height = chainHead.getHeight();
+            for (LiteBlock<?> block : Lists.reverse(blockStore.getRange(height - versionWindow.length, height - 1)))
+                versions.push(block.getHeader().getVersion());
+        } else {
+            for (int headOffset = 0; headOffset < versionWindow.length; headOffset++) {
+                versionBlock = blockStore.get(versionBlock.getHeader().getPrevBlockHash());
+                if (null == versionBlock) {
+                    break;
+                }
+                versions.push(versionBlock.getHeader().getVersion());
             }
-            versions.push(versionBlock.getHeader().getVersion());
         }
 
         // Replay the versions into the tally
@@ -1,5 +1,6 @@
 package io.bitcoinsv.bitcoinjsv.blockchain.pow.rule;
 
+import io.bitcoinsv.bitcoinjsv.blockchain.ChainUtils;
 import io.bitcoinsv.bitcoinjsv.blockstore.BlockStore;
 import io.bitcoinsv.bitcoinjsv.blockchain.pow.AbstractPowRulesChecker;
 import io.bitcoinsv.bitcoinjsv.core.Utils;
@@ -30,13 +31,11 @@ public class DifficultyTransitionPointRuleChecker extends AbstractPowRulesChecke
     }
 
     private LiteBlock findLastBlockInterval(LiteBlock prevBlock, BlockStore<LiteBlock> blockStore) throws BlockStoreException {
-        LiteBlock cursor = blockStore.get(prevBlock.getHash());
-        for (int i = 0; i < networkParameters.getInterval() - 1; i++) {
-            if (cursor == null) {
-                throw new VerificationException("Difficulty transition point but we did " +
-                        "not find a way back to the genesis block.");
-            }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+        LiteBlock cursor = ChainUtils.getAncestor(prevBlock,
+                prevBlock.getHeight() - (networkParameters.getInterval() - 1), blockStore);
+        if (cursor == null) {
+            throw new VerificationException("Difficulty transition point but we did " +
+                    "not find a way back to the genesis block.");
         }
         return cursor;
     }
@@ -5,6 +5,7 @@
 package io.bitcoinsv.bitcoinjsv.blockchain.pow.rule;
 
 import com.google.common.base.Preconditions;
+import io.bitcoinsv.bitcoinjsv.blockchain.ChainUtils;
 import io.bitcoinsv.bitcoinjsv.blockchain.pow.AbstractPowRulesChecker;
 import io.bitcoinsv.bitcoinjsv.blockstore.BlockStore;
 import io.bitcoinsv.bitcoinjsv.core.Verification;
@@ -110,12 +111,9 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
     }
 
     private LiteBlock getFirst(LiteBlock storedPrev, BlockStore<LiteBlock>  blockStore) throws BlockStoreException {
-        LiteBlock first = storedPrev;
-        for (int i = AVERAGE_BLOCKS_PER_DAY; i > 0; --i) {
-            first = blockStore.getPrev(first);
-            if (first == null) {
-                throw new BlockStoreException("The previous block no longer exists");
-            }
+        LiteBlock first = ChainUtils.getAncestor(storedPrev, storedPrev.getHeight() - AVERAGE_BLOCKS_PER_DAY, blockStore);
+        if (first == null) {
+            throw new BlockStoreException("The previous block no longer exists");
         }
         return GetMostSuitableBlock(first, blockStore);
     }
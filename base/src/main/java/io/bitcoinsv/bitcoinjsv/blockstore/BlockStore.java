@@ -22,6 +22,9 @@ package io.bitcoinsv.bitcoinjsv.blockstore;
 import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
 import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An implementor of BlockStore saves StoredBlock objects to disk. Different implementations store them in
  * different ways. An in-memory implementation (MemoryBlockStore) exists for unit testing but real apps will want to
@@ -60,7 +63,30 @@ public interface BlockStore<V> {
      * Sets the {@link V} that represents the top of the chain of greatest total work.
      */
     void setChainHead(V chainHead) throws BlockStoreException;
-    
+
+    /**
+     * Returns the block at the given height on the main chain, that is the chain ending at {@link #getChainHead()}.
+     * Stores keep a height index of the main chain up to date in {@link #setChainHead(Object)}, so unlike walking
+     * back with {@link #getPrev(Object)} this runs in constant time. Returns null if the height is negative, above
+     * the chain head or no longer held by the store.
+     */
+    V getByHeight(int height) throws BlockStoreException;
+
+    /**
+     * Returns the main chain blocks from height {@code from} to {@code to} inclusive, in ascending height order.
+     * Heights the store doesn't hold are left out. As stores only ever drop their oldest headers the result is a
+     * contiguous run ending at {@code to}, as long as {@code to} is not above the chain head.
+     */
+    default List<V> getRange(int from, int to) throws BlockStoreException {
+        List<V> range = new ArrayList<>(Math.max(0, to - from + 1));
+        for (int height = Math.max(0, from); height <= to; height++) {
+            V block = getByHeight(height);
+            if (block != null)
+                range.add(block);
+        }
+        return range;
+    }
+
     /** Closes the store. */
     void close() throws BlockStoreException;
 }
@@ -32,6 +32,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * Similar to an SPVBlockstore except it maintains the full block header history.  It also loads and stores
  * all blocks headers in memory on startup.
  * <p>
+ * Alternatively the store can be opened in memory mapped mode, in which case the headers file is mapped read-only
+ * and only a compact off-heap index is built on startup, headers are decoded when they are asked for.
+ * See {@link MappedHeaderFile}.
+ * <p>
  * optionally can also store all coinbase transactions
  * FIXME coinbase functionality hasn't been ported into LiteBlock yet so this remains TODO
  *
@@ -111,6 +115,12 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
     private boolean hasTxids = false;
 
     private Map<Sha256Hash, LiteBlock> cache = new HashMap<Sha256Hash, LiteBlock>();
+    //Main chain by height, only used when the cache is.
+    private final HeightIndex heightIndex = new HeightIndex();
+
+    private final boolean memoryMapped;
+    //Only set in memory mapped mode, in which case the cache is not used.
+    private MappedHeaderFile mappedHeaders;
 
     public FullHeadersBlockStore(Net net, File dir) throws BlockStoreException {
         this(net, dir, false);
@@ -121,7 +131,17 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
     }
 
     public FullHeadersBlockStore(Net net, File dir, boolean storeCoinbase, boolean deleteExisting, boolean storeTxids) throws BlockStoreException {
+        this(net, dir, storeCoinbase, deleteExisting, storeTxids, false);
+    }
+
+    /**
+     * @param memoryMapped if true the headers file is memory mapped rather than loaded onto the heap, which makes
+     *                     startup much faster and keeps the header set out of the garbage collector's way.
+     */
+    public FullHeadersBlockStore(Net net, File dir, boolean storeCoinbase, boolean deleteExisting, boolean storeTxids,
+                                 boolean memoryMapped) throws BlockStoreException {
         this.net = net;
+        this.memoryMapped = memoryMapped;
         this.dir = dir;
         this.txIdDir = new File(dir, "txids");
         String prefix = net.name();
@@ -269,6 +289,8 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
             //FileUtil.saveBytesAsFile(header, headerOutputStream, false);
             try {
                 headerOutputStream.write(header);
+                if (memoryMapped)
+                    mappedHeaders = new MappedHeaderFile(headersFile, HEADER_MAGIC_BYTES.length);
             } catch (IOException e) {
                 throw new BlockStoreException(e);
             }
@@ -293,18 +315,26 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
         try {
             readMeta();
 
+            if (memoryMapped) {
+                initMappedStore();
+                return;
+            }
+
             byte[] bytes = FileUtil.getFileAsBytes(headersFile);
             int offset = 0;
             byte[] header = checkHeader(bytes, 0);
             offset += header.length;
 
-            while (offset <= bytes.length - COMPACT_SERIALIZED_SIZE()) {
+            // Headers are written as they are serialized, without the coinbase and txid data the flags leave room
+            // for in the metadata, so the last one would be skipped if that room were counted here.
+            while (offset <= bytes.length - LiteBlock.FIXED_MESSAGE_SIZE) {
 
                 final LiteBlock block = new LiteBlockBean(bytes, offset);
                 offset += block.getMessageSize();
                 cache.put(block.getHeader().getHash(), block);
 
             }
+            heightIndex.setHead(chainHead, cache::get);
 
         } finally {
             fileLock.unlock();
@@ -312,6 +342,30 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
 
     }
 
+    private void initMappedStore() throws BlockStoreException {
+        long startTime = System.currentTimeMillis();
+        try (RandomAccessFile raf = new RandomAccessFile(headersFile, "r")) {
+            byte[] magic = new byte[HEADER_MAGIC_BYTES.length];
+            raf.readFully(magic);
+            checkHeader(magic, 0);
+            mappedHeaders = new MappedHeaderFile(headersFile, magic.length);
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+
+        int head = mappedHeaders.find(chainHead.getHash());
+        if (head < 0) {
+            head = mappedHeaders.mostWorkRecord();
+            if (head < 0)
+                throw new BlockStoreException("No headers found in " + headersFile);
+            log.warn("Chain head {} not found in headers file, using the header with the most work instead",
+                    chainHead.getHash());
+            chainHead = mappedHeaders.get(head);
+        }
+        mappedHeaders.setMainChainHead(head);
+        log.info("Mapped {} headers in {}ms", mappedHeaders.size(), System.currentTimeMillis() - startTime);
+    }
+
     private void writeMeta() throws IOException {
         fileLock.lock();
 
@@ -325,6 +379,8 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
                     + (hasTxids ? FLAG_HAS_TX_IDS : 0);
             bos.write(flags);
             Utils.uint32ToByteStreamLE(txidFileNum, bos);
+            if (chainHead != null)
+                chainHead.serializeTo(bos);
 
             while (bos.size() < METADATA_BUFFER_SIZE())
                 bos.write(0);
@@ -365,7 +421,8 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
 
             chainHead = new LiteBlockBean(bytes, offset);
             offset += COMPACT_SERIALIZED_SIZE();
-            cache.put(chainHead.getHeader().getHash(), chainHead);
+            if (!memoryMapped)
+                cache.put(chainHead.getHeader().getHash(), chainHead);
 
         } finally {
             fileLock.unlock();
@@ -394,6 +451,13 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
     public Boolean put(LiteBlock block) throws BlockStoreException {
         fileLock.lock();
         try {
+            if (mappedHeaders != null) {
+                if (mappedHeaders.find(block.getHash()) >= 0)
+                    return false;
+                block.serializeTo(headerOutputStream);
+                mappedHeaders.add(block);
+                return true;
+            }
 
             LiteBlock cached = cache.put(block.getHeader().getHash(), block);
             if (cached != null) {
@@ -556,7 +620,16 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
     }
 
     public LiteBlock get(Sha256Hash hash) throws BlockStoreException {
-        return cache.get(hash);
+        if (mappedHeaders == null)
+            return cache.get(hash);
+
+        fileLock.lock();
+        try {
+            int record = mappedHeaders.find(hash);
+            return record < 0 ? null : mappedHeaders.get(record);
+        } finally {
+            fileLock.unlock();
+        }
     }
 
     @Override
@@ -574,6 +647,13 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
             if (newChainHead.equals(chainHead))
                 return;
             chainHead = newChainHead;
+            if (mappedHeaders != null) {
+                int record = mappedHeaders.find(newChainHead.getHash());
+                if (record >= 0)
+                    mappedHeaders.setMainChainHead(record);
+            } else {
+                heightIndex.setHead(newChainHead, cache::get);
+            }
             writeMeta();
         } catch (IOException e) {
             throw new BlockStoreException("Error writing metadata", e);
@@ -582,8 +662,23 @@ public class FullHeadersBlockStore implements BlockStore<LiteBlock>  {
         }
     }
 
+    @Override
+    public LiteBlock<?> getByHeight(int height) throws BlockStoreException {
+        fileLock.lock();
+        try {
+            if (mappedHeaders == null)
+                return heightIndex.get(height, cache::get);
+            int record = mappedHeaders.getMainChainRecord(height);
+            return record < 0 ? null : mappedHeaders.get(record);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
     public void close() throws BlockStoreException {
         try {
+            if (mappedHeaders != null)
+                mappedHeaders.close();
             metadataRaf.close();
             cbDataRaf.close();
         } catch (IOException ex){
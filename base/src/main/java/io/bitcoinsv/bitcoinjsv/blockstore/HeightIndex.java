@@ -0,0 +1,63 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.blockstore;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
+
+import java.util.ArrayList;
+
+/**
+ * A dense height to block hash array of the main chain, for stores that keep their headers on heap. Used to implement
+ * {@link BlockStore#getByHeight(int)}. Blocks are resolved through the owning store, so one it no longer holds is
+ * not returned.
+ *
+ * This class is not thread safe, callers are expected to hold the lock of the owning store.
+ */
+class HeightIndex {
+
+    /** Looks a block up by hash in the owning store. */
+    interface Lookup {
+        LiteBlock<?> get(Sha256Hash hash) throws BlockStoreException;
+    }
+
+    private final ArrayList<Sha256Hash> hashes = new ArrayList<>();
+
+    /**
+     * Makes the given block the tip of the main chain. Heights above it are dropped and the array is rewritten
+     * walking back from the new tip until it meets a block that is already on the main chain, so a reorg only
+     * costs its own depth.
+     */
+    void setHead(LiteBlock<?> head, Lookup lookup) throws BlockStoreException {
+        int headHeight = head.getHeight();
+        while (hashes.size() > headHeight + 1)
+            hashes.remove(hashes.size() - 1);
+        while (hashes.size() <= headHeight)
+            hashes.add(null);
+
+        LiteBlock<?> cursor = head;
+        while (cursor != null && cursor.getHeight() >= 0) {
+            if (cursor.getHash().equals(hashes.get(cursor.getHeight())))
+                break;
+            hashes.set(cursor.getHeight(), cursor.getHash());
+            if (cursor.getHeight() == 0)
+                break;
+            cursor = lookup.get(cursor.getPrevBlockHash());
+        }
+    }
+
+    /** Returns the main chain block at the given height, or null if unknown or no longer held by the store. */
+    LiteBlock<?> get(int height, Lookup lookup) throws BlockStoreException {
+        if (height < 0 || height >= hashes.size())
+            return null;
+        Sha256Hash hash = hashes.get(height);
+        return hash == null ? null : lookup.get(hash);
+    }
+
+    void clear() {
+        hashes.clear();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.blockstore;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Header;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.BlockMeta;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.ChainInfo;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.extended.LiteBlockBean;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A read-only memory mapping of the headers file written by {@link FullHeadersBlockStore}, used when the store is
+ * opened in memory mapped mode. Rather than materialising every header as a {@link LiteBlock} on startup only an
+ * {@link OffHeapHashIndex} of the records and an off-heap height to record array for the main chain are built;
+ * blocks are decoded from the mapping when they are asked for.
+ *
+ * Headers added after the file was mapped are kept on heap (there are only as many of them as the process has
+ * seen since startup) and are picked up by the mapping the next time the store is opened.
+ *
+ * This class is not thread safe, callers are expected to hold the lock of the owning store.
+ */
+class MappedHeaderFile {
+
+    static final int RECORD_SIZE = LiteBlock.FIXED_MESSAGE_SIZE;
+
+    private static final int PREV_HASH_OFFSET = 4;
+    private static final int CHAIN_WORK_OFFSET = Header.FIXED_MESSAGE_SIZE + BlockMeta.FIXED_MESSAGE_SIZE;
+    private static final int HEIGHT_OFFSET = CHAIN_WORK_OFFSET + ChainInfo.CHAIN_WORK_BYTES;
+    // Number of records each task hashes when building the index.
+    private static final int HASHING_BATCH = 16 * 1024;
+
+    private MappedByteBuffer buffer;
+    private final int dataOffset;
+    private final int mappedRecords;
+    private final List<LiteBlock<?>> appended = new ArrayList<>();
+    private final OffHeapHashIndex hashIndex;
+
+    // Record number of the main chain block at each height, -1 where unknown.
+    private IntBuffer mainChain;
+    private int mainChainHeight = -1;
+
+    /**
+     * Maps the given file and indexes every complete record found after the first {@code dataOffset} bytes.
+     */
+    MappedHeaderFile(File file, int dataOffset) throws IOException {
+        this.dataOffset = dataOffset;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            int records = (int) Math.max(0, (length - dataOffset) / RECORD_SIZE);
+            this.mappedRecords = records;
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, dataOffset + (long) records * RECORD_SIZE);
+            this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        // Leave some room for the headers that will be added while running.
+        hashIndex = new OffHeapHashIndex(mappedRecords + mappedRecords / 8);
+        hashIndex.ensureCapacity(mappedRecords);
+        hashRecords();
+        for (int record = 0; record < mappedRecords; record++)
+            hashIndex.index(record);
+        mainChain = allocateHeights(mappedRecords + 1024);
+    }
+
+    /**
+     * Double hashes the 80 byte header of every mapped record. This dominates startup time so it is spread over
+     * the common fork join pool in batches, each with its own digest.
+     */
+    private void hashRecords() {
+        int batches = (mappedRecords + HASHING_BATCH - 1) / HASHING_BATCH;
+        IntStream.range(0, batches).parallel().forEach(batch -> {
+            MessageDigest digest = Sha256Hash.newDigest();
+            ByteBuffer view = buffer.duplicate();
+            byte[] header = new byte[Header.FIXED_MESSAGE_SIZE];
+            int end = Math.min(mappedRecords, (batch + 1) * HASHING_BATCH);
+            for (int record = batch * HASHING_BATCH; record < end; record++) {
+                view.position(offsetOf(record));
+                view.get(header);
+                digest.update(header);
+                byte[] hash = digest.digest(digest.digest());
+                hashIndex.setHash(record, Utils.reverseBytes(hash));
+            }
+        });
+    }
+
+    /** Returns the total number of records, mapped and appended. */
+    int size() {
+        return mappedRecords + appended.size();
+    }
+
+    /** Returns the record holding the given hash, or -1. */
+    int find(Sha256Hash hash) {
+        return hashIndex.find(hash.getBytes());
+    }
+
+    /** Returns the block held in the given record, decoding it from the mapping if necessary. */
+    LiteBlock<?> get(int record) {
+        if (record >= mappedRecords)
+            return appended.get(record - mappedRecords);
+        byte[] bytes = new byte[RECORD_SIZE];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offsetOf(record));
+        view.get(bytes);
+        return new LiteBlockBean<>(bytes, 0);
+    }
+
+    /**
+     * Adds a block that has just been appended to the underlying file.
+     *
+     * @return false if a block with the same hash is already present, in which case nothing is added.
+     */
+    boolean add(LiteBlock<?> block) {
+        byte[] hash = block.getHash().getBytes();
+        if (hashIndex.find(hash) >= 0)
+            return false;
+        hashIndex.put(size(), hash);
+        appended.add(block);
+        return true;
+    }
+
+    /** Returns the height stored in the given record. */
+    int heightOf(int record) {
+        if (record >= mappedRecords)
+            return appended.get(record - mappedRecords).getHeight();
+        return buffer.getInt(offsetOf(record) + HEIGHT_OFFSET);
+    }
+
+    /** Returns the record of the given record's parent, or -1 if it isn't in the file. */
+    int prevOf(int record) {
+        if (record >= mappedRecords)
+            return find(appended.get(record - mappedRecords).getPrevBlockHash());
+        byte[] prevHash = new byte[Sha256Hash.LENGTH];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offsetOf(record) + PREV_HASH_OFFSET);
+        view.get(prevHash);
+        return hashIndex.find(Utils.reverseBytes(prevHash));
+    }
+
+    /**
+     * Returns the mapped record with the most chain work, or -1 if nothing is mapped. Only used to recover when the
+     * chain head recorded in the metadata file can't be found.
+     */
+    int mostWorkRecord() {
+        int best = -1;
+        for (int record = 0; record < mappedRecords; record++) {
+            if (best < 0 || compareChainWork(record, best) > 0)
+                best = record;
+        }
+        return best;
+    }
+
+    private int compareChainWork(int a, int b) {
+        // Chain work is stored as a fixed width unsigned big endian number.
+        int offsetA = offsetOf(a) + CHAIN_WORK_OFFSET;
+        int offsetB = offsetOf(b) + CHAIN_WORK_OFFSET;
+        for (int i = 0; i < ChainInfo.CHAIN_WORK_BYTES; i++) {
+            int cmp = Integer.compare(buffer.get(offsetA + i) & 0xff, buffer.get(offsetB + i) & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * Makes the given record the tip of the main chain. The height array is rewritten walking back from the new
+     * tip until it meets a record that is already on the main chain, so a reorg only costs its own depth.
+     */
+    void setMainChainHead(int head) {
+        int headHeight = heightOf(head);
+        if (headHeight >= mainChain.capacity()) {
+            IntBuffer grown = allocateHeights(headHeight + headHeight / 8 + 1024);
+            for (int height = 0; height <= mainChainHeight; height++)
+                grown.put(height, mainChain.get(height));
+            mainChain = grown;
+        }
+        for (int height = headHeight + 1; height <= mainChainHeight; height++)
+            mainChain.put(height, -1);
+        mainChainHeight = headHeight;
+
+        int record = head;
+        while (record >= 0) {
+            int height = heightOf(record);
+            if (mainChain.get(height) == record)
+                break;
+            mainChain.put(height, record);
+            record = prevOf(record);
+        }
+    }
+
+    /** Returns the main chain record at the given height, or -1 if unknown or above the tip. */
+    int getMainChainRecord(int height) {
+        if (height < 0 || height > mainChainHeight)
+            return -1;
+        return mainChain.get(height);
+    }
+
+    int getMainChainHeight() {
+        return mainChainHeight;
+    }
+
+    void close() {
+        if (System.getProperty("os.name").toLowerCase().contains("win"))
+            WindowsMMapHack.forceRelease(buffer);
+        buffer = null;
+    }
+
+    private int offsetOf(int record) {
+        return dataOffset + record * RECORD_SIZE;
+    }
+
+    private static IntBuffer allocateHeights(int size) {
+        IntBuffer heights = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < size; i++)
+            heights.put(i, -1);
+        return heights;
+    }
+}
@@ -36,6 +36,7 @@ public class MemoryBlockStore implements BlockStore<LiteBlock>  {
             return blockMap.size() > 5000;
         }
     };
+    private final HeightIndex heightIndex = new HeightIndex();
     private LiteBlock chainHead;
     private NetworkParameters params;
 
@@ -80,9 +81,16 @@ public class MemoryBlockStore implements BlockStore<LiteBlock>  {
     }
 
     @Override
-    public final void setChainHead(LiteBlock chainHead) throws BlockStoreException {
+    public synchronized final void setChainHead(LiteBlock chainHead) throws BlockStoreException {
         if (blockMap == null) throw new BlockStoreException("MemoryBlockStore is closed");
         this.chainHead = chainHead;
+        heightIndex.setHead(chainHead, blockMap::get);
+    }
+
+    @Override
+    public synchronized LiteBlock<?> getByHeight(int height) throws BlockStoreException {
+        if (blockMap == null) throw new BlockStoreException("MemoryBlockStore is closed");
+        return heightIndex.get(height, blockMap::get);
     }
     
     @Override
@@ -0,0 +1,163 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.blockstore;
+
+import com.google.common.primitives.Longs;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An append only index from hash to record number, held entirely in direct (off-heap) buffers so that a multi
+ * million entry header set stays out of the garbage collector's way. Records are numbered 0..n-1 in the order
+ * they were added. For every record the full 32 byte hash is kept, plus one slot in an open addressing
+ * (linear probing) table, which adds up to roughly 40 bytes per record.
+ *
+ * Hashes may be written with {@link #setHash(int, byte[])} and indexed later with {@link #index(int)}. This allows
+ * the (expensive) hashing to be done in parallel, as long as each thread writes to its own records.
+ *
+ * This class is not thread safe, callers are expected to hold the lock of the owning store.
+ */
+class OffHeapHashIndex {
+
+    private static final int HASH_LENGTH = Sha256Hash.LENGTH;
+
+    private ByteBuffer hashes;
+    private int hashCapacity;
+    // Record number + 1 for every used slot, 0 means the slot is empty.
+    private IntBuffer table;
+    private int mask;
+    private int indexed;
+
+    OffHeapHashIndex(int initialCapacity) {
+        hashCapacity = Math.max(initialCapacity, 1024);
+        hashes = ByteBuffer.allocateDirect(hashCapacity * HASH_LENGTH);
+        allocateTable(tableSizeFor(hashCapacity));
+    }
+
+    /** Makes sure records up to (but not including) the given number can be stored. */
+    void ensureCapacity(int records) {
+        if (records <= hashCapacity)
+            return;
+        int newCapacity = Math.max(records, hashCapacity + (hashCapacity >> 1));
+        ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity * HASH_LENGTH);
+        ByteBuffer old = hashes.duplicate();
+        old.clear();
+        grown.put(old);
+        hashes = grown;
+        hashCapacity = newCapacity;
+    }
+
+    /** Stores the hash of the given record without adding it to the lookup table. */
+    void setHash(int record, byte[] hash) {
+        int offset = record * HASH_LENGTH;
+        for (int i = 0; i < HASH_LENGTH; i++)
+            hashes.put(offset + i, hash[i]);
+    }
+
+    /** Copies the hash of the given record into {@code dest}. */
+    void getHash(int record, byte[] dest) {
+        int offset = record * HASH_LENGTH;
+        for (int i = 0; i < HASH_LENGTH; i++)
+            dest[i] = hashes.get(offset + i);
+    }
+
+    /**
+     * Adds a record, whose hash has already been stored, to the lookup table. If the same hash is already indexed
+     * against an earlier record that record is kept.
+     *
+     * @return true if the record was added, false if its hash was already indexed.
+     */
+    boolean index(int record) {
+        if ((indexed + 1) * 2 > table.capacity())
+            rehash(table.capacity() * 2);
+        int offset = record * HASH_LENGTH;
+        int i = slotFor(offset);
+        for (int entry; (entry = table.get(i)) != 0; i = (i + 1) & mask) {
+            if (hashEquals(entry - 1, offset))
+                return false;
+        }
+        table.put(i, record + 1);
+        indexed++;
+        return true;
+    }
+
+    /** Convenience for {@link #setHash(int, byte[])} followed by {@link #index(int)}. */
+    boolean put(int record, byte[] hash) {
+        ensureCapacity(record + 1);
+        setHash(record, hash);
+        return index(record);
+    }
+
+    /** Returns the record number for the given hash, or -1 if it isn't indexed. */
+    int find(byte[] hash) {
+        int i = (int) (fingerprint(hash) & mask);
+        for (int entry; (entry = table.get(i)) != 0; i = (i + 1) & mask) {
+            if (hashEquals(entry - 1, hash))
+                return entry - 1;
+        }
+        return -1;
+    }
+
+    /** Returns the number of distinct hashes in the index. */
+    int size() {
+        return indexed;
+    }
+
+    private void rehash(int newSize) {
+        IntBuffer old = table;
+        allocateTable(newSize);
+        for (int i = 0; i < old.capacity(); i++) {
+            int entry = old.get(i);
+            if (entry == 0)
+                continue;
+            int slot = slotFor((entry - 1) * HASH_LENGTH);
+            while (table.get(slot) != 0)
+                slot = (slot + 1) & mask;
+            table.put(slot, entry);
+        }
+    }
+
+    private void allocateTable(int size) {
+        table = ByteBuffer.allocateDirect(size * 4).asIntBuffer();
+        mask = size - 1;
+    }
+
+    private static int tableSizeFor(int records) {
+        // Keep the load factor at or below 0.5 so probe sequences stay short.
+        return Integer.highestOneBit(records * 2 - 1) << 1;
+    }
+
+    private boolean hashEquals(int record, byte[] hash) {
+        int offset = record * HASH_LENGTH;
+        // Compare from the end, the leading bytes of block hashes are mostly zero.
+        for (int i = HASH_LENGTH - 1; i >= 0; i--) {
+            if (hashes.get(offset + i) != hash[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean hashEquals(int record, int otherOffset) {
+        int offset = record * HASH_LENGTH;
+        for (int i = HASH_LENGTH - 8; i >= 0; i -= 8) {
+            if (hashes.getLong(offset + i) != hashes.getLong(otherOffset + i))
+                return false;
+        }
+        return true;
+    }
+
+    private int slotFor(int hashOffset) {
+        return (int) (hashes.getLong(hashOffset + HASH_LENGTH - 8) & mask);
+    }
+
+    private static long fingerprint(byte[] hash) {
+        // Use the last 8 bytes, not the first which are often zeros in Bitcoin.
+        int n = hash.length;
+        return Longs.fromBytes(hash[n - 8], hash[n - 7], hash[n - 6], hash[n - 5],
+                hash[n - 4], hash[n - 3], hash[n - 2], hash[n - 1]);
+    }
+}
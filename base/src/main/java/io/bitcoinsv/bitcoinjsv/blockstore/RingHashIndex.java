@@ -0,0 +1,122 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.blockstore;
+
+import com.google.common.primitives.Longs;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing (linear probing) index from block hash to record number for a fixed size ring of records,
+ * as used by {@link SPVBlockStore}. Only a 64 bit fingerprint of each hash is kept on heap, the full hash is
+ * confirmed against the ring itself through a {@link RecordMatcher} so the index costs 12-16 bytes per record
+ * regardless of how large the records are.
+ *
+ * Records are identified by their position in the ring (0 to capacity - 1). When the ring wraps and a record is
+ * overwritten the previous occupant is dropped from the index before the new one is added.
+ *
+ * This class is not thread safe, callers are expected to hold the lock of the owning store.
+ */
+class RingHashIndex {
+
+    /** Confirms that the record at the given position holds the given hash. */
+    interface RecordMatcher {
+        boolean matches(int record, byte[] hash);
+    }
+
+    private static final int EMPTY = -1;
+
+    private final int[] table;
+    private final int mask;
+    // Fingerprint of the hash currently stored in each record, indexed by record number.
+    private final long[] fingerprints;
+
+    RingHashIndex(int capacity) {
+        // Keep the load factor at or below 0.5 so probe sequences stay short.
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+        fingerprints = new long[capacity];
+        clear();
+    }
+
+    /** Removes all entries from the index. */
+    void clear() {
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Returns the record number holding the given hash, or -1 if the hash is not in the index.
+     */
+    int find(byte[] hash, RecordMatcher matcher) {
+        long fingerprint = fingerprint(hash);
+        for (int i = slotFor(fingerprint); ; i = (i + 1) & mask) {
+            int record = table[i];
+            if (record == EMPTY)
+                return -1;
+            if (fingerprints[record] == fingerprint && matcher.matches(record, hash))
+                return record;
+        }
+    }
+
+    /**
+     * Indexes the given hash as living in the given record. Any hash previously held by the record is removed
+     * and, if the same hash was already indexed against another record, the newer record wins.
+     */
+    void put(int record, byte[] hash, RecordMatcher matcher) {
+        remove(record);
+        long fingerprint = fingerprint(hash);
+        int i = slotFor(fingerprint);
+        for (; table[i] != EMPTY; i = (i + 1) & mask) {
+            int existing = table[i];
+            if (fingerprints[existing] == fingerprint && matcher.matches(existing, hash))
+                break;
+        }
+        fingerprints[record] = fingerprint;
+        table[i] = record;
+    }
+
+    /** Removes the given record from the index if it is present. */
+    void remove(int record) {
+        for (int i = slotFor(fingerprints[record]); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == record) {
+                deleteAt(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Backward shift deletion: entries following the hole are moved into it unless doing so would place them
+     * before their home slot, so that lookups never need tombstones.
+     */
+    private void deleteAt(int hole) {
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            int record = table[j];
+            if (record == EMPTY)
+                break;
+            int home = slotFor(fingerprints[record]);
+            boolean canMove = j > hole ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (canMove) {
+                table[hole] = record;
+                hole = j;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    private int slotFor(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    private static long fingerprint(byte[] hash) {
+        // Use the last 8 bytes, not the first which are often zeros in Bitcoin.
+        int n = hash.length;
+        return Longs.fromBytes(hash[n - 8], hash[n - 7], hash[n - 6], hash[n - 5],
+                hash[n - 4], hash[n - 3], hash[n - 2], hash[n - 1]);
+    }
+}
@@ -25,6 +25,7 @@ import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
 import io.bitcoinsv.bitcoinjsv.bitcoin.bean.extended.LiteBlockBean;
 import io.bitcoinsv.bitcoinjsv.params.NetworkParameters;
 import io.bitcoinsv.bitcoinjsv.utils.Threading;
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,6 +90,12 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
             return size() > 100;  // This was chosen arbitrarily.
         }
     };
+    // Maps block hashes to their record in the ring so that cache misses don't have to scan the whole buffer.
+    protected RingHashIndex hashIndex;
+    // The record of the main chain block at each height, slotted by height modulo the ring size. The height is kept
+    // alongside the record as every height numHeaders apart shares a slot.
+    protected int[] mainChainRecords;
+    protected int[] mainChainHeights;
     // Used to stop other applications/processes from opening the store.
     protected FileLock fileLock = null;
     protected RandomAccessFile randomAccessFile = null;
@@ -98,10 +105,24 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
      * will block on disk.
      */
     public SPVBlockStore(NetworkParameters params, File file) throws BlockStoreException {
+        this(params, file, DEFAULT_NUM_HEADERS);
+    }
+
+    /**
+     * Creates and initializes an SPV block store that can hold the given number of headers. Will create the given
+     * file if it's missing. An existing file must have been created with the same capacity. This operation will
+     * block on disk.
+     */
+    public SPVBlockStore(NetworkParameters params, File file, int capacity) throws BlockStoreException {
         checkNotNull(file);
         this.params = checkNotNull(params);
+        checkArgument(capacity > 0, "capacity must be positive");
         try {
-            this.numHeaders = DEFAULT_NUM_HEADERS;
+            this.numHeaders = capacity;
+            this.hashIndex = new RingHashIndex(capacity);
+            this.mainChainRecords = new int[capacity];
+            this.mainChainHeights = new int[capacity];
+            Arrays.fill(mainChainHeights, -1);
             boolean exists = file.exists();
             // Set up the backing file.
             randomAccessFile = new RandomAccessFile(file, "rw");
@@ -133,6 +154,8 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
                 buffer.get(header);
                 if (!new String(header, "US-ASCII").equals(HEADER_MAGIC))
                     throw new BlockStoreException("Header bytes do not equal " + HEADER_MAGIC);
+                rebuildIndex();
+                rebuildMainChain();
             } else {
                 initNewStore(params);
             }
@@ -162,6 +185,54 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
         setChainHead(genesis);
     }
 
+    /**
+     * Indexes every record currently in the ring. Records are visited from oldest to newest so that if a header
+     * was stored more than once the most recent copy is the one found by {@link #get(Sha256Hash)}.
+     */
+    private void rebuildIndex() {
+        lock.lock();
+        try {
+            hashIndex.clear();
+            final int cursor = getRingCursor(buffer);
+            final int newest = cursor == getFileSize() ? numHeaders - 1 : recordAt(cursor) - 1;
+            byte[] hash = new byte[32];
+            for (int i = 1; i <= numHeaders; i++) {
+                int record = (newest + i) % numHeaders;
+                buffer.position(offsetOf(record));
+                buffer.get(hash);
+                if (isEmptyRecord(hash))
+                    continue;
+                hashIndex.put(record, hash, this::recordHashEquals);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fills the height slots walking back from the stored chain head. The head may have dropped out of the ring if
+     * headers were stored without moving it, in which case there is nothing to index.
+     */
+    private void rebuildMainChain() throws BlockStoreException {
+        byte[] headHash = new byte[32];
+        buffer.position(8);
+        buffer.get(headHash);
+        LiteBlock<?> head = get(Sha256Hash.wrap(headHash));
+        if (head != null) {
+            lock.lock();
+            try {
+                updateMainChain(head);
+            } finally { lock.unlock(); }
+        }
+    }
+
+    private static boolean isEmptyRecord(byte[] hash) {
+        for (byte b : hash)
+            if (b != 0)
+                return false;
+        return true;
+    }
+
     /** Returns the size in bytes of the file that is used to store the chain with the current parameters. */
     public final int getFileSize() {
         return RECORD_SIZE * numHeaders + FILE_PROLOGUE_BYTES /* extra kilobyte for stuff */;
@@ -185,6 +256,7 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
             buffer.put(hash.getBytes());
             buffer.put(block.serialize());
             setRingCursor(buffer, buffer.position());
+            hashIndex.put(recordAt(cursor), hash.getBytes(), this::recordHashEquals);
             blockCache.put(hash, block);
         } finally { lock.unlock(); }
 
@@ -207,8 +279,31 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
             if (notFoundCache.get(hash) != null)
                 return null;
 
-            // Starting from the current tip of the ring work backwards until we have either found the block or
-            // wrapped around.
+            int record = hashIndex.find(hash.getBytes(), this::recordHashEquals);
+            if (record >= 0) {
+                buffer.position(offsetOf(record) + 32);
+                LiteBlock storedBlock = new LiteBlockBean(Utils.bufferAsInputStream(buffer));
+                blockCache.put(hash, storedBlock);
+                return storedBlock;
+            }
+            // Not found.
+            notFoundCache.put(hash, notFoundMarker);
+            return null;
+        } catch (ProtocolException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Finds the record holding the given hash by walking the ring backwards from the tip, comparing every stored
+     * hash. This is how lookups worked before the ring was indexed and is kept so the two can be compared.
+     *
+     * @return the record number, or -1 if the hash is not in the ring.
+     */
+    @VisibleForTesting
+    int scanForRecord(Sha256Hash hash) {
+        lock.lock();
+        try {
             int cursor = getRingCursor(buffer);
             final int startingPoint = cursor;
             final int fileSize = getFileSize();
@@ -220,23 +315,21 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
                     // We hit the start, so wrap around.
                     cursor = fileSize - RECORD_SIZE;
                 }
-                // Cursor is now at the start of the next record to check, so read the hash and compare it.
                 buffer.position(cursor);
                 buffer.get(scratch);
-                if (Arrays.equals(scratch, targetHashBytes)) {
-                    // Found the target.
-                    //StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
-                    LiteBlock storedBlock = new LiteBlockBean(Utils.bufferAsInputStream(buffer));
-                    // LiteBlock storedBlock = buffer.
-                    blockCache.put(hash, storedBlock);
-                    return storedBlock;
-                }
+                if (Arrays.equals(scratch, targetHashBytes))
+                    return recordAt(cursor);
             } while (cursor != startingPoint);
-            // Not found.
-            notFoundCache.put(hash, notFoundMarker);
-            return null;
-        } catch (ProtocolException e) {
-            throw new RuntimeException(e);  // Cannot happen.
+            return -1;
+        } finally { lock.unlock(); }
+    }
+
+    /** Returns the record number that would be found by {@link #get(Sha256Hash)}, or -1 if there is none. */
+    @VisibleForTesting
+    int indexedRecord(Sha256Hash hash) {
+        lock.lock();
+        try {
+            return hashIndex.find(hash.getBytes(), this::recordHashEquals);
         } finally { lock.unlock(); }
     }
 
@@ -279,6 +372,56 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
             byte[] headHash = chainHead.getHeader().getHash().getBytes();
             buffer.position(8);
             buffer.put(headHash);
+            updateMainChain(chainHead);
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Walks back from the new chain head rewriting the height slots until it meets a block that is already on the
+     * main chain, so a reorg only costs its own depth. Stops early at blocks that have been dropped from the ring.
+     */
+    private void updateMainChain(LiteBlock<?> head) throws BlockStoreException {
+        LiteBlock<?> cursor = head;
+        for (int i = 0; i < numHeaders && cursor != null; i++) {
+            int record = hashIndex.find(cursor.getHash().getBytes(), this::recordHashEquals);
+            if (record < 0)
+                break;
+            int height = cursor.getHeight();
+            int slot = height % numHeaders;
+            if (mainChainRecords[slot] == record && mainChainHeights[slot] == height)
+                break;
+            mainChainRecords[slot] = record;
+            mainChainHeights[slot] = height;
+            if (height == 0)
+                break;
+            cursor = get(cursor.getPrevBlockHash());
+        }
+    }
+
+    /**
+     * Returns the main chain block at the given height. Only the most recent {@link #numHeaders} heights can be
+     * found, anything older has been overwritten in the ring.
+     */
+    @Override
+    @Nullable
+    public LiteBlock<?> getByHeight(int height) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        lock.lock();
+        try {
+            int headHeight = getChainHead().getHeight();
+            if (height < 0 || height > headHeight || height <= headHeight - numHeaders)
+                return null;
+            int slot = height % numHeaders;
+            if (mainChainHeights[slot] != height)
+                return null;
+            byte[] hash = new byte[32];
+            buffer.position(offsetOf(mainChainRecords[slot]));
+            buffer.get(hash);
+            LiteBlock<?> block = get(Sha256Hash.wrap(hash));
+            // The record may have been reused for a newer block since.
+            return block != null && block.getHeight() == height ? block : null;
         } finally { lock.unlock(); }
     }
 
@@ -316,6 +459,25 @@ public class SPVBlockStore implements BlockStore<LiteBlock>  {
     //   80 bytes of block header data
     protected static final int FILE_PROLOGUE_BYTES = 1024;
 
+    private int recordAt(int offset) {
+        return (offset - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+    }
+
+    private int offsetOf(int record) {
+        return FILE_PROLOGUE_BYTES + record * RECORD_SIZE;
+    }
+
+    /** Compares the hash stored at the start of the given record without moving the buffer position. */
+    private boolean recordHashEquals(int record, byte[] hash) {
+        final int offset = offsetOf(record);
+        // Compare from the end, the leading bytes of block hashes are mostly zero.
+        for (int i = hash.length - 1; i >= 0; i--) {
+            if (buffer.get(offset + i) != hash[i])
+                return false;
+        }
+        return true;
+    }
+
     /** Returns the offset from the file start where the latest block should be written (end of prev block). */
     private int getRingCursor(ByteBuffer buffer) {
         int c = buffer.getInt(4);
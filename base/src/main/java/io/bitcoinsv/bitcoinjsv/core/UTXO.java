@@ -21,6 +21,7 @@ import io.bitcoinsv.bitcoinjsv.script.Script;
 
 import java.io.*;
 import java.math.*;
+import java.util.Arrays;
 import java.util.Locale;
 
 // TODO: Fix this class: should not talk about addresses, height should be optional/support mempool height etc
@@ -33,7 +34,9 @@ import java.util.Locale;
 public class UTXO {
 
     private Coin value;
+    //one or the other is set at construction, the script parsed from the bytes when first asked for
     private Script script;
+    private byte[] scriptBytes;
     private Sha256Hash hash;
     private long index;
     private int height;
@@ -95,10 +98,9 @@ public class UTXO {
                 ((in.read() & 0xFF) << 8) |
                 ((in.read() & 0xFF) << 16) |
                 ((in.read() & 0xFF) << 24);
-        byte[] scriptBytes = new byte[scriptBytesLength];
+        scriptBytes = new byte[scriptBytesLength];
         if (in.read(scriptBytes) != scriptBytesLength)
             throw new EOFException();
-        script = new Script(scriptBytes);
 
         byte[] hashBytes = new byte[32];
         if (in.read(hashBytes) != 32)
@@ -127,9 +129,18 @@ public class UTXO {
 
     /** The Script object which you can use to get address, script bytes or script type. */
     public Script getScript() {
+        if (script == null)
+            script = new Script(scriptBytes);
         return script;
     }
 
+    /** The serialized script, which mustn't be modified. */
+    public byte[] getScriptBytes() {
+        if (scriptBytes == null)
+            scriptBytes = script.getProgram();
+        return scriptBytes;
+    }
+
     /** The hash of the transaction which holds this output. */
     public Sha256Hash getHash() {
         return hash;
@@ -173,10 +184,39 @@ public class UTXO {
         return getIndex() == other.getIndex() && getHash().equals(other.getHash());
     }
 
+    /**
+     * Returns the output in a compact form for holding in memory: the value and then the height and coinbase flag
+     * packed together, each as a {@link VarInt}, followed by the script bytes. The hash and index aren't included,
+     * being the key the record is held under, and nor is the address.
+     */
+    public byte[] serializeCompact() {
+        byte[] scriptBytes = getScriptBytes();
+        long heightAndCoinbase = ((long) height << 1) | (coinbase ? 1 : 0);
+        int valueSize = VarInt.sizeOf(value.value);
+        int heightSize = VarInt.sizeOf(heightAndCoinbase);
+        byte[] record = new byte[valueSize + heightSize + scriptBytes.length];
+        System.arraycopy(new VarInt(value.value).encode(), 0, record, 0, valueSize);
+        System.arraycopy(new VarInt(heightAndCoinbase).encode(), 0, record, valueSize, heightSize);
+        System.arraycopy(scriptBytes, 0, record, valueSize + heightSize, scriptBytes.length);
+        return record;
+    }
+
+    /** Reads an output of the given transaction hash and index from its {@link #serializeCompact()} form. */
+    public static UTXO parseCompact(Sha256Hash hash, long index, byte[] record) {
+        VarInt value = new VarInt(record, 0);
+        int offset = value.getOriginalSizeInBytes();
+        VarInt heightAndCoinbase = new VarInt(record, offset);
+        offset += heightAndCoinbase.getOriginalSizeInBytes();
+        UTXO utxo = new UTXO(hash, index, Coin.valueOf(value.value), (int) (heightAndCoinbase.value >>> 1),
+                (heightAndCoinbase.value & 1) == 1, null);
+        utxo.scriptBytes = Arrays.copyOfRange(record, offset, record.length);
+        return utxo;
+    }
+
     public void serializeToStream(OutputStream bos) throws IOException {
         Utils.uint64ToByteStreamLE(BigInteger.valueOf(value.value), bos);
 
-        byte[] scriptBytes = script.getProgram();
+        byte[] scriptBytes = getScriptBytes();
         bos.write(0xFF & scriptBytes.length);
         bos.write(0xFF & scriptBytes.length >> 8);
         bos.write(0xFF & (scriptBytes.length >> 16));
@@ -0,0 +1,208 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.core;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded cache of unspent outputs, keyed by outpoint, that holds each in its {@link UTXO#serializeCompact()} form.
+ * The outpoints sit side by side in one array of 36 byte keys and the records in another, found by open addressing
+ * with linear probing, so an entry costs its key, its record and a couple of slots rather than a {@link UTXO} with
+ * its hash, coin, parsed script and address, a map entry and a key object. The same heap holds several times as
+ * many coins, and adding and dropping them makes no garbage beyond the records themselves.
+ *
+ * When full, an entry is dropped to make room by the clock algorithm: each entry has a bit set when it is used, and
+ * a hand going round the table clears set bits and drops the first entry it finds unused since it last came by,
+ * which approximates least recently used without reordering anything on a hit.
+ *
+ * Lookups return a new {@link UTXO} parsed from the record. All methods are synchronized.
+ */
+public class UTXOCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1_000_000;
+    /** The most entries a cache can hold, whose keys, two slots each, still fit in one array. */
+    public static final int MAX_ENTRIES = 1 << 24;
+
+    private static final int KEY_LENGTH = 36;
+
+    private final int maxEntries;
+    private final int mask;
+    private final byte[] keys;
+    //null for an empty slot
+    private final byte[][] records;
+    private final boolean[] used;
+    private int size;
+    private int hand;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public UTXOCache(int maxEntries) {
+        checkArgument(maxEntries > 0 && maxEntries <= MAX_ENTRIES, "maxEntries out of range: %s", maxEntries);
+        this.maxEntries = maxEntries;
+        // At most half full, so probes stay short.
+        int slots = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.keys = new byte[slots * KEY_LENGTH];
+        this.records = new byte[slots][];
+        this.used = new boolean[slots];
+    }
+
+    /** Returns the output, or null if it isn't in the cache. */
+    public synchronized UTXO get(Sha256Hash hash, long index) {
+        int slot = find(hash.getBytes(), (int) index);
+        if (slot < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        used[slot] = true;
+        return UTXO.parseCompact(hash, index, records[slot]);
+    }
+
+    /** Adds the output, or replaces the one with the same outpoint, dropping another if the cache is full. */
+    public synchronized void put(UTXO utxo) {
+        byte[] record = utxo.serializeCompact();
+        byte[] hash = utxo.getHash().getBytes();
+        int index = (int) utxo.getIndex();
+        int slot = find(hash, index);
+        if (slot >= 0) {
+            records[slot] = record;
+            used[slot] = true;
+            return;
+        }
+        if (size == maxEntries)
+            evict();
+        slot = home(hash, index);
+        while (records[slot] != null)
+            slot = (slot + 1) & mask;
+        System.arraycopy(hash, 0, keys, slot * KEY_LENGTH, 32);
+        Utils.uint32ToByteArrayLE(index & 0xFFFFFFFFL, keys, slot * KEY_LENGTH + 32);
+        records[slot] = record;
+        used[slot] = true;
+        size++;
+    }
+
+    /** Drops the output if it is in the cache, returning whether it was. */
+    public synchronized boolean remove(Sha256Hash hash, long index) {
+        int slot = find(hash.getBytes(), (int) index);
+        if (slot < 0)
+            return false;
+        delete(slot);
+        return true;
+    }
+
+    private int find(byte[] hash, int index) {
+        int slot = home(hash, index);
+        while (records[slot] != null) {
+            int at = slot * KEY_LENGTH;
+            if (Utils.readUint32(keys, at + 32) == (index & 0xFFFFFFFFL)
+                    && Arrays.equals(keys, at, at + 32, hash, 0, 32))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Transaction hashes are already uniformly distributed, so some of their bits will do.
+    private int home(byte[] hash, int index) {
+        int h = (hash[0] & 0xFF) | (hash[1] & 0xFF) << 8 | (hash[2] & 0xFF) << 16 | (hash[3] & 0xFF) << 24;
+        return (h ^ index * 0x9E3779B9) & mask;
+    }
+
+    private int homeOf(int slot) {
+        int at = slot * KEY_LENGTH;
+        int h = (keys[at] & 0xFF) | (keys[at + 1] & 0xFF) << 8 | (keys[at + 2] & 0xFF) << 16 | (keys[at + 3] & 0xFF) << 24;
+        return (h ^ (int) Utils.readUint32(keys, at + 32) * 0x9E3779B9) & mask;
+    }
+
+    private void evict() {
+        while (true) {
+            hand = (hand + 1) & mask;
+            if (records[hand] == null)
+                continue;
+            if (used[hand]) {
+                used[hand] = false;
+                continue;
+            }
+            delete(hand);
+            evictions++;
+            return;
+        }
+    }
+
+    /**
+     * Empties the slot, then moves back any entry further along the run that would otherwise no longer be found
+     * from its home slot, so no tombstones are needed.
+     */
+    private void delete(int slot) {
+        int empty = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (records[next] == null)
+                break;
+            int home = homeOf(next);
+            // The entry can move to the empty slot unless its home lies cyclically after the empty slot.
+            boolean stays = empty <= next ? (home > empty && home <= next) : (home > empty || home <= next);
+            if (!stays) {
+                System.arraycopy(keys, next * KEY_LENGTH, keys, empty * KEY_LENGTH, KEY_LENGTH);
+                records[empty] = records[next];
+                used[empty] = used[next];
+                empty = next;
+            }
+        }
+        records[empty] = null;
+        used[empty] = false;
+        size--;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** Returns the number of outputs held. */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Returns the number of outputs dropped to make room for others. */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Returns the fraction of lookups that found the output, or 0 if there have been none. */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /** Drops every output and zeroes the counters. */
+    public synchronized void clear() {
+        Arrays.fill(records, null);
+        Arrays.fill(used, false);
+        size = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("UTXOCache{size=%d, maxEntries=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f}",
+                size, maxEntries, hits, misses, evictions, getHitRate());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.utils.Threading;
+import org.bitcoin.NativeSecp256k1;
+import org.bitcoin.NativeSecp256k1Util;
+import org.bitcoin.Secp256k1Context;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Verifies many ECDSA signatures at once, split over a fork join pool. Each {@link Check} keeps its signature in
+ * whichever form it was given, DER bytes or an {@link ECDSASignature}, and converts it at most once to the form the
+ * verifying library needs: DER for the native secp256k1 library, r and s for Bouncy Castle. With Bouncy Castle public
+ * keys are decoded through {@link ECDSA#getPublicKeyCache()}, so a key is decoded once however many signatures it made.
+ *
+ * Like {@link ECDSA#verify(byte[], ECDSASignature, byte[])}, every check passes while
+ * {@link ECDSA#FAKE_SIGNATURES} is set.
+ */
+public class BatchSignatureVerifier {
+
+    /** The number of signatures checked by one task, below which the work isn't split any further. */
+    public static final int CHECKS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+    private final boolean useNative;
+
+    /** Uses {@link Threading#COMPUTE_POOL}, and the native library if it is loaded. */
+    public BatchSignatureVerifier() {
+        this(Threading.COMPUTE_POOL, Secp256k1Context.isEnabled());
+    }
+
+    /**
+     * @param pool the pool to verify in
+     * @param useNative whether to verify with the native secp256k1 library, which must then be loaded
+     */
+    public BatchSignatureVerifier(ForkJoinPool pool, boolean useNative) {
+        checkNotNull(pool);
+        if (useNative && !Secp256k1Context.isEnabled())
+            throw new IllegalStateException("native secp256k1 library is not loaded");
+        this.pool = pool;
+        this.useNative = useNative;
+    }
+
+    /** One signature to check: the hash that was signed, the signature and the encoded public key. */
+    public static class Check {
+        private final byte[] hash;
+        private final byte[] pubKey;
+        // At least one is set. The other is filled in the first time it's needed, racing threads get equal values.
+        private volatile ECDSASignature signature;
+        private volatile byte[] derSignature;
+
+        public Check(byte[] hash, ECDSASignature signature, byte[] pubKey) {
+            this.hash = checkNotNull(hash);
+            this.signature = checkNotNull(signature);
+            this.pubKey = checkNotNull(pubKey);
+        }
+
+        private Check(byte[] hash, byte[] derSignature, byte[] pubKey) {
+            this.hash = checkNotNull(hash);
+            this.derSignature = checkNotNull(derSignature);
+            this.pubKey = checkNotNull(pubKey);
+        }
+
+        /** Makes a check of a DER encoded signature, without the sighash byte of a transaction signature. */
+        public static Check fromDER(byte[] hash, byte[] derSignature, byte[] pubKey) {
+            return new Check(hash, derSignature, pubKey);
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public byte[] getPubKey() {
+            return pubKey;
+        }
+
+        /** Returns the decoded signature, or null if the DER it was given doesn't decode. */
+        ECDSASignature getSignature() {
+            ECDSASignature sig = signature;
+            if (sig == null) {
+                try {
+                    signature = sig = ECDSASignature.decodeFromDER(derSignature);
+                } catch (RuntimeException e) {
+                    return null;
+                }
+            }
+            return sig;
+        }
+
+        byte[] getDERSignature() {
+            byte[] der = derSignature;
+            if (der == null)
+                derSignature = der = signature.encodeToDER();
+            return der;
+        }
+    }
+
+    /**
+     * Checks every signature.
+     * @return whether each check passed, in the order given
+     */
+    public boolean[] verify(List<Check> checks) {
+        Batch batch = new Batch(checks, false);
+        batch.run();
+        return batch.results;
+    }
+
+    /** Returns whether every signature is valid, stopping at the first that isn't. */
+    public boolean verifyAll(List<Check> checks) {
+        Batch batch = new Batch(checks, true);
+        batch.run();
+        return !batch.failed;
+    }
+
+    private class Batch {
+        final List<Check> checks;
+        final boolean stopOnFailure;
+        final boolean[] results;
+        volatile boolean failed;
+
+        Batch(List<Check> checks, boolean stopOnFailure) {
+            this.checks = checks;
+            this.stopOnFailure = stopOnFailure;
+            this.results = new boolean[checks.size()];
+        }
+
+        void run() {
+            if (ECDSA.FAKE_SIGNATURES) {
+                Arrays.fill(results, true);
+                return;
+            }
+            if (!checks.isEmpty())
+                pool.invoke(new VerifyTask(this, 0, checks.size()));
+        }
+
+        void verifyRange(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (stopOnFailure && failed)
+                    return;
+                boolean valid = verifyOne(checks.get(i));
+                results[i] = valid;
+                if (!valid)
+                    failed = true;
+            }
+        }
+
+        boolean verifyOne(Check check) {
+            if (useNative) {
+                try {
+                    return NativeSecp256k1.verify(check.hash, check.getDERSignature(), check.pubKey);
+                } catch (NativeSecp256k1Util.AssertFailException e) {
+                    return false;
+                }
+            }
+            ECDSASignature signature = check.getSignature();
+            if (signature == null)
+                return false;
+            ECPublicKeyParameters key;
+            try {
+                key = ECDSA.cachedPublicKey(check.pubKey);
+            } catch (RuntimeException e) {
+                // Malformed keys are rejected by Bouncy Castle with a variety of unchecked exceptions.
+                return false;
+            }
+            return ECDSA.verify(check.hash, signature, key);
+        }
+    }
+
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Batch batch;
+        private final int start;
+        private final int end;
+
+        VerifyTask(Batch batch, int start, int end) {
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CHECKS_PER_TASK) {
+                batch.verifyRange(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new VerifyTask(batch, start, middle), new VerifyTask(batch, middle, end));
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.spongycastle.crypto.signers.ECDSASigner;
 import org.spongycastle.crypto.signers.HMacDSAKCalculator;
 import org.spongycastle.math.ec.FixedPointUtil;
 
+import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
@@ -50,6 +51,12 @@ public class ECDSA {
     @VisibleForTesting
     public static boolean FAKE_SIGNATURES = false;
 
+    /**
+     * Decoded public keys, shared by every verification that is given encoded key bytes on the Bouncy Castle path.
+     */
+    @Nullable
+    private static volatile PublicKeyCache publicKeyCache = new PublicKeyCache(PublicKeyCache.DEFAULT_MAX_ENTRIES);
+
 
     static {
         // Init proper random number generator, as some old Android installations have bugs that make it unsecure.
@@ -89,9 +96,49 @@ public class ECDSA {
             }
         }
 
+        return verify(data, signature, cachedPublicKey(pub));
+    }
+
+    /** Returns the cache public keys are decoded through, or null if they are decoded every time. */
+    @Nullable
+    public static PublicKeyCache getPublicKeyCache() {
+        return publicKeyCache;
+    }
+
+    /** Sets the cache public keys are decoded through, to change its size, or null to decode keys every time. */
+    public static void setPublicKeyCache(@Nullable PublicKeyCache cache) {
+        publicKeyCache = cache;
+    }
+
+    /**
+     * Decodes public key bytes through {@link #getPublicKeyCache()}, or directly if there is no cache.
+     * @throws IllegalArgumentException if the bytes don't encode a point on the curve
+     */
+    public static ECPublicKeyParameters cachedPublicKey(byte[] pub) {
+        PublicKeyCache cache = publicKeyCache;
+        return cache != null ? cache.get(pub) : decodePublicKey(pub);
+    }
+
+    /**
+     * Decodes public key bytes, compressed or not, to the point used by {@link #verify(byte[], ECDSASignature,
+     * ECPublicKeyParameters)}. Decompressing the point is a large part of the cost of a verification, so it is
+     * worth keeping the result for a key that signs many times.
+     * @throws IllegalArgumentException if the bytes don't encode a point on the curve
+     */
+    public static ECPublicKeyParameters decodePublicKey(byte[] pub) {
+        return new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
+    }
+
+    /**
+     * Verifies the given ECDSA signature against a hash using a decoded public key, always in Bouncy Castle as the
+     * native library takes encoded keys.
+     */
+    public static boolean verify(byte[] data, ECDSASignature signature, ECPublicKeyParameters pub) {
+        if (FAKE_SIGNATURES)
+            return true;
+
         ECDSASigner signer = new ECDSASigner();
-        ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-        signer.init(false, params);
+        signer.init(false, pub);
         try {
             return signer.verifySignature(data, signature.r, signature.s);
         } catch (NullPointerException e) {
@@ -0,0 +1,36 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.utils.SegmentedLruCache;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded cache of decoded public keys, keyed by their encoded bytes, so that a key which signs many times is only
+ * decompressed once. The same keys turn up again and again in a block, from busy wallets and change addresses, and
+ * decoding is a large part of the cost of a Bouncy Castle verification.
+ */
+public class PublicKeyCache extends SegmentedLruCache<ByteBuffer, ECPublicKeyParameters> {
+
+    public static final int DEFAULT_MAX_ENTRIES = 50_000;
+
+    public PublicKeyCache(int maxEntries) {
+        super(maxEntries);
+    }
+
+    /**
+     * Returns the decoded key, decoding and keeping it if it isn't in the cache. Keys that don't decode aren't kept.
+     * @throws IllegalArgumentException if the bytes don't encode a point on the curve
+     */
+    public ECPublicKeyParameters get(byte[] pubKey) {
+        ECPublicKeyParameters decoded = lookup(ByteBuffer.wrap(pubKey));
+        if (decoded != null)
+            return decoded;
+        // Decode outside the lock, and copy the bytes so the caller can't change the key once it is stored.
+        return putIfAbsent(ByteBuffer.wrap(pubKey.clone()), ECDSA.decodePublicKey(pubKey));
+    }
+}
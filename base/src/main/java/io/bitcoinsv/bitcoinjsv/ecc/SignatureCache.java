@@ -0,0 +1,80 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.utils.SegmentedLruCache;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Remembers signatures that verified, so that a transaction checked on its way into the mempool isn't checked again
+ * when its block arrives. Like bitcoind's sigcache it holds a salted hash of each (sighash, signature, public key)
+ * triple rather than the triple itself: the salt is random per cache, so nobody can craft triples that collide in it,
+ * and 128 bits of the hash are kept, which is plenty to tell triples apart.
+ *
+ * Only valid signatures are added, and the least recently used are dropped once the cache is full.
+ */
+public class SignatureCache extends SegmentedLruCache<SignatureCache.Key, Boolean> {
+
+    /** About 32MB of entries, as bitcoind's default. */
+    public static final int DEFAULT_MAX_ENTRIES = 400_000;
+
+    private final byte[] salt = new byte[32];
+
+    public SignatureCache(int maxEntries) {
+        super(maxEntries);
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /** Returns whether the signature was added as valid for the hash and public key, counting a hit or a miss. */
+    public boolean contains(byte[] hash, byte[] signature, byte[] pubKey) {
+        return lookup(key(hash, signature, pubKey)) != null;
+    }
+
+    /** Records that the signature is valid for the hash and public key. */
+    public void add(byte[] hash, byte[] signature, byte[] pubKey) {
+        put(key(hash, signature, pubKey), Boolean.TRUE);
+    }
+
+    private Key key(byte[] hash, byte[] signature, byte[] pubKey) {
+        MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(salt);
+        digest.update(hash);
+        // The lengths keep the boundary between signature and key from moving.
+        digest.update((byte) signature.length);
+        digest.update((byte) (signature.length >> 8));
+        digest.update(signature);
+        digest.update(pubKey);
+        ByteBuffer bytes = ByteBuffer.wrap(digest.digest());
+        return new Key(bytes.getLong(), bytes.getLong());
+    }
+
+    static final class Key {
+        final long high;
+        final long low;
+
+        Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return high == key.high && low == key.low;
+        }
+
+        @Override
+        public int hashCode() {
+            // Already uniformly distributed.
+            return (int) low;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.utils.Threading;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * A bitcoin merkle tree held as flat arrays of 32 byte hashes in internal byte order, i.e. the reverse of
+ * {@link Sha256Hash#toString()}, which is the order they are hashed in. Nodes are hashed straight from and into the
+ * arrays with one reusable digest per thread of work, so no per node objects are allocated. The odd node at the end
+ * of a level is paired with itself, as the consensus rules require.
+ *
+ * There are three modes:
+ * <ul>
+ *     <li>{@link #calculateRoot(byte[], int)} reduces the leaves level by level in place and keeps nothing else.</li>
+ *     <li>{@link #calculateBranch(byte[], int, int)} does the same but records the branch of one leaf on the way.</li>
+ *     <li>{@link #build(byte[], int)} keeps every level, for repeated branch extraction.</li>
+ * </ul>
+ * Trees of at least {@link #PARALLEL_THRESHOLD} leaves have their lower levels hashed in parallel on
+ * {@link Threading#COMPUTE_POOL}, or a given pool.
+ */
+public class FlatMerkleTree {
+
+    public static final int HASH_LENGTH = 32;
+
+    /** Trees with fewer leaves than this are hashed on the calling thread. */
+    public static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    /**
+     * Leaves per parallel task. A power of two, so each task reduces a complete subtree, and small enough that a
+     * task's leaves stay in cache while its lower levels are hashed.
+     */
+    @VisibleForTesting
+    static final int CHUNK_LEAVES = 1 << 11;
+    private static final int CHUNK_LEVELS = Integer.numberOfTrailingZeros(CHUNK_LEAVES);
+
+    // Every level, leaves first, each stored from levelOffsets[level] (in nodes) for levelSizes[level] nodes.
+    private final byte[] nodes;
+    private final int[] levelOffsets;
+    private final int[] levelSizes;
+
+    private FlatMerkleTree(byte[] nodes, int[] levelOffsets, int[] levelSizes) {
+        this.nodes = nodes;
+        this.levelOffsets = levelOffsets;
+        this.levelSizes = levelSizes;
+    }
+
+    /** Returns the given hashes, in display byte order, as flat leaves in internal byte order. */
+    public static byte[] toLeaves(List<Sha256Hash> hashes) {
+        byte[] leaves = new byte[hashes.size() * HASH_LENGTH];
+        for (int i = 0; i < hashes.size(); i++)
+            setLeaf(leaves, i, hashes.get(i));
+        return leaves;
+    }
+
+    /** Writes a hash given in display byte order to the leaf at {@code index}, in internal byte order. */
+    public static void setLeaf(byte[] leaves, int index, Sha256Hash hash) {
+        byte[] bytes = hash.getBytes();
+        int base = index * HASH_LENGTH;
+        for (int i = 0; i < HASH_LENGTH; i++)
+            leaves[base + i] = bytes[HASH_LENGTH - 1 - i];
+    }
+
+    /** Returns the merkle root of the given hashes, all in display byte order. */
+    public static Sha256Hash calculateRoot(List<Sha256Hash> hashes) {
+        return Sha256Hash.wrapReversed(calculateRootInPlace(toLeaves(hashes), hashes.size()));
+    }
+
+    /** Returns the merkle root of the first {@code count} leaves, leaving the array untouched. */
+    public static byte[] calculateRoot(byte[] leaves, int count) {
+        return calculateRootInPlace(leaves.clone(), count);
+    }
+
+    /**
+     * Returns the merkle root of the first {@code count} leaves. The array is used as scratch space and its
+     * contents are undefined afterwards.
+     */
+    public static byte[] calculateRootInPlace(byte[] leaves, int count) {
+        return calculateRootInPlace(leaves, count, Threading.COMPUTE_POOL);
+    }
+
+    public static byte[] calculateRootInPlace(byte[] leaves, int count, ForkJoinPool pool) {
+        reduceInPlace(leaves, count, -1, null, pool);
+        return copyNode(leaves, 0);
+    }
+
+    /**
+     * Returns the branch of the leaf at {@code index}: its sibling at each level from the leaves up, in internal
+     * byte order. A node without a sibling is its own sibling. The array is used as scratch space and its contents
+     * are undefined afterwards. The root is left at the start of the array.
+     */
+    public static List<byte[]> calculateBranch(byte[] leaves, int count, int index) {
+        return calculateBranch(leaves, count, index, Threading.COMPUTE_POOL);
+    }
+
+    public static List<byte[]> calculateBranch(byte[] leaves, int count, int index, ForkJoinPool pool) {
+        checkElementIndex(index, count);
+        List<byte[]> branch = new ArrayList<>();
+        reduceInPlace(leaves, count, index, branch, pool);
+        return branch;
+    }
+
+    /** Builds and keeps every level of the tree of the first {@code count} leaves. The array is not kept. */
+    public static FlatMerkleTree build(byte[] leaves, int count) {
+        return build(leaves, count, Threading.COMPUTE_POOL);
+    }
+
+    public static FlatMerkleTree build(byte[] leaves, int count, ForkJoinPool pool) {
+        checkLeaves(leaves, count);
+        int levels = levelsAbove(count) + 1;
+        int[] levelOffsets = new int[levels];
+        int[] levelSizes = new int[levels];
+        int total = 0;
+        for (int level = 0, size = count; level < levels; level++, size = (size + 1) / 2) {
+            levelOffsets[level] = total;
+            levelSizes[level] = size;
+            total += size;
+        }
+        byte[] nodes = new byte[total * HASH_LENGTH];
+        System.arraycopy(leaves, 0, nodes, 0, count * HASH_LENGTH);
+        for (int level = 1; level < levels; level++) {
+            LevelTask task = new LevelTask(nodes, levelOffsets[level - 1], levelSizes[level - 1],
+                    levelOffsets[level], 0, levelSizes[level]);
+            if (levelSizes[level] * 2 >= PARALLEL_THRESHOLD)
+                pool.invoke(task);
+            else
+                task.compute();
+        }
+        return new FlatMerkleTree(nodes, levelOffsets, levelSizes);
+    }
+
+    public int getLeafCount() {
+        return levelSizes[0];
+    }
+
+    /** Returns the number of levels including the leaves and the root. */
+    public int getLevels() {
+        return levelSizes.length;
+    }
+
+    /** Returns a copy of a node in internal byte order. Level 0 holds the leaves. */
+    public byte[] getNode(int level, int index) {
+        checkElementIndex(index, levelSizes[level]);
+        return copyNode(nodes, levelOffsets[level] + index);
+    }
+
+    public byte[] getRootInternal() {
+        return getNode(levelSizes.length - 1, 0);
+    }
+
+    public Sha256Hash getRoot() {
+        return Sha256Hash.wrapReversed(getRootInternal());
+    }
+
+    /** As {@link #calculateBranch(byte[], int, int)}, from the stored levels. */
+    public List<byte[]> getBranchInternal(int index) {
+        checkElementIndex(index, getLeafCount());
+        List<byte[]> branch = new ArrayList<>(levelSizes.length - 1);
+        for (int level = 0; level < levelSizes.length - 1; level++) {
+            branch.add(copyNode(nodes, levelOffsets[level] + sibling(index, levelSizes[level])));
+            index >>= 1;
+        }
+        return branch;
+    }
+
+    /** Returns the branch of a leaf as a {@link MerkleBranch}, which works in display byte order. */
+    public MerkleBranch getBranch(int index) {
+        List<Sha256Hash> branch = new ArrayList<>(levelSizes.length - 1);
+        for (byte[] node : getBranchInternal(index))
+            branch.add(Sha256Hash.wrapReversed(node));
+        return new MerkleBranch(index, Sha256Hash.wrapReversed(getNode(0, index)), getRoot(), branch);
+    }
+
+    /** Returns the proof for the leaf at {@code index}. */
+    public MerkleProof getProof(int index) {
+        return new MerkleProof(index, getLeafCount(), getNode(0, index), getBranchInternal(index));
+    }
+
+    /**
+     * Returns the proofs for the leaves at the given indices, in the same order. The interior nodes are hashed once
+     * when the tree is built and shared by every proof, so a tree kept per block can serve proofs as fast as they
+     * can be copied out.
+     */
+    public List<MerkleProof> getProofs(int[] indices) {
+        List<MerkleProof> proofs = new ArrayList<>(indices.length);
+        for (int index : indices)
+            proofs.add(getProof(index));
+        return proofs;
+    }
+
+    /** Returns the proofs for the given leaves of the tree of the given txids, in display byte order. */
+    public static List<MerkleProof> calculateProofs(List<Sha256Hash> txids, int[] indices) {
+        return build(toLeaves(txids), txids.size()).getProofs(indices);
+    }
+
+    /**
+     * Reduces the leaves to the root, left at node 0. Large trees are cut into complete subtrees of
+     * {@link #CHUNK_LEAVES} that are reduced in parallel, each in its own part of the array, then their roots are
+     * gathered at the start of the array and reduced on this thread.
+     */
+    private static void reduceInPlace(byte[] buf, int count, int index, List<byte[]> branch, ForkJoinPool pool) {
+        checkLeaves(buf, count);
+        if (count < PARALLEL_THRESHOLD) {
+            reduce(buf, 0, count, levelsAbove(count), index, branch, Sha256Hash.newDigest());
+            return;
+        }
+        int chunks = (count + CHUNK_LEAVES - 1) / CHUNK_LEAVES;
+        pool.invoke(new ChunkTask(buf, count, 0, chunks, index, branch));
+        for (int chunk = 1; chunk < chunks; chunk++)
+            System.arraycopy(buf, chunk * CHUNK_LEAVES * HASH_LENGTH, buf, chunk * HASH_LENGTH, HASH_LENGTH);
+        reduce(buf, 0, chunks, levelsAbove(chunks), index >> CHUNK_LEVELS, branch, Sha256Hash.newDigest());
+    }
+
+    /**
+     * Hashes {@code count} nodes starting at node {@code from} up by exactly {@code levels} levels, in place, leaving
+     * the result at {@code from}. A lone node is paired with itself, which is what the tail of the last chunk of a
+     * tree needs to stand in for a full subtree. If {@code branch} is not null the sibling of the node at
+     * {@code index} (relative to {@code from}) is added to it at each level.
+     */
+    private static void reduce(byte[] buf, int from, int count, int levels, int index, List<byte[]> branch,
+                               MessageDigest digest) {
+        byte[] scratch = new byte[HASH_LENGTH];
+        for (int level = 0; level < levels; level++) {
+            if (branch != null) {
+                branch.add(copyNode(buf, from + sibling(index, count)));
+                index >>= 1;
+            }
+            int parents = (count + 1) / 2;
+            for (int i = 0; i < parents; i++) {
+                // Parent i only overwrites nodes that have already been read.
+                int left = 2 * i;
+                int right = Math.min(left + 1, count - 1);
+                hashPair(buf, from + left, from + right, from + i, digest, scratch);
+            }
+            count = parents;
+        }
+    }
+
+    /** Writes the parent of nodes {@code left} and {@code right} to node {@code dest}, all in {@code buf}. */
+    private static void hashPair(byte[] buf, int left, int right, int dest, MessageDigest digest, byte[] scratch) {
+        try {
+            digest.update(buf, left * HASH_LENGTH, HASH_LENGTH);
+            digest.update(buf, right * HASH_LENGTH, HASH_LENGTH);
+            digest.digest(scratch, 0, HASH_LENGTH);
+            digest.update(scratch);
+            digest.digest(buf, dest * HASH_LENGTH, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e); // Can't happen, the buffers are always big enough.
+        }
+    }
+
+    /** Returns the index of the node paired with {@code index} in a level of {@code size} nodes. */
+    static int sibling(int index, int size) {
+        int sibling = index ^ 1;
+        return sibling < size ? sibling : index;
+    }
+
+    /** Returns the number of levels above the leaves, i.e. the ceiling of log2(count). */
+    static int levelsAbove(int count) {
+        return count <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(count - 1);
+    }
+
+    private static void checkLeaves(byte[] leaves, int count) {
+        checkArgument(count > 0, "merkle root of an empty tree");
+        checkArgument(count <= Integer.MAX_VALUE / HASH_LENGTH, "too many leaves for one array: %s", count);
+        checkArgument(leaves.length >= count * HASH_LENGTH, "%s leaves don't fit in %s bytes", count, leaves.length);
+    }
+
+    private static byte[] copyNode(byte[] buf, int index) {
+        byte[] node = new byte[HASH_LENGTH];
+        System.arraycopy(buf, index * HASH_LENGTH, node, 0, HASH_LENGTH);
+        return node;
+    }
+
+    /** Reduces chunks {@code [from, to)} of a tree, each to its own subtree root at the start of the chunk. */
+    private static class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] buf;
+        private final int count;
+        private final int from;
+        private final int to;
+        private final int index;
+        private final List<byte[]> branch;
+
+        ChunkTask(byte[] buf, int count, int from, int to, int index, List<byte[]> branch) {
+            this.buf = buf;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+            this.index = index;
+            this.branch = branch;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(buf, count, from, mid, index, branch),
+                        new ChunkTask(buf, count, mid, to, index, branch));
+                return;
+            }
+            int start = from * CHUNK_LEAVES;
+            int leaves = Math.min(CHUNK_LEAVES, count - start);
+            boolean hasIndex = branch != null && index >> CHUNK_LEVELS == from;
+            reduce(buf, start, leaves, CHUNK_LEVELS, index - start, hasIndex ? branch : null,
+                    Sha256Hash.newDigest());
+        }
+    }
+
+    /** Hashes parents {@code [from, to)} of a stored level from the level below. */
+    private static class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] nodes;
+        private final int childOffset;
+        private final int childCount;
+        private final int parentOffset;
+        private final int from;
+        private final int to;
+
+        LevelTask(byte[] nodes, int childOffset, int childCount, int parentOffset, int from, int to) {
+            this.nodes = nodes;
+            this.childOffset = childOffset;
+            this.childCount = childCount;
+            this.parentOffset = parentOffset;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK_LEAVES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LevelTask(nodes, childOffset, childCount, parentOffset, from, mid),
+                        new LevelTask(nodes, childOffset, childCount, parentOffset, mid, to));
+                return;
+            }
+            MessageDigest digest = Sha256Hash.newDigest();
+            byte[] scratch = new byte[HASH_LENGTH];
+            for (int i = from; i < to; i++) {
+                int left = 2 * i;
+                int right = Math.min(left + 1, childCount - 1);
+                hashPair(nodes, childOffset + left, childOffset + right, parentOffset + i, digest, scratch);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Computes a bitcoin merkle root from a stream of leaves without holding the leaves, for example while transactions
+ * are appended to a mining candidate. Only the frontier of the tree is kept, one completed left subtree per level,
+ * so memory is O(log n) and each append hashes once amortised. {@link #getRoot()} answers what the root would be if
+ * no more leaves came, and {@link #getCoinbaseBranch()} the branch of the first leaf, which is all a miner needs to
+ * recalculate the root for a new coinbase.
+ *
+ * Hashes are handled in internal byte order, i.e. the reverse of {@link Sha256Hash#toString()}, which is the order
+ * they are hashed in. The odd node at the end of a level is paired with itself, as the consensus rules require.
+ *
+ * This class is not thread safe.
+ */
+public class MerkleAccumulator {
+
+    // frontier.get(level) is the root of a complete subtree of 2^level leaves waiting for its right sibling, or null.
+    private final List<byte[]> frontier = new ArrayList<>();
+    // The right hand child of the first node of each level, once that child is complete. These never change, as
+    // leaves are only ever appended to the right, and make up the coinbase branch below the top level.
+    private final List<byte[]> completedCoinbaseBranch = new ArrayList<>();
+    private final MessageDigest digest = Sha256Hash.newDigest();
+    private byte[] firstLeaf;
+    private byte[] root;
+    private long size;
+
+    /** Appends a leaf given as a txid, in the usual display byte order. */
+    public void add(Sha256Hash txid) {
+        addInternal(Utils.reverseBytes(txid.getBytes()));
+    }
+
+    /** Appends a leaf given in internal byte order. The accumulator takes ownership of the array. */
+    public void addInternal(byte[] leaf) {
+        checkArgument(leaf.length == 32, "leaf must be 32 bytes");
+        if (size == 0)
+            firstLeaf = leaf;
+        // When the new size is a power of two the last merge below completes the first node of a new top level, so
+        // its right hand side is the sibling of the first node of the level below, on the coinbase branch.
+        boolean completesFirstNode = ((size + 1) & size) == 0;
+        byte[] carry = leaf;
+        int level = 0;
+        while (level < frontier.size() && frontier.get(level) != null) {
+            if (completesFirstNode && level == frontier.size() - 1)
+                completedCoinbaseBranch.add(carry);
+            carry = hashPair(frontier.get(level), carry);
+            frontier.set(level, null);
+            level++;
+        }
+        if (level == frontier.size())
+            frontier.add(carry);
+        else
+            frontier.set(level, carry);
+        size++;
+        root = null;
+    }
+
+    /** Returns the number of leaves appended so far. */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the merkle root of the leaves appended so far, in display byte order. It is cached until the next
+     * append and appending can carry on afterwards.
+     */
+    public Sha256Hash getRoot() {
+        return Sha256Hash.wrapReversed(getRootInternal());
+    }
+
+    /** As {@link #getRoot()} but in internal byte order. */
+    public byte[] getRootInternal() {
+        checkState(size > 0, "merkle root of an empty tree");
+        if (root == null) {
+            byte[] top = frontier.get(frontier.size() - 1);
+            byte[] right = rightOfTop();
+            root = right == null ? top : hashPair(top, right);
+        }
+        return root.clone();
+    }
+
+    /**
+     * Returns the branch of the first leaf, in internal byte order from the leaves up, as it would be if no more
+     * leaves came. The first leaf of a tree always has a sibling so none of it depends on the first leaf.
+     */
+    public List<byte[]> getCoinbaseBranchInternal() {
+        checkState(size > 0, "merkle branch of an empty tree");
+        List<byte[]> branch = new ArrayList<>(completedCoinbaseBranch.size() + 1);
+        for (byte[] node : completedCoinbaseBranch)
+            branch.add(node.clone());
+        byte[] right = rightOfTop();
+        if (right != null)
+            branch.add(right);
+        return branch;
+    }
+
+    /** As {@link #getCoinbaseBranchInternal()}, as a {@link MerkleBranch} in display byte order. */
+    public MerkleBranch getCoinbaseBranch() {
+        List<Sha256Hash> branch = new ArrayList<>();
+        for (byte[] node : getCoinbaseBranchInternal())
+            branch.add(Sha256Hash.wrapReversed(node));
+        return new MerkleBranch(0, Sha256Hash.wrapReversed(firstLeaf), getRoot(), branch);
+    }
+
+    /**
+     * Returns the merkle root the tree would have if its first leaf were replaced by the given coinbase txid, in
+     * display byte order. This hashes once per level and doesn't change the accumulator.
+     */
+    public Sha256Hash getRootWithCoinbase(Sha256Hash coinbaseTxid) {
+        byte[] node = Utils.reverseBytes(coinbaseTxid.getBytes());
+        for (byte[] sibling : getCoinbaseBranchInternal())
+            node = hashPair(node, sibling);
+        return Sha256Hash.wrapReversed(node);
+    }
+
+    /**
+     * Returns the right hand child of the root as it would be if no more leaves came, hashing together the frontier
+     * below the top level, or null if the leaves form a complete tree. This is also the last node of the coinbase
+     * branch.
+     */
+    private byte[] rightOfTop() {
+        int top = frontier.size() - 1;
+        byte[] carry = null;
+        for (int level = 0; level < top; level++) {
+            byte[] left = frontier.get(level);
+            if (left != null)
+                carry = carry == null ? hashPair(left, left) : hashPair(left, carry);
+            else if (carry != null)
+                carry = hashPair(carry, carry);
+        }
+        return carry;
+    }
+
+    private byte[] hashPair(byte[] left, byte[] right) {
+        digest.update(left);
+        digest.update(right);
+        byte[] first = digest.digest();
+        return digest.digest(first);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import io.bitcoinsv.bitcoinjsv.core.ProtocolException;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.core.VarInt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A merkle proof that a leaf, normally a txid, is in a tree of known size. Unlike {@link MerkleBranch} it knows the
+ * size of the tree, which tells it where a node is paired with itself, so those nodes are left out of the binary
+ * form:
+ * <pre>
+ *   index      varint    position of the leaf
+ *   leafCount  varint    number of leaves in the tree
+ *   leaf       32 bytes  internal byte order
+ *   nodes      32 bytes  each, the sibling at each level from the leaves up, except where that is the node itself
+ * </pre>
+ * Proofs for many leaves of a tree are made together by {@link FlatMerkleTree#getProofs(int[])} and checked together
+ * by {@link #verifyAll(List, Sha256Hash)}.
+ */
+public class MerkleProof {
+
+    private static final int HASH_LENGTH = FlatMerkleTree.HASH_LENGTH;
+
+    private final int index;
+    private final int leafCount;
+    private final byte[] leaf;
+    // The sibling at every level, including those that are the node itself, in internal byte order.
+    private final List<byte[]> nodes;
+
+    MerkleProof(int index, int leafCount, byte[] leaf, List<byte[]> nodes) {
+        this.index = index;
+        this.leafCount = leafCount;
+        this.leaf = leaf;
+        this.nodes = nodes;
+    }
+
+    /** Parses the binary form, see the class documentation. */
+    public static MerkleProof parse(byte[] bytes) {
+        try {
+            VarInt index = new VarInt(bytes, 0);
+            int cursor = index.getOriginalSizeInBytes();
+            VarInt leafCount = new VarInt(bytes, cursor);
+            cursor += leafCount.getOriginalSizeInBytes();
+            if (leafCount.value < 1 || leafCount.value > Integer.MAX_VALUE / HASH_LENGTH
+                    || index.value < 0 || index.value >= leafCount.value)
+                throw new ProtocolException("merkle proof index " + index.value + " of " + leafCount.value);
+            int position = (int) index.value;
+            int size = (int) leafCount.value;
+            byte[] leaf = Arrays.copyOfRange(bytes, cursor, cursor + HASH_LENGTH);
+            cursor += HASH_LENGTH;
+
+            int levels = FlatMerkleTree.levelsAbove(size);
+            List<byte[]> nodes = new ArrayList<>(levels);
+            for (int level = 0; level < levels; level++, position >>= 1, size = (size + 1) / 2) {
+                if (FlatMerkleTree.sibling(position, size) == position) {
+                    // Paired with itself, stands for the node computed on the level below.
+                    nodes.add(null);
+                } else {
+                    if (cursor + HASH_LENGTH > bytes.length)
+                        throw new ProtocolException("merkle proof is truncated");
+                    nodes.add(Arrays.copyOfRange(bytes, cursor, cursor + HASH_LENGTH));
+                    cursor += HASH_LENGTH;
+                }
+            }
+            if (cursor != bytes.length)
+                throw new ProtocolException("merkle proof has " + (bytes.length - cursor) + " trailing bytes");
+            MerkleProof proof = new MerkleProof((int) index.value, (int) leafCount.value, leaf, nodes);
+            proof.fillSelfPairedNodes();
+            return proof;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ProtocolException("merkle proof is truncated", e);
+        }
+    }
+
+    // Self paired nodes aren't sent, so they are only known once the levels below them have been hashed.
+    private void fillSelfPairedNodes() {
+        MessageDigest digest = Sha256Hash.newDigest();
+        byte[] node = leaf;
+        int position = index;
+        for (int level = 0; level < nodes.size(); level++, position >>= 1) {
+            byte[] sibling = nodes.get(level);
+            if (sibling == null) {
+                sibling = node;
+                nodes.set(level, node);
+            }
+            node = (position & 1) == 0 ? hashPair(digest, node, sibling) : hashPair(digest, sibling, node);
+        }
+    }
+
+    public byte[] serialize() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(messageSize());
+        try {
+            serializeTo(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Can't happen.
+        }
+        return out.toByteArray();
+    }
+
+    public void serializeTo(OutputStream stream) throws IOException {
+        stream.write(new VarInt(index).encode());
+        stream.write(new VarInt(leafCount).encode());
+        stream.write(leaf);
+        int position = index;
+        int size = leafCount;
+        for (int level = 0; level < nodes.size(); level++, position >>= 1, size = (size + 1) / 2)
+            if (FlatMerkleTree.sibling(position, size) != position)
+                stream.write(nodes.get(level));
+    }
+
+    /** Returns the size of the binary form in bytes. */
+    public int messageSize() {
+        int size = VarInt.sizeOf(index) + VarInt.sizeOf(leafCount) + HASH_LENGTH;
+        int position = index;
+        int levelSize = leafCount;
+        for (int level = 0; level < nodes.size(); level++, position >>= 1, levelSize = (levelSize + 1) / 2)
+            if (FlatMerkleTree.sibling(position, levelSize) != position)
+                size += HASH_LENGTH;
+        return size;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /** Returns the leaf in display byte order, i.e. the txid. */
+    public Sha256Hash getLeaf() {
+        return Sha256Hash.wrapReversed(leaf);
+    }
+
+    /** Returns the sibling at each level from the leaves up, in internal byte order. */
+    public List<byte[]> getNodesInternal() {
+        List<byte[]> copy = new ArrayList<>(nodes.size());
+        for (byte[] node : nodes)
+            copy.add(node.clone());
+        return copy;
+    }
+
+    /** Returns the root this proof leads to, in display byte order. */
+    public Sha256Hash calculateRoot() {
+        MessageDigest digest = Sha256Hash.newDigest();
+        byte[] node = leaf;
+        int position = index;
+        for (byte[] sibling : nodes) {
+            node = (position & 1) == 0 ? hashPair(digest, node, sibling) : hashPair(digest, sibling, node);
+            position >>= 1;
+        }
+        return Sha256Hash.wrapReversed(node);
+    }
+
+    public boolean verify(Sha256Hash root) {
+        return calculateRoot().equals(root);
+    }
+
+    /** Returns the proof as a {@link MerkleBranch}, in display byte order. */
+    public MerkleBranch toMerkleBranch(Sha256Hash root) {
+        List<Sha256Hash> branch = new ArrayList<>(nodes.size());
+        for (byte[] node : nodes)
+            branch.add(Sha256Hash.wrapReversed(node));
+        return new MerkleBranch(index, getLeaf(), root, branch);
+    }
+
+    /**
+     * Checks many proofs against one root in a single pass. The proofs are taken in index order and each one only
+     * hashes up to where its path meets the path of the previous valid proof, which is already known to lead to the
+     * root. Many proofs from one tree share most of their upper levels, and neighbouring leaves nearly all of them.
+     * @return whether each proof is valid, in the order given
+     */
+    public static boolean[] verifyAll(List<MerkleProof> proofs, Sha256Hash root) {
+        int[] indices = new int[proofs.size()];
+        byte[][] leaves = new byte[proofs.size()][];
+        List<List<byte[]>> branches = new ArrayList<>(proofs.size());
+        for (int i = 0; i < proofs.size(); i++) {
+            MerkleProof proof = proofs.get(i);
+            indices[i] = proof.index;
+            leaves[i] = proof.leaf;
+            branches.add(proof.nodes);
+        }
+        return verifyAll(indices, leaves, branches, Utils.reverseBytes(root.getBytes()));
+    }
+
+    /** As {@link #verifyAll(List, Sha256Hash)} for {@link MerkleBranch}es, which work in display byte order. */
+    public static boolean[] verifyAllBranches(List<MerkleBranch> merkleBranches, Sha256Hash root) {
+        int[] indices = new int[merkleBranches.size()];
+        byte[][] leaves = new byte[merkleBranches.size()][];
+        List<List<byte[]>> branches = new ArrayList<>(merkleBranches.size());
+        for (int i = 0; i < merkleBranches.size(); i++) {
+            MerkleBranch branch = merkleBranches.get(i);
+            indices[i] = branch.getNodeIndex();
+            leaves[i] = Utils.reverseBytes(branch.getNode().getBytes());
+            List<byte[]> nodes = new ArrayList<>(branch.getBranchNodes().size());
+            for (Sha256Hash node : branch.getBranchNodes())
+                nodes.add(Utils.reverseBytes(node.getBytes()));
+            branches.add(nodes);
+        }
+        return verifyAll(indices, leaves, branches, Utils.reverseBytes(root.getBytes()));
+    }
+
+    private static boolean[] verifyAll(int[] indices, byte[][] leaves, List<List<byte[]>> branches, byte[] root) {
+        long[] order = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            checkArgument(indices[i] >= 0, "negative index");
+            order[i] = (long) indices[i] << 32 | i;
+        }
+        Arrays.sort(order);
+
+        MessageDigest digest = Sha256Hash.newDigest();
+        boolean[] valid = new boolean[indices.length];
+        // The path of the last valid proof, from the leaves up: position, node and sibling at each level.
+        int[] lastPositions = null;
+        byte[][] lastNodes = null;
+        byte[][] lastSiblings = null;
+        for (long entry : order) {
+            int i = (int) entry;
+            List<byte[]> branch = branches.get(i);
+            int depth = branch.size();
+            int position = indices[i];
+            if (depth < 31 && position >> depth != 0)
+                continue; // the index doesn't fit in a tree of this height
+            boolean shared = lastPositions != null && lastPositions.length == depth;
+
+            int[] positions = new int[depth];
+            byte[][] nodes = new byte[depth][];
+            byte[] node = leaves[i];
+            int level = 0;
+            boolean metSibling = false;
+            boolean ok = false;
+            for (; level <= depth; level++, position >>= 1) {
+                if (level == depth) {
+                    ok = Arrays.equals(node, root);
+                    break;
+                }
+                if (shared && position == lastPositions[level]) {
+                    ok = Arrays.equals(node, lastNodes[level]);
+                    break;
+                }
+                if (shared && position == (lastPositions[level] ^ 1)) {
+                    ok = Arrays.equals(node, lastSiblings[level]);
+                    metSibling = true;
+                    break;
+                }
+                positions[level] = position;
+                nodes[level] = node;
+                byte[] sibling = branch.get(level);
+                node = (position & 1) == 0 ? hashPair(digest, node, sibling) : hashPair(digest, sibling, node);
+            }
+            valid[i] = ok;
+            if (!ok)
+                continue;
+
+            // This proof becomes the last one. Above where it met the previous path the two are the same.
+            if (!shared) {
+                lastPositions = new int[depth];
+                lastNodes = new byte[depth][];
+                lastSiblings = new byte[depth][];
+            }
+            if (metSibling) {
+                lastSiblings[level] = lastNodes[level];
+                lastNodes[level] = node;
+                lastPositions[level] = position;
+            }
+            for (int l = 0; l < level; l++) {
+                lastPositions[l] = positions[l];
+                lastNodes[l] = nodes[l];
+                lastSiblings[l] = branch.get(l);
+            }
+        }
+        return valid;
+    }
+
+    private static byte[] hashPair(MessageDigest digest, byte[] left, byte[] right) {
+        digest.update(left);
+        digest.update(right);
+        byte[] first = digest.digest();
+        return digest.digest(first);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.TxActor;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.exception.VerificationException;
+import io.bitcoinsv.bitcoinjsv.utils.Threading;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Verifies the input scripts of a transaction or a whole block, spreading the inputs rather than the transactions
+ * over a fork join pool, so one transaction with many inputs is checked as quickly as many small ones. Each
+ * transaction gets one {@link SigHashContext} that all its inputs share.
+ *
+ * By default the first failing input stops the rest being checked, which is all block validation needs. Otherwise
+ * every input is checked and the {@link Result} says which ones failed.
+ */
+public class ParallelScriptVerifier {
+
+    /** The number of inputs checked by one task, below which the work isn't split any further. */
+    public static final int INPUTS_PER_TASK = 8;
+
+    public enum Status {
+        VALID,
+        INVALID,
+        /** Not checked, as the input is a coinbase or verification stopped at an earlier failure. */
+        NOT_CHECKED
+    }
+
+    private final ForkJoinPool pool;
+    private final boolean stopOnFirstFailure;
+
+    /** Uses {@link Threading#COMPUTE_POOL} and stops at the first failure. */
+    public ParallelScriptVerifier() {
+        this(Threading.COMPUTE_POOL, true);
+    }
+
+    /**
+     * @param pool the pool to verify in, whose parallelism is the number of inputs checked at once
+     * @param stopOnFirstFailure whether to stop checking inputs once one has failed
+     */
+    public ParallelScriptVerifier(ForkJoinPool pool, boolean stopOnFirstFailure) {
+        this.pool = pool;
+        this.stopOnFirstFailure = stopOnFirstFailure;
+    }
+
+    /**
+     * Verifies every input of one transaction.
+     * @param spentOutputs the output spent by each input, in input order
+     */
+    public Result verify(Tx tx, List<TxOutput> spentOutputs, Set<ScriptVerifyFlag> verifyFlags) {
+        return verifyAll(Collections.singletonList(tx), Collections.singletonList(spentOutputs), verifyFlags);
+    }
+
+    /**
+     * Verifies every input of a list of transactions, such as the transactions of a block. Coinbase transactions are
+     * skipped and their entry in spentOutputs may be null.
+     * @param spentOutputs for each transaction, the output spent by each input, in input order
+     */
+    public Result verifyAll(List<Tx> txs, List<List<TxOutput>> spentOutputs, Set<ScriptVerifyFlag> verifyFlags) {
+        Job job = new Job(txs, spentOutputs, verifyFlags, stopOnFirstFailure);
+        if (job.totalInputs > 0)
+            pool.invoke(new VerifyTask(job, 0, job.totalInputs));
+        return job.result();
+    }
+
+    /** The outcome of verifying some transactions, by transaction and input index. */
+    public static class Result {
+        private final Status[][] statuses;
+        private final List<Failure> failures;
+
+        private Result(Status[][] statuses, List<Failure> failures) {
+            this.statuses = statuses;
+            this.failures = failures;
+        }
+
+        /**
+         * Returns whether no input failed. A result is only given once every input has been checked or checking has
+         * stopped at a failure, so inputs that weren't checked only follow a failure.
+         */
+        public boolean isValid() {
+            return failures.isEmpty();
+        }
+
+        public Status getStatus(int txIndex, int inputIndex) {
+            return statuses[txIndex][inputIndex];
+        }
+
+        /**
+         * Returns the inputs that failed in transaction and input order. If verification stopped at the first failure
+         * this holds that one and any others that were being checked at the same time.
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        /** Returns the first failure, or null if every input is valid. */
+        @Nullable
+        public Failure getFirstFailure() {
+            return failures.isEmpty() ? null : failures.get(0);
+        }
+    }
+
+    /** An input whose script didn't verify. */
+    public static class Failure {
+        private final int txIndex;
+        private final int inputIndex;
+        private final VerificationException exception;
+
+        private Failure(int txIndex, int inputIndex, VerificationException exception) {
+            this.txIndex = txIndex;
+            this.inputIndex = inputIndex;
+            this.exception = exception;
+        }
+
+        public int getTxIndex() {
+            return txIndex;
+        }
+
+        public int getInputIndex() {
+            return inputIndex;
+        }
+
+        public VerificationException getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return "input " + inputIndex + " of transaction " + txIndex + ": " + exception.getMessage();
+        }
+    }
+
+    /**
+     * The state of one call to verifyAll, shared by its tasks, or of one verification by a
+     * {@link ScriptVerificationScheduler}. The inputs of all the transactions are numbered in turn.
+     */
+    static class Job {
+        final List<Tx> txs;
+        final List<List<TxOutput>> spentOutputs;
+        final Set<ScriptVerifyFlag> verifyFlags;
+        final SigHashContext[] contexts;
+        final Status[][] statuses;
+        // firstInput[i] is the number of the first input of transaction i.
+        final int[] firstInput;
+        final int totalInputs;
+        final boolean stopOnFirstFailure;
+        final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+        volatile boolean failed;
+        // Set to stop checking, leaving the inputs not yet checked as they are.
+        volatile boolean cancelled;
+        // Set once an input has been left unchecked because of cancelled, rather than after a failure.
+        volatile boolean skipped;
+
+        Job(List<Tx> txs, List<List<TxOutput>> spentOutputs, Set<ScriptVerifyFlag> verifyFlags,
+            boolean stopOnFirstFailure) {
+            checkArgument(txs.size() == spentOutputs.size(), "%s transactions but %s lists of spent outputs",
+                    txs.size(), spentOutputs.size());
+            this.txs = txs;
+            this.spentOutputs = spentOutputs;
+            this.verifyFlags = verifyFlags;
+            this.stopOnFirstFailure = stopOnFirstFailure;
+            contexts = new SigHashContext[txs.size()];
+            statuses = new Status[txs.size()][];
+            firstInput = new int[txs.size()];
+            int total = 0;
+            for (int i = 0; i < txs.size(); i++) {
+                Tx tx = txs.get(i);
+                int inputs = tx.getInputs().size();
+                statuses[i] = new Status[inputs];
+                Arrays.fill(statuses[i], Status.NOT_CHECKED);
+                firstInput[i] = total;
+                if (TxActor.isCoinBase(tx))
+                    continue;
+                checkArgument(spentOutputs.get(i) != null && spentOutputs.get(i).size() == inputs,
+                        "transaction %s has %s inputs but not as many spent outputs", i, inputs);
+                contexts[i] = new SigHashContext(tx);
+                total += inputs;
+            }
+            totalInputs = total;
+        }
+
+        /** Verifies the numbered inputs from start until end. */
+        void verifyRange(int start, int end) {
+            int txIndex = Arrays.binarySearch(firstInput, start);
+            if (txIndex < 0)
+                txIndex = -txIndex - 2;
+            // Coinbases and transactions without inputs share their number with the next transaction.
+            while (txIndex + 1 < firstInput.length && firstInput[txIndex + 1] <= start)
+                txIndex++;
+            for (int number = start; number < end; ) {
+                Tx tx = txs.get(txIndex);
+                if (contexts[txIndex] == null) {
+                    txIndex++;
+                    continue;
+                }
+                int inputIndex = number - firstInput[txIndex];
+                int inputEnd = Math.min(tx.getInputs().size(), end - firstInput[txIndex]);
+                for (; inputIndex < inputEnd; inputIndex++, number++) {
+                    if (cancelled) {
+                        skipped = true;
+                        return;
+                    }
+                    if (stopOnFirstFailure && failed)
+                        return;
+                    verifyInput(txIndex, inputIndex);
+                }
+                txIndex++;
+            }
+        }
+
+        void verifyInput(int txIndex, int inputIndex) {
+            Tx tx = txs.get(txIndex);
+            TxOutput spent = spentOutputs.get(txIndex).get(inputIndex);
+            try {
+                Script scriptSig = tx.getInputs().get(inputIndex).getScriptSig();
+                ScriptUtils.correctlySpends(scriptSig != null ? scriptSig : new Script(new byte[0]), tx, inputIndex,
+                        ScriptUtils.compileScriptPubKey(spent.getScriptBytes()), spent.getValue(), verifyFlags,
+                        contexts[txIndex]);
+                statuses[txIndex][inputIndex] = Status.VALID;
+            } catch (VerificationException e) {
+                statuses[txIndex][inputIndex] = Status.INVALID;
+                failures.add(new Failure(txIndex, inputIndex, e));
+                failed = true;
+            }
+        }
+
+        Result result() {
+            List<Failure> sorted = new ArrayList<>(failures);
+            sorted.sort(Comparator.comparingInt(Failure::getTxIndex).thenComparingInt(Failure::getInputIndex));
+            return new Result(statuses, Collections.unmodifiableList(sorted));
+        }
+    }
+
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final int start;
+        private final int end;
+
+        VerifyTask(Job job, int start, int end) {
+            this.job = job;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= INPUTS_PER_TASK) {
+                job.verifyRange(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new VerifyTask(job, start, middle), new VerifyTask(job, middle, end));
+            }
+        }
+    }
+}
@@ -250,20 +250,52 @@ public class ScriptUtils {
      */
     public static void correctlySpends(Script script, Tx txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
                                        Set<ScriptVerifyFlag> verifyFlags) throws ScriptExecutionException {
+        correctlySpends(script, txContainingThis, scriptSigIndex, scriptPubKey, value, verifyFlags, new SigHashContext(txContainingThis));
+    }
+
+    /**
+     * As {@link #correctlySpends(Script, Tx, long, Script, Coin, Set)}, with a sighash context for txContainingThis.
+     * Pass the same context when checking every input of a transaction so the parts of the sighash they share are
+     * only calculated once.
+     */
+    public static void correctlySpends(Script script, Tx txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
+                                       Set<ScriptVerifyFlag> verifyFlags, SigHashContext sigHashContext) throws ScriptExecutionException {
+        CompiledScriptCache cache = Interpreter.getScriptCache();
+        CompiledScript compiled = cache != null ? cache.get(scriptPubKey) : new CompiledScript(scriptPubKey);
+        correctlySpends(script, txContainingThis, scriptSigIndex, compiled, value, verifyFlags, sigHashContext);
+    }
 
-        if (script.getProgram().length > 10000 || scriptPubKey.getProgram().length > 10000)
+    /**
+     * Returns the compiled form of a scriptPubKey from {@link Interpreter#getScriptCache()}, so a script seen before
+     * isn't parsed again.
+     * @throws ScriptParseException if the program doesn't parse
+     */
+    public static CompiledScript compileScriptPubKey(byte[] scriptPubKey) throws ScriptParseException {
+        CompiledScriptCache cache = Interpreter.getScriptCache();
+        return cache != null ? cache.get(scriptPubKey) : CompiledScript.compile(scriptPubKey);
+    }
+
+    /**
+     * As {@link #correctlySpends(Script, Tx, long, Script, Coin, Set, SigHashContext)}, with the scriptPubKey
+     * already compiled.
+     */
+    public static void correctlySpends(Script script, Tx txContainingThis, long scriptSigIndex, CompiledScript scriptPubKey, Coin value,
+                                       Set<ScriptVerifyFlag> verifyFlags, SigHashContext sigHashContext) throws ScriptExecutionException {
+
+        if (script.getProgram().length > 10000 || scriptPubKey.getProgramLength() > 10000)
             throw new ScriptExecutionException("Script larger than 10,000 bytes");
 
+        if (StandardScriptVerifier.verify(script, txContainingThis, scriptSigIndex, scriptPubKey, value, verifyFlags, sigHashContext))
+            return;
+
         ScriptStack stack = new ScriptStack();
         ScriptStack p2shStack = null;
 
-        ScriptExecutionState state = new ScriptExecutionState();
-
-        Interpreter.executeScript(txContainingThis, scriptSigIndex, script, stack, value, verifyFlags);
+        Interpreter.executeScript(txContainingThis, scriptSigIndex, script, stack, value, verifyFlags, sigHashContext);
         if (verifyFlags.contains(ScriptVerifyFlag.P2SH))
             p2shStack = new ScriptStack(stack);
 
-        Interpreter.executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags);
+        Interpreter.executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags, sigHashContext);
 
         if (stack.size() == 0)
             throw new ScriptExecutionException("Stack empty at end of script execution.");
@@ -284,7 +316,7 @@ public class ScriptUtils {
         //     overall scalability and performance.
 
         // TODO: Check if we can take out enforceP2SH if there's a checkpoint at the enforcement block.
-        if (verifyFlags.contains(ScriptVerifyFlag.P2SH) && scriptPubKey.isPayToScriptHash()) {
+        if (verifyFlags.contains(ScriptVerifyFlag.P2SH) && scriptPubKey.getScript().isPayToScriptHash()) {
             for (ScriptChunk chunk : script.chunks)
                 if (chunk.isOpCode() && chunk.opcode > OP_16)
                     throw new ScriptExecutionException("Attempted to spend a P2SH scriptPubKey with a script that contained script ops");
@@ -292,7 +324,7 @@ public class ScriptUtils {
             StackItem scriptPubKeyBytes = p2shStack.pollLast();
             Script scriptPubKeyP2SH = new Script(scriptPubKeyBytes.bytes());
 
-            Interpreter.executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags);
+            Interpreter.executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags, sigHashContext);
 
             if (p2shStack.size() == 0)
                 throw new ScriptExecutionException("P2SH stack empty at end of script execution.");
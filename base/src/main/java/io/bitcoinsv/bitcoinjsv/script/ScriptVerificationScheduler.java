@@ -0,0 +1,268 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.script.ParallelScriptVerifier.Job;
+import io.bitcoinsv.bitcoinjsv.script.ParallelScriptVerifier.Result;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A long lived pool of threads verifying input scripts, shared by whatever submits work to it, such as block
+ * validation and the mempool. Each submission is cut into batches of about the same number of inputs, taken in
+ * order across its transactions, so many small transactions are checked together in one batch and a large one is
+ * spread over several. Block work is run before any mempool work waiting, and work of one priority in the order it
+ * was submitted.
+ *
+ * As with {@link ParallelScriptVerifier}, the first failing input stops the rest of a submission being checked, and
+ * the {@link Result} says which inputs were checked and which failed. A submission cancelled, or dropped by
+ * {@link #shutdown()}, before all its inputs were checked gives no result at all, so it can't pass for valid.
+ */
+public class ScriptVerificationScheduler {
+
+    /** The number of inputs in a batch, unless set otherwise. */
+    public static final int DEFAULT_INPUTS_PER_BATCH = 64;
+
+    /** Thrown when work is submitted to a scheduler that has been shut down. */
+    public static class ShutDownException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public ShutDownException() {
+            super("Script verification scheduler has been shut down");
+        }
+
+        public ShutDownException(Throwable cause) {
+            super("Script verification scheduler has been shut down", cause);
+        }
+    }
+
+    /** What the work is for, in the order it is run. */
+    public enum Priority {
+        BLOCK,
+        MEMPOOL
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int inputsPerBatch;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicInteger[] queued = new AtomicInteger[Priority.values().length];
+    private final LongAdder completed = new LongAdder();
+
+    /** Uses a thread per core and batches of {@link #DEFAULT_INPUTS_PER_BATCH} inputs. */
+    public ScriptVerificationScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_INPUTS_PER_BATCH);
+    }
+
+    /**
+     * @param threads the number of daemon threads verifying, which run until {@link #shutdown()}
+     * @param inputsPerBatch about how many inputs each batch of work checks
+     */
+    public ScriptVerificationScheduler(int threads, int inputsPerBatch) {
+        checkArgument(threads > 0, "threads must be positive: %s", threads);
+        checkArgument(inputsPerBatch > 0, "inputsPerBatch must be positive: %s", inputsPerBatch);
+        this.inputsPerBatch = inputsPerBatch;
+        for (int i = 0; i < queued.length; i++)
+            queued[i] = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r);
+                        t.setName("Script verification " + count.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Starts verifying every input of the transactions, returning at once. Coinbase transactions are skipped and
+     * their entry in spentOutputs may be null.
+     * @param spentOutputs for each transaction, the output spent by each input, in input order
+     * @throws ShutDownException if the scheduler has been shut down, when nothing is checked
+     */
+    public Verification submit(List<Tx> txs, List<List<TxOutput>> spentOutputs, Set<ScriptVerifyFlag> verifyFlags,
+                               Priority priority) throws ShutDownException {
+        if (executor.isShutdown())
+            throw new ShutDownException();
+        Job job = new Job(txs, spentOutputs, verifyFlags, true);
+        int batches = (job.totalInputs + inputsPerBatch - 1) / inputsPerBatch;
+        Verification verification = new Verification(job, batches);
+        for (int batch = 0; batch < batches; batch++) {
+            int start = batch * inputsPerBatch;
+            queued[priority.ordinal()].incrementAndGet();
+            try {
+                executor.execute(new Batch(verification, start, Math.min(start + inputsPerBatch, job.totalInputs),
+                        priority, submitted.getAndIncrement()));
+            } catch (RejectedExecutionException e) {
+                // Shut down meanwhile, which skips the batches already queued. Those not queued never will be.
+                queued[priority.ordinal()].decrementAndGet();
+                job.cancelled = true;
+                job.skipped = true;
+                for (int unqueued = batch; unqueued < batches; unqueued++)
+                    verification.remaining.countDown();
+                throw new ShutDownException(e);
+            }
+        }
+        return verification;
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public int getInputsPerBatch() {
+        return inputsPerBatch;
+    }
+
+    public int getThreads() {
+        return executor.getCorePoolSize();
+    }
+
+    /** Returns the number of batches waiting for a thread. */
+    public int getQueuedBatches() {
+        int total = 0;
+        for (AtomicInteger count : queued)
+            total += count.get();
+        return total;
+    }
+
+    /** Returns the number of batches of the priority waiting for a thread. */
+    public int getQueuedBatches(Priority priority) {
+        return queued[priority.ordinal()].get();
+    }
+
+    /** Returns roughly the number of batches being checked right now. */
+    public int getActiveBatches() {
+        return executor.getActiveCount();
+    }
+
+    /** Returns the number of batches finished since the scheduler was made, including those cancelled. */
+    public long getCompletedBatches() {
+        return completed.sum();
+    }
+
+    /**
+     * Stops the threads. Work still waiting is dropped, and its verifications finish without a result, as if
+     * cancelled. Anything submitted afterwards is refused.
+     */
+    public void shutdown() {
+        for (Runnable batch : executor.shutdownNow())
+            ((Batch) batch).skip();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScriptVerificationScheduler{threads=%d, queued=%d (block %d, mempool %d), active=%d, " +
+                        "completed=%d}", getThreads(), getQueuedBatches(), getQueuedBatches(Priority.BLOCK),
+                getQueuedBatches(Priority.MEMPOOL), getActiveBatches(), getCompletedBatches());
+    }
+
+    /** Verification of one submission under way, which can be waited for or abandoned. */
+    public static class Verification {
+        private final Job job;
+        private final CountDownLatch remaining;
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        private Verification(Job job, int batches) {
+            this.job = job;
+            this.remaining = new CountDownLatch(batches);
+        }
+
+        /** Returns whether every batch has finished. */
+        public boolean isDone() {
+            return remaining.getCount() == 0;
+        }
+
+        /**
+         * Waits for every batch to finish and returns the outcome.
+         * @throws ExecutionException if checking an input threw something other than a VerificationException
+         * @throws CancellationException if the verification was cancelled, or the scheduler shut down, before every
+         * input had been checked and without any failing
+         */
+        public Result get() throws InterruptedException, ExecutionException {
+            remaining.await();
+            if (error.get() != null)
+                throw new ExecutionException(error.get());
+            Result result = job.result();
+            if (job.skipped && result.isValid())
+                throw new CancellationException("Verification stopped before every input was checked");
+            return result;
+        }
+
+        /**
+         * Stops checking inputs, as when what they belong to has already failed for another reason. Batches not yet
+         * started finish without checking anything, and {@link #get()} then gives no result unless an input failed.
+         */
+        public void cancel() {
+            job.cancelled = true;
+        }
+    }
+
+    private class Batch implements Runnable, Comparable<Batch> {
+        private final Verification verification;
+        private final int start;
+        private final int end;
+        private final Priority priority;
+        private final long sequence;
+
+        Batch(Verification verification, int start, int end, Priority priority, long sequence) {
+            this.verification = verification;
+            this.start = start;
+            this.end = end;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            queued[priority.ordinal()].decrementAndGet();
+            try {
+                verification.job.verifyRange(start, end);
+            } catch (Throwable t) {
+                // A bug rather than a script that doesn't verify, so give up on the rest.
+                verification.error.compareAndSet(null, t);
+                verification.job.cancelled = true;
+            } finally {
+                completed.increment();
+                verification.remaining.countDown();
+            }
+        }
+
+        void skip() {
+            queued[priority.ordinal()].decrementAndGet();
+            verification.job.cancelled = true;
+            verification.job.skipped = true;
+            verification.remaining.countDown();
+        }
+
+        @Override
+        public int compareTo(Batch other) {
+            if (priority != other.priority)
+                return priority.compareTo(other.priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
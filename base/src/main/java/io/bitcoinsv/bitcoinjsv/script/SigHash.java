@@ -9,7 +9,6 @@ import io.bitcoinsv.bitcoinjsv.bitcoin.api.BitcoinObject;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxInput;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
-import io.bitcoinsv.bitcoinjsv.bitcoin.bean.BitcoinObjectImpl;
 import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxOutputBean;
 import io.bitcoinsv.bitcoinjsv.core.*;
 import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
@@ -69,8 +68,22 @@ public class SigHash {
                                                     Coin prevValue,
                                                     Flags type,
                                                     boolean anyoneCanPay) {
+        return hashForForkIdSignature(new SigHashContext(transaction), inputIndex, connectedScript, prevValue, type, anyoneCanPay);
+    }
+
+    /**
+     * As {@link #hashForForkIdSignature(Tx, int, byte[], Coin, Flags, boolean)}, reusing the hashPrevouts,
+     * hashSequence and hashOutputs already calculated by the context for other inputs of the same transaction.
+     */
+    public static Sha256Hash hashForForkIdSignature(SigHashContext context,
+                                                    int inputIndex,
+                                                    byte[] connectedScript,
+                                                    Coin prevValue,
+                                                    Flags type,
+                                                    boolean anyoneCanPay) {
+        Tx transaction = context.getTx();
         byte sigHashType = (byte) TransactionSignature.calcSigHashValue(type, anyoneCanPay, true);
-        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(transaction.getMessageSize() == BitcoinObjectImpl.UNKNOWN_MESSAGE_LENGTH ? 512 : transaction.getMessageSize() + 4);
+        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(connectedScript.length + 200);
         try {
             byte[] hashPrevouts = new byte[32];
             byte[] hashSequence = new byte[32];
@@ -80,45 +93,17 @@ public class SigHash {
             TxInput indexedInput = transaction.getInputs().get(inputIndex);
 
             if (!anyoneCanPay) {
-                ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < transaction.getInputs().size(); ++i) {
-                    TxInput input = transaction.getInputs().get(i);
-                    bosHashPrevouts.write(input.getOutpoint().getHash().getReversedBytes());
-                    Utils.uint32ToByteStreamLE(input.getOutpoint().getIndex(), bosHashPrevouts);
-                }
-                hashPrevouts = Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
+                hashPrevouts = context.getHashPrevouts();
             }
 
             if (!anyoneCanPay && type != Flags.SINGLE && type != Flags.NONE) {
-                ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < transaction.getInputs().size(); ++i) {
-                    Utils.uint32ToByteStreamLE(transaction.getInputs().get(i).getSequenceNumber(), bosSequence);
-                }
-                hashSequence = Sha256Hash.hashTwice(bosSequence.toByteArray());
+                hashSequence = context.getHashSequence();
             }
 
             if (type != Flags.SINGLE && type != Flags.NONE) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < transaction.getOutputs().size(); ++i) {
-                    TxOutput output = transaction.getOutputs().get(i);
-                    Utils.uint64ToByteStreamLE(
-                            BigInteger.valueOf(output.getValue().getValue()),
-                            bosHashOutputs
-                    );
-                    bosHashOutputs.write(new VarInt(output.getScriptBytes().length).encode());
-                    bosHashOutputs.write(output.getScriptBytes());
-                }
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                hashOutputs = context.getHashOutputs();
             } else if (type == Flags.SINGLE && inputIndex < transaction.getOutputs().size()) {
-                TxOutput indexedOutput = transaction.getOutputs().get(inputIndex);
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                Utils.uint64ToByteStreamLE(
-                        BigInteger.valueOf(indexedOutput.getValue().getValue()),
-                        bosHashOutputs
-                );
-                bosHashOutputs.write(new VarInt(indexedOutput.getScriptBytes().length).encode());
-                bosHashOutputs.write(indexedOutput.getScriptBytes());
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                hashOutputs = SigHashContext.hashOutput(transaction.getOutputs().get(inputIndex));
             }
             Utils.uint32ToByteStreamLE(transaction.getVersion(), bos);
             bos.write(hashPrevouts);
@@ -0,0 +1,100 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxInput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.core.VarInt;
+
+import java.security.MessageDigest;
+
+/**
+ * The parts of a {@link SigHash#hashForForkIdSignature forkid sighash} that are the same for every input of a
+ * transaction: hashPrevouts, hashSequence and hashOutputs. Each is calculated the first time it is needed and then
+ * reused, so checking or signing every input of a transaction hashes the transaction a constant number of times
+ * rather than once per input.
+ *
+ * A context belongs to one transaction, which must not change while the context is in use. Scripts and signatures
+ * in the inputs are not covered so signing one input at a time is fine. The context may be shared between threads.
+ */
+public class SigHashContext {
+
+    private final Tx tx;
+
+    // Calculated on demand. Racing threads may both calculate one but always get the same result.
+    private volatile byte[] hashPrevouts;
+    private volatile byte[] hashSequence;
+    private volatile byte[] hashOutputs;
+
+    public SigHashContext(Tx tx) {
+        this.tx = tx;
+    }
+
+    public Tx getTx() {
+        return tx;
+    }
+
+    /** The double SHA256 of every input's outpoint. */
+    byte[] getHashPrevouts() {
+        byte[] hash = hashPrevouts;
+        if (hash == null) {
+            MessageDigest digest = Sha256Hash.newDigest();
+            byte[] index = new byte[4];
+            for (TxInput input : tx.getInputs()) {
+                digest.update(input.getOutpoint().getHash().getReversedBytes());
+                Utils.uint32ToByteArrayLE(input.getOutpoint().getIndex(), index, 0);
+                digest.update(index);
+            }
+            hashPrevouts = hash = digest.digest(digest.digest());
+        }
+        return hash;
+    }
+
+    /** The double SHA256 of every input's sequence number. */
+    byte[] getHashSequence() {
+        byte[] hash = hashSequence;
+        if (hash == null) {
+            MessageDigest digest = Sha256Hash.newDigest();
+            byte[] sequence = new byte[4];
+            for (TxInput input : tx.getInputs()) {
+                Utils.uint32ToByteArrayLE(input.getSequenceNumber(), sequence, 0);
+                digest.update(sequence);
+            }
+            hashSequence = hash = digest.digest(digest.digest());
+        }
+        return hash;
+    }
+
+    /** The double SHA256 of every output. */
+    byte[] getHashOutputs() {
+        byte[] hash = hashOutputs;
+        if (hash == null) {
+            MessageDigest digest = Sha256Hash.newDigest();
+            for (TxOutput output : tx.getOutputs())
+                updateWithOutput(digest, output);
+            hashOutputs = hash = digest.digest(digest.digest());
+        }
+        return hash;
+    }
+
+    /** The double SHA256 of one output, for SIGHASH_SINGLE. Not cached as each input signs a different output. */
+    static byte[] hashOutput(TxOutput output) {
+        MessageDigest digest = Sha256Hash.newDigest();
+        updateWithOutput(digest, output);
+        return digest.digest(digest.digest());
+    }
+
+    private static void updateWithOutput(MessageDigest digest, TxOutput output) {
+        byte[] value = new byte[8];
+        Utils.uint64ToByteArrayLE(output.getValue().getValue(), value, 0);
+        digest.update(value);
+        byte[] script = output.getScriptBytes();
+        digest.update(new VarInt(script.length).encode());
+        digest.update(script);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptChunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+
+/**
+ * A script worked over once so it can be run many times cheaply: its chunks in an array, its serialized form, where
+ * each OP_IF, OP_NOTIF and OP_ELSE branch ends, and which data lengths it pushes. It is immutable, so one compiled
+ * script can be shared by every thread running it, and each run takes its own {@link #stream()}.
+ *
+ * Running a compiled stream gives exactly the result of running the script through a {@link SimpleScriptStream}.
+ * What it saves is work: the interpreter passes over a branch that won't be executed in one step instead of
+ * looking at each of its opcodes, the program a signature commits to isn't serialized again for every signature,
+ * and a signature is only searched for in the program (bitcoind's FindAndDelete) when the program pushes something
+ * of the signature's length.
+ */
+public final class CompiledScript {
+
+    //what in a branch stops it being passed over, or only lets it be under some flags
+    private static final byte NEEDS_MAGNETIC_OPCODES = 1;
+    private static final byte NEEDS_MONOLITH_OPCODES = 2;
+    private static final byte HAS_LARGE_PUSH = 4;
+    private static final byte NOT_SKIPPABLE = 8;
+
+    private final Script script;
+    private final StandardScriptVerifier.Template template;
+    private final ScriptChunk<?>[] chunks;
+    //the chunks serialized, and where each chunk starts in that
+    private final byte[] program;
+    private final int[] offsets;
+    //for each OP_IF, OP_NOTIF or OP_ELSE, the index of the OP_ELSE or OP_ENDIF ending its branch or -1, and how
+    //many counted ops and which of the flags above lie between them
+    private final int[] branchEnds;
+    private final int[] branchOpCounts;
+    private final byte[] branchFlags;
+    //the distinct lengths of data pushed, ascending, with the index of the last chunk pushing each
+    private final int[] pushLengths;
+    private final int[] lastPushOfLength;
+    //removeAllInstancesOf misreads OP_PUSHDATA4 lengths, so past one of these it can match anywhere
+    private final int lastPushData4;
+
+    public CompiledScript(Script script) {
+        this.script = script;
+        this.template = StandardScriptVerifier.templateOf(script);
+        this.chunks = script.getChunks().toArray(new ScriptChunk<?>[0]);
+        int n = chunks.length;
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = bos.size();
+            try {
+                chunks[i].write(bos);
+            } catch (IOException e) {
+                throw new RuntimeException(e); // Cannot happen
+            }
+        }
+        offsets[n] = bos.size();
+        program = bos.toByteArray();
+
+        //running totals up to each chunk, so any branch's contents can be read off from its ends
+        int[] opsBefore = new int[n + 1];
+        int[][] flagsBefore = new int[4][n + 1];
+        branchEnds = new int[n];
+        Arrays.fill(branchEnds, -1);
+        Deque<Integer> openBranches = new ArrayDeque<>();
+        int[] lastOfLength = new int[0];
+        int[] lengths = new int[0];
+        int lastPushData4 = -1;
+        for (int i = 0; i < n; i++) {
+            ScriptChunk<?> chunk = chunks[i];
+            int opcode = chunk.opcode;
+            int flags = 0;
+            int ops = 0;
+            if (!chunk.isOpCode()) {
+                //OP_0 from a ScriptBuilder has no data
+                int length = chunk.data == null ? 0 : chunk.data.length();
+                if (length > Interpreter.MAX_SCRIPT_ELEMENT_SIZE)
+                    flags |= HAS_LARGE_PUSH;
+                if (opcode == OP_PUSHDATA4)
+                    lastPushData4 = i;
+                int at = Arrays.binarySearch(lengths, length);
+                if (at < 0) {
+                    at = -at - 1;
+                    lengths = insert(lengths, at, length);
+                    lastOfLength = insert(lastOfLength, at, i);
+                }
+                lastOfLength[at] = i;
+            } else {
+                if (opcode > OP_16)
+                    ops = 1;
+                flags = opcodeFlags(opcode);
+                if (opcode == OP_IF || opcode == OP_NOTIF) {
+                    openBranches.push(i);
+                } else if (opcode == OP_ELSE) {
+                    if (!openBranches.isEmpty())
+                        branchEnds[openBranches.pop()] = i;
+                    openBranches.push(i);
+                } else if (opcode == OP_ENDIF) {
+                    if (!openBranches.isEmpty())
+                        branchEnds[openBranches.pop()] = i;
+                }
+            }
+            opsBefore[i + 1] = opsBefore[i] + ops;
+            for (int f = 0; f < 4; f++)
+                flagsBefore[f][i + 1] = flagsBefore[f][i] + ((flags >> f) & 1);
+        }
+
+        branchOpCounts = new int[n];
+        branchFlags = new byte[n];
+        for (int i = 0; i < n; i++) {
+            int end = branchEnds[i];
+            if (end < 0)
+                continue;
+            branchOpCounts[i] = opsBefore[end] - opsBefore[i + 1];
+            for (int f = 0; f < 4; f++)
+                if (flagsBefore[f][end] > flagsBefore[f][i + 1])
+                    branchFlags[i] |= 1 << f;
+        }
+        this.pushLengths = lengths;
+        this.lastPushOfLength = lastOfLength;
+        this.lastPushData4 = lastPushData4;
+    }
+
+    /** Parses and compiles the given program. */
+    public static CompiledScript compile(byte[] program) {
+        return new CompiledScript(new Script(program));
+    }
+
+    private static int opcodeFlags(int opcode) {
+        switch (opcode) {
+            case OP_CODESEPARATOR:
+                //the stream has to see these to know what a signature commits to
+            case OP_VERIF:
+            case OP_VERNOTIF:
+            case OP_2MUL:
+            case OP_2DIV:
+                return NOT_SKIPPABLE;
+            case OP_INVERT:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_MUL:
+                return NEEDS_MAGNETIC_OPCODES;
+            case OP_CAT:
+            case OP_SPLIT:
+            case OP_AND:
+            case OP_OR:
+            case OP_XOR:
+            case OP_DIV:
+            case OP_MOD:
+            case OP_NUM2BIN:
+            case OP_BIN2NUM:
+                return NEEDS_MONOLITH_OPCODES;
+            default:
+                return 0;
+        }
+    }
+
+    private static int[] insert(int[] array, int at, int value) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, at);
+        result[at] = value;
+        System.arraycopy(array, at, result, at + 1, array.length - at);
+        return result;
+    }
+
+    /** Returns the script this was compiled from. */
+    public Script getScript() {
+        return script;
+    }
+
+    /** Returns which of the standard forms the script takes, if any. */
+    public StandardScriptVerifier.Template getTemplate() {
+        return template;
+    }
+
+    /** Returns the number of chunks. */
+    public int size() {
+        return chunks.length;
+    }
+
+    ScriptChunk<?> getChunk(int chunkIndex) {
+        return chunks[chunkIndex];
+    }
+
+    /** Returns the length of the serialized program. */
+    public int getProgramLength() {
+        return program.length;
+    }
+
+    /** Returns a new stream over the script, for one run of it. */
+    public ScriptStream stream() {
+        return new Stream(this);
+    }
+
+    /**
+     * Returns the index of the OP_ELSE or OP_ENDIF ending the branch opened by the OP_IF, OP_NOTIF or OP_ELSE at the
+     * given index, if every chunk between them would be passed over without effect when not executed under the
+     * given flags, otherwise -1. The interpreter still fails on a disabled opcode or an oversized push in a branch it
+     * doesn't execute, so a branch holding one isn't skippable.
+     */
+    int getSkippableBranchEnd(int chunkIndex, boolean magneticOpcodes, boolean monolithOpcodes, boolean limitPushSize) {
+        int end = branchEnds[chunkIndex];
+        if (end < 0)
+            return -1;
+        byte flags = branchFlags[chunkIndex];
+        if ((flags & NOT_SKIPPABLE) != 0
+                || (!magneticOpcodes && (flags & NEEDS_MAGNETIC_OPCODES) != 0)
+                || (!monolithOpcodes && (flags & NEEDS_MONOLITH_OPCODES) != 0)
+                || (limitPushSize && (flags & HAS_LARGE_PUSH) != 0))
+            return -1;
+        return end;
+    }
+
+    /** Returns the number of opcodes counting towards the op limit in the branch opened at the given index. */
+    int getBranchOpCount(int chunkIndex) {
+        return branchOpCounts[chunkIndex];
+    }
+
+    /**
+     * Returns whether {@link io.bitcoinsv.bitcoinjsv.script.SigHash#removeAllInstancesOf} could remove a push of
+     * data of the given length from the program from the given chunk index.
+     */
+    boolean mayContainPush(int chunkIndex, int length) {
+        if (lastPushData4 >= chunkIndex)
+            return true;
+        int at = Arrays.binarySearch(pushLengths, length);
+        return at >= 0 && lastPushOfLength[at] >= chunkIndex;
+    }
+
+    private static final class Stream implements ScriptStream {
+
+        private final CompiledScript compiled;
+        private int index = 0;
+        private int lastCodeSepIndex = 0;
+
+        Stream(CompiledScript compiled) {
+            this.compiled = compiled;
+        }
+
+        @Override
+        public ScriptStream clone() {
+            //like SimpleScriptStream, a clone starts from the beginning
+            return new Stream(compiled);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < compiled.chunks.length;
+        }
+
+        @Override
+        public ScriptChunk<?> next() {
+            ScriptChunk<?> chunk = compiled.chunks[index];
+            if (chunk.opcode == OP_CODESEPARATOR)
+                lastCodeSepIndex = index;
+            index++;
+            return chunk;
+        }
+
+        @Override
+        public void advanceTo(int chunkIndex) {
+            //branches holding an OP_CODESEPARATOR are never skipped, but a caller may jump anywhere
+            for (int i = index; i < chunkIndex; i++)
+                if (compiled.chunks[i].opcode == OP_CODESEPARATOR)
+                    lastCodeSepIndex = i;
+            index = Math.max(index, chunkIndex);
+        }
+
+        /**
+         * Returns the program from the given chunk. From the start, which is what nearly every signature commits to,
+         * this is the compiled script's own array rather than a copy, and mustn't be modified.
+         */
+        @Override
+        public byte[] getProgramFrom(int chunkIndex) {
+            if (chunkIndex == 0)
+                return compiled.program;
+            return Arrays.copyOfRange(compiled.program, compiled.offsets[chunkIndex], compiled.program.length);
+        }
+
+        @Override
+        public boolean mayContainPush(int chunkIndex, int length) {
+            return compiled.mayContainPush(chunkIndex, length);
+        }
+
+        @Override
+        public int chunkIndex() {
+            return index;
+        }
+
+        @Override
+        public long byteIndex() {
+            return compiled.offsets[index];
+        }
+
+        @Override
+        public long getLastCodeSepBytePos() {
+            return compiled.offsets[lastCodeSepIndex];
+        }
+
+        @Override
+        public int getLastCodeSepIndex() {
+            return lastCodeSepIndex;
+        }
+
+        @Override
+        public long sizeOfNext() {
+            return compiled.offsets[index + 1] - compiled.offsets[index];
+        }
+
+        @Override
+        public long count() {
+            return compiled.chunks.length;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return compiled.program.length;
+        }
+
+        @Override
+        public long posInBytes() {
+            return compiled.offsets[index];
+        }
+
+        @Override
+        public long posInElements() {
+            return index;
+        }
+
+        CompiledScript getCompiledScript() {
+            return compiled;
+        }
+    }
+
+    /** Returns the compiled script behind a stream from {@link #stream()}, or null for any other stream. */
+    static CompiledScript of(ScriptStream stream) {
+        return stream instanceof Stream ? ((Stream) stream).getCompiledScript() : null;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.utils.SegmentedLruCache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded cache of compiled scripts, keyed by their program bytes, so that a scriptPubKey seen again is neither
+ * parsed nor compiled again. Outputs to the same address have the same scriptPubKey, and a P2PKH one is the same
+ * 25 bytes for every coin the address holds, so the scripts spent in a block repeat a great deal.
+ */
+public class CompiledScriptCache extends SegmentedLruCache<ByteBuffer, CompiledScript> {
+
+    public static final int DEFAULT_MAX_ENTRIES = 20_000;
+
+    public CompiledScriptCache(int maxEntries) {
+        super(maxEntries);
+    }
+
+    /**
+     * Returns the compiled program, parsing, compiling and keeping it if it isn't in the cache.
+     * @throws io.bitcoinsv.bitcoinjsv.script.ScriptParseException if the program doesn't parse
+     */
+    public CompiledScript get(byte[] program) {
+        return get(program, null);
+    }
+
+    /**
+     * Returns the compiled script, compiling and keeping it if it isn't in the cache. The script's program is
+     * serialized by the caller to look it up, so when the script isn't to hand use {@link #get(byte[])}.
+     */
+    public CompiledScript get(Script script) {
+        return get(script.getProgram(), script);
+    }
+
+    private CompiledScript get(byte[] program, Script parsed) {
+        CompiledScript compiled = lookup(ByteBuffer.wrap(program));
+        if (compiled != null)
+            return compiled;
+        // Compile outside the lock, and copy the program so the caller can't change the key once it is stored.
+        compiled = parsed != null ? new CompiledScript(parsed) : CompiledScript.compile(program);
+        return putIfAbsent(ByteBuffer.wrap(program.clone()), compiled);
+    }
+}
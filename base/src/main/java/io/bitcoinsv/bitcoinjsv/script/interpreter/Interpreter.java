@@ -7,6 +7,7 @@ package io.bitcoinsv.bitcoinjsv.script.interpreter;
 
 import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
 import io.bitcoinsv.bitcoinjsv.ecc.ECDSA;
+import io.bitcoinsv.bitcoinjsv.ecc.SignatureCache;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
 import io.bitcoinsv.bitcoinjsv.core.*;
 import io.bitcoinsv.bitcoinjsv.script.*;
@@ -30,6 +31,10 @@ import static io.bitcoinsv.bitcoinjsv.script.interpreter.StackItem.Type;
  *
  * Some other utility methods are in ScriptUtils, this is main there to assist in untangling the web of dependencies
  * so we can break BitcoinJ up into logically grouped libs.
+ *
+ * When a {@link ScriptStateListener} is attached the interpreter traces execution for it: the opcodes executed, the
+ * items each opcode popped, whether each stack item derives from the initial stack, and the if stack. Without one
+ * it runs lean and keeps none of that, which is how scripts are verified.
  */
 public class Interpreter {
 
@@ -46,9 +51,47 @@ public class Interpreter {
 
     //ugly hack for obtaining script state when exceptions are thrown if they haven't
     //been passed to the ScriptException constructor. This should be safe as scripts
-    //run single threaded.
+    //run single threaded. Only set when tracing.
     public static final ThreadLocal SCRIPT_STATE_THREADLOCAL = new ThreadLocal();
 
+    /** Signatures already found valid, checked by OP_CHECKSIG and OP_CHECKMULTISIG before verifying. */
+    @Nullable
+    private static volatile SignatureCache signatureCache = new SignatureCache(SignatureCache.DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Compiled forms of the scriptPubKeys {@link io.bitcoinsv.bitcoinjsv.script.ScriptUtils#correctlySpends} checks
+     * inputs against.
+     */
+    @Nullable
+    private static volatile CompiledScriptCache scriptCache = new CompiledScriptCache(CompiledScriptCache.DEFAULT_MAX_ENTRIES);
+
+    /** Returns the cache of signatures already found valid, or null if every signature is verified. */
+    @Nullable
+    public static SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    /** Sets the cache of signatures already found valid, to change its size, or null to verify every signature. */
+    public static void setSignatureCache(@Nullable SignatureCache cache) {
+        signatureCache = cache;
+    }
+
+    /** Returns the cache of compiled scriptPubKeys, or null if each script is compiled for the one check. */
+    @Nullable
+    public static CompiledScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache of compiled scriptPubKeys, to change its size, or null to compile each script for the one
+     * check.
+     */
+    public static void setScriptCache(@Nullable CompiledScriptCache cache) {
+        scriptCache = cache;
+    }
+
+    private static final StackItem<?> EMPTY_INT = StackItem.forBytes(new byte[0], Type.INT, false);
+
     private static final int[] RSHIFT_MASKS = new int[]{0xFF, 0xFE, 0xFC, 0xF8, 0xF0, 0xE0, 0xC0, 0x80};
     private static final int[] LSHIFT_MASKS = new int[]{0xFF, 0x7F, 0x3F, 0x1F, 0x0F, 0x07, 0x03, 0x01};
 
@@ -69,6 +112,8 @@ public class Interpreter {
     ScriptExecutionState state;
     boolean allowFakeChecksig;
     long fakeChecksigDelay;
+    @Nullable
+    SigHashContext sigHashContext;
 
 
     int opCount = 0;
@@ -82,8 +127,22 @@ public class Interpreter {
     boolean allowUnclosedIf = false;
 
     ScriptStack altstack;
+    //only kept up to date when tracing, ifConditions is what execution goes by
     LinkedList<Boolean> ifStack;
 
+    //the conditions of the enclosing OP_IF/OP_NOTIFs, innermost last, and how many of them are false so
+    //whether to execute is known without searching them
+    boolean[] ifConditions = new boolean[4];
+    int ifDepth = 0;
+    int ifFalseCount = 0;
+
+    //whether to keep the state a ScriptStateListener looks at
+    final boolean tracing;
+
+    //the script being run if it is compiled, so branches that won't be executed can be jumped over
+    @Nullable
+    final CompiledScript compiled;
+
     boolean opReturnCalled = false;
 
     //flag based limits
@@ -109,6 +168,8 @@ public class Interpreter {
         this.state = state;
         this.allowFakeChecksig = allowFakeChecksig;
         this.fakeChecksigDelay = fakeChecksigDelay;
+        this.tracing = scriptStateListener != null;
+        this.compiled = CompiledScript.of(script);
 
         //init flag based limits
         enforceMinimal = verifyFlags.contains(ScriptVerifyFlag.MINIMALDATA);
@@ -168,12 +229,124 @@ public class Interpreter {
      * @throws ScriptExecutionException if the chunk is longer than the specified maximum.
      */
     static BigInteger castToBigInteger(ScriptExecutionState state, final StackItem stackItem, final int maxLength, boolean enforceMinimal) throws ScriptExecutionException {
+        checkNumber(state, stackItem, maxLength, enforceMinimal);
+        return Utils.decodeMPI(Utils.reverseBytes(stackItem.bytes()), false);
+    }
+
+    /**
+     * As {@link #castToBigInteger(ScriptExecutionState, StackItem, int, boolean)} followed by longValue(), without
+     * the BigInteger for numbers of up to 8 bytes.
+     */
+    static long castToLong(ScriptExecutionState state, final StackItem<?> stackItem, final int maxLength, boolean enforceMinimal) throws ScriptExecutionException {
+        checkNumber(state, stackItem, maxLength, enforceMinimal);
+        if (ScriptNum.fitsInLong(stackItem))
+            return ScriptNum.decode(stackItem.bytes());
+        return Utils.decodeMPI(Utils.reverseBytes(stackItem.bytes()), false).longValue();
+    }
+
+    /**
+     * Checks a stack item is short enough to be used as a number and, if required, minimally encoded.
+     *
+     * @throws ScriptExecutionException if it isn't
+     */
+    private static void checkNumber(ScriptExecutionState state, final StackItem<?> stackItem, final int maxLength, boolean enforceMinimal) throws ScriptExecutionException {
         if (stackItem.length() > maxLength)
             throw new ScriptExecutionException(state, "Script attempted to use an integer larger than "
                     + maxLength + " bytes: " + stackItem.length());
         if (enforceMinimal && !Utils.checkMinimallyEncodedLE(stackItem.bytes(), maxLength))
             throw new ScriptExecutionException(state, "Number is not minimally encoded: " + stackItem + " - [" + stackItem.toString(true, Type.BYTES) + "]");
-        return Utils.decodeMPI(Utils.reverseBytes(stackItem.bytes()), false);
+    }
+
+    /**
+     * Applies a numeric opcode taking one number to a number that fits in a long.
+     *
+     * @return the encoded result, or null if it doesn't fit in a long
+     */
+    private static byte[] longNumericOp(int opcode, long a) {
+        switch (opcode) {
+            case OP_1ADD:
+                return a == Long.MAX_VALUE ? null : ScriptNum.encode(a + 1);
+            case OP_1SUB:
+                return a == Long.MIN_VALUE ? null : ScriptNum.encode(a - 1);
+            case OP_NEGATE:
+                return a == Long.MIN_VALUE ? null : ScriptNum.encode(-a);
+            case OP_ABS:
+                return a == Long.MIN_VALUE ? null : ScriptNum.encode(Math.abs(a));
+            case OP_NOT:
+                return ScriptNum.encode(a == 0 ? 1 : 0);
+            case OP_0NOTEQUAL:
+                return ScriptNum.encode(a != 0 ? 1 : 0);
+            default:
+                throw new AssertionError("Unreachable");
+        }
+    }
+
+    /**
+     * Applies a numeric opcode taking two numbers to numbers that fit in a long, with the same results as the
+     * BigInteger arithmetic.
+     *
+     * @return the encoded result, or null if it doesn't fit in a long
+     */
+    private byte[] longNumericOp(int opcode, long a, long b) {
+        switch (opcode) {
+            case OP_ADD:
+                long sum = a + b;
+                return ((a ^ sum) & (b ^ sum)) < 0 ? null : ScriptNum.encode(sum);
+            case OP_SUB:
+                long difference = a - b;
+                return ((a ^ b) & (a ^ difference)) < 0 ? null : ScriptNum.encode(difference);
+            case OP_MUL:
+                long product = a * b;
+                return Math.multiplyHigh(a, b) != (product >> 63) ? null : ScriptNum.encode(product);
+            case OP_DIV:
+                //as the BigInteger path, which tests intValue()
+                if ((int) b == 0)
+                    throw new ScriptExecutionException(state, "Division by zero error");
+                //a can't be Long.MIN_VALUE so this can't overflow
+                return ScriptNum.encode(a / b);
+            case OP_MOD:
+                if ((int) b == 0)
+                    throw new ScriptExecutionException(state, "Modulo by zero error");
+                //the sign follows a, as BigInteger.remainder
+                return ScriptNum.encode(a % b);
+            case OP_BOOLAND:
+                return ScriptNum.encode(a != 0 && b != 0 ? 1 : 0);
+            case OP_BOOLOR:
+                return ScriptNum.encode(a != 0 || b != 0 ? 1 : 0);
+            case OP_NUMEQUAL:
+                return ScriptNum.encode(a == b ? 1 : 0);
+            case OP_NUMNOTEQUAL:
+                return ScriptNum.encode(a != b ? 1 : 0);
+            case OP_LESSTHAN:
+                return ScriptNum.encode(a < b ? 1 : 0);
+            case OP_GREATERTHAN:
+                return ScriptNum.encode(a > b ? 1 : 0);
+            case OP_LESSTHANOREQUAL:
+                return ScriptNum.encode(a <= b ? 1 : 0);
+            case OP_GREATERTHANOREQUAL:
+                return ScriptNum.encode(a >= b ? 1 : 0);
+            case OP_MIN:
+                return ScriptNum.encode(Math.min(a, b));
+            case OP_MAX:
+                return ScriptNum.encode(Math.max(a, b));
+            default:
+                throw new RuntimeException("Opcode switched at runtime?");
+        }
+    }
+
+    private static Type numericResultType(int opcode) {
+        switch (opcode) {
+            case OP_ADD:
+            case OP_SUB:
+            case OP_MUL:
+            case OP_DIV:
+            case OP_MOD:
+            case OP_MIN:
+            case OP_MAX:
+                return Type.INT;
+            default:
+                return Type.BOOL;
+        }
     }
 
     /**
@@ -374,6 +547,31 @@ public class Interpreter {
                 .executeScript();
     }
 
+    /**
+     * As {@link #executeScript(Tx, long, Script, ScriptStack, Coin, Set)}, taking the parts of the sighash that are
+     * shared by all inputs from the given context, which should be passed to every input of the transaction.
+     */
+    public static ScriptExecutionState executeScript(@Nullable Tx txContainingThis, long index,
+                                     Script script, ScriptStack stack, Coin value, Set<ScriptVerifyFlag> verifyFlags,
+                                     @Nullable SigHashContext sigHashContext) throws ScriptExecutionException {
+        Interpreter interpreter = new Interpreter(txContainingThis, index, new SimpleScriptStream(script), stack, value,
+                verifyFlags, null, null, false, 0L);
+        interpreter.sigHashContext = sigHashContext;
+        return interpreter.executeScript();
+    }
+
+    /**
+     * As {@link #executeScript(Tx, long, Script, ScriptStack, Coin, Set, SigHashContext)}, running a compiled script.
+     */
+    public static ScriptExecutionState executeScript(@Nullable Tx txContainingThis, long index,
+                                     CompiledScript script, ScriptStack stack, Coin value, Set<ScriptVerifyFlag> verifyFlags,
+                                     @Nullable SigHashContext sigHashContext) throws ScriptExecutionException {
+        Interpreter interpreter = new Interpreter(txContainingThis, index, script.stream(), stack, value,
+                verifyFlags, null, null, false, 0L);
+        interpreter.sigHashContext = sigHashContext;
+        return interpreter.executeScript();
+    }
+
     private void initScript() {
         if (stack == null) {
             //This is a debug invocation in a step debugger playing part of a script.
@@ -382,14 +580,22 @@ public class Interpreter {
             stack = state.stack;
             altstack = state.altStack;
             ifStack = state.ifStack;
+            for (boolean condition : ifStack)
+                pushIfCondition(condition, false);
             allowUnclosedIf = true;
         } else {
             //this is a normal invocation where the entire script is executed in one call.
             altstack = new ScriptStack();
             ifStack = new LinkedList<Boolean>();
         }
-        //mark all stack items as derived if initial stack state is not known to this execution context
-        stack.setDerivations(!initialStackStateKnown);
+        stack.setTrackPoppedItems(tracing);
+        stack.setTrackDerivations(tracing);
+        altstack.setTrackPoppedItems(tracing);
+        altstack.setTrackDerivations(tracing);
+        if (tracing) {
+            //mark all stack items as derived if initial stack state is not known to this execution context
+            stack.setDerivations(!initialStackStateKnown);
+        }
 
 
         //initialise script state tracker
@@ -397,6 +603,7 @@ public class Interpreter {
             state = new ScriptExecutionState();
             state.txContainingThis = txContainingThis;
             state.value = value;
+            state.sigHashContext = sigHashContext;
             state.stack = stack;
             state.stackPopped = stack.getPoppedItems();
             state.altStack = altstack;
@@ -406,7 +613,8 @@ public class Interpreter {
             state.verifyFlags = verifyFlags;
             state.script = script;
             state.initialStackStateKnown = initialStackStateKnown;
-            SCRIPT_STATE_THREADLOCAL.set(state);
+            if (tracing)
+                SCRIPT_STATE_THREADLOCAL.set(state);
         }
         if (scriptStateListener != null) {
             scriptStateListener.setInitialState(state);
@@ -428,6 +636,48 @@ public class Interpreter {
         return stack.get(stack.size() + index);
     }
 
+    private void pushIfCondition(boolean condition, boolean trace) {
+        if (ifDepth == ifConditions.length)
+            ifConditions = Arrays.copyOf(ifConditions, ifDepth * 2);
+        ifConditions[ifDepth++] = condition;
+        if (!condition)
+            ifFalseCount++;
+        if (trace)
+            ifStack.add(condition);
+    }
+
+    private boolean popIfCondition() {
+        boolean condition = ifConditions[--ifDepth];
+        if (!condition)
+            ifFalseCount--;
+        if (tracing)
+            ifStack.pollLast();
+        return condition;
+    }
+
+    /**
+     * When a compiled script has just entered a branch that won't be executed, moves on to the OP_ELSE or OP_ENDIF
+     * ending it, counting its opcodes as though each had been passed over in turn.
+     */
+    private void skipFalseBranch() {
+        if (compiled == null || tracing || ifFalseCount != 1 || ifConditions[ifDepth - 1])
+            return;
+        int from = script.chunkIndex() - 1;
+        int to = compiled.getSkippableBranchEnd(from, verifyFlags.contains(ScriptVerifyFlag.MAGNETIC_OPCODES),
+                verifyFlags.contains(ScriptVerifyFlag.MONOLITH_OPCODES), !genesisActive);
+        if (to < 0)
+            return;
+        opCount += compiled.getBranchOpCount(from);
+        state.opCount = opCount;
+        if (opCount > maxOpCount)
+            throw new ScriptExecutionException(state, "More script operations than is allowed");
+        if (to > from + 1) {
+            state.currentOpCodeIndex += to - from - 1;
+            state.currentOpCode = compiled.getChunk(to - 1);
+        }
+        script.advanceTo(to);
+    }
+
     /**
      * Execute the opcode in the given script chunk
      * @param chunk
@@ -438,17 +688,17 @@ public class Interpreter {
         state.currentOpCode = chunk;
         state.currentOpCodeIndex++;
 
-        //clear tracked popped items from stack
-        stack.clearPoppedItems();
-        altstack.clearPoppedItems();
+        boolean shouldExecute = ifFalseCount == 0;
 
-        boolean shouldExecute = !ifStack.contains(false);
+        if (tracing) {
+            //clear tracked popped items from stack
+            stack.clearPoppedItems();
+            altstack.clearPoppedItems();
 
-        if (shouldExecute) {
-            state.executedOpCodes.add(chunk);
-        }
+            if (shouldExecute) {
+                state.executedOpCodes.add(chunk);
+            }
 
-        if (scriptStateListener != null) {
             scriptStateListener._onBeforeOpCodeExecuted(chunk, shouldExecute);
         }
 
@@ -462,7 +712,7 @@ public class Interpreter {
             if (!shouldExecute)
                 return false;
 
-            stack.add(Type.INT, new byte[]{});
+            stack.add(EMPTY_INT);
         } else if (!chunk.isOpCode()) {
             if (chunk.data.length() > maxScriptElementSize)
                 throw new ScriptExecutionException(state, "Attempted to push a data string larger than 520 bytes");
@@ -470,7 +720,7 @@ public class Interpreter {
             if (!shouldExecute)
                 return false;
 
-            stack.add(StackItem.forBytes(chunk.data, chunk.type));
+            stack.add(StackItem.forBytes(chunk.data, chunk.type, false));
         } else {
             int opcode = chunk.opcode;
             if (opcode > OP_16) {
@@ -491,31 +741,34 @@ public class Interpreter {
             switch (opcode) {
                 case OP_IF:
                     if (!shouldExecute) {
-                        ifStack.add(false);
+                        pushIfCondition(false, tracing);
                         return false;
                     }
                     if (stack.size() < 1)
                         throw new ScriptExecutionException(state, "Attempted OP_IF on an empty stack");
-                    ifStack.add(castToBool(stack.pollLast().bytes()));
+                    pushIfCondition(castToBool(stack.pollLast().bytes()), tracing);
+                    skipFalseBranch();
                     return true;
                 case OP_NOTIF:
                     if (!shouldExecute) {
-                        ifStack.add(false);
+                        pushIfCondition(false, tracing);
                         return false;
                     }
                     if (stack.size() < 1)
                         throw new ScriptExecutionException(state, "Attempted OP_NOTIF on an empty stack");
-                    ifStack.add(!castToBool(stack.pollLast().bytes()));
+                    pushIfCondition(!castToBool(stack.pollLast().bytes()), tracing);
+                    skipFalseBranch();
                     return true;
                 case OP_ELSE:
-                    if (ifStack.isEmpty())
+                    if (ifDepth == 0)
                         throw new ScriptExecutionException(state, "Attempted OP_ELSE without OP_IF/NOTIF");
-                    ifStack.add(!ifStack.pollLast());
+                    pushIfCondition(!popIfCondition(), tracing);
+                    skipFalseBranch();
                     return true;
                 case OP_ENDIF:
-                    if (ifStack.isEmpty())
+                    if (ifDepth == 0)
                         throw new ScriptExecutionException(state, "Attempted OP_ENDIF without OP_IF/NOTIF");
-                    ifStack.pollLast();
+                    popIfCondition();
                     return true;
             }
 
@@ -525,7 +778,7 @@ public class Interpreter {
             switch (opcode) {
                 // OP_0 is no opcode
                 case OP_1NEGATE:
-                    stack.add(Type.INT, Utils.reverseBytes(Utils.encodeMPI(BigInteger.ONE.negate(), false)));
+                    stack.add(Type.INT, ScriptNum.encode(-1));
                     break;
                 case OP_1:
                 case OP_2:
@@ -642,7 +895,7 @@ public class Interpreter {
                     break;
                 case OP_DEPTH:
                     //depth can't be known at runtime unless you already know the size of the initial stack.
-                    stack.add(StackItem.wrapDerived(Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(stack.size()), false)), Type.INT, true));
+                    stack.add(StackItem.wrapDerived(ScriptNum.encode(stack.size()), Type.INT, true));
                     break;
                 case OP_DROP:
                     if (stack.size() < 1)
@@ -675,15 +928,11 @@ public class Interpreter {
 
                     StackItem rollVal = stack.pollLast();
 
-                    long val = castToBigInteger(state, rollVal, maxNumElementSize, enforceMinimal).longValue();
+                    long val = castToLong(state, rollVal, maxNumElementSize, enforceMinimal);
                     if (val < 0 || val >= stack.size())
                         throw new ScriptExecutionException(state, "OP_PICK/OP_ROLL attempted to get data deeper than stack size");
-                    Iterator<StackItem> itPICK = stack.descendingIterator();
-                    for (long i = 0; i < val; i++)
-                        itPICK.next();
-                    StackItem OPROLLtmpChunk = itPICK.next();
-                    if (opcode == OP_ROLL)
-                        itPICK.remove();
+                    int pickIndex = stack.size() - 1 - (int) val;
+                    StackItem OPROLLtmpChunk = opcode == OP_ROLL ? stack.remove(pickIndex) : stack.get(pickIndex);
                     //whether the value is derived doesn't depend on where in the stack
                     //it's picked from so just add the original StackItem
                     stack.add(OPROLLtmpChunk);
@@ -765,7 +1014,7 @@ public class Interpreter {
                         throw new ScriptExecutionException(state, "Invalid stack operation.");
 
                     StackItem numSizeItem = stack.pollLast();
-                    int numSize = castToBigInteger(state, numSizeItem, maxNumElementSize, enforceMinimal).intValue();
+                    int numSize = (int) castToLong(state, numSizeItem, maxNumElementSize, enforceMinimal);
 
                     if (numSize > maxScriptElementSize)
                         throw new ScriptExecutionException(state, "Push value size limit exceeded.");
@@ -815,7 +1064,7 @@ public class Interpreter {
                     if (stack.size() < 1)
                         throw new ScriptExecutionException(state, "Attempted OP_SIZE on an empty stack");
                     StackItem sizeItem = stack.getLast();
-                    stack.add(Type.INT, Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(sizeItem.length()), false)), sizeItem);
+                    stack.add(Type.INT, ScriptNum.encode(sizeItem.length()), sizeItem);
                     break;
                 case OP_INVERT:
                     // (x -- out)
@@ -925,6 +1174,14 @@ public class Interpreter {
                     if (stack.size() < 1)
                         throw new ScriptExecutionException(state, "Attempted a numeric op on an empty stack");
                     StackItem numericOpItem = stack.pollLast();
+                    checkNumber(state, numericOpItem, maxNumElementSize, enforceMinimal);
+                    if (ScriptNum.fitsInLong(numericOpItem)) {
+                        byte[] numericOPbytes = longNumericOp(opcode, ScriptNum.decode(numericOpItem.bytes()));
+                        if (numericOPbytes != null) {
+                            stack.add(Type.INT, numericOPbytes, numericOpItem);
+                            break;
+                        }
+                    }
                     BigInteger numericOPnum = castToBigInteger(state, numericOpItem, maxNumElementSize, enforceMinimal);
 
                     switch (opcode) {
@@ -981,11 +1238,21 @@ public class Interpreter {
                         throw new ScriptExecutionException(state, "Attempted a numeric op on a stack with size < 2");
                     StackItem numericOpItem2 = stack.pollLast();
                     StackItem numericOpItem1 = stack.pollLast();
+                    checkNumber(state, numericOpItem2, maxNumElementSize, enforceMinimal);
+                    checkNumber(state, numericOpItem1, maxNumElementSize, enforceMinimal);
+                    Type numericOPType = numericResultType(opcode);
+                    if (ScriptNum.fitsInLong(numericOpItem1) && ScriptNum.fitsInLong(numericOpItem2)) {
+                        byte[] numericOPbytes = longNumericOp(opcode, ScriptNum.decode(numericOpItem1.bytes()),
+                                ScriptNum.decode(numericOpItem2.bytes()));
+                        if (numericOPbytes != null) {
+                            stack.add(numericOPType, numericOPbytes, numericOpItem1, numericOpItem2);
+                            break;
+                        }
+                    }
                     BigInteger numericOPnum2 = castToBigInteger(state, numericOpItem2, maxNumElementSize, enforceMinimal);
                     BigInteger numericOPnum1 = castToBigInteger(state, numericOpItem1, maxNumElementSize, enforceMinimal);
 
                     BigInteger numericOPresult;
-                    Type numericOPType = Type.INT;
                     switch (opcode) {
                         case OP_ADD:
                             numericOPresult = numericOPnum1.add(numericOPnum2);
@@ -1023,56 +1290,48 @@ public class Interpreter {
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_BOOLOR:
                             if (!numericOPnum1.equals(BigInteger.ZERO) || !numericOPnum2.equals(BigInteger.ZERO))
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_NUMEQUAL:
                             if (numericOPnum1.equals(numericOPnum2))
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_NUMNOTEQUAL:
                             if (!numericOPnum1.equals(numericOPnum2))
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_LESSTHAN:
                             if (numericOPnum1.compareTo(numericOPnum2) < 0)
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_GREATERTHAN:
                             if (numericOPnum1.compareTo(numericOPnum2) > 0)
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_LESSTHANOREQUAL:
                             if (numericOPnum1.compareTo(numericOPnum2) <= 0)
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_GREATERTHANOREQUAL:
                             if (numericOPnum1.compareTo(numericOPnum2) >= 0)
                                 numericOPresult = BigInteger.ONE;
                             else
                                 numericOPresult = BigInteger.ZERO;
-                            numericOPType = Type.BOOL;
                             break;
                         case OP_MIN:
                             if (numericOPnum1.compareTo(numericOPnum2) < 0)
@@ -1095,10 +1354,18 @@ public class Interpreter {
                 case OP_NUMEQUALVERIFY:
                     if (stack.size() < 2)
                         throw new ScriptExecutionException(state, "Attempted OP_NUMEQUALVERIFY on a stack with size < 2");
-                    BigInteger OPNUMEQUALVERIFYnum2 = castToBigInteger(state, stack.pollLast(), maxNumElementSize, enforceMinimal);
-                    BigInteger OPNUMEQUALVERIFYnum1 = castToBigInteger(state, stack.pollLast(), maxNumElementSize, enforceMinimal);
-
-                    if (!OPNUMEQUALVERIFYnum1.equals(OPNUMEQUALVERIFYnum2))
+                    StackItem<?> OPNUMEQUALVERIFYitem2 = stack.pollLast();
+                    checkNumber(state, OPNUMEQUALVERIFYitem2, maxNumElementSize, enforceMinimal);
+                    StackItem<?> OPNUMEQUALVERIFYitem1 = stack.pollLast();
+                    checkNumber(state, OPNUMEQUALVERIFYitem1, maxNumElementSize, enforceMinimal);
+
+                    boolean OPNUMEQUALVERIFYequal;
+                    if (ScriptNum.fitsInLong(OPNUMEQUALVERIFYitem1) && ScriptNum.fitsInLong(OPNUMEQUALVERIFYitem2))
+                        OPNUMEQUALVERIFYequal = ScriptNum.decode(OPNUMEQUALVERIFYitem1.bytes()) == ScriptNum.decode(OPNUMEQUALVERIFYitem2.bytes());
+                    else
+                        OPNUMEQUALVERIFYequal = castToBigInteger(state, OPNUMEQUALVERIFYitem1, maxNumElementSize, enforceMinimal)
+                                .equals(castToBigInteger(state, OPNUMEQUALVERIFYitem2, maxNumElementSize, enforceMinimal));
+                    if (!OPNUMEQUALVERIFYequal)
                         throw new ScriptExecutionException(state, "OP_NUMEQUALVERIFY failed");
                     break;
                 case OP_WITHIN:
@@ -1107,16 +1374,21 @@ public class Interpreter {
                     StackItem OPWITHINitem3 = stack.pollLast();
                     StackItem OPWITHINitem2 = stack.pollLast();
                     StackItem OPWITHINitem1 = stack.pollLast();
-                    BigInteger OPWITHINnum3 = castToBigInteger(state, OPWITHINitem3, maxNumElementSize, enforceMinimal);
-                    BigInteger OPWITHINnum2 = castToBigInteger(state, OPWITHINitem2, maxNumElementSize, enforceMinimal);
-                    BigInteger OPWITHINnum1 = castToBigInteger(state, OPWITHINitem1, maxNumElementSize, enforceMinimal);
-                    byte[] OPWITHINresult;
-                    if (OPWITHINnum2.compareTo(OPWITHINnum1) <= 0 && OPWITHINnum1.compareTo(OPWITHINnum3) < 0)
-                        //normally we'd reverse bytes on output of encodeMPI but we are skipping because it's just one byte
-                        OPWITHINresult = Utils.encodeMPI(BigInteger.ONE, false);
-                    else
-                        OPWITHINresult = Utils.encodeMPI(BigInteger.ZERO, false);
-                    stack.add(Type.BOOL, Utils.reverseBytes(OPWITHINresult), OPWITHINitem1, OPWITHINitem2, OPWITHINitem3);
+                    checkNumber(state, OPWITHINitem3, maxNumElementSize, enforceMinimal);
+                    checkNumber(state, OPWITHINitem2, maxNumElementSize, enforceMinimal);
+                    checkNumber(state, OPWITHINitem1, maxNumElementSize, enforceMinimal);
+                    boolean OPWITHINresult;
+                    if (ScriptNum.fitsInLong(OPWITHINitem1) && ScriptNum.fitsInLong(OPWITHINitem2) && ScriptNum.fitsInLong(OPWITHINitem3)) {
+                        long OPWITHINnum1 = ScriptNum.decode(OPWITHINitem1.bytes());
+                        OPWITHINresult = ScriptNum.decode(OPWITHINitem2.bytes()) <= OPWITHINnum1
+                                && OPWITHINnum1 < ScriptNum.decode(OPWITHINitem3.bytes());
+                    } else {
+                        BigInteger OPWITHINnum3 = castToBigInteger(state, OPWITHINitem3, maxNumElementSize, enforceMinimal);
+                        BigInteger OPWITHINnum2 = castToBigInteger(state, OPWITHINitem2, maxNumElementSize, enforceMinimal);
+                        BigInteger OPWITHINnum1 = castToBigInteger(state, OPWITHINitem1, maxNumElementSize, enforceMinimal);
+                        OPWITHINresult = OPWITHINnum2.compareTo(OPWITHINnum1) <= 0 && OPWITHINnum1.compareTo(OPWITHINnum3) < 0;
+                    }
+                    stack.add(Type.BOOL, ScriptNum.encode(OPWITHINresult ? 1 : 0), OPWITHINitem1, OPWITHINitem2, OPWITHINitem3);
                     break;
                 case OP_RIPEMD160:
                     if (stack.size() < 1)
@@ -1242,7 +1514,7 @@ public class Interpreter {
             }
         }
 
-        if (!ifStack.isEmpty() && !opReturnCalled && !allowUnclosedIf)
+        if (ifDepth != 0 && !opReturnCalled && !allowUnclosedIf)
             throw new ScriptExecutionException(state, "OP_IF/OP_NOTIF without OP_ENDIF");
 
         if (scriptStateListener != null) {
@@ -1302,6 +1574,19 @@ public class Interpreter {
             throw new ScriptExecutionException(state, "Transaction contains a final transaction input for a CHECKLOCKTIMEVERIFY script.");
     }
 
+    /** Verifies a signature unless the signature cache already holds it, and adds it if it is valid. */
+    static boolean verifySignature(Sha256Hash hash, TransactionSignature sig, byte[] sigBytes, byte[] pubKey) {
+        SignatureCache cache = signatureCache;
+        if (cache == null || ECDSA.FAKE_SIGNATURES)
+            return ECDSA.verify(hash.getBytes(), sig, pubKey);
+        if (cache.contains(hash.getBytes(), sigBytes, pubKey))
+            return true;
+        boolean valid = ECDSA.verify(hash.getBytes(), sig, pubKey);
+        if (valid)
+            cache.add(hash.getBytes(), sigBytes, pubKey);
+        return valid;
+    }
+
     private static void executeCheckSig(ScriptExecutionState state, Tx txContainingThis, int index, ScriptStream script, ScriptStack stack,
                                         int lastCodeSepLocation, int opcode, Coin value,
                                         Set<ScriptVerifyFlag> verifyFlags, boolean allowFakeChecksig) throws ScriptExecutionException {
@@ -1328,7 +1613,8 @@ public class Interpreter {
         } catch (IOException e) {
             throw new RuntimeException(e); // Cannot happen
         }
-        connectedScript = SigHash.removeAllInstancesOf(connectedScript, outStream.toByteArray());
+        if (script.mayContainPush(script.getLastCodeSepIndex(), sigBytes.length()))
+            connectedScript = SigHash.removeAllInstancesOf(connectedScript, outStream.toByteArray());
 
         // TODO: Use int for indexes everywhere, we can't have that many inputs/outputs
         try {
@@ -1337,9 +1623,9 @@ public class Interpreter {
 
             // TODO: Should check hash type is known
             Sha256Hash hash = sig.useForkId() ?
-                    SigHash.hashForForkIdSignature(txContainingThis, index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
+                    SigHash.hashForForkIdSignature(state.getSigHashContext(), index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
                     SigHash.hashForLegacySignature(txContainingThis, index, connectedScript, (byte) sig.sighashFlags);
-            sigValid = allowFakeChecksig ? true : ECDSA.verify(hash.getBytes(), sig, pubKey.bytes());
+            sigValid = allowFakeChecksig ? true : verifySignature(hash, sig, sigBytes.bytes(), pubKey.bytes());
         } catch (Exception e1) {
             // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
             // Because I can't verify there aren't more, we use a very generic Exception catch
@@ -1377,7 +1663,7 @@ public class Interpreter {
 
         //we'll allow the highest possible pubKeyCount as it's immediately check after and this ensures
         //we get a meaningful error message
-        int pubKeyCount = castToBigInteger(state, pubKeyCountItem, MAX_NUM_ELEMENT_SIZE_POST_GENESIS, enforceMinimal).intValue();
+        int pubKeyCount = (int) castToLong(state, pubKeyCountItem, MAX_NUM_ELEMENT_SIZE_POST_GENESIS, enforceMinimal);
         if (pubKeyCount < 0 || pubKeyCount > maxKeys)
             throw new ScriptExecutionException(state, "OP_CHECKMULTISIG(VERIFY) with pubkey count out of range");
         opCount += pubKeyCount;
@@ -1396,7 +1682,7 @@ public class Interpreter {
 
         StackItem sigCountItem = stack.pollLast();
         polledStackItems.add(sigCountItem);
-        int sigCount = castToBigInteger(state, sigCountItem, maxKeys, enforceMinimal).intValue();
+        int sigCount = (int) castToLong(state, sigCountItem, maxKeys, enforceMinimal);
         if (sigCount < 0 || sigCount > pubKeyCount)
             throw new ScriptExecutionException(state, "OP_CHECKMULTISIG(VERIFY) with sig count out of range");
         if (stack.size() < sigCount + 1)
@@ -1418,7 +1704,8 @@ public class Interpreter {
             } catch (IOException e) {
                 throw new RuntimeException(e); // Cannot happen
             }
-            connectedScript = SigHash.removeAllInstancesOf(connectedScript, outStream.toByteArray());
+            if (script.mayContainPush(script.getLastCodeSepIndex(), sig.length()))
+                connectedScript = SigHash.removeAllInstancesOf(connectedScript, outStream.toByteArray());
         }
 
         boolean valid = true;
@@ -1430,9 +1717,9 @@ public class Interpreter {
                 TransactionSignature sig = TransactionSignature.decodeFromBitcoin(sigs.getFirst().bytes(), requireCanonical,
                         verifyFlags.contains(ScriptVerifyFlag.LOW_S));
                 Sha256Hash hash = sig.useForkId() ?
-                        SigHash.hashForForkIdSignature(txContainingThis, index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
+                        SigHash.hashForForkIdSignature(state.getSigHashContext(), index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
                         SigHash.hashForLegacySignature(txContainingThis, index, connectedScript, (byte) sig.sighashFlags);
-                if (allowFakeChecksig || ECDSA.verify(hash.getBytes(), sig, pubKey.bytes()))
+                if (allowFakeChecksig || verifySignature(hash, sig, sigs.getFirst().bytes(), pubKey.bytes()))
                     sigs.pollFirst();
             } catch (Exception e) {
                 // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
@@ -8,6 +8,7 @@ package io.bitcoinsv.bitcoinjsv.script.interpreter;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
 import io.bitcoinsv.bitcoinjsv.core.Coin;
 import io.bitcoinsv.bitcoinjsv.script.ScriptChunk;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
 import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
 
 import java.util.ArrayList;
@@ -15,10 +16,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * The state of a script's execution. The popped items, if stack and executed opcodes are only kept when a
+ * {@link ScriptStateListener} is attached to the interpreter.
+ */
 public class ScriptExecutionState {
 
     public Tx txContainingThis;
     public Coin value;
+    public SigHashContext sigHashContext;
 
     public ScriptStack stack;
     public List<StackItem> stackPopped;
@@ -43,6 +49,13 @@ public class ScriptExecutionState {
         return txContainingThis;
     }
 
+    /** Returns the sighash context for txContainingThis, creating one if none was given or it is for another tx. */
+    public SigHashContext getSigHashContext() {
+        if (sigHashContext == null || sigHashContext.getTx() != txContainingThis)
+            sigHashContext = new SigHashContext(txContainingThis);
+        return sigHashContext;
+    }
+
     public Coin getValue() {
         return value;
     }
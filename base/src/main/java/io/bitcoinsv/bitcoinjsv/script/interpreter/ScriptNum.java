@@ -0,0 +1,62 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+/**
+ * Script numbers held in a long. A script number is little endian sign and magnitude, so one of up to 8 bytes has at
+ * most 63 bits of magnitude and always fits. Nearly every number a script uses is that short, and the interpreter
+ * does arithmetic on them without going through BigInteger, falling back to it for longer numbers and for results
+ * that overflow.
+ */
+final class ScriptNum {
+
+    /** The longest encoding that always decodes into a long. */
+    static final int MAX_LONG_LENGTH = 8;
+
+    private static final byte[] ZERO = new byte[0];
+
+    private ScriptNum() {
+    }
+
+    static boolean fitsInLong(StackItem<?> item) {
+        return item.length() <= MAX_LONG_LENGTH;
+    }
+
+    /**
+     * Decodes a number of at most {@link #MAX_LONG_LENGTH} bytes. As with BigInteger decoding the number needn't be
+     * minimally encoded, and negative zero is zero.
+     */
+    static long decode(byte[] bytesLE) {
+        int last = bytesLE.length - 1;
+        if (last < 0)
+            return 0;
+        long magnitude = 0;
+        for (int i = 0; i < last; i++)
+            magnitude |= (bytesLE[i] & 0xFFL) << (8 * i);
+        magnitude |= (bytesLE[last] & 0x7FL) << (8 * last);
+        return (bytesLE[last] & 0x80) != 0 ? -magnitude : magnitude;
+    }
+
+    /**
+     * Encodes a number minimally, giving the same bytes as
+     * {@code Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(value), false))}.
+     */
+    static byte[] encode(long value) {
+        if (value == 0)
+            return ZERO;
+        // Long.MIN_VALUE negates to itself, and as an unsigned magnitude is still right.
+        long magnitude = value < 0 ? -value : value;
+        // One more bit than the magnitude needs, for the sign.
+        int length = (64 - Long.numberOfLeadingZeros(magnitude) + 8) / 8;
+        byte[] bytesLE = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytesLE[i] = (byte) magnitude;
+            magnitude >>>= 8;
+        }
+        if (value < 0)
+            bytesLE[length - 1] |= 0x80;
+        return bytesLE;
+    }
+}
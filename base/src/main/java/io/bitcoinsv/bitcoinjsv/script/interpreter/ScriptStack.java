@@ -9,15 +9,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
-import java.util.stream.Stream;
 
-public class ScriptStack extends LinkedList<StackItem> {
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The interpreter's main and alt stacks. The top of the stack is the last item. Items are held in a growable array,
+ * so pushing and popping are amortised O(1) and, unlike the LinkedList this used to extend, so is reaching into the
+ * stack by index for OP_PICK and OP_ROLL, which matters post-Genesis when a stack can hold millions of items.
+ *
+ * The stack keeps a running total of the bytes it holds for the consensus stack memory limit, and, when something
+ * is stepping through the script, remembers the items popped by each opcode.
+ */
+public class ScriptStack extends AbstractList<StackItem> implements RandomAccess {
 
     private static final Logger log = LoggerFactory.getLogger(ScriptStack.class);
 
+    private static final int DEFAULT_CAPACITY = 16;
+
     /**
      * A global flag to turn on an extra check when getting stackmemoryusage. The extra
      * check manually iterates the entire stack and calculates the usage manually. This
@@ -27,38 +38,46 @@ public class ScriptStack extends LinkedList<StackItem> {
     public static boolean VERIFY_STACK_MEMEORY_USAGE = false;
 
     private final boolean verifyStackMemoryUsage;
+    private StackItem[] items;
+    private int size = 0;
     private long stackBytes = 0;
 
     //no opcode removes more than 4 items from the stack except CHECKMULTISIG
-    private List<StackItem> poppedItems = new ArrayList(4);
+    private final List<StackItem> poppedItems = new ArrayList<>(4);
+    private boolean trackPoppedItems = true;
+    private boolean trackDerivations = true;
 
     public ScriptStack(ScriptStack stack) {
-        super(stack);
+        items = Arrays.copyOf(stack.items, Math.max(stack.size, DEFAULT_CAPACITY));
+        size = stack.size;
         stackBytes = stack.stackBytes;
         verifyStackMemoryUsage = stack.verifyStackMemoryUsage;
+        trackPoppedItems = stack.trackPoppedItems;
+        trackDerivations = stack.trackDerivations;
     }
 
     public ScriptStack(Collection<? extends StackItem> c, boolean verifyStackMemoryUsage) {
-        this();
+        items = new StackItem[Math.max(c.size(), DEFAULT_CAPACITY)];
+        this.verifyStackMemoryUsage = verifyStackMemoryUsage;
         addAll(c);
     }
 
     public ScriptStack() {
-        super();
+        items = new StackItem[DEFAULT_CAPACITY];
         this.verifyStackMemoryUsage = VERIFY_STACK_MEMEORY_USAGE;
     }
 
     /**
      * Set the stack state of all contained items to derived.
-     * TODO inefficient implementation since we are index accessing LinkedList, probably doesn't matter until we have very large scripts.
      *
      * @param derived whether the stack state should be considered known to the execution context.  If in doubt set to true
      * @return
      */
     public void setDerivations(boolean derived) {
-        for (int i = 0; i < this.size(); i++) {
-            StackItem old = this.get(i);
-            set(i, StackItem.wrapDerived(old.bytes(), old.getType(), derived));
+        for (int i = 0; i < size; i++) {
+            StackItem old = items[i];
+            //same bytes so stackBytes doesn't change
+            items[i] = StackItem.wrapDerived(old.bytes(), old.getType(), derived);
         }
     }
 
@@ -109,6 +128,33 @@ public class ScriptStack extends LinkedList<StackItem> {
         return stackBytes;
     }
 
+    /**
+     * Sets whether items popped from the stack are remembered for {@link #getPoppedItems()}. Only a
+     * {@link ScriptStateListener} looks at them, so the interpreter turns this off when none is attached.
+     */
+    public void setTrackPoppedItems(boolean trackPoppedItems) {
+        this.trackPoppedItems = trackPoppedItems;
+        if (!trackPoppedItems)
+            poppedItems.clear();
+    }
+
+    public boolean isTrackPoppedItems() {
+        return trackPoppedItems;
+    }
+
+    /**
+     * Sets whether items added with the items they were derived from are marked derived if any of those are. When
+     * off such items are pushed as they are, saving a copy of each. The interpreter only tracks derivations for a
+     * {@link ScriptStateListener}.
+     */
+    public void setTrackDerivations(boolean trackDerivations) {
+        this.trackDerivations = trackDerivations;
+    }
+
+    public boolean isTrackDerivations() {
+        return trackDerivations;
+    }
+
     public void clearPoppedItems() {
         poppedItems.clear();
     }
@@ -125,79 +171,130 @@ public class ScriptStack extends LinkedList<StackItem> {
         return Collections.unmodifiableList(this);
     }
 
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public StackItem get(int index) {
+        checkElementIndex(index, size);
+        return items[index];
+    }
+
     public boolean add(StackItem item) {
+        if (size == items.length)
+            items = Arrays.copyOf(items, size + (size >> 1));
+        items[size++] = item;
         stackBytes += item.length();
-        return super.add(item);
+        modCount++;
+        return true;
     }
 
     public boolean add(StackItem from, StackItem ... derivedFrom) {
-        return add(StackItem.from(from, derivedFrom));
+        return add(trackDerivations ? StackItem.from(from, derivedFrom) : from);
     }
 
     public boolean add(StackItem.Type type, byte[] bytes, StackItem ... derivedFrom) {
-        return add(StackItem.forBytes(bytes, type, derivedFrom));
+        return add(trackDerivations ? StackItem.forBytes(bytes, type, derivedFrom) : StackItem.forBytes(bytes, type, false));
     }
 
     @Override
-    public void addLast(StackItem stackItem) {
-        throw new UnsupportedOperationException();
-//        stackBytes += stackItem.length();
-//        super.addLast(stackItem);
+    public boolean addAll(Collection<? extends StackItem> c) {
+        if (size + c.size() > items.length)
+            items = Arrays.copyOf(items, size + c.size());
+        for (StackItem item: c)
+            add(item);
+        return !c.isEmpty();
     }
 
-    @Override
+    /**
+     * Returns the top item.
+     * @throws NoSuchElementException if the stack is empty
+     */
     public StackItem getLast() {
-        return super.getLast();
+        if (size == 0)
+            throw new NoSuchElementException();
+        return items[size - 1];
     }
 
-    @Override
+    /**
+     * Returns the bottom item.
+     * @throws NoSuchElementException if the stack is empty
+     */
+    public StackItem getFirst() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return items[0];
+    }
+
+    /** Returns the top item, or null if the stack is empty. */
+    public StackItem peekLast() {
+        return size == 0 ? null : items[size - 1];
+    }
+
+    /** Returns the bottom item, or null if the stack is empty. */
+    public StackItem peekFirst() {
+        return size == 0 ? null : items[0];
+    }
+
+    /** Removes and returns the top item, or returns null if the stack is empty. */
     public StackItem pollLast() {
-        StackItem item = super.pollLast();
-        stackBytes -= item.length();
-        poppedItems.add(item);
+        if (size == 0)
+            return null;
+        StackItem item = items[--size];
+        items[size] = null;
+        popped(item);
         return item;
     }
 
+    /**
+     * Removes the item at the index, counting from the bottom, and moves the items above it down. Used by OP_ROLL.
+     */
     @Override
-    public boolean addAll(Collection<? extends StackItem> c) {
-        int size = size();
-        for (StackItem item: c)
-            add(item);
-        return size != size();
+    public StackItem remove(int index) {
+        checkElementIndex(index, size);
+        StackItem item = items[index];
+        System.arraycopy(items, index + 1, items, index, size - index - 1);
+        items[--size] = null;
+        popped(item);
+        return item;
+    }
+
+    private void popped(StackItem item) {
+        stackBytes -= item.length();
+        modCount++;
+        if (trackPoppedItems)
+            poppedItems.add(item);
     }
 
     @Override
     public void clear() {
-        super.clear();
+        Arrays.fill(items, 0, size, null);
+        size = 0;
         stackBytes = 0;
+        modCount++;
     }
 
     @Override
     public StackItem set(int index, StackItem element) {
-        StackItem old = super.set(index, element);
-        if (old != null)
-            stackBytes -= old.length();
-        stackBytes += element.length();
+        checkElementIndex(index, size);
+        StackItem old = items[index];
+        items[index] = element;
+        stackBytes += element.length() - old.length();
         return old;
     }
 
-    @Override
+    /**
+     * Iterates from the top of the stack down. The iterator's remove() removes the item from the stack as if popped.
+     */
     public Iterator<StackItem> descendingIterator() {
-        return new StackIterator(super.descendingIterator());
-    }
-
-    public Iterator<StackItem> iterator() {
-        return listIterator();
-    }
-
-    @Override
-    public ListIterator<StackItem> listIterator() {
-        return new StackIterator(super.listIterator(0));
-    }
-
-    @Override
-    public ListIterator<StackItem> listIterator(int index) {
-        return new StackIterator(super.listIterator(index));
+        return new DescendingIterator();
     }
 
     public String toString() {
@@ -238,85 +335,33 @@ public class ScriptStack extends LinkedList<StackItem> {
         return sb.toString();
     }
 
-    private class StackIterator implements ListIterator<StackItem> {
-
-        private final Iterator<StackItem> delegate;
-        private StackItem last;
+    private class DescendingIterator implements Iterator<StackItem> {
 
-        public StackIterator(Iterator<StackItem> delegate) {
-            this.delegate = delegate;
-        }
+        private int next = size - 1;
+        private int last = -1;
 
         @Override
         public boolean hasNext() {
-            return delegate.hasNext();
+            return next >= 0;
         }
 
         @Override
         public StackItem next() {
-            last = delegate.next();
-            return last;
+            if (next < 0)
+                throw new NoSuchElementException();
+            last = next--;
+            return items[last];
         }
 
         @Override
         public void remove() {
-            stackBytes -= last.length();
-            poppedItems.add(last);
-            delegate.remove();
-            last = null;
-        }
-
-        @Override
-        public boolean hasPrevious() {
-            throw new UnsupportedOperationException();
+            checkState(last >= 0);
+            // the items above move down, so the next one down keeps its index
+            ScriptStack.this.remove(last);
+            last = -1;
         }
-
-        @Override
-        public StackItem previous() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int nextIndex() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int previousIndex() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void set(StackItem stackItem) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void add(StackItem stackItem) {
-            throw new UnsupportedOperationException();
-        }
-
-
     }
 
-
-    @Override
-    public int indexOf(Object o) {
-        return super.indexOf(o);
-    }
-
-    @Override
-    public int lastIndexOf(Object o) {
-        return super.lastIndexOf(o);
-    }
-
-    @Override
-    public StackItem element() {
-        return super.element();
-    }
-
-
-
     // NOT IMPLEMENTED
 
     @Override
@@ -324,21 +369,6 @@ public class ScriptStack extends LinkedList<StackItem> {
         throw new UnsupportedOperationException();
     }
 
-    @Override
-    public StackItem removeFirst() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public StackItem removeLast() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void addFirst(StackItem stackItem) {
-        throw new UnsupportedOperationException();
-    }
-
     @Override
     public boolean remove(Object o) {
         throw new UnsupportedOperationException();
@@ -349,66 +379,6 @@ public class ScriptStack extends LinkedList<StackItem> {
         throw new UnsupportedOperationException();
     }
 
-    @Override
-    public StackItem remove(int index) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public StackItem poll() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public StackItem remove() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean offer(StackItem stackItem) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean offerFirst(StackItem stackItem) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean offerLast(StackItem stackItem) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public StackItem pollFirst() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public void push(StackItem stackItem) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public StackItem pop() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean removeFirstOccurrence(Object o) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public boolean removeLastOccurrence(Object o) {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public Spliterator<StackItem> spliterator() {
-        throw new UnsupportedOperationException();
-    }
-
     @Override
     protected void removeRange(int fromIndex, int toIndex) {
         throw new UnsupportedOperationException();
@@ -431,21 +401,7 @@ public class ScriptStack extends LinkedList<StackItem> {
 
     @Override
     public boolean removeIf(Predicate<? super StackItem> filter) {
-        return false;
-    }
-
-    @Override
-    public Stream<StackItem> stream() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public Stream<StackItem> parallelStream() {
         throw new UnsupportedOperationException();
     }
 
-    @Override
-    public void forEach(Consumer<? super StackItem> action) {
-    }
-
 }
@@ -82,6 +82,17 @@ public interface ScriptStream extends Iterator<ScriptChunk>, Iterable<ScriptChun
         return bos.toByteArray();
     }
 
+    /**
+     * Whether the program from a specified point might hold a push of data of the given length, so a signature of
+     * that length has to be searched for and removed from it. Streams that don't know say it might.
+     * @param chunkIndex
+     * @param length
+     * @return
+     */
+    default boolean mayContainPush(int chunkIndex, int length) {
+        return true;
+    }
+
     /**
      * @return size (in bytes) of the next element including op_code + data if present.
      */
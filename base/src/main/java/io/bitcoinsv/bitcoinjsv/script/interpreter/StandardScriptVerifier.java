@@ -0,0 +1,209 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptChunk;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import io.bitcoinsv.bitcoinjsv.script.SigHash;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+
+/**
+ * Checks inputs spending the standard output scripts, pay to public key hash, pay to public key and bare multisig,
+ * without the interpreter: the hash compared and the signatures verified directly, with none of the stack or opcode
+ * dispatch around them. Nearly every input in a block is one of these.
+ *
+ * It only ever says an input is valid. Anything out of the ordinary, a scriptSig that isn't just the pushes the
+ * template expects, a push the interpreter would refuse, a signature that doesn't decode or verify, leaves it to
+ * {@link Interpreter} to decide, so what is accepted and rejected, and the reason a script fails, are the
+ * interpreter's own.
+ */
+public final class StandardScriptVerifier {
+
+    /** The forms of scriptPubKey checked here. */
+    public enum Template {
+        /** DUP HASH160 &lt;pubkey hash&gt; EQUALVERIFY CHECKSIG */
+        PAY_TO_PUBKEY_HASH,
+        /** &lt;pubkey&gt; CHECKSIG */
+        PAY_TO_PUBKEY,
+        /** OP_m &lt;pubkey&gt;... OP_n CHECKMULTISIG */
+        MULTISIG,
+        /** Anything else, which runs through the interpreter. */
+        OTHER
+    }
+
+    private static volatile boolean enabled = true;
+
+    private StandardScriptVerifier() {
+    }
+
+    /** Returns false if every input is run through the interpreter. */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Set to false to run every input through the interpreter. */
+    public static void setEnabled(boolean enabled) {
+        StandardScriptVerifier.enabled = enabled;
+    }
+
+    /** Returns which of the standard forms the script takes, if any. */
+    public static Template templateOf(Script script) {
+        if (script.isSentToAddress())
+            return Template.PAY_TO_PUBKEY_HASH;
+        if (script.isSentToRawPubKey())
+            return Template.PAY_TO_PUBKEY;
+        if (script.isSentToMultiSig() && script.getChunks().get(script.getChunks().size() - 1).equalsOpCode(OP_CHECKMULTISIG))
+            return Template.MULTISIG;
+        return Template.OTHER;
+    }
+
+    /**
+     * Returns true if the scriptSig is found to correctly spend the scriptPubKey. False means only that it couldn't
+     * be shown here, and the interpreter has to be run to find out.
+     */
+    public static boolean verify(Script scriptSig, Tx txContainingThis, long scriptSigIndex, CompiledScript scriptPubKey,
+                                 Coin value, Set<ScriptVerifyFlag> verifyFlags, @Nullable SigHashContext sigHashContext) {
+        if (!enabled)
+            return false;
+        return verify(scriptSig.getChunks(), scriptPubKey.getScript().getChunks(), txContainingThis,
+                (int) scriptSigIndex, scriptPubKey, value, verifyFlags, sigHashContext);
+    }
+
+    private static <C extends ScriptChunk<?>> boolean verify(List<C> sigChunks, List<C> chunks, Tx txContainingThis,
+                                                             int index, CompiledScript scriptPubKey, Coin value,
+                                                             Set<ScriptVerifyFlag> verifyFlags,
+                                                             @Nullable SigHashContext sigHashContext) {
+        switch (scriptPubKey.getTemplate()) {
+            case PAY_TO_PUBKEY_HASH: {
+                if (sigChunks.size() != 2 || !isPush(sigChunks.get(0)) || !isPush(sigChunks.get(1)))
+                    return false;
+                byte[] pubKey = sigChunks.get(1).data();
+                if (!Arrays.equals(Utils.sha256hash160(pubKey), chunks.get(2).data()))
+                    return false;
+                return checkSig(sigChunks.get(0).data(), pubKey, txContainingThis, index, scriptPubKey, value,
+                        verifyFlags, sigHashContext);
+            }
+            case PAY_TO_PUBKEY: {
+                if (sigChunks.size() != 1 || !isPush(sigChunks.get(0)) || !isPush(chunks.get(0)))
+                    return false;
+                return checkSig(sigChunks.get(0).data(), chunks.get(0).data(), txContainingThis, index, scriptPubKey,
+                        value, verifyFlags, sigHashContext);
+            }
+            case MULTISIG:
+                return checkMultiSig(sigChunks, chunks, txContainingThis, index, scriptPubKey, value, verifyFlags,
+                        sigHashContext);
+            default:
+                return false;
+        }
+    }
+
+    // A push the interpreter makes under any flags.
+    private static boolean isPush(ScriptChunk<?> chunk) {
+        return !chunk.isOpCode() && chunk.data != null && chunk.data.length() <= Interpreter.MAX_SCRIPT_ELEMENT_SIZE;
+    }
+
+    private static boolean checkSig(byte[] sigBytes, byte[] pubKey, Tx txContainingThis, int index,
+                                    CompiledScript scriptPubKey, Coin value, Set<ScriptVerifyFlag> verifyFlags,
+                                    @Nullable SigHashContext sigHashContext) {
+        // The interpreter would remove the signature from the script it hashes.
+        if (scriptPubKey.mayContainPush(0, sigBytes.length))
+            return false;
+        TransactionSignature sig = decode(sigBytes, verifyFlags);
+        if (sig == null)
+            return false;
+        try {
+            Sha256Hash hash = hash(sig, txContainingThis, index, scriptPubKey, value, sigHashContext);
+            return Interpreter.verifySignature(hash, sig, sigBytes, pubKey);
+        } catch (Exception e) {
+            // The interpreter treats anything thrown here as a signature that doesn't verify.
+            return false;
+        }
+    }
+
+    /**
+     * Pairs signatures with keys as the interpreter does: starting from the last of each, a signature that verifies
+     * against a key moves on to the next signature, and every key is tried once.
+     */
+    private static <C extends ScriptChunk<?>> boolean checkMultiSig(List<C> sigChunks, List<C> chunks,
+                                                                    Tx txContainingThis, int index,
+                                                                    CompiledScript scriptPubKey, Coin value,
+                                                                    Set<ScriptVerifyFlag> verifyFlags,
+                                                                    @Nullable SigHashContext sigHashContext) {
+        int sigCount = decodeFromOpN(chunks.get(0).opcode);
+        int keyCount = decodeFromOpN(chunks.get(chunks.size() - 2).opcode);
+        if (sigCount > keyCount || sigChunks.size() != sigCount + 1 || sigChunks.get(0).opcode != OP_0)
+            return false;
+        for (int i = 1; i <= keyCount; i++)
+            if (!isPush(chunks.get(i)))
+                return false;
+        for (int i = 1; i <= sigCount; i++)
+            if (!isPush(sigChunks.get(i)) || scriptPubKey.mayContainPush(0, sigChunks.get(i).data.length()))
+                return false;
+        int sig = sigCount;
+        TransactionSignature decoded = null;
+        Sha256Hash hash = null;
+        for (int key = keyCount; key >= 1 && sig >= 1 && sig <= key; key--) {
+            byte[] sigBytes = sigChunks.get(sig).data();
+            if (hash == null) {
+                decoded = decode(sigBytes, verifyFlags);
+                if (decoded == null)
+                    continue;
+                try {
+                    hash = hash(decoded, txContainingThis, index, scriptPubKey, value, sigHashContext);
+                } catch (Exception e) {
+                    continue;
+                }
+            }
+            try {
+                if (Interpreter.verifySignature(hash, decoded, sigBytes, chunks.get(key).data())) {
+                    sig--;
+                    hash = null;
+                }
+            } catch (Exception e) {
+                // As the interpreter, a key that can't be used is passed over.
+            }
+        }
+        return sig == 0;
+    }
+
+    // Returns the hash the signature signs, as the interpreter works it out.
+    private static Sha256Hash hash(TransactionSignature sig, Tx txContainingThis, int index,
+                                   CompiledScript scriptPubKey, Coin value, @Nullable SigHashContext sigHashContext) {
+        byte[] connectedScript = scriptPubKey.stream().getProgramFrom(0);
+        if (!sig.useForkId())
+            return SigHash.hashForLegacySignature(txContainingThis, index, connectedScript, (byte) sig.sighashFlags);
+        if (sigHashContext == null || sigHashContext.getTx() != txContainingThis)
+            sigHashContext = new SigHashContext(txContainingThis);
+        return SigHash.hashForForkIdSignature(sigHashContext, index, connectedScript, value, sig.sigHashMode(),
+                sig.anyoneCanPay());
+    }
+
+    @Nullable
+    private static TransactionSignature decode(byte[] sigBytes, Set<ScriptVerifyFlag> verifyFlags) {
+        boolean requireCanonical = verifyFlags.contains(ScriptVerifyFlag.STRICTENC)
+                || verifyFlags.contains(ScriptVerifyFlag.DERSIG)
+                || verifyFlags.contains(ScriptVerifyFlag.LOW_S);
+        try {
+            return TransactionSignature.decodeFromBitcoin(sigBytes, requireCanonical,
+                    verifyFlags.contains(ScriptVerifyFlag.LOW_S));
+        } catch (Exception e) {
+            // The interpreter treats anything thrown here as a signature that doesn't verify.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded cache shared by threads verifying in parallel. It is split into segments by key hash, each a least
+ * recently used map behind its own lock, so threads rarely wait for each other. Lookups count hits and misses for
+ * {@link #getHitRate()}, and entries dropped to make room are counted as evictions.
+ *
+ * Subclasses choose the key and decide what to do on a miss, through {@link #lookup(Object)},
+ * {@link #putIfAbsent(Object, Object)} and {@link #put(Object, Object)}. Keys must not change once stored.
+ */
+public abstract class SegmentedLruCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final List<Segment<K, V>> segments = new ArrayList<>(SEGMENTS);
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    protected SegmentedLruCache(int maxEntries) {
+        checkArgument(maxEntries >= SEGMENTS, "a cache needs at least %s entries", SEGMENTS);
+        this.maxEntries = maxEntries;
+        for (int i = 0; i < SEGMENTS; i++)
+            segments.add(new Segment<>((maxEntries + SEGMENTS - 1) / SEGMENTS, evictions));
+    }
+
+    /** Returns the value held for the key, or null, counting a hit or a miss. */
+    protected V lookup(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    /**
+     * Keeps the value unless the key already has one, and returns whichever is held. A value worked out outside the
+     * lock after a miss goes in this way, so if two threads both worked it out the first to finish is kept.
+     */
+    protected V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V existing = segment.putIfAbsent(key, value);
+            return existing != null ? existing : value;
+        }
+    }
+
+    /** Keeps the value for the key, replacing any held. */
+    protected void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** Returns the number of entries held. */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Returns the number of entries dropped to make room for others. */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Returns the fraction of lookups that found an entry, or 0 if there have been none. */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /** Drops every entry and zeroes the counters. */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{size=%d, maxEntries=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f}",
+                getClass().getSimpleName(), size(), maxEntries, getHits(), getMisses(), getEvictions(),
+                getHitRate());
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+        private final LongAdder evictions;
+
+        Segment(int maxEntries, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -198,4 +198,25 @@ public class Threading {
                 }
             })
     );
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    // Compute pool.
+    //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A fork join pool for CPU bound work that is split into parallel chunks, such as hashing the transactions of a
+     * large block. It has one daemon thread per core. Replace it to bound or share that work with the application.
+     */
+    public static ForkJoinPool COMPUTE_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    t.setName("Threading.COMPUTE_POOL worker " + t.getPoolIndex());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, null, false);
 }
@@ -0,0 +1,77 @@
+package io.bitcoinsv.bitcoinjsv.bitcoin;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.LazyFullBlockBean;
+import test.utils.TestBlockGenerator;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Function;
+
+/**
+ * Measures how much is allocated, and how much stays live, when parsing a large synthetic block with and without
+ * shared payload mode, and lazily with {@link LazyFullBlockBean}. The "+ txids" runs model an indexer, which parses
+ * the block and hashes every transaction. The block size in MB is the first argument and defaults to 1024, which
+ * needs a heap of roughly 8GB for the copying parse, e.g. {@code java -Xmx8g ... FullBlockBeanAllocationBenchmark}.
+ *
+ * Allocation is read from the HotSpot per thread allocation counter, which is what the parse runs on.
+ */
+public class FullBlockBeanAllocationBenchmark {
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int numTxs = (int) ((long) megabytes * 1024 * 1024 / TestBlockGenerator.SYNTHETIC_TX_SIZE);
+        byte[] block = TestBlockGenerator.syntheticBlockBytes(numTxs, 1);
+        System.out.printf("block=%,d bytes txs=%,d%n", block.length, numTxs);
+
+        // Warm up on a small block so the parse is compiled before it is measured.
+        byte[] small = TestBlockGenerator.syntheticBlockBytes(10_000, 2);
+        for (int i = 0; i < 20; i++) {
+            new FullBlockBean(small);
+            eagerTxids(new FullBlockBean(small, 0, true));
+            lazyTxids(new LazyFullBlockBean(small));
+        }
+
+        measure("copied", block, bytes -> new FullBlockBean(bytes));
+        measure("shared", block, bytes -> new FullBlockBean(bytes, 0, true));
+        measure("lazy", block, LazyFullBlockBean::new);
+        measure("shared + txids", block, bytes -> eagerTxids(new FullBlockBean(bytes, 0, true)));
+        measure("lazy + txids", block, bytes -> lazyTxids(new LazyFullBlockBean(bytes)));
+    }
+
+    private static FullBlockBean eagerTxids(FullBlockBean block) {
+        for (Tx tx : block.getTransactions())
+            tx.getHash();
+        return block;
+    }
+
+    private static FullBlockBean lazyTxids(LazyFullBlockBean block) {
+        for (int i = 0; i < block.getTransactions().size(); i++)
+            block.getTxHash(i);
+        return block;
+    }
+
+    private static void measure(String name, byte[] block, Function<byte[], FullBlockBean> parse) {
+        long liveBefore = liveBytes();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        FullBlockBean parsed = parse.apply(block);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        long allocated = allocatedBytes() - allocatedBefore;
+        long retained = liveBytes() - liveBefore;
+        System.out.printf("%s: allocated=%,d MB retained=%,d MB (%.2fx block) time=%,d ms txs=%,d%n",
+                name, allocated >> 20, retained >> 20, retained / (double) block.length, millis,
+                parsed.getTransactions().size());
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long liveBytes() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
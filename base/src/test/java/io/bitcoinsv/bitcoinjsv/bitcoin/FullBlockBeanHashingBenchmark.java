@@ -0,0 +1,53 @@
+package io.bitcoinsv.bitcoinjsv.bitcoin;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import test.utils.TestBlockGenerator;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures {@link FullBlockBean#calculateTxHashes(ForkJoinPool)} on a large synthetic block with pools of 1, 2, 4 ...
+ * threads up to the number of cores, against a plain loop on the calling thread. The number of transactions is the
+ * first argument and defaults to 1,000,000. Each run parses a fresh block, as hashes are cached once calculated, and
+ * only the hashing is timed.
+ */
+public class FullBlockBeanHashingBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int numTxs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        byte[] block = TestBlockGenerator.syntheticBlockBytes(numTxs, 1);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("block=%,d bytes txs=%,d cores=%d%n", block.length, numTxs, cores);
+
+        long sequential = best(block, null);
+        System.out.printf("loop: %,d ms%n", sequential / 1_000_000);
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long nanos = best(block, pool);
+            pool.shutdown();
+            System.out.printf("pool of %d: %,d ms (%.2fx)%n", threads, nanos / 1_000_000, sequential / (double) nanos);
+            if (threads == cores)
+                break;
+        }
+    }
+
+    /** Returns the fastest of a few runs, in nanoseconds. A null pool hashes with a loop on this thread. */
+    private static long best(byte[] bytes, ForkJoinPool pool) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            FullBlockBean block = new FullBlockBean(bytes, 0, true);
+            long start = System.nanoTime();
+            if (pool == null) {
+                for (Tx tx : block.getTransactions())
+                    tx.getHash();
+            } else {
+                block.calculateTxHashes(pool);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
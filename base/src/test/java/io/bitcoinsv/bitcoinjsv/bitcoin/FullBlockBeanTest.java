@@ -1,13 +1,20 @@
 package io.bitcoinsv.bitcoinjsv.bitcoin;
 
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.FullBlock;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxInput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.BitcoinObjectImpl;
 import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
 import io.bitcoinsv.bitcoinjsv.core.UnsafeByteArrayOutputStream;
 import io.bitcoinsv.bitcoinjsv.params.UnitTestParams;
 import org.junit.jupiter.api.Test;
+import test.utils.TestBlockGenerator;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -38,4 +45,80 @@ public class FullBlockBeanTest {
         }
 
     }
+
+    @Test
+    public void testSharedPayloadParse() throws Exception {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(50, 1);
+        FullBlockBean copied = new FullBlockBean(bytes);
+        FullBlockBean shared = new FullBlockBean(bytes, 0, true);
+
+        assertFalse(((BitcoinObjectImpl) copied.getTransactions().get(0)).sharesPayload());
+        assertTrue(((BitcoinObjectImpl) shared.getTransactions().get(0)).sharesPayload());
+        assertTrue(((BitcoinObjectImpl) shared.getTransactions().get(0).getInputs().get(0).getOutpoint()).sharesPayload());
+
+        assertEquals(copied.getHash(), shared.getHash());
+        assertEquals(copied.getHeader().getMerkleRoot(), shared.calculateMerkleRoot());
+        assertEquals(50, shared.getTransactions().size());
+        for (int i = 0; i < 50; i++) {
+            Tx expected = copied.getTransactions().get(i);
+            Tx actual = shared.getTransactions().get(i);
+            assertEquals(expected.getHash(), actual.getHash());
+            assertEquals(expected.getMessageSize(), actual.getMessageSize());
+            assertArrayEquals(expected.serialize(), actual.serialize());
+            TxInput input = actual.getInputs().get(0);
+            assertEquals(expected.getInputs().get(0).getOutpoint().getHash(), input.getOutpoint().getHash());
+            assertArrayEquals(expected.getInputs().get(0).getScriptBytes(), input.getScriptBytes());
+            TxOutput output = actual.getOutputs().get(1);
+            assertEquals(expected.getOutputs().get(1).getValue(), output.getValue());
+            assertArrayEquals(expected.getOutputs().get(1).getScriptBytes(), output.getScriptBytes());
+        }
+        assertArrayEquals(bytes, shared.serialize());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        shared.serializeTo(out);
+        assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    @Test
+    public void testSharedPayloadCopiesOnMutation() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(3, 2);
+        byte[] original = bytes.clone();
+        FullBlockBean shared = new FullBlockBean(bytes, 0, true);
+        Tx tx = shared.getTransactions().get(1);
+        Tx untouched = shared.getTransactions().get(2);
+        byte[] untouchedScript = untouched.getOutputs().get(0).getScriptBytes().clone();
+        byte[] inputScript = new FullBlockBean(original).getTransactions().get(1).getInputs().get(0).getScriptBytes();
+
+        // Makes the whole transaction mutable, so its payload is dropped before any script has been read.
+        TxOutput output = tx.getOutputs().get(0);
+        output.makeMutable();
+        byte[] modified = new byte[] {0x51};
+        output.setScriptBytes(modified);
+
+        assertArrayEquals(original, bytes, "the shared payload must never be written to");
+        assertArrayEquals(modified, tx.getOutputs().get(0).getScriptBytes());
+        assertArrayEquals(inputScript, tx.getInputs().get(0).getScriptBytes());
+        assertArrayEquals(untouchedScript, untouched.getOutputs().get(0).getScriptBytes());
+
+        FullBlock reparsed = new FullBlockBean(shared.serialize());
+        assertEquals(tx.getHash(), reparsed.getTransactions().get(1).getHash());
+        assertArrayEquals(modified, reparsed.getTransactions().get(1).getOutputs().get(0).getScriptBytes());
+        assertEquals(untouched.getHash(), reparsed.getTransactions().get(2).getHash());
+    }
+
+    @Test
+    public void testCalculateTxHashesInParallel() {
+        int numTxs = FullBlockBean.TX_HASH_CHUNK * 10 + 7;
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(numTxs, 5);
+        FullBlockBean block = new FullBlockBean(bytes, 0, true);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            block.calculateTxHashes(pool);
+        } finally {
+            pool.shutdown();
+        }
+        for (Tx tx : block.getTransactions())
+            assertEquals(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(tx.serialize())), tx.getHash());
+        assertEquals(block.getHeader().getMerkleRoot(), block.calculateMerkleRoot());
+    }
 }
@@ -0,0 +1,101 @@
+package io.bitcoinsv.bitcoinjsv.bitcoin;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.FullBlock;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.LazyFullBlockBean;
+import io.bitcoinsv.bitcoinjsv.core.ProtocolException;
+import io.bitcoinsv.bitcoinjsv.core.UnsafeByteArrayOutputStream;
+import io.bitcoinsv.bitcoinjsv.params.UnitTestParams;
+import org.junit.jupiter.api.Test;
+import test.utils.TestBlockGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyFullBlockBeanTest {
+
+    @Test
+    public void testParsesTransactionsOnDemand() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(100, 1);
+        FullBlockBean eager = new FullBlockBean(bytes);
+        LazyFullBlockBean lazy = new LazyFullBlockBean(bytes);
+
+        assertEquals(eager.getHash(), lazy.getHash());
+        assertEquals(100, lazy.getTransactions().size());
+        assertEquals(bytes.length, lazy.getMessageSize());
+        assertEquals(0, lazy.getParsedTxCount());
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(eager.getTransactions().get(i).getHash(), lazy.getTxHash(i));
+        assertEquals(eager.getHeader().getMerkleRoot(), lazy.calculateMerkleRoot());
+        assertEquals(0, lazy.getParsedTxCount());
+
+        Tx tx = lazy.getTransactions().get(42);
+        assertSame(tx, lazy.getTransactions().get(42));
+        assertEquals(1, lazy.getParsedTxCount());
+        assertEquals(eager.getTransactions().get(42).getHash(), tx.getHash());
+        assertArrayEquals(eager.getTransactions().get(42).getOutputs().get(1).getScriptBytes(),
+                tx.getOutputs().get(1).getScriptBytes());
+        assertEquals(eager.getHeader().getMerkleRoot(), lazy.calculateMerkleRoot());
+        assertEquals(1, lazy.getParsedTxCount());
+    }
+
+    @Test
+    public void testSerializeReturnsOriginalBytes() throws IOException {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(20, 2);
+        LazyFullBlockBean lazy = new LazyFullBlockBean(bytes);
+        lazy.getTransactions().get(3).getInputs().get(0).getScriptBytes();
+
+        assertSame(bytes, lazy.serialize());
+        ByteArrayOutputStream out = new UnsafeByteArrayOutputStream();
+        lazy.serializeTo(out);
+        assertArrayEquals(bytes, out.toByteArray());
+        assertEquals(1, lazy.getParsedTxCount());
+
+        // A block embedded in a larger buffer.
+        byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 5, bytes.length);
+        LazyFullBlockBean embedded = new LazyFullBlockBean(padded, 5);
+        assertArrayEquals(bytes, embedded.serialize());
+        assertEquals(lazy.calculateMerkleRoot(), embedded.calculateMerkleRoot());
+    }
+
+    @Test
+    public void testMakeMutableParsesEverything() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(10, 3);
+        byte[] original = bytes.clone();
+        LazyFullBlockBean lazy = new LazyFullBlockBean(bytes);
+
+        lazy.makeMutable();
+        assertEquals(10, lazy.getParsedTxCount());
+        assertEquals(lazy.getTransactions().get(3).getHash(), lazy.getTxHash(3));
+        Tx removed = lazy.getTransactions().remove(9);
+        lazy.getTransactions().get(0).getOutputs().get(0).setScriptBytes(new byte[] {0x51});
+
+        assertArrayEquals(original, bytes, "the shared payload must never be written to");
+        FullBlock reparsed = new FullBlockBean(lazy.serialize());
+        assertEquals(9, reparsed.getTransactions().size());
+        assertArrayEquals(new byte[] {0x51}, reparsed.getTransactions().get(0).getOutputs().get(0).getScriptBytes());
+        assertEquals(lazy.getTransactions().get(8).getHash(), reparsed.getTransactions().get(8).getHash());
+        assertFalse(reparsed.getTransactions().contains(removed));
+    }
+
+    @Test
+    public void testGenesis() {
+        FullBlock genesis = Genesis.getFor(UnitTestParams.get().getNet());
+        LazyFullBlockBean lazy = new LazyFullBlockBean(genesis.serialize());
+        assertEquals(genesis.getHash(), lazy.getHash());
+        assertEquals(genesis.getTransactions().get(0).getHash(), lazy.getTxHash(0));
+        assertEquals(genesis.getTransactions().get(0), lazy.getTransactions().get(0));
+    }
+
+    @Test
+    public void testTruncatedBlockFails() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(5, 4);
+        assertThrows(ProtocolException.class, () -> new LazyFullBlockBean(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+}
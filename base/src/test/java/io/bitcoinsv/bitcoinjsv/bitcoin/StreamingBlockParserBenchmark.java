@@ -0,0 +1,66 @@
+package io.bitcoinsv.bitcoinjsv.bitcoin;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.StreamingBlockParser;
+import io.bitcoinsv.bitcoinjsv.core.VarInt;
+import test.utils.TestBlockGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streams a synthetic block bigger than the heap through {@link StreamingBlockParser} and reports the throughput and
+ * the peak heap usage. The block size in MB is the first argument and defaults to 4096, run it with a small heap to
+ * show memory doesn't grow with the block, e.g. {@code java -Xmx64m ... StreamingBlockParserBenchmark}.
+ *
+ * The block is a 64k transaction template repeated, so its header's merkle root doesn't match and isn't checked.
+ */
+public class StreamingBlockParserBenchmark {
+
+    private static final int TEMPLATE_TXS = 64 * 1024;
+
+    public static void main(String[] args) {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 4096;
+        byte[] template = TestBlockGenerator.syntheticBlockBytes(TEMPLATE_TXS, 1);
+        int txStart = 80 + VarInt.sizeOf(TEMPLATE_TXS);
+        int repeats = (int) Math.max(1, megabytes * 1024 * 1024 / (template.length - txStart));
+        long txCount = (long) repeats * TEMPLATE_TXS;
+
+        List<InputStream> parts = new ArrayList<>();
+        parts.add(new ByteArrayInputStream(Arrays.copyOf(template, 80)));
+        parts.add(new ByteArrayInputStream(new VarInt(txCount).encode()));
+        for (int i = 0; i < repeats; i++)
+            parts.add(new ByteArrayInputStream(template, txStart, template.length - txStart));
+        InputStream block = new SequenceInputStream(Collections.enumeration(parts));
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+        long start = System.nanoTime();
+        StreamingBlockParser parser = new StreamingBlockParser(block);
+        long outputs = 0;
+        while (parser.hasNext())
+            outputs += parser.next().getOutputs().size();
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+        System.out.printf("block=%,d MB txs=%,d outputs=%,d time=%,d ms (%,d MB/s) root=%s%n",
+                parser.getBytesRead() >> 20, txCount, outputs, millis, (parser.getBytesRead() >> 20) * 1000 / millis,
+                parser.getMerkleRoot());
+        System.out.printf("max heap=%,d MB peak heap used=%,d MB (template %,d MB)%n",
+                Runtime.getRuntime().maxMemory() >> 20, peakHeapUsed() >> 20, template.length >> 20);
+    }
+
+    private static long peakHeapUsed() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+}
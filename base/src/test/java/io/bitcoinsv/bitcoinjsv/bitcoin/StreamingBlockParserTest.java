@@ -0,0 +1,94 @@
+package io.bitcoinsv.bitcoinjsv.bitcoin;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.FullBlock;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Header;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.StreamingBlockParser;
+import io.bitcoinsv.bitcoinjsv.core.ProtocolException;
+import io.bitcoinsv.bitcoinjsv.exception.VerificationException;
+import io.bitcoinsv.bitcoinjsv.params.UnitTestParams;
+import org.junit.jupiter.api.Test;
+import test.utils.TestBlockGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingBlockParserTest {
+
+    @Test
+    public void testStreamsEveryTransaction() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(1000, 1);
+        FullBlock eager = new FullBlockBean(bytes);
+        // A small buffer so transactions straddle refills.
+        StreamingBlockParser parser = new StreamingBlockParser(new ByteArrayInputStream(bytes), 100);
+
+        assertEquals(eager.getHash(), parser.getHeader().getHash());
+        assertEquals(1000, parser.getTxCount());
+        int i = 0;
+        while (parser.hasNext()) {
+            Tx tx = parser.next();
+            Tx expected = eager.getTransactions().get(i++);
+            assertEquals(expected.getHash(), tx.getHash());
+            assertEquals(expected, tx);
+            assertEquals(expected.getMessageSize(), tx.getMessageSize());
+        }
+        assertEquals(1000, i);
+        assertEquals(eager.getHeader().getMerkleRoot(), parser.getMerkleRoot());
+        assertEquals(bytes.length, parser.getBytesRead());
+        parser.verifyMerkleRoot();
+    }
+
+    @Test
+    public void testListener() {
+        FullBlock genesis = Genesis.getFor(UnitTestParams.get().getNet());
+        List<Tx> txs = new ArrayList<>();
+        Header<?> header = StreamingBlockParser.parse(new ByteArrayInputStream(genesis.serialize()),
+                new StreamingBlockParser.Listener() {
+                    @Override
+                    public void onHeader(Header<?> header, long txCount) {
+                        assertEquals(1, txCount);
+                        assertTrue(txs.isEmpty());
+                    }
+
+                    @Override
+                    public void onTransaction(long index, Tx tx) {
+                        assertEquals(txs.size(), index);
+                        txs.add(tx);
+                    }
+                });
+        assertEquals(genesis.getHash(), header.getHash());
+        assertEquals(genesis.getTransactions(), txs);
+    }
+
+    @Test
+    public void testMerkleMismatch() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(10, 2);
+        bytes[36] ^= 1; // inside the header's merkle root
+        StreamingBlockParser.Listener ignore = new StreamingBlockParser.Listener() {
+            @Override
+            public void onHeader(Header<?> header, long txCount) {
+            }
+
+            @Override
+            public void onTransaction(long index, Tx tx) {
+            }
+        };
+        assertThrows(VerificationException.class,
+                () -> StreamingBlockParser.parse(new ByteArrayInputStream(bytes), ignore));
+    }
+
+    @Test
+    public void testTruncatedBlock() {
+        byte[] bytes = TestBlockGenerator.syntheticBlockBytes(10, 3);
+        StreamingBlockParser parser =
+                new StreamingBlockParser(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+        for (int i = 0; i < 9; i++)
+            parser.next();
+        assertThrows(ProtocolException.class, parser::next);
+    }
+}
@@ -2,6 +2,8 @@ package io.bitcoinsv.bitcoinjsv.blockchain;
 
 import io.bitcoinsv.bitcoinjsv.bitcoin.Genesis;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
+import io.bitcoinsv.bitcoinjsv.blockstore.BlockStore;
+import io.bitcoinsv.bitcoinjsv.blockstore.MemoryBlockStore;
 import io.bitcoinsv.bitcoinjsv.blockstore.SPVBlockStore;
 import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
 import io.bitcoinsv.bitcoinjsv.exception.PrunedException;
@@ -14,8 +16,10 @@ import test.utils.TestBlockGenerator;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author m.fletcher@nchain.com
@@ -48,5 +52,39 @@ public class ChainUtilsTest {
 
         assertTrue(ChainUtils.isMoreWorkThan(blockOneChainTwo, blockOneChainOne), "chain two should have more work");
     }
-    
+
+    @Test
+    public void testGetAncestorOnMainChainAndFork() throws BlockStoreException {
+        BlockStore<LiteBlock> store = new MemoryBlockStore(params);
+        List<LiteBlock> chain = new ArrayList<>();
+        LiteBlock block = Genesis.getHeaderFor(params.getNet());
+        chain.add(block);
+        for (int i = 0; i < 20; i++) {
+            block = TestBlockGenerator.nextLiteBlock(params.getNet(), block);
+            store.put(block);
+            store.setChainHead(block);
+            chain.add(block);
+        }
+        List<LiteBlock> fork = new ArrayList<>(chain.subList(0, 13));
+        block = chain.get(12);
+        for (int i = 0; i < 3; i++) {
+            block = TestBlockGenerator.nextLiteBlock(params.getNet(), block);
+            store.put(block);
+            fork.add(block);
+        }
+
+        assertTrue(ChainUtils.isOnMainChain(chain.get(20), store));
+        assertFalse(ChainUtils.isOnMainChain(fork.get(15), store));
+        for (int height = 0; height <= 20; height++)
+            assertEquals(chain.get(height), ChainUtils.getAncestor(chain.get(20), height, store));
+        for (int height = 0; height <= 15; height++)
+            assertEquals(fork.get(height), ChainUtils.getAncestor(fork.get(15), height, store));
+        assertNull(ChainUtils.getAncestor(chain.get(20), 21, store));
+        assertNull(ChainUtils.getAncestor(chain.get(20), -1, store));
+
+        // The median time past is the same whichever way the ancestors are found.
+        long walked = ChainUtils.getMedianTimestampOfRecentBlocks(fork.get(15), store);
+        store.setChainHead(fork.get(15));
+        assertEquals(walked, ChainUtils.getMedianTimestampOfRecentBlocks(fork.get(15), store));
+    }
 }
@@ -3,6 +3,7 @@ package io.bitcoinsv.bitcoinjsv.blockstore;
 import io.bitcoinsv.bitcoinjsv.bitcoin.Genesis;
 import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
 import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
+import io.bitcoinsv.bitcoinjsv.params.Net;
 import io.bitcoinsv.bitcoinjsv.params.UnitTestParams;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,9 +11,10 @@ import test.utils.TestBlockGenerator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author m.fletcher@nchain.com
@@ -72,6 +74,93 @@ public class FullHeadersBlockStoreTest {
         assertTrue(blockStore.getChainHead().equals(blockOne));
     }
 
+    @Test
+    public void testMemoryMappedReopen() throws BlockStoreException {
+        Net net = UnitTestParams.get().getNet();
+        blockStore = new FullHeadersBlockStore(net, blockchainDataFile, true, true, true, true);
+
+        List<LiteBlock> chain = new ArrayList<>();
+        LiteBlock block = Genesis.getHeaderFor(net);
+        for (int i = 0; i < 20; i++) {
+            block = TestBlockGenerator.nextLiteBlock(net, block);
+            blockStore.put(block);
+            chain.add(block);
+        }
+        blockStore.setChainHead(block);
+
+        LiteBlock fork = TestBlockGenerator.nextLiteBlock(net, chain.get(9));
+        blockStore.put(fork);
+        assertFalse(blockStore.put(fork));
+        blockStore.close();
+
+        blockStore = new FullHeadersBlockStore(net, blockchainDataFile, true, false, true, true);
+        assertEquals(block, blockStore.getChainHead());
+        for (LiteBlock expected : chain) {
+            LiteBlock mapped = blockStore.get(expected.getHash());
+            assertEquals(expected, mapped);
+            assertEquals(expected.getHeight(), mapped.getHeight());
+            assertEquals(expected.getChainWork(), mapped.getChainWork());
+        }
+        assertEquals(chain.get(9), blockStore.getPrev(blockStore.get(fork.getHash())));
+        assertNull(blockStore.get(TestBlockGenerator.orphanBlock(net).getHash()));
+
+        LiteBlock next = TestBlockGenerator.nextLiteBlock(net, block);
+        assertTrue(blockStore.put(next));
+        assertEquals(next, blockStore.get(next.getHash()));
+    }
+
+    @Test
+    public void testMemoryMappedOpensHeapStore() throws BlockStoreException {
+        Net net = UnitTestParams.get().getNet();
+        LiteBlock blockOne = TestBlockGenerator.nextLiteBlock(net, Genesis.getHeaderFor(net));
+        blockStore.put(blockOne);
+        blockStore.setChainHead(blockOne);
+        blockStore.close();
+
+        blockStore = new FullHeadersBlockStore(net, blockchainDataFile, true, false, true, true);
+        assertEquals(blockOne, blockStore.getChainHead());
+        assertEquals(blockOne, blockStore.get(blockOne.getHash()));
+        assertNotNull(blockStore.get(Genesis.getHeaderFor(net).getHash()));
+    }
+
+    @Test
+    public void testGetByHeight() throws BlockStoreException {
+        Net net = UnitTestParams.get().getNet();
+        List<LiteBlock> chain = new ArrayList<>();
+        LiteBlock block = Genesis.getHeaderFor(net);
+        chain.add(block);
+        for (int i = 0; i < 10; i++) {
+            block = TestBlockGenerator.nextLiteBlock(net, block);
+            blockStore.put(block);
+            blockStore.setChainHead(block);
+            chain.add(block);
+        }
+        LiteBlock forkOne = TestBlockGenerator.nextLiteBlock(net, chain.get(7));
+        LiteBlock forkTwo = TestBlockGenerator.nextLiteBlock(net, forkOne);
+        blockStore.put(forkOne);
+        blockStore.put(forkTwo);
+        blockStore.close();
+
+        for (boolean memoryMapped : new boolean[] {false, true}) {
+            blockStore = new FullHeadersBlockStore(net, blockchainDataFile, true, false, true, memoryMapped);
+            for (int height = 0; height <= 10; height++)
+                assertEquals(chain.get(height), blockStore.getByHeight(height));
+            assertNull(blockStore.getByHeight(11));
+            assertEquals(chain.subList(2, 6), blockStore.getRange(2, 5));
+
+            blockStore.setChainHead(forkTwo);
+            assertEquals(chain.get(7), blockStore.getByHeight(7));
+            assertEquals(forkOne, blockStore.getByHeight(8));
+            assertEquals(forkTwo, blockStore.getByHeight(9));
+            assertNull(blockStore.getByHeight(10));
+
+            blockStore.setChainHead(chain.get(10));
+            assertEquals(chain.get(8), blockStore.getByHeight(8));
+            assertEquals(chain.get(10), blockStore.getByHeight(10));
+            blockStore.close();
+        }
+    }
+
     /*
      * Reloads a previously initialised and populated blockchain
      */
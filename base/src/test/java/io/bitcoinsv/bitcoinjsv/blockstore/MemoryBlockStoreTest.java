@@ -10,6 +10,8 @@ import org.junit.jupiter.api.Test;
 import test.utils.TestBlockGenerator;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -72,6 +74,58 @@ public class MemoryBlockStoreTest {
         assertTrue(blockStore.getPrev(blockOne).equals(genesisBlock));
     }
 
+    @Test
+    public void testGetByHeightFollowsReorgs() throws BlockStoreException {
+        List<LiteBlock> chain = new ArrayList<>();
+        LiteBlock block = Genesis.getHeaderFor(unitTestParams.getNet());
+        chain.add(block);
+        for (int i = 0; i < 10; i++) {
+            block = TestBlockGenerator.nextLiteBlock(unitTestParams.getNet(), block);
+            blockStore.put(block);
+            blockStore.setChainHead(block);
+            chain.add(block);
+        }
+        for (int height = 0; height <= 10; height++)
+            assertEquals(chain.get(height), blockStore.getByHeight(height));
+        assertNull(blockStore.getByHeight(11));
+        assertNull(blockStore.getByHeight(-1));
+
+        // Reorg onto a longer fork from height 5.
+        List<LiteBlock> fork = new ArrayList<>(chain.subList(0, 6));
+        block = chain.get(5);
+        for (int i = 0; i < 7; i++) {
+            block = TestBlockGenerator.nextLiteBlock(unitTestParams.getNet(), block);
+            blockStore.put(block);
+            fork.add(block);
+        }
+        blockStore.setChainHead(block);
+        for (int height = 0; height <= 12; height++)
+            assertEquals(fork.get(height), blockStore.getByHeight(height));
+        assertEquals(fork.subList(3, 9), blockStore.getRange(3, 8));
+
+        // And back again, heights above the old tip must be gone.
+        blockStore.setChainHead(chain.get(10));
+        for (int height = 0; height <= 10; height++)
+            assertEquals(chain.get(height), blockStore.getByHeight(height));
+        assertNull(blockStore.getByHeight(11));
+        assertEquals(chain.subList(8, 11), blockStore.getRange(8, 12));
+    }
+
+    @Test
+    public void testGetByHeightDropsEvictedBlocks() throws BlockStoreException {
+        LiteBlock block = Genesis.getHeaderFor(unitTestParams.getNet());
+        // The store holds the last 5000 blocks put, so this pushes out genesis and block one.
+        for (int i = 0; i < 5001; i++) {
+            block = TestBlockGenerator.nextLiteBlock(unitTestParams.getNet(), block);
+            blockStore.put(block);
+            blockStore.setChainHead(block);
+        }
+        assertNull(blockStore.getByHeight(0));
+        assertNull(blockStore.getByHeight(1));
+        assertNotNull(blockStore.getByHeight(2));
+        assertEquals(block, blockStore.getByHeight(5001));
+    }
+
 
 
 }
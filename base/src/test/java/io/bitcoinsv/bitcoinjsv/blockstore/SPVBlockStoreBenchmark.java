@@ -0,0 +1,88 @@
+package io.bitcoinsv.bitcoinjsv.blockstore;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.Genesis;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.extended.LiteBlock;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
+import io.bitcoinsv.bitcoinjsv.params.UnitTestParams;
+import test.utils.TestBlockGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares hash lookups through the {@link RingHashIndex} with the backwards scan of the ring that
+ * {@link SPVBlockStore} used before it was indexed, for rings of 5k, 50k and 500k headers. The block cache is
+ * bypassed so that every lookup hits the ring.
+ *
+ * Run from the IDE or with the test classpath, e.g. {@code java ... SPVBlockStoreBenchmark [ringSize...]}.
+ */
+public class SPVBlockStoreBenchmark {
+
+    private static final UnitTestParams PARAMS = UnitTestParams.get();
+    private static final int LOOKUPS = 20_000;
+    private static final int SCAN_LOOKUPS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {5_000, 50_000, 500_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+        for (int size : sizes)
+            run(size);
+    }
+
+    private static void run(int ringSize) throws BlockStoreException, IOException {
+        File file = File.createTempFile("spvbenchmark", null);
+        file.delete();
+        file.deleteOnExit();
+        SPVBlockStore store = new SPVBlockStore(PARAMS, file, ringSize);
+        Sha256Hash[] hashes = fill(store, ringSize);
+
+        Random random = new Random(1);
+        // Warm up both paths before measuring.
+        for (int i = 0; i < LOOKUPS; i++)
+            store.indexedRecord(hashes[random.nextInt(hashes.length)]);
+        for (int i = 0; i < SCAN_LOOKUPS / 10; i++)
+            store.scanForRecord(hashes[random.nextInt(hashes.length)]);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++)
+            check(store.indexedRecord(hashes[random.nextInt(hashes.length)]));
+        double indexedNanos = (System.nanoTime() - start) / (double) LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < SCAN_LOOKUPS; i++)
+            check(store.scanForRecord(hashes[random.nextInt(hashes.length)]));
+        double scanNanos = (System.nanoTime() - start) / (double) SCAN_LOOKUPS;
+
+        store.close();
+
+        start = System.nanoTime();
+        store = new SPVBlockStore(PARAMS, file, ringSize);
+        double reopenMillis = (System.nanoTime() - start) / 1_000_000d;
+        store.close();
+
+        System.out.printf("ring=%,d indexed=%,.0f ns/op scan=%,.0f ns/op speedup=%,.0fx reopen=%,.1f ms%n",
+                ringSize, indexedNanos, scanNanos, scanNanos / indexedNanos, reopenMillis);
+    }
+
+    private static Sha256Hash[] fill(SPVBlockStore store, int count) throws BlockStoreException {
+        Sha256Hash[] hashes = new Sha256Hash[count];
+        LiteBlock prev = Genesis.getHeaderFor(PARAMS.getNet());
+        for (int i = 0; i < count; i++) {
+            prev = TestBlockGenerator.nextLiteBlock(PARAMS.getNet(), prev);
+            store.put(prev);
+            hashes[i] = prev.getHash();
+        }
+        return hashes;
+    }
+
+    private static void check(int record) {
+        if (record < 0)
+            throw new IllegalStateException("Lookup failed");
+    }
+}
@@ -11,6 +11,8 @@ import test.utils.TestBlockGenerator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -70,5 +72,75 @@ public class SPVBlockStoreTest {
         assertNotNull(blockStore.get(blockOne.getHash()));
     }
 
+    @Test
+    public void testIndexSurvivesRingWrapAndReopen() throws BlockStoreException {
+        int capacity = 10;
+        File file = new File(blockchainDataFile.getPath() + ".small");
+        file.deleteOnExit();
+        SPVBlockStore store = new SPVBlockStore(unitTestParams, file, capacity);
+
+        List<LiteBlock> blocks = new ArrayList<>();
+        LiteBlock prev = Genesis.getHeaderFor(unitTestParams.getNet());
+        for (int i = 0; i < 25; i++) {
+            prev = TestBlockGenerator.nextLiteBlock(unitTestParams.getNet(), prev);
+            blocks.add(prev);
+            store.put(prev);
+        }
+        store.close();
+
+        // Reopen so that lookups can't be served from the block cache.
+        store = new SPVBlockStore(unitTestParams, file, capacity);
+        for (int i = 0; i < blocks.size(); i++) {
+            LiteBlock block = blocks.get(i);
+            assertEquals(store.scanForRecord(block.getHash()), store.indexedRecord(block.getHash()));
+            if (i < blocks.size() - capacity)
+                assertNull(store.get(block.getHash()));
+            else
+                assertEquals(block, store.get(block.getHash()));
+        }
+        store.close();
+    }
+
+    @Test
+    public void testGetByHeightAfterRingWrapAndReopen() throws BlockStoreException {
+        int capacity = 10;
+        File file = new File(blockchainDataFile.getPath() + ".height");
+        file.deleteOnExit();
+        SPVBlockStore store = new SPVBlockStore(unitTestParams, file, capacity);
+
+        List<LiteBlock> chain = new ArrayList<>();
+        LiteBlock block = Genesis.getHeaderFor(unitTestParams.getNet());
+        chain.add(block);
+        for (int i = 0; i < 25; i++) {
+            block = TestBlockGenerator.nextLiteBlock(unitTestParams.getNet(), block);
+            store.put(block);
+            store.setChainHead(block);
+            chain.add(block);
+        }
+        // A one block reorg at the tip.
+        LiteBlock fork = TestBlockGenerator.nextLiteBlock(unitTestParams.getNet(), chain.get(24));
+        store.put(fork);
+        store.setChainHead(fork);
+        chain.set(25, fork);
+        store.close();
+
+        // The ring now holds heights 17 to 24, the replaced block 25 and its replacement.
+        store = new SPVBlockStore(unitTestParams, file, capacity);
+        for (int height = 0; height <= 25; height++) {
+            if (height < 17)
+                assertNull(store.getByHeight(height));
+            else
+                assertEquals(chain.get(height), store.getByHeight(height));
+        }
+        assertNull(store.getByHeight(26));
+        assertEquals(chain.subList(17, 26), store.getRange(0, 25));
+        store.close();
+    }
+
+    @Test
+    public void testOpenWithDifferentCapacityFails() throws BlockStoreException {
+        blockStore.close();
+        assertThrows(BlockStoreException.class, () -> new SPVBlockStore(unitTestParams, blockchainDataFile, 10));
+    }
 
 }
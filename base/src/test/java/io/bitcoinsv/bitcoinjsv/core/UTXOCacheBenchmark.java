@@ -0,0 +1,95 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.core;
+
+import io.bitcoinsv.bitcoinjsv.script.Script;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the heap taken by a million P2PKH outputs, and the time to add and look them all up, in a
+ * {@link UTXOCache} against the access ordered map of {@link UTXO}s it replaces. Run with a few gigabytes of heap.
+ */
+public class UTXOCacheBenchmark {
+
+    private static final int ENTRIES = 1_000_000;
+
+    public static void main(String[] args) {
+        UTXO[] utxos = new UTXO[ENTRIES];
+        Random random = new Random(1);
+        for (int i = 0; i < ENTRIES; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            byte[] program = new byte[25];
+            random.nextBytes(program);
+            program[0] = 0x76;
+            program[1] = (byte) 0xa9;
+            program[2] = 20;
+            program[23] = (byte) 0x88;
+            program[24] = (byte) 0xac;
+            utxos[i] = new UTXO(Sha256Hash.wrap(hash), i & 3, Coin.valueOf(random.nextInt(100_000_000)),
+                    600_000 + random.nextInt(50_000), false, new Script(program), "");
+        }
+
+        // Warm both up, then time and weigh each with the other gone.
+        fillMap(utxos);
+        fillCache(utxos);
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Object map = fillMap(utxos);
+        long mapNanos = System.nanoTime() - start;
+        long mapBytes = usedHeap() - before;
+        map = null;
+
+        before = usedHeap();
+        start = System.nanoTime();
+        UTXOCache cache = fillCache(utxos);
+        long cacheNanos = System.nanoTime() - start;
+        long cacheBytes = usedHeap() - before;
+
+        System.out.printf("map    %,d bytes per output  %,d ms%n", mapBytes / ENTRIES, mapNanos / 1_000_000);
+        System.out.printf("cache  %,d bytes per output  %,d ms  %s%n", cacheBytes / ENTRIES, cacheNanos / 1_000_000,
+                cache);
+    }
+
+    private static Map<ByteBuffer, UTXO> fillMap(UTXO[] utxos) {
+        Map<ByteBuffer, UTXO> map = new LinkedHashMap<>(ENTRIES, 0.75f, true);
+        for (UTXO utxo : utxos)
+            map.put(ByteBuffer.wrap(key(utxo)), copy(utxo));
+        for (UTXO utxo : utxos)
+            map.get(ByteBuffer.wrap(key(utxo)));
+        return map;
+    }
+
+    private static UTXOCache fillCache(UTXO[] utxos) {
+        UTXOCache cache = new UTXOCache(ENTRIES);
+        for (UTXO utxo : utxos)
+            cache.put(utxo);
+        for (UTXO utxo : utxos)
+            cache.get(utxo.getHash(), utxo.getIndex());
+        return cache;
+    }
+
+    // The map held its own objects, parsed from the store, not those the outputs were made from.
+    private static UTXO copy(UTXO utxo) {
+        return new UTXO(Sha256Hash.wrap(utxo.getHash().getBytes().clone()), utxo.getIndex(), utxo.getValue(),
+                utxo.getHeight(), utxo.isCoinbase(), new Script(utxo.getScriptBytes().clone()), "");
+    }
+
+    private static byte[] key(UTXO utxo) {
+        return ByteBuffer.allocate(37).put((byte) 0).put(utxo.getHash().getBytes()).putInt((int) utxo.getIndex())
+                .array();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
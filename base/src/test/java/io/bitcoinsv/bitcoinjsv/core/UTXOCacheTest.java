@@ -0,0 +1,152 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.core;
+
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UTXOCacheTest {
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void testCompactRoundTrip() throws IOException {
+        for (long value : new long[]{0, 1, 252, 253, 65_535, 65_536, 21_000_000L * 100_000_000L}) {
+            for (int height : new int[]{0, 1, 700_000, Integer.MAX_VALUE}) {
+                for (boolean coinbase : new boolean[]{false, true}) {
+                    UTXO utxo = utxo(randomHash(), random.nextInt(1000), value, height, coinbase);
+                    UTXO parsed = UTXO.parseCompact(utxo.getHash(), utxo.getIndex(), utxo.serializeCompact());
+                    assertSame(utxo, parsed);
+                }
+            }
+        }
+        // The compact form is much smaller than the stored one, and the stored one still reads back the same.
+        UTXO utxo = utxo(randomHash(), 3, 50_000, 650_000, false);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        utxo.serializeToStream(stored);
+        assertEquals(25 + 3 + 5, utxo.serializeCompact().length);
+        assertEquals(25 + 8 + 4 + 32 + 4 + 4 + 1, stored.size());
+        assertSame(utxo, new UTXO(new ByteArrayInputStream(stored.toByteArray())));
+    }
+
+    @Test
+    public void testGetPutRemove() {
+        UTXOCache cache = new UTXOCache(100);
+        UTXO utxo = utxo(randomHash(), 1, 1000, 10, false);
+        assertNull(cache.get(utxo.getHash(), 1));
+        cache.put(utxo);
+        assertSame(utxo, cache.get(utxo.getHash(), 1));
+        assertNull(cache.get(utxo.getHash(), 0));
+        // Replacing keeps one entry.
+        UTXO replacement = utxo(utxo.getHash(), 1, 2000, 11, true);
+        cache.put(replacement);
+        assertEquals(1, cache.size());
+        assertSame(replacement, cache.get(utxo.getHash(), 1));
+        assertTrue(cache.remove(utxo.getHash(), 1));
+        assertFalse(cache.remove(utxo.getHash(), 1));
+        assertNull(cache.get(utxo.getHash(), 1));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        UTXOCache cache = new UTXOCache(64);
+        UTXO kept = utxo(randomHash(), 0, 1, 1, false);
+        cache.put(kept);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(utxo(randomHash(), i, 1, 1, false));
+            // Used between every put, so the clock always passes it over.
+            assertNotNull(cache.get(kept.getHash(), 0));
+            assertTrue(cache.size() <= 64);
+        }
+        assertEquals(64, cache.size());
+        assertEquals(1000 + 1 - 64, cache.getEvictions());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        // Beyond this, slot offsets into the key array would overflow.
+        assertThrows(IllegalArgumentException.class, () -> new UTXOCache(UTXOCache.MAX_ENTRIES + 1));
+        assertThrows(IllegalArgumentException.class, () -> new UTXOCache(0));
+    }
+
+    // Runs random puts and removes against a map, with hashes sharing their first bytes so outpoints pile up in
+    // long runs of slots and removals have entries to move back.
+    @Test
+    public void testAgainstMap() {
+        UTXOCache cache = new UTXOCache(4096);
+        Map<String, UTXO> expected = new HashMap<>();
+        Sha256Hash[] hashes = new Sha256Hash[500];
+        for (int i = 0; i < hashes.length; i++) {
+            byte[] bytes = randomHash().getBytes();
+            bytes[0] = (byte) random.nextInt(4);
+            bytes[1] = bytes[2] = bytes[3] = 0;
+            hashes[i] = Sha256Hash.wrap(bytes);
+        }
+        for (int op = 0; op < 100_000; op++) {
+            Sha256Hash hash = hashes[random.nextInt(hashes.length)];
+            long index = random.nextInt(4);
+            String key = hash + ":" + index;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, cache.remove(hash, index));
+            } else if (expected.size() < 4096) {
+                UTXO utxo = utxo(hash, index, random.nextInt(1_000_000), random.nextInt(1_000_000), false);
+                expected.put(key, utxo);
+                cache.put(utxo);
+            }
+            assertEquals(expected.size(), cache.size());
+        }
+        for (Sha256Hash hash : hashes) {
+            for (long index = 0; index < 4; index++) {
+                UTXO utxo = expected.get(hash + ":" + index);
+                if (utxo == null)
+                    assertNull(cache.get(hash, index));
+                else
+                    assertSame(utxo, cache.get(hash, index));
+            }
+        }
+        assertEquals(0, cache.getEvictions());
+    }
+
+    private static void assertSame(UTXO expected, UTXO actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.isCoinbase(), actual.isCoinbase());
+        assertArrayEquals(expected.getScriptBytes(), actual.getScriptBytes());
+        assertEquals(expected.getScript(), actual.getScript());
+    }
+
+    private UTXO utxo(Sha256Hash hash, long index, long value, int height, boolean coinbase) {
+        byte[] pubKeyHash = new byte[20];
+        random.nextBytes(pubKeyHash);
+        // DUP HASH160 <20 bytes> EQUALVERIFY CHECKSIG
+        byte[] program = new byte[25];
+        program[0] = 0x76;
+        program[1] = (byte) 0xa9;
+        program[2] = 20;
+        System.arraycopy(pubKeyHash, 0, program, 3, 20);
+        program[23] = (byte) 0x88;
+        program[24] = (byte) 0xac;
+        return new UTXO(hash, index, Coin.valueOf(value), height, coinbase, new Script(program));
+    }
+
+    private Sha256Hash randomHash() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+}
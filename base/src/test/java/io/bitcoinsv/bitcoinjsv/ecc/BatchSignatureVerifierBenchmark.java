@@ -0,0 +1,76 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.bitcoin.Secp256k1Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures signature verification throughput per core: {@link ECDSA#verify(byte[], ECDSASignature, byte[])} one at a
+ * time, then {@link BatchSignatureVerifier} with Bouncy Castle and, if the library is loaded, native secp256k1, on
+ * pools of 1, 2, 4 ... threads up to the number of cores. The arguments are the number of signatures, default 5,000,
+ * and of distinct keys that made them, default 100.
+ */
+public class BatchSignatureVerifierBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int numSigs = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int numKeys = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        ECKeyLite[] keys = new ECKeyLite[numKeys];
+        for (int i = 0; i < numKeys; i++)
+            keys[i] = new ECKeyLite();
+        List<BatchSignatureVerifier.Check> checks = new ArrayList<>(numSigs);
+        for (int i = 0; i < numSigs; i++) {
+            ECKeyLite key = keys[i % numKeys];
+            Sha256Hash hash = Sha256Hash.of(Integer.toString(i).getBytes());
+            checks.add(BatchSignatureVerifier.Check.fromDER(hash.getBytes(), key.sign(hash).encodeToDER(), key.getPubKey()));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("signatures=%,d keys=%,d cores=%d native=%s%n", numSigs, numKeys, cores, Secp256k1Context.isEnabled());
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (BatchSignatureVerifier.Check check : checks)
+                if (!ECDSA.verify(check.getHash(), ECDSASignature.decodeFromDER(check.getDERSignature()), check.getPubKey()))
+                    throw new IllegalStateException();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        report("ECDSA.verify one at a time", numSigs, 1, best);
+
+        for (boolean useNative : new boolean[]{false, true}) {
+            if (useNative && !Secp256k1Context.isEnabled())
+                continue;
+            for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                BatchSignatureVerifier verifier = new BatchSignatureVerifier(pool, useNative);
+                best = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++) {
+                    long start = System.nanoTime();
+                    if (!verifier.verifyAll(checks))
+                        throw new IllegalStateException();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                pool.shutdown();
+                report((useNative ? "native" : "Bouncy Castle") + " batch, pool of " + threads, numSigs, threads, best);
+                if (threads == cores)
+                    break;
+            }
+        }
+    }
+
+    private static void report(String name, int numSigs, int threads, long nanos) {
+        double perSecond = numSigs / (nanos / 1e9);
+        System.out.printf("%s: %,d ms, %,.0f sigs/s, %,.0f sigs/s per thread%n", name, nanos / 1_000_000, perSecond,
+                perSecond / threads);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchSignatureVerifierTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(3);
+
+    @AfterEach
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testVerifiesEachCheck() {
+        ECKeyLite[] keys = {new ECKeyLite(), new ECKeyLite(), new ECKeyLite()};
+        List<BatchSignatureVerifier.Check> checks = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            ECKeyLite key = keys[i % keys.length];
+            Sha256Hash hash = Sha256Hash.of(new byte[]{(byte) i});
+            ECDSASignature signature = key.sign(hash);
+            if (i % 2 == 0)
+                checks.add(new BatchSignatureVerifier.Check(hash.getBytes(), signature, key.getPubKey()));
+            else
+                checks.add(BatchSignatureVerifier.Check.fromDER(hash.getBytes(), signature.encodeToDER(), key.getPubKey()));
+        }
+        // The wrong key, the wrong hash, a public key that isn't on the curve, an empty public key and a signature that
+        // isn't DER.
+        ECDSASignature signature = keys[0].sign(Sha256Hash.ZERO_HASH);
+        checks.set(5, new BatchSignatureVerifier.Check(checks.get(5).getHash(), signature, keys[1].getPubKey()));
+        checks.set(17, new BatchSignatureVerifier.Check(new byte[32], keys[2].sign(Sha256Hash.of(new byte[]{17})), keys[2].getPubKey()));
+        byte[] offCurve = keys[0].getPubKey().clone();
+        offCurve[0] = 7;
+        checks.set(30, new BatchSignatureVerifier.Check(Sha256Hash.ZERO_HASH.getBytes(), signature, offCurve));
+        checks.set(36, new BatchSignatureVerifier.Check(Sha256Hash.ZERO_HASH.getBytes(), signature, new byte[0]));
+        checks.set(41, BatchSignatureVerifier.Check.fromDER(Sha256Hash.ZERO_HASH.getBytes(), new byte[]{1, 2, 3}, keys[0].getPubKey()));
+
+        BatchSignatureVerifier verifier = new BatchSignatureVerifier(pool, false);
+        boolean[] results = verifier.verify(checks);
+        for (int i = 0; i < checks.size(); i++)
+            assertEquals(i != 5 && i != 17 && i != 30 && i != 36 && i != 41, results[i], "check " + i);
+        assertFalse(verifier.verifyAll(checks));
+        assertTrue(verifier.verifyAll(checks.subList(0, 5)));
+        assertTrue(verifier.verifyAll(new ArrayList<>()));
+    }
+
+    @Test
+    public void testDecodedKeyMatchesEncoded() {
+        ECKeyLite key = new ECKeyLite();
+        Sha256Hash hash = Sha256Hash.of(new byte[]{1});
+        ECDSASignature signature = key.sign(hash);
+        assertTrue(ECDSA.verify(hash.getBytes(), signature, ECDSA.decodePublicKey(key.getPubKey())));
+        assertFalse(ECDSA.verify(Sha256Hash.ZERO_HASH.getBytes(), signature, ECDSA.decodePublicKey(key.getPubKey())));
+        assertThrows(IllegalArgumentException.class, () -> ECDSA.decodePublicKey(new byte[]{7, 1, 2}));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.bitcoin.Secp256k1Context;
+import org.junit.jupiter.api.Test;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublicKeyCacheTest {
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        PublicKeyCache cache = new PublicKeyCache(100);
+        byte[] pubKey = new ECKeyLite().getPubKey();
+        ECPublicKeyParameters first = cache.get(pubKey);
+        assertSame(first, cache.get(pubKey.clone()));
+        assertSame(first, cache.get(pubKey));
+        assertEquals(ECDSA.decodePublicKey(pubKey).getQ(), first.getQ());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2 / 3.0, cache.getHitRate(), 1e-9);
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitRate());
+    }
+
+    @Test
+    public void testKeepsItsOwnCopyOfTheKey() {
+        PublicKeyCache cache = new PublicKeyCache(100);
+        byte[] pubKey = new ECKeyLite().getPubKey();
+        byte[] original = pubKey.clone();
+        ECPublicKeyParameters decoded = cache.get(pubKey);
+        pubKey[1] ^= 1;
+        assertSame(decoded, cache.get(original));
+    }
+
+    @Test
+    public void testIsBounded() {
+        PublicKeyCache cache = new PublicKeyCache(32);
+        byte[][] keys = new byte[200][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new ECKeyLite().getPubKey();
+            cache.get(keys[i]);
+        }
+        // Each of the 16 segments holds at most 2 keys.
+        assertTrue(cache.size() <= 32, "size " + cache.size());
+        assertEquals(200 - cache.size(), cache.getEvictions());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        PublicKeyCache cache = new PublicKeyCache(32);
+        // Two keys per segment. Touch the first key before each new one, so whenever a segment is full the first
+        // key is never its least recently used.
+        byte[] first = new ECKeyLite().getPubKey();
+        cache.get(first);
+        while (cache.getEvictions() < 50) {
+            cache.get(first);
+            cache.get(new ECKeyLite().getPubKey());
+        }
+        long misses = cache.getMisses();
+        cache.get(first);
+        assertEquals(misses, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidKeysAreNotKept() {
+        PublicKeyCache cache = new PublicKeyCache(100);
+        assertThrows(IllegalArgumentException.class, () -> cache.get(new byte[]{2, 1, 2, 3}));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testVerifyUsesSharedCache() {
+        if (Secp256k1Context.isEnabled())
+            return; // the native library takes encoded keys
+        PublicKeyCache saved = ECDSA.getPublicKeyCache();
+        try {
+            ECDSA.setPublicKeyCache(new PublicKeyCache(100));
+            ECKeyLite key = new ECKeyLite();
+            Sha256Hash hash = Sha256Hash.of(new byte[]{1});
+            ECDSASignature signature = key.sign(hash);
+            for (int i = 0; i < 3; i++)
+                assertTrue(ECDSA.verify(hash.getBytes(), signature, key.getPubKey()));
+            assertEquals(1, ECDSA.getPublicKeyCache().getMisses());
+            assertEquals(2, ECDSA.getPublicKeyCache().getHits());
+
+            ECDSA.setPublicKeyCache(null);
+            assertTrue(ECDSA.verify(hash.getBytes(), signature, key.getPubKey()));
+        } finally {
+            ECDSA.setPublicKeyCache(saved);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.ecc;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.script.ScriptUtils;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import io.bitcoinsv.bitcoinjsv.script.interpreter.Interpreter;
+import io.bitcoinsv.bitcoinjsv.script.interpreter.ScriptExecutionException;
+import org.junit.jupiter.api.Test;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignatureCacheTest {
+
+    private static final byte[] HASH = new byte[32];
+    private static final byte[] SIGNATURE = {0x30, 6, 2, 1, 1, 2, 1, 1, 0x41};
+    private static final byte[] PUBKEY = {2, 1, 2, 3};
+
+    @Test
+    public void testHoldsAddedTriples() {
+        SignatureCache cache = new SignatureCache(100);
+        assertFalse(cache.contains(HASH, SIGNATURE, PUBKEY));
+        cache.add(HASH, SIGNATURE, PUBKEY);
+        assertTrue(cache.contains(HASH, SIGNATURE.clone(), PUBKEY.clone()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+
+        // Any part differing is a different triple.
+        byte[] otherHash = HASH.clone();
+        otherHash[31] = 1;
+        assertFalse(cache.contains(otherHash, SIGNATURE, PUBKEY));
+        assertFalse(cache.contains(HASH, PUBKEY, SIGNATURE));
+        assertFalse(cache.contains(HASH, new byte[]{0x30, 6, 2, 1, 1, 2, 1, 1}, new byte[]{0x41, 2, 1, 2, 3}));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.contains(HASH, SIGNATURE, PUBKEY));
+    }
+
+    @Test
+    public void testSaltedPerCache() {
+        // Nothing carries over from one cache to another.
+        SignatureCache first = new SignatureCache(100);
+        first.add(HASH, SIGNATURE, PUBKEY);
+        assertFalse(new SignatureCache(100).contains(HASH, SIGNATURE, PUBKEY));
+    }
+
+    @Test
+    public void testIsBounded() {
+        SignatureCache cache = new SignatureCache(32);
+        for (int i = 0; i < 1000; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte) i;
+            hash[1] = (byte) (i >> 8);
+            cache.add(hash, SIGNATURE, PUBKEY);
+        }
+        assertTrue(cache.size() <= 32, "size " + cache.size());
+    }
+
+    @Test
+    public void testInterpreterSkipsCachedSignatures() {
+        SignatureCache saved = Interpreter.getSignatureCache();
+        try {
+            Interpreter.setSignatureCache(new SignatureCache(100));
+            List<TxOutput> spent = new ArrayList<>();
+            Tx tx = TestTxGenerator.signedTx(new ECKeyLite(), 3, new Random(1), spent);
+            for (int i = 0; i < 3; i++)
+                correctlySpends(tx, i, spent.get(i));
+            assertEquals(3, Interpreter.getSignatureCache().size());
+            assertEquals(0, Interpreter.getSignatureCache().getHits());
+
+            // Checking the transaction again, as when its block arrives, finds every signature.
+            for (int i = 0; i < 3; i++)
+                correctlySpends(tx, i, spent.get(i));
+            assertEquals(3, Interpreter.getSignatureCache().getHits());
+
+            // A signature over a different value isn't in the cache, and still fails.
+            spent.get(0).setValue(spent.get(0).getValue().add(Coin.SATOSHI));
+            assertThrows(ScriptExecutionException.class, () -> correctlySpends(tx, 0, spent.get(0)));
+            assertEquals(3, Interpreter.getSignatureCache().size());
+        } finally {
+            Interpreter.setSignatureCache(saved);
+        }
+    }
+
+    private static void correctlySpends(Tx tx, int index, TxOutput spent) {
+        ScriptUtils.correctlySpends(tx.getInputs().get(index).getScriptSig(), tx, index, spent.getScriptPubKey(),
+                spent.getValue(), ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+    }
+}
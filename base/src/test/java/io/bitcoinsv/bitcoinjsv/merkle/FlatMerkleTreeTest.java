@@ -0,0 +1,84 @@
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatMerkleTreeTest {
+
+    private static List<Sha256Hash> hashes(int count) {
+        List<Sha256Hash> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            hashes.add(Sha256Hash.of(new byte[] {(byte) i, (byte) (i >> 8), (byte) (i >> 16)}));
+        return hashes;
+    }
+
+    @Test
+    public void testRootMatchesMerkleTree() {
+        for (int count = 1; count <= 70; count++) {
+            List<Sha256Hash> hashes = hashes(count);
+            assertEquals(new MerkleTree(hashes).getRoot(), FlatMerkleTree.calculateRoot(hashes), "size " + count);
+        }
+    }
+
+    @Test
+    public void testParallelRootAndBranches() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Either side of the parallel threshold, and a last chunk of a single leaf.
+            int[] counts = {FlatMerkleTree.PARALLEL_THRESHOLD - 1, FlatMerkleTree.PARALLEL_THRESHOLD,
+                    FlatMerkleTree.CHUNK_LEAVES * 5 + 1, FlatMerkleTree.CHUNK_LEAVES * 6 - 3};
+            for (int count : counts) {
+                List<Sha256Hash> hashes = hashes(count);
+                byte[] leaves = FlatMerkleTree.toLeaves(hashes);
+                byte[] original = leaves.clone();
+                Sha256Hash expected = new MerkleTree(hashes).getRoot();
+
+                assertEquals(expected, Sha256Hash.wrapReversed(FlatMerkleTree.calculateRoot(leaves, count)));
+                assertArrayEquals(original, leaves, "calculateRoot must not modify the leaves");
+                assertEquals(expected, Sha256Hash.wrapReversed(
+                        FlatMerkleTree.calculateRootInPlace(leaves.clone(), count, pool)));
+
+                FlatMerkleTree tree = FlatMerkleTree.build(leaves, count, pool);
+                assertEquals(expected, tree.getRoot());
+                for (int index : new int[] {0, 1, FlatMerkleTree.CHUNK_LEAVES, count / 2, count - 1}) {
+                    List<byte[]> branch = FlatMerkleTree.calculateBranch(leaves.clone(), count, index, pool);
+                    List<byte[]> stored = tree.getBranchInternal(index);
+                    assertEquals(tree.getLevels() - 1, branch.size());
+                    for (int level = 0; level < branch.size(); level++)
+                        assertArrayEquals(stored.get(level), branch.get(level), "index " + index);
+                    MerkleBranch merkleBranch = tree.getBranch(index);
+                    assertTrue(merkleBranch.validate(hashes.get(index), expected), "index " + index);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBranchOfLoneNode() {
+        List<Sha256Hash> hashes = hashes(5);
+        FlatMerkleTree tree = FlatMerkleTree.build(FlatMerkleTree.toLeaves(hashes), 5);
+        assertEquals(4, tree.getLevels());
+        // The fifth leaf has no sibling on the lower two levels so it is paired with itself.
+        List<byte[]> branch = tree.getBranchInternal(4);
+        assertArrayEquals(tree.getNode(0, 4), branch.get(0));
+        assertArrayEquals(tree.getNode(1, 2), branch.get(1));
+        assertArrayEquals(tree.getNode(2, 0), branch.get(2));
+        assertTrue(tree.getBranch(4).validate());
+    }
+
+    @Test
+    public void testSingleLeafAndEmpty() {
+        List<Sha256Hash> one = hashes(1);
+        assertEquals(one.get(0), FlatMerkleTree.calculateRoot(one));
+        assertTrue(FlatMerkleTree.build(FlatMerkleTree.toLeaves(one), 1).getBranchInternal(0).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> FlatMerkleTree.calculateRoot(new byte[0], 0));
+    }
+}
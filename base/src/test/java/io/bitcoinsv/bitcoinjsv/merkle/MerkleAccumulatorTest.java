@@ -0,0 +1,65 @@
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.MerkleBuilder;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MerkleAccumulatorTest {
+
+    @Test
+    public void testMatchesMerkleBuilderAtEverySize() {
+        MerkleAccumulator accumulator = new MerkleAccumulator();
+        List<Sha256Hash> leaves = new ArrayList<>();
+        for (int i = 0; i < 70; i++) {
+            Sha256Hash leaf = Sha256Hash.of(new byte[] {(byte) i});
+            leaves.add(leaf);
+            accumulator.add(leaf);
+            assertEquals(i + 1, accumulator.size());
+            // The root can be asked for at any point without disturbing later appends.
+            assertEquals(MerkleBuilder.calculateMerkleRoot(leaves), accumulator.getRoot(), "size " + leaves.size());
+        }
+    }
+
+    @Test
+    public void testSingleLeafIsTheRoot() {
+        MerkleAccumulator accumulator = new MerkleAccumulator();
+        Sha256Hash leaf = Sha256Hash.of(new byte[] {1});
+        accumulator.add(leaf);
+        assertEquals(leaf, accumulator.getRoot());
+    }
+
+    @Test
+    public void testEmptyHasNoRoot() {
+        assertThrows(IllegalStateException.class, () -> new MerkleAccumulator().getRoot());
+    }
+
+    @Test
+    public void testCoinbaseBranchAtEverySize() {
+        MerkleAccumulator accumulator = new MerkleAccumulator();
+        List<Sha256Hash> leaves = new ArrayList<>();
+        Sha256Hash newCoinbase = Sha256Hash.of(new byte[] {-1});
+        for (int i = 0; i < 70; i++) {
+            leaves.add(Sha256Hash.of(new byte[] {(byte) i}));
+            accumulator.add(leaves.get(i));
+
+            FlatMerkleTree tree = FlatMerkleTree.build(FlatMerkleTree.toLeaves(leaves), leaves.size());
+            List<byte[]> expected = tree.getBranchInternal(0);
+            List<byte[]> branch = accumulator.getCoinbaseBranchInternal();
+            assertEquals(expected.size(), branch.size(), "size " + leaves.size());
+            for (int level = 0; level < branch.size(); level++)
+                assertArrayEquals(expected.get(level), branch.get(level), "size " + leaves.size());
+            assertTrue(accumulator.getCoinbaseBranch().validate());
+
+            List<Sha256Hash> replaced = new ArrayList<>(leaves);
+            replaced.set(0, newCoinbase);
+            assertEquals(FlatMerkleTree.calculateRoot(replaced), accumulator.getRootWithCoinbase(newCoinbase));
+        }
+        // Asking for the root with another coinbase leaves the accumulator as it was.
+        assertEquals(FlatMerkleTree.calculateRoot(leaves), accumulator.getRoot());
+    }
+}
@@ -0,0 +1,71 @@
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares serving and checking merkle proofs for many txids of one block with {@link FlatMerkleTree} and
+ * {@link MerkleProof} against the one at a time {@link MerkleTree} and {@link MerkleBranch}. The arguments are the
+ * number of txids in the block, default 1,000,000, and the number of proofs, default 10,000.
+ */
+public class MerkleProofBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int numTxids = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int numProofs = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        Random random = new Random(1);
+        List<Sha256Hash> txids = new ArrayList<>(numTxids);
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < numTxids; i++) {
+            random.nextBytes(bytes);
+            txids.add(Sha256Hash.wrap(bytes.clone()));
+        }
+        int[] indices = new int[numProofs];
+        for (int i = 0; i < numProofs; i++)
+            indices[i] = random.nextInt(numTxids);
+        System.out.printf("txids=%,d proofs=%,d%n", numTxids, numProofs);
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            FlatMerkleTree tree = FlatMerkleTree.build(FlatMerkleTree.toLeaves(txids), numTxids);
+            long built = System.nanoTime();
+            List<MerkleProof> proofs = tree.getProofs(indices);
+            long encodedBytes = 0;
+            for (MerkleProof proof : proofs)
+                encodedBytes += proof.serialize().length;
+            long served = System.nanoTime();
+            boolean[] valid = MerkleProof.verifyAll(proofs, tree.getRoot());
+            long batchVerified = System.nanoTime();
+            for (MerkleProof proof : proofs)
+                proof.verify(tree.getRoot());
+            long singleVerified = System.nanoTime();
+
+            MerkleTree legacy = new MerkleTree(txids);
+            long legacyBuilt = System.nanoTime();
+            List<MerkleBranch> branches = new ArrayList<>(numProofs);
+            for (int index : indices)
+                branches.add(legacy.getBranch(index));
+            long legacyServed = System.nanoTime();
+            for (MerkleBranch branch : branches)
+                branch.validate();
+            long legacyVerified = System.nanoTime();
+
+            System.out.printf("flat: build %,d ms, %,d proofs %,d ms (%,d bytes each), verifyAll %,d ms, verify "
+                            + "one by one %,d ms%n",
+                    millis(start, built), numProofs, millis(built, served), encodedBytes / numProofs,
+                    millis(served, batchVerified), millis(batchVerified, singleVerified));
+            System.out.printf("legacy: build %,d ms, %,d proofs %,d ms, validate %,d ms%s%n",
+                    millis(singleVerified, legacyBuilt), numProofs, millis(legacyBuilt, legacyServed),
+                    millis(legacyServed, legacyVerified), valid[0] ? "" : " (invalid!)");
+        }
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000;
+    }
+}
@@ -0,0 +1,118 @@
+package io.bitcoinsv.bitcoinjsv.merkle;
+
+import io.bitcoinsv.bitcoinjsv.core.ProtocolException;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MerkleProofTest {
+
+    private static List<Sha256Hash> txids(int count) {
+        List<Sha256Hash> txids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            txids.add(Sha256Hash.of(new byte[] {(byte) i, (byte) (i >> 8)}));
+        return txids;
+    }
+
+    private static int[] allIndices(int count) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++)
+            indices[i] = i;
+        return indices;
+    }
+
+    @Test
+    public void testRoundTripEveryLeaf() {
+        for (int count = 1; count <= 40; count++) {
+            List<Sha256Hash> txids = txids(count);
+            Sha256Hash root = new MerkleTree(txids).getRoot();
+            List<MerkleProof> proofs = FlatMerkleTree.calculateProofs(txids, allIndices(count));
+            for (MerkleProof proof : proofs) {
+                assertEquals(txids.get(proof.getIndex()), proof.getLeaf());
+                assertTrue(proof.verify(root));
+                assertTrue(proof.toMerkleBranch(root).validate());
+
+                byte[] bytes = proof.serialize();
+                assertEquals(proof.messageSize(), bytes.length);
+                MerkleProof parsed = MerkleProof.parse(bytes);
+                assertEquals(proof.getIndex(), parsed.getIndex());
+                assertEquals(count, parsed.getLeafCount());
+                assertEquals(proof.getLeaf(), parsed.getLeaf());
+                List<byte[]> expected = proof.getNodesInternal();
+                List<byte[]> actual = parsed.getNodesInternal();
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++)
+                    assertArrayEquals(expected.get(i), actual.get(i));
+                assertTrue(parsed.verify(root));
+            }
+        }
+    }
+
+    @Test
+    public void testSelfPairedNodesAreNotEncoded() {
+        // In a tree of 5 the last leaf is paired with itself on the two levels above the leaves.
+        MerkleProof last = FlatMerkleTree.calculateProofs(txids(5), new int[] {4}).get(0);
+        assertEquals(3, last.getNodesInternal().size());
+        assertEquals(1 + 1 + 32 + 32, last.serialize().length);
+        MerkleProof first = FlatMerkleTree.calculateProofs(txids(5), new int[] {0}).get(0);
+        assertEquals(1 + 1 + 32 + 3 * 32, first.serialize().length);
+    }
+
+    @Test
+    public void testVerifyAll() {
+        List<Sha256Hash> txids = txids(1000);
+        FlatMerkleTree tree = FlatMerkleTree.build(FlatMerkleTree.toLeaves(txids), txids.size());
+        Sha256Hash root = tree.getRoot();
+        List<MerkleProof> proofs = tree.getProofs(new int[] {0, 1, 2, 500, 999, 998, 1});
+        boolean[] valid = MerkleProof.verifyAll(proofs, root);
+        for (boolean v : valid)
+            assertTrue(v);
+
+        // Proofs that share their path with a good one must still be checked.
+        List<MerkleProof> mixed = new ArrayList<>(proofs);
+        // The leaf follows a one byte index and a three byte leaf count.
+        mixed.add(MerkleProof.parse(tamperLeaf(tree.getProof(3).serialize(), 4)));
+        mixed.add(new MerkleProof(2, 1000, tree.getNode(0, 3), tree.getBranchInternal(2)));
+        valid = MerkleProof.verifyAll(mixed, root);
+        assertTrue(valid[0] && valid[6]);
+        assertFalse(valid[7]);
+        assertFalse(valid[8]);
+        for (boolean v : MerkleProof.verifyAll(proofs.subList(0, 2), txids.get(0)))
+            assertFalse(v);
+    }
+
+    @Test
+    public void testVerifyAllBranches() {
+        List<Sha256Hash> txids = txids(37);
+        MerkleTree tree = new MerkleTree(txids);
+        List<MerkleBranch> branches = new ArrayList<>();
+        for (int i = 0; i < txids.size(); i++)
+            branches.add(tree.getBranch(i));
+        branches.add(new MerkleBranch(5, txids.get(6), tree.getRoot(), tree.getBranch(5).getBranchNodes()));
+        boolean[] valid = MerkleProof.verifyAllBranches(branches, tree.getRoot());
+        for (int i = 0; i < txids.size(); i++)
+            assertTrue(valid[i], "index " + i);
+        assertFalse(valid[txids.size()]);
+    }
+
+    @Test
+    public void testParseRejectsMalformedProofs() {
+        byte[] bytes = FlatMerkleTree.calculateProofs(txids(10), new int[] {3}).get(0).serialize();
+        assertThrows(ProtocolException.class, () -> MerkleProof.parse(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertThrows(ProtocolException.class, () -> MerkleProof.parse(Arrays.copyOf(bytes, bytes.length + 1)));
+        byte[] outOfRange = bytes.clone();
+        outOfRange[0] = 10;
+        assertThrows(ProtocolException.class, () -> MerkleProof.parse(outOfRange));
+    }
+
+    private static byte[] tamperLeaf(byte[] bytes, int leafOffset) {
+        byte[] tampered = bytes.clone();
+        tampered[leafOffset] ^= 1;
+        return tampered;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.ecc.SignatureCache;
+import io.bitcoinsv.bitcoinjsv.script.interpreter.Interpreter;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures {@link ParallelScriptVerifier} on a block of signed transactions with pools of 1, 2, 4 ... threads up to
+ * the number of cores, against checking each input in turn with {@link ScriptUtils#correctlySpends}. The block is
+ * one transaction with the first argument's number of inputs, default 2,000, followed by as many 2 input
+ * transactions again. The signature cache is off while the pools are timed, then a last run checks the block a
+ * second time with it warm, as when a block of transactions already seen in the mempool arrives.
+ */
+public class ParallelScriptVerifierBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        ECKeyLite key = new ECKeyLite();
+        List<Tx> txs = new ArrayList<>();
+        List<List<TxOutput>> spent = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i <= inputs / 2; i++) {
+            List<TxOutput> outputs = new ArrayList<>();
+            txs.add(TestTxGenerator.signedTx(key, i == 0 ? inputs : 2, random, outputs));
+            spent.add(outputs);
+        }
+        SignatureCache signatureCache = Interpreter.getSignatureCache();
+        Interpreter.setSignatureCache(null);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("txs=%,d inputs=%,d cores=%d%n", txs.size(), inputs * 2, cores);
+
+        long sequential = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int t = 0; t < txs.size(); t++) {
+                Tx tx = txs.get(t);
+                for (int i = 0; i < tx.getInputs().size(); i++) {
+                    TxOutput output = spent.get(t).get(i);
+                    ScriptUtils.correctlySpends(tx.getInputs().get(i).getScriptSig(), tx, i, output.getScriptPubKey(),
+                            output.getValue(), ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+                }
+            }
+            sequential = Math.min(sequential, System.nanoTime() - start);
+        }
+        System.out.printf("loop: %,d ms%n", sequential / 1_000_000);
+
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelScriptVerifier verifier = new ParallelScriptVerifier(pool, true);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                if (!verifier.verifyAll(txs, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS).isValid())
+                    throw new IllegalStateException("block should be valid");
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            System.out.printf("pool of %d: %,d ms (%.2fx)%n", threads, best / 1_000_000, sequential / (double) best);
+            if (threads == cores)
+                break;
+        }
+
+        Interpreter.setSignatureCache(signatureCache);
+        ParallelScriptVerifier verifier = new ParallelScriptVerifier();
+        verifier.verifyAll(txs, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+        long start = System.nanoTime();
+        verifier.verifyAll(txs, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+        long nanos = System.nanoTime() - start;
+        System.out.printf("again with signature cache warm: %,d ms (%.2fx), %s%n", nanos / 1_000_000,
+                sequential / (double) nanos, signatureCache);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxInput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static io.bitcoinsv.bitcoinjsv.script.ParallelScriptVerifier.Status.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelScriptVerifierTest {
+
+    private final ECKeyLite key = new ECKeyLite();
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testValidBlock() {
+        List<Tx> txs = new ArrayList<>();
+        List<List<TxOutput>> spent = new ArrayList<>();
+        txs.add(coinbase());
+        spent.add(null);
+        for (int inputs : new int[]{1, 30, 3, 100}) {
+            List<TxOutput> outputs = new ArrayList<>();
+            txs.add(TestTxGenerator.signedTx(key, inputs, new Random(inputs), outputs));
+            spent.add(outputs);
+        }
+
+        ParallelScriptVerifier.Result result = new ParallelScriptVerifier(pool, true)
+                .verifyAll(txs, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+        assertTrue(result.isValid());
+        assertNull(result.getFirstFailure());
+        assertEquals(NOT_CHECKED, result.getStatus(0, 0));
+        for (int t = 1; t < txs.size(); t++)
+            for (int i = 0; i < txs.get(t).getInputs().size(); i++)
+                assertEquals(VALID, result.getStatus(t, i), "tx " + t + " input " + i);
+    }
+
+    @Test
+    public void testReportsEveryFailure() {
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(key, 40, new Random(1), spent);
+        // Signed by another key, and a signature over the wrong value.
+        spent.get(7).setScriptBytes(ScriptBuilder.createOutputScript(new ECKeyLite()).getProgram());
+        spent.get(31).setValue(spent.get(31).getValue().add(Coin.SATOSHI));
+
+        ParallelScriptVerifier.Result result = new ParallelScriptVerifier(pool, false)
+                .verify(tx, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+        assertFalse(result.isValid());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(7, result.getFirstFailure().getInputIndex());
+        assertEquals(31, result.getFailures().get(1).getInputIndex());
+        for (int i = 0; i < 40; i++)
+            assertEquals(i == 7 || i == 31 ? INVALID : VALID, result.getStatus(0, i));
+    }
+
+    @Test
+    public void testStopsAtFirstFailure() {
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(key, 64, new Random(2), spent);
+        spent.get(0).setValue(Coin.ZERO);
+
+        // With one thread the first input is checked first and fails, so nothing else is checked.
+        ForkJoinPool single = new ForkJoinPool(1);
+        ParallelScriptVerifier.Result result = new ParallelScriptVerifier(single, true)
+                .verify(tx, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+        single.shutdown();
+        assertFalse(result.isValid());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(INVALID, result.getStatus(0, 0));
+        for (int i = 1; i < 64; i++)
+            assertEquals(NOT_CHECKED, result.getStatus(0, i));
+    }
+
+    @Test
+    public void testSpentOutputsMustMatchInputs() {
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(key, 3, new Random(3), spent);
+        assertThrows(IllegalArgumentException.class, () -> new ParallelScriptVerifier(pool, true)
+                .verify(tx, spent.subList(0, 2), ScriptVerifyFlag.ALL_VERIFY_FLAGS));
+    }
+
+    private static Tx coinbase() {
+        Tx tx = TestTxGenerator.randomTx(1, 1, new Random(0));
+        TxInput input = tx.getInputs().get(0);
+        input.getOutpoint().setHash(Sha256Hash.ZERO_HASH);
+        input.getOutpoint().setIndex(0xFFFFFFFFL);
+        input.setScriptBytes(new byte[]{3, 1, 2, 3});
+        return tx;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerificationScheduler.Priority;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerificationScheduler.Verification;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static io.bitcoinsv.bitcoinjsv.script.ParallelScriptVerifier.Status.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptVerificationSchedulerTest {
+
+    private final ECKeyLite key = new ECKeyLite();
+    private ScriptVerificationScheduler scheduler;
+
+    @AfterEach
+    public void shutdown() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void testBatchesSmallAndSplitsLarge() throws Exception {
+        scheduler = new ScriptVerificationScheduler(3, 10);
+        List<Tx> txs = new ArrayList<>();
+        List<List<TxOutput>> spent = new ArrayList<>();
+        Random random = new Random(1);
+        // Twelve small transactions and one of 45 inputs, 69 inputs in all.
+        for (int inputs : new int[]{2, 2, 2, 2, 2, 2, 45, 2, 2, 2, 2, 2, 2}) {
+            List<TxOutput> outputs = new ArrayList<>();
+            txs.add(TestTxGenerator.signedTx(key, inputs, random, outputs));
+            spent.add(outputs);
+        }
+        ParallelScriptVerifier.Result result = scheduler.submit(txs, spent, ScriptVerifyFlag.ALL_VERIFY_FLAGS,
+                Priority.BLOCK).get();
+        assertTrue(result.isValid());
+        for (int t = 0; t < txs.size(); t++)
+            for (int i = 0; i < txs.get(t).getInputs().size(); i++)
+                assertEquals(VALID, result.getStatus(t, i), "tx " + t + " input " + i);
+        assertEquals(7, scheduler.getCompletedBatches());
+        assertEquals(0, scheduler.getQueuedBatches());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        scheduler = new ScriptVerificationScheduler(2, 8);
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(key, 30, new Random(2), spent);
+        spent.get(17).setValue(spent.get(17).getValue().add(Coin.SATOSHI));
+        ParallelScriptVerifier.Result result = scheduler.submit(Collections.singletonList(tx),
+                Collections.singletonList(spent), ScriptVerifyFlag.ALL_VERIFY_FLAGS, Priority.BLOCK).get();
+        assertFalse(result.isValid());
+        assertEquals(17, result.getFirstFailure().getInputIndex());
+        assertEquals(INVALID, result.getStatus(0, 17));
+    }
+
+    @Test
+    public void testBlockWorkRunsBeforeMempoolWork() throws Exception {
+        scheduler = new ScriptVerificationScheduler(1, 4);
+        List<TxOutput> mempoolSpent = new ArrayList<>();
+        Tx mempoolTx = TestTxGenerator.signedTx(key, 800, new Random(3), mempoolSpent);
+        List<TxOutput> blockSpent = new ArrayList<>();
+        Tx blockTx = TestTxGenerator.signedTx(key, 8, new Random(4), blockSpent);
+
+        Verification mempool = scheduler.submit(Collections.singletonList(mempoolTx),
+                Collections.singletonList(mempoolSpent), ScriptVerifyFlag.ALL_VERIFY_FLAGS, Priority.MEMPOOL);
+        Verification block = scheduler.submit(Collections.singletonList(blockTx),
+                Collections.singletonList(blockSpent), ScriptVerifyFlag.ALL_VERIFY_FLAGS, Priority.BLOCK);
+        assertTrue(block.get().isValid());
+        // The block's two batches jumped the queue of 200 mempool batches.
+        assertFalse(mempool.isDone());
+        assertTrue(scheduler.getQueuedBatches(Priority.MEMPOOL) > 0);
+        assertEquals(0, scheduler.getQueuedBatches(Priority.BLOCK));
+        assertTrue(mempool.get().isValid());
+        assertEquals(0, scheduler.getQueuedBatches());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        scheduler = new ScriptVerificationScheduler(1, 4);
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(key, 400, new Random(5), spent);
+        Verification verification = scheduler.submit(Collections.singletonList(tx), Collections.singletonList(spent),
+                ScriptVerifyFlag.ALL_VERIFY_FLAGS, Priority.BLOCK);
+        verification.cancel();
+        // Unchecked inputs mustn't pass for valid ones.
+        assertThrows(CancellationException.class, verification::get);
+        assertEquals(0, scheduler.getQueuedBatches());
+    }
+
+    @Test
+    public void testShutdownDropsWaitingWork() throws Exception {
+        scheduler = new ScriptVerificationScheduler(1, 4);
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(key, 400, new Random(6), spent);
+        Verification verification = scheduler.submit(Collections.singletonList(tx), Collections.singletonList(spent),
+                ScriptVerifyFlag.ALL_VERIFY_FLAGS, Priority.MEMPOOL);
+        scheduler.shutdown();
+        assertThrows(CancellationException.class, verification::get);
+        assertTrue(verification.isDone());
+        assertEquals(0, scheduler.getQueuedBatches());
+        assertThrows(ScriptVerificationScheduler.ShutDownException.class, () -> scheduler.submit(
+                Collections.singletonList(tx), Collections.singletonList(spent), ScriptVerifyFlag.ALL_VERIFY_FLAGS,
+                Priority.BLOCK));
+    }
+
+    @Test
+    public void testNothingToCheck() throws Exception {
+        scheduler = new ScriptVerificationScheduler(1, 4);
+        Verification verification = scheduler.submit(Collections.<Tx>emptyList(),
+                Collections.<List<TxOutput>>emptyList(), ScriptVerifyFlag.ALL_VERIFY_FLAGS, Priority.BLOCK);
+        assertTrue(verification.isDone());
+        assertTrue(verification.get().isValid());
+    }
+}
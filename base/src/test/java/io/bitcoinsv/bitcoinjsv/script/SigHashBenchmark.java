@@ -0,0 +1,55 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import test.utils.TestTxGenerator;
+
+import java.util.Random;
+
+/**
+ * Measures the forkid sighash of every input of transactions with 1, 100 and 10,000 inputs, calculated from scratch
+ * for each input as before and with one {@link SigHashContext} per transaction. Each transaction has as many outputs
+ * as inputs.
+ */
+public class SigHashBenchmark {
+
+    private static final int RUNS = 5;
+    private static final byte[] CONNECTED_SCRIPT = new byte[25];
+
+    public static void main(String[] args) {
+        for (int inputs : new int[]{1, 100, 10_000}) {
+            Tx tx = TestTxGenerator.randomTx(inputs, inputs, new Random(inputs));
+            // Enough repetitions for each run to take a measurable time.
+            int repeat = Math.max(1, 20_000 / inputs);
+            if (inputs == 10_000)
+                repeat = 1;
+            long perInput = best(tx, repeat, false);
+            long shared = best(tx, repeat, true);
+            System.out.printf("inputs=%,d per input: %,d us  shared context: %,d us  (%.1fx)%n",
+                    inputs, perInput / 1000, shared / 1000, perInput / (double) shared);
+        }
+    }
+
+    /** Returns the fastest of a few runs hashing every input of the transaction, in nanoseconds per transaction. */
+    private static long best(Tx tx, int repeat, boolean shareContext) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+                SigHashContext context = new SigHashContext(tx);
+                for (int i = 0; i < tx.getInputs().size(); i++) {
+                    if (shareContext)
+                        SigHash.hashForForkIdSignature(context, i, CONNECTED_SCRIPT, Coin.COIN, SigHash.Flags.ALL, false);
+                    else
+                        SigHash.hashForForkIdSignature(tx, i, CONNECTED_SCRIPT, Coin.COIN, SigHash.Flags.ALL, false);
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - start) / repeat);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxInput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.UnsafeByteArrayOutputStream;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.core.VarInt;
+import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
+import org.junit.jupiter.api.Test;
+import test.utils.TestTxGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class SigHashContextTest {
+
+    private static final byte[] CONNECTED_SCRIPT = Utils.HEX.decode("76a914000102030405060708090a0b0c0d0e0f1011121388ac");
+
+    @Test
+    public void testMatchesPerInputCalculation() {
+        // More inputs than outputs so SIGHASH_SINGLE also covers inputs without a matching output.
+        Tx tx = TestTxGenerator.randomTx(7, 4, new Random(1));
+        SigHashContext context = new SigHashContext(tx);
+        for (SigHash.Flags type : new SigHash.Flags[]{SigHash.Flags.ALL, SigHash.Flags.NONE, SigHash.Flags.SINGLE}) {
+            for (boolean anyoneCanPay : new boolean[]{false, true}) {
+                for (int i = 0; i < tx.getInputs().size(); i++) {
+                    Coin value = Coin.valueOf(1000 + i);
+                    Sha256Hash expected = referenceHash(tx, i, CONNECTED_SCRIPT, value, type, anyoneCanPay);
+                    assertEquals(expected, SigHash.hashForForkIdSignature(context, i, CONNECTED_SCRIPT, value, type, anyoneCanPay),
+                            type + " anyoneCanPay=" + anyoneCanPay + " input " + i);
+                    assertEquals(expected, SigHash.hashForForkIdSignature(tx, i, CONNECTED_SCRIPT, value, type, anyoneCanPay));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInputScriptsMayChangeWhileSigning() {
+        Tx tx = TestTxGenerator.randomTx(3, 2, new Random(2));
+        SigHashContext context = new SigHashContext(tx);
+        for (int i = 0; i < tx.getInputs().size(); i++) {
+            SigHash.hashForForkIdSignature(context, i, CONNECTED_SCRIPT, Coin.COIN, SigHash.Flags.ALL, false);
+            tx.getInputs().get(i).setScriptBytes(new byte[]{(byte) i, 1, 2, 3});
+        }
+        for (int i = 0; i < tx.getInputs().size(); i++)
+            assertEquals(referenceHash(tx, i, CONNECTED_SCRIPT, Coin.COIN, SigHash.Flags.ALL, false),
+                    SigHash.hashForForkIdSignature(context, i, CONNECTED_SCRIPT, Coin.COIN, SigHash.Flags.ALL, false));
+    }
+
+    @Test
+    public void testDigestsAreCalculatedOnce() {
+        SigHashContext context = new SigHashContext(TestTxGenerator.randomTx(2, 2, new Random(3)));
+        assertSame(context.getHashPrevouts(), context.getHashPrevouts());
+        assertSame(context.getHashSequence(), context.getHashSequence());
+        assertSame(context.getHashOutputs(), context.getHashOutputs());
+    }
+
+    /** The forkid sighash written out as in the specification, serializing everything for each input. */
+    private static Sha256Hash referenceHash(Tx tx, int inputIndex, byte[] connectedScript, Coin prevValue,
+                                            SigHash.Flags type, boolean anyoneCanPay) {
+        try {
+            byte[] hashPrevouts = new byte[32];
+            byte[] hashSequence = new byte[32];
+            byte[] hashOutputs = new byte[32];
+            if (!anyoneCanPay) {
+                ByteArrayOutputStream prevouts = new UnsafeByteArrayOutputStream();
+                for (TxInput input : tx.getInputs()) {
+                    prevouts.write(input.getOutpoint().getHash().getReversedBytes());
+                    Utils.uint32ToByteStreamLE(input.getOutpoint().getIndex(), prevouts);
+                }
+                hashPrevouts = Sha256Hash.hashTwice(prevouts.toByteArray());
+            }
+            if (!anyoneCanPay && type == SigHash.Flags.ALL) {
+                ByteArrayOutputStream sequences = new UnsafeByteArrayOutputStream();
+                for (TxInput input : tx.getInputs())
+                    Utils.uint32ToByteStreamLE(input.getSequenceNumber(), sequences);
+                hashSequence = Sha256Hash.hashTwice(sequences.toByteArray());
+            }
+            List<TxOutput> signed = type == SigHash.Flags.ALL ? tx.getOutputs()
+                    : type == SigHash.Flags.SINGLE && inputIndex < tx.getOutputs().size() ? tx.getOutputs().subList(inputIndex, inputIndex + 1)
+                    : null;
+            if (signed != null) {
+                ByteArrayOutputStream outputs = new UnsafeByteArrayOutputStream();
+                for (TxOutput output : signed) {
+                    Utils.uint64ToByteStreamLE(BigInteger.valueOf(output.getValue().getValue()), outputs);
+                    outputs.write(new VarInt(output.getScriptBytes().length).encode());
+                    outputs.write(output.getScriptBytes());
+                }
+                hashOutputs = Sha256Hash.hashTwice(outputs.toByteArray());
+            }
+            TxInput input = tx.getInputs().get(inputIndex);
+            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream();
+            Utils.uint32ToByteStreamLE(tx.getVersion(), bos);
+            bos.write(hashPrevouts);
+            bos.write(hashSequence);
+            bos.write(input.getOutpoint().getHash().getReversedBytes());
+            Utils.uint32ToByteStreamLE(input.getOutpoint().getIndex(), bos);
+            bos.write(new VarInt(connectedScript.length).encode());
+            bos.write(connectedScript);
+            Utils.uint64ToByteStreamLE(BigInteger.valueOf(prevValue.getValue()), bos);
+            Utils.uint32ToByteStreamLE(input.getSequenceNumber(), bos);
+            bos.write(hashOutputs);
+            Utils.uint32ToByteStreamLE(tx.getLockTime(), bos);
+            Utils.uint32ToByteStreamLE(TransactionSignature.calcSigHashValue(type, anyoneCanPay, true), bos);
+            return Sha256Hash.wrap(Sha256Hash.hashTwice(bos.toByteArray()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
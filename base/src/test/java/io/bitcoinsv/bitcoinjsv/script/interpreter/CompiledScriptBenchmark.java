@@ -0,0 +1,93 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.ecc.ECDSA;
+import io.bitcoinsv.bitcoinjsv.ecc.SignatureCache;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptUtils;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+
+/**
+ * Measures compiled scripts against parsing and streaming each time. First a script whose untaken branch holds
+ * 5,000 opcodes, then checking 2,000 inputs spending the same P2PK script with signatures faked, so what is timed is
+ * parsing, interpreting and hashing rather than ECDSA.
+ */
+public class CompiledScriptBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        ScriptBuilder builder = new ScriptBuilder().smallNum(0).op(OP_IF);
+        for (int i = 0; i < 5_000; i++)
+            builder.smallNum(1).op(OP_DROP);
+        Script branch = new Script(builder.op(OP_ELSE).smallNum(1).op(OP_ENDIF).build().getProgram());
+        CompiledScript compiled = new CompiledScript(branch);
+        long streamed = best(() -> execute(new SimpleScriptStream(branch)));
+        long jumped = best(() -> execute(compiled.stream()));
+        System.out.printf("untaken branch  streamed: %,d us  compiled: %,d us  (%.1fx)%n", streamed / 1000,
+                jumped / 1000, streamed / (double) jumped);
+
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(new ECKeyLite(), 2_000, new Random(1), spent);
+        SigHashContext context = new SigHashContext(tx);
+        SignatureCache signatureCache = Interpreter.getSignatureCache();
+        CompiledScriptCache scriptCache = Interpreter.getScriptCache();
+        Interpreter.setSignatureCache(null);
+        ECDSA.FAKE_SIGNATURES = true;
+        try {
+            long parsed = best(() -> {
+                for (int i = 0; i < spent.size(); i++)
+                    ScriptUtils.correctlySpends(tx.getInputs().get(i).getScriptSig(), tx, i,
+                            new Script(spent.get(i).getScriptBytes()), spent.get(i).getValue(),
+                            ScriptVerifyFlag.ALL_VERIFY_FLAGS, context);
+            });
+            long cached = best(() -> {
+                for (int i = 0; i < spent.size(); i++)
+                    ScriptUtils.correctlySpends(tx.getInputs().get(i).getScriptSig(), tx, i,
+                            ScriptUtils.compileScriptPubKey(spent.get(i).getScriptBytes()), spent.get(i).getValue(),
+                            ScriptVerifyFlag.ALL_VERIFY_FLAGS, context);
+            });
+            System.out.printf("2,000 inputs    parsed: %,d us  cached: %,d us  (%.1fx), %s%n", parsed / 1000,
+                    cached / 1000, parsed / (double) cached, Interpreter.getScriptCache());
+        } finally {
+            ECDSA.FAKE_SIGNATURES = false;
+            Interpreter.setSignatureCache(signatureCache);
+            Interpreter.setScriptCache(scriptCache);
+        }
+    }
+
+    private static void execute(ScriptStream stream) {
+        Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, stream, new ScriptStack(), Coin.ZERO,
+                ScriptVerifyFlag.GENESIS_SET, null);
+    }
+
+    /** Returns the fastest of a few runs of 20 repeats, in nanoseconds per repeat. */
+    private static long best(Runnable task) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < 20; r++)
+                task.run();
+            best = Math.min(best, (System.nanoTime() - start) / 20);
+        }
+        return best;
+    }
+}
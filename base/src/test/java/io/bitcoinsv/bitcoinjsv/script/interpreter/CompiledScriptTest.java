@@ -0,0 +1,191 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptUtils;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
+import org.junit.jupiter.api.Test;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledScriptTest {
+
+    private static final List<Set<ScriptVerifyFlag>> FLAG_SETS = Arrays.asList(
+            EnumSet.noneOf(ScriptVerifyFlag.class), ScriptVerifyFlag.MONOLITH_SET, ScriptVerifyFlag.MAGNETIC_SET,
+            ScriptVerifyFlag.GENESIS_SET);
+    private static final int MAX_OPS = Interpreter.MAX_OPCOUNT_PRE_MAGNETIC;
+
+    @Test
+    public void testBranchEnds() {
+        // 0:1 1:IF 2:2 3:ELSE 4:3 5:IF 6:4 7:ENDIF 8:ENDIF
+        CompiledScript compiled = new CompiledScript(new ScriptBuilder()
+                .smallNum(1).op(OP_IF).smallNum(2)
+                .op(OP_ELSE).smallNum(3).op(OP_IF).smallNum(4).op(OP_ENDIF)
+                .op(OP_ENDIF).build());
+        assertEquals(3, compiled.getSkippableBranchEnd(1, false, false, true));
+        assertEquals(8, compiled.getSkippableBranchEnd(3, false, false, true));
+        assertEquals(7, compiled.getSkippableBranchEnd(5, false, false, true));
+        assertEquals(-1, compiled.getSkippableBranchEnd(0, false, false, true));
+        assertEquals(0, compiled.getBranchOpCount(1));
+        assertEquals(2, compiled.getBranchOpCount(3));
+
+        // An unclosed branch has nowhere to go.
+        assertEquals(-1, new CompiledScript(new ScriptBuilder().smallNum(0).op(OP_IF).smallNum(1).build())
+                .getSkippableBranchEnd(1, true, true, false));
+    }
+
+    @Test
+    public void testBranchesThatStillFailAreNotSkippable() {
+        assertEquals(-1, branchHolding(new ScriptBuilder().op(OP_CODESEPARATOR)).getSkippableBranchEnd(1, true, true, false));
+        assertEquals(-1, branchHolding(new ScriptBuilder().op(OP_VERIF)).getSkippableBranchEnd(1, true, true, false));
+        assertEquals(-1, branchHolding(new ScriptBuilder().op(OP_2MUL)).getSkippableBranchEnd(1, true, true, false));
+
+        CompiledScript cat = branchHolding(new ScriptBuilder().op(OP_CAT));
+        assertEquals(-1, cat.getSkippableBranchEnd(1, true, false, false));
+        assertEquals(3, cat.getSkippableBranchEnd(1, false, true, false));
+        CompiledScript mul = branchHolding(new ScriptBuilder().op(OP_MUL));
+        assertEquals(-1, mul.getSkippableBranchEnd(1, false, true, false));
+        assertEquals(3, mul.getSkippableBranchEnd(1, true, false, false));
+        CompiledScript push = branchHolding(new ScriptBuilder().data(new byte[521]));
+        assertEquals(-1, push.getSkippableBranchEnd(1, true, true, true));
+        assertEquals(3, push.getSkippableBranchEnd(1, true, true, false));
+    }
+
+    private static CompiledScript branchHolding(ScriptBuilder body) {
+        Script inner = body.build();
+        ScriptBuilder builder = new ScriptBuilder().smallNum(0).op(OP_IF);
+        inner.getChunks().forEach(builder::addChunk);
+        return new CompiledScript(builder.op(OP_ENDIF).build());
+    }
+
+    @Test
+    public void testPushLengths() {
+        // <sig> lengths are 71 to 73 bytes, never the 20 of a P2PKH hash.
+        CompiledScript p2pkh = new CompiledScript(new ScriptBuilder()
+                .op(OP_DUP).op(OP_HASH160).data(new byte[20]).op(OP_EQUALVERIFY).op(OP_CHECKSIG).build());
+        assertFalse(p2pkh.mayContainPush(0, 72));
+        assertTrue(p2pkh.mayContainPush(0, 20));
+
+        // Only what follows the OP_CODESEPARATOR is signed.
+        CompiledScript codeSep = new CompiledScript(new ScriptBuilder()
+                .data(new byte[72]).op(OP_DROP).op(OP_CODESEPARATOR).data(new byte[33]).op(OP_CHECKSIG).build());
+        assertTrue(codeSep.mayContainPush(0, 72));
+        assertFalse(codeSep.mayContainPush(2, 72));
+        assertTrue(codeSep.mayContainPush(2, 33));
+        assertEquals(codeSep.getProgramLength() - 74, codeSep.stream().getProgramFrom(2).length);
+    }
+
+    @Test
+    public void testRandomScriptsRunAsUncompiled() {
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            Script script = randomScript(random);
+            CompiledScript compiled = new CompiledScript(script);
+            for (Set<ScriptVerifyFlag> flags : FLAG_SETS)
+                assertEquals(run(new SimpleScriptStream(script), flags), run(compiled.stream(), flags), script.toString());
+        }
+    }
+
+    @Test
+    public void testSkippedOpsAreCounted() {
+        ScriptBuilder builder = new ScriptBuilder().smallNum(0).op(OP_IF);
+        for (int i = 0; i < MAX_OPS; i++)
+            builder.op(OP_NOP);
+        Script script = builder.op(OP_ENDIF).smallNum(1).build();
+        CompiledScript compiled = new CompiledScript(script);
+        assertEquals(MAX_OPS, compiled.getBranchOpCount(1));
+        for (Set<ScriptVerifyFlag> flags : FLAG_SETS) {
+            String expected = run(new SimpleScriptStream(script), flags);
+            assertEquals(expected, run(compiled.stream(), flags));
+        }
+        assertTrue(run(compiled.stream(), ScriptVerifyFlag.MONOLITH_SET).contains("More script operations"));
+    }
+
+    @Test
+    public void testCacheKeepsScriptPubKeys() {
+        CompiledScriptCache saved = Interpreter.getScriptCache();
+        try {
+            Interpreter.setScriptCache(new CompiledScriptCache(100));
+            List<TxOutput> spent = new ArrayList<>();
+            Tx tx = TestTxGenerator.signedTx(new ECKeyLite(), 3, new Random(1), spent);
+            for (int i = 0; i < 3; i++)
+                ScriptUtils.correctlySpends(tx.getInputs().get(i).getScriptSig(), tx, i,
+                        ScriptUtils.compileScriptPubKey(spent.get(i).getScriptBytes()), spent.get(i).getValue(),
+                        ScriptVerifyFlag.ALL_VERIFY_FLAGS, new SigHashContext(tx));
+            // The inputs all spend the same key's outputs.
+            assertEquals(1, Interpreter.getScriptCache().size());
+            assertEquals(1, Interpreter.getScriptCache().getMisses());
+            assertEquals(2, Interpreter.getScriptCache().getHits());
+
+            Interpreter.setScriptCache(null);
+            ScriptUtils.correctlySpends(tx.getInputs().get(0).getScriptSig(), tx, 0, spent.get(0).getScriptPubKey(),
+                    spent.get(0).getValue(), ScriptVerifyFlag.ALL_VERIFY_FLAGS);
+        } finally {
+            Interpreter.setScriptCache(saved);
+        }
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        CompiledScriptCache cache = new CompiledScriptCache(32);
+        for (int i = 0; i < 200; i++)
+            cache.get(new byte[]{1, (byte) i, OP_DROP});
+        assertTrue(cache.size() <= 32, "size " + cache.size());
+        assertEquals(200 - cache.size(), cache.getEvictions());
+        assertSame(cache.get(new byte[]{1, 1, OP_DROP}), cache.get(new byte[]{1, 1, OP_DROP}));
+    }
+
+    private static final int[] OPS = {OP_IF, OP_NOTIF, OP_ELSE, OP_ENDIF, OP_IF, OP_ELSE, OP_ENDIF, OP_NOP, OP_DUP,
+            OP_DROP, OP_ADD, OP_1ADD, OP_CAT, OP_MUL, OP_2MUL, OP_VERIF, OP_CODESEPARATOR, OP_RETURN, OP_VERIFY};
+
+    private static Script randomScript(Random random) {
+        ScriptBuilder builder = new ScriptBuilder();
+        for (int i = random.nextInt(4); i < 4; i++)
+            builder.smallNum(random.nextInt(3));
+        int length = 5 + random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            int choice = random.nextInt(OPS.length + 4);
+            if (choice < OPS.length)
+                builder.op(OPS[choice]);
+            else if (choice == OPS.length)
+                builder.data(new byte[random.nextInt(2) == 0 ? 3 : 600]);
+            else
+                builder.smallNum(random.nextInt(3));
+        }
+        // Parsed, as scriptPubKeys are, so each chunk knows where it is in the program.
+        return new Script(builder.build().getProgram());
+    }
+
+    // The outcome of a run, as everything it leaves behind that the two streams must agree on.
+    private static String run(ScriptStream stream, Set<ScriptVerifyFlag> flags) {
+        ScriptStack stack = new ScriptStack();
+        try {
+            ScriptExecutionState state = Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, stream, stack,
+                    Coin.ZERO, flags, null);
+            return "ok " + stack + " ops=" + state.opCount + " index=" + state.getCurrentOpCodeIndex()
+                    + " codesep=" + stream.getLastCodeSepIndex();
+        } catch (ScriptExecutionException e) {
+            return "failed " + e.getMessage() + " " + stack;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+
+/**
+ * Measures the interpreter running lean, as when verifying, against tracing for a listener that does nothing.
+ * The scripts are stack shuffling and arithmetic, a branch not taken nested 100 deep, and a short script run on 10,000
+ * items already on the stack.
+ */
+public class InterpreterBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int REPEAT = 200;
+
+    public static void main(String[] args) {
+        ScriptBuilder builder = new ScriptBuilder().smallNum(1);
+        for (int i = 0; i < 5_000; i++)
+            builder.op(OP_DUP).op(OP_1ADD).op(OP_SWAP).op(OP_DROP);
+        run("arithmetic", builder.build(), 0);
+
+        builder = new ScriptBuilder();
+        for (int i = 0; i < 100; i++)
+            builder.smallNum(1).op(OP_IF);
+        // The innermost branch isn't taken.
+        builder.smallNum(0).op(OP_IF);
+        for (int i = 0; i < 5_000; i++)
+            builder.smallNum(1).op(OP_DROP);
+        for (int i = 0; i <= 100; i++)
+            builder.op(OP_ENDIF);
+        run("nested if", builder.build(), 0);
+
+        run("deep stack", new ScriptBuilder().op(OP_DUP).op(OP_DROP).build(), 10_000);
+    }
+
+    private static void run(String name, Script script, int initialStack) {
+        long lean = best(script, initialStack, null);
+        long traced = best(script, initialStack, new ScriptStateListener() {
+            @Override
+            public void onBeforeOpCodeExecuted(boolean willExecute) {
+            }
+
+            @Override
+            public void onAfterOpCodeExectuted() {
+            }
+
+            @Override
+            public void onExceptionThrown(ScriptExecutionException exception) {
+            }
+
+            @Override
+            public void onScriptComplete() {
+            }
+        });
+        System.out.printf("%-10s lean: %,d us  tracing: %,d us  (%.1fx)%n", name, lean / 1000, traced / 1000,
+                traced / (double) lean);
+    }
+
+    /** Returns the fastest of a few runs, in nanoseconds per script. */
+    private static long best(Script script, int initialStack, ScriptStateListener listener) {
+        ScriptStack initial = new ScriptStack();
+        for (int i = 0; i < initialStack; i++)
+            initial.add(StackItem.wrap(new byte[]{(byte) i}));
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < REPEAT; r++) {
+                Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, new SimpleScriptStream(script),
+                        new ScriptStack(initial), Coin.ZERO, ScriptVerifyFlag.GENESIS_SET, listener);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / REPEAT);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterpreterTracingTest {
+
+    @Test
+    public void testLeanAndTracingAgree() {
+        // Nested branches taken and not taken, with ELSE flipping inside a false branch.
+        Script script = new ScriptBuilder()
+                .smallNum(1).op(OP_IF)
+                    .smallNum(0).op(OP_IF)
+                        .smallNum(7)
+                        .smallNum(1).op(OP_IF).smallNum(8).op(OP_ELSE).smallNum(9).op(OP_ENDIF)
+                    .op(OP_ELSE)
+                        .smallNum(2).smallNum(3).op(OP_ADD)
+                        .smallNum(0).op(OP_NOTIF).smallNum(4).op(OP_ENDIF)
+                    .op(OP_ENDIF)
+                .op(OP_ELSE)
+                    .smallNum(6)
+                .op(OP_ENDIF)
+                .op(OP_DUP).op(OP_ROT)
+                .build();
+
+        ScriptStack lean = new ScriptStack();
+        ScriptExecutionState leanState = execute(script, lean, null);
+        ScriptStack traced = new ScriptStack();
+        RecordingListener listener = new RecordingListener();
+        ScriptExecutionState tracedState = execute(script, traced, listener);
+
+        assertEquals("[5,4,4]", lean.toString());
+        assertEquals(lean, traced);
+
+        // Only the traced run kept what a debugger looks at.
+        assertTrue(leanState.getExecutedOpCodes().isEmpty());
+        assertEquals(leanState.getCurrentOpCodeIndex(), tracedState.getExecutedOpCodes().size()
+                + listener.skipped);
+        assertEquals(listener.calls, tracedState.getCurrentOpCodeIndex());
+        assertTrue(tracedState.getIfStack().isEmpty());
+    }
+
+    @Test
+    public void testPoppedItemsOnlyTracked() {
+        Script script = new ScriptBuilder().smallNum(1).smallNum(2).op(OP_ADD).build();
+        ScriptStack lean = new ScriptStack();
+        execute(script, lean, null);
+        assertTrue(lean.getPoppedItems().isEmpty());
+
+        ScriptStack traced = new ScriptStack();
+        List<Integer> popped = new ArrayList<>();
+        execute(script, traced, new RecordingListener() {
+            @Override
+            public void onAfterOpCodeExectuted() {
+                popped.add(getStackPopped().size());
+            }
+        });
+        assertEquals(List.of(0, 0, 2), popped);
+    }
+
+    @Test
+    public void testDerivationsOnlyTracked() {
+        Script script = new ScriptBuilder().smallNum(2).op(OP_ADD).build();
+        ScriptStack lean = new ScriptStack();
+        lean.add(StackItem.wrap(new byte[]{1}));
+        execute(script, lean, null);
+        assertFalse(lean.getLast().isDerived());
+
+        ScriptStack traced = new ScriptStack();
+        traced.add(StackItem.wrap(new byte[]{1}));
+        execute(script, traced, new RecordingListener());
+        // The sum depends on a value that was on the stack before the script started.
+        assertTrue(traced.getLast().isDerived());
+        assertEquals(lean, traced);
+    }
+
+    @Test
+    public void testUnbalancedConditionals() {
+        assertThrows(ScriptExecutionException.class,
+                () -> execute(new ScriptBuilder().smallNum(1).op(OP_IF).build(), new ScriptStack(), null));
+        assertThrows(ScriptExecutionException.class,
+                () -> execute(new ScriptBuilder().op(OP_ENDIF).build(), new ScriptStack(), null));
+        assertThrows(ScriptExecutionException.class,
+                () -> execute(new ScriptBuilder().op(OP_ELSE).build(), new ScriptStack(), null));
+    }
+
+    private static ScriptExecutionState execute(Script script, ScriptStack stack, ScriptStateListener listener) {
+        return Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, new SimpleScriptStream(script), stack,
+                Coin.ZERO, ScriptVerifyFlag.GENESIS_SET, listener);
+    }
+
+    private static class RecordingListener extends ScriptStateListener {
+        int calls;
+        int skipped;
+
+        @Override
+        public void onBeforeOpCodeExecuted(boolean willExecute) {
+            calls++;
+            if (!willExecute)
+                skipped++;
+        }
+
+        @Override
+        public void onAfterOpCodeExectuted() {
+        }
+
+        @Override
+        public void onExceptionThrown(ScriptExecutionException exception) {
+        }
+
+        @Override
+        public void onScriptComplete() {
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+
+/**
+ * Measures the interpreter on scripts of arithmetic and comparisons, with numbers of 4 bytes, which are decoded into
+ * longs, and of 16 bytes, which need BigIntegers.
+ */
+public class ScriptNumBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int REPEAT = 100;
+
+    public static void main(String[] args) {
+        for (long start : new long[]{1_000_000_000L, Long.MAX_VALUE}) {
+            ScriptBuilder builder = new ScriptBuilder().number(start);
+            if (start == Long.MAX_VALUE)
+                builder.op(OP_DUP).op(OP_MUL);
+            for (int i = 0; i < 2_000; i++) {
+                // Leaves the number as it was, and true for OP_VERIFY.
+                builder.op(OP_DUP).op(OP_1ADD).op(OP_OVER).op(OP_SUB).op(OP_ADD)
+                        .op(OP_1SUB).op(OP_DUP).op(OP_DUP).op(OP_DUP).op(OP_1SUB).op(OP_SWAP).op(OP_1ADD).op(OP_WITHIN)
+                        .op(OP_VERIFY).op(OP_DUP).op(OP_DUP).op(OP_NUMEQUALVERIFY);
+            }
+            Script script = builder.build();
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long begin = System.nanoTime();
+                for (int r = 0; r < REPEAT; r++) {
+                    Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, script, new ScriptStack(),
+                            Coin.ZERO, ScriptVerifyFlag.GENESIS_SET);
+                }
+                best = Math.min(best, (System.nanoTime() - begin) / REPEAT);
+            }
+            System.out.printf("%s numbers: %,d us per script of %,d opcodes%n", start == Long.MAX_VALUE ? "16 byte" : "4 byte",
+                    best / 1000, 2_000 * 17);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptNumTest {
+
+    private static final List<BigInteger> VALUES = new ArrayList<>();
+
+    static {
+        BigInteger[] magnitudes = {BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(127), BigInteger.valueOf(128),
+                BigInteger.valueOf(255), BigInteger.valueOf(0x7FFF), BigInteger.valueOf(Integer.MAX_VALUE),
+                BigInteger.ONE.shiftLeft(32), BigInteger.ONE.shiftLeft(55), BigInteger.valueOf(Long.MAX_VALUE - 1),
+                BigInteger.valueOf(Long.MAX_VALUE), BigInteger.ONE.shiftLeft(63), BigInteger.ONE.shiftLeft(70)};
+        for (BigInteger magnitude : magnitudes) {
+            VALUES.add(magnitude);
+            if (magnitude.signum() != 0)
+                VALUES.add(magnitude.negate());
+        }
+    }
+
+    @Test
+    public void testEncodeMatchesMPI() {
+        Random random = new Random(1);
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++)
+            values.add(random.nextLong() >> random.nextInt(64));
+        values.add(Long.MIN_VALUE);
+        values.add(Long.MAX_VALUE);
+        for (BigInteger value : VALUES) {
+            if (value.bitLength() < 64)
+                values.add(value.longValue());
+        }
+        for (long value : values) {
+            byte[] expected = Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(value), false));
+            byte[] encoded = ScriptNum.encode(value);
+            assertArrayEquals(expected, encoded, "encoding " + value);
+            if (encoded.length <= ScriptNum.MAX_LONG_LENGTH)
+                assertEquals(value, ScriptNum.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testDecodeMatchesMPI() {
+        // Any bytes of up to 8, minimally encoded or not.
+        Random random = new Random(2);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] bytes = new byte[random.nextInt(ScriptNum.MAX_LONG_LENGTH + 1)];
+            random.nextBytes(bytes);
+            if (bytes.length > 0 && random.nextBoolean())
+                bytes[bytes.length - 1] &= 0x80;
+            assertEquals(Utils.decodeMPI(Utils.reverseBytes(bytes), false).longValueExact(), ScriptNum.decode(bytes));
+        }
+        assertEquals(0, ScriptNum.decode(new byte[]{(byte) 0x80}));
+        assertEquals(0, ScriptNum.decode(new byte[]{0, 0, 0}));
+    }
+
+    @Test
+    public void testBinaryOpsMatchBigInteger() {
+        int[] opcodes = {OP_ADD, OP_SUB, OP_MUL, OP_DIV, OP_MOD, OP_BOOLAND, OP_BOOLOR, OP_NUMEQUAL, OP_NUMNOTEQUAL,
+                OP_LESSTHAN, OP_GREATERTHAN, OP_LESSTHANOREQUAL, OP_GREATERTHANOREQUAL, OP_MIN, OP_MAX};
+        for (int opcode : opcodes) {
+            for (BigInteger a : VALUES) {
+                for (BigInteger b : VALUES) {
+                    BigInteger expected = binaryOp(opcode, a, b);
+                    ScriptBuilder script = new ScriptBuilder().data(encode(a)).data(encode(b)).op(opcode);
+                    String name = getOpCodeName(opcode) + " " + a + " " + b;
+                    if (expected == null) {
+                        assertThrows(ScriptExecutionException.class, () -> execute(script), name);
+                    } else {
+                        assertArrayEquals(encode(expected), execute(script), name);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnaryOpsMatchBigInteger() {
+        int[] opcodes = {OP_1ADD, OP_1SUB, OP_NEGATE, OP_ABS, OP_NOT, OP_0NOTEQUAL};
+        for (int opcode : opcodes) {
+            for (BigInteger a : VALUES) {
+                BigInteger expected;
+                switch (opcode) {
+                    case OP_1ADD: expected = a.add(BigInteger.ONE); break;
+                    case OP_1SUB: expected = a.subtract(BigInteger.ONE); break;
+                    case OP_NEGATE: expected = a.negate(); break;
+                    case OP_ABS: expected = a.abs(); break;
+                    case OP_NOT: expected = a.signum() == 0 ? BigInteger.ONE : BigInteger.ZERO; break;
+                    default: expected = a.signum() != 0 ? BigInteger.ONE : BigInteger.ZERO; break;
+                }
+                assertArrayEquals(encode(expected), execute(new ScriptBuilder().data(encode(a)).op(opcode)),
+                        getOpCodeName(opcode) + " " + a);
+            }
+        }
+    }
+
+    @Test
+    public void testWithinAndNumEqualVerify() {
+        for (BigInteger a : VALUES) {
+            for (BigInteger b : VALUES) {
+                BigInteger c = b.add(BigInteger.ONE);
+                boolean within = b.compareTo(a) <= 0 && a.compareTo(c) < 0;
+                assertArrayEquals(encode(within ? BigInteger.ONE : BigInteger.ZERO),
+                        execute(new ScriptBuilder().data(encode(a)).data(encode(b)).data(encode(c)).op(OP_WITHIN)));
+
+                ScriptBuilder verify = new ScriptBuilder().smallNum(1).data(encode(a)).data(encode(b)).op(OP_NUMEQUALVERIFY);
+                if (a.equals(b))
+                    execute(verify);
+                else
+                    assertThrows(ScriptExecutionException.class, () -> execute(verify));
+            }
+        }
+        // Not minimally encoded, but the same number.
+        execute(new ScriptBuilder().smallNum(1).data(new byte[]{5, 0, 0}).data(new byte[]{5, 0, 0, 0, 0, 0, 0, 0, 0})
+                .op(OP_NUMEQUALVERIFY));
+    }
+
+    /** Returns the result of the opcode as the interpreter computed it before longs, or null if it fails. */
+    private static BigInteger binaryOp(int opcode, BigInteger a, BigInteger b) {
+        switch (opcode) {
+            case OP_ADD: return a.add(b);
+            case OP_SUB: return a.subtract(b);
+            case OP_MUL: return a.multiply(b);
+            case OP_DIV: return b.intValue() == 0 ? null : a.divide(b);
+            case OP_MOD: return b.intValue() == 0 ? null : a.remainder(b);
+            case OP_BOOLAND: return bool(a.signum() != 0 && b.signum() != 0);
+            case OP_BOOLOR: return bool(a.signum() != 0 || b.signum() != 0);
+            case OP_NUMEQUAL: return bool(a.equals(b));
+            case OP_NUMNOTEQUAL: return bool(!a.equals(b));
+            case OP_LESSTHAN: return bool(a.compareTo(b) < 0);
+            case OP_GREATERTHAN: return bool(a.compareTo(b) > 0);
+            case OP_LESSTHANOREQUAL: return bool(a.compareTo(b) <= 0);
+            case OP_GREATERTHANOREQUAL: return bool(a.compareTo(b) >= 0);
+            case OP_MIN: return a.min(b);
+            case OP_MAX: return a.max(b);
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    private static BigInteger bool(boolean value) {
+        return value ? BigInteger.ONE : BigInteger.ZERO;
+    }
+
+    private static byte[] encode(BigInteger value) {
+        return Utils.reverseBytes(Utils.encodeMPI(value, false));
+    }
+
+    private static byte[] execute(ScriptBuilder script) {
+        ScriptStack stack = new ScriptStack();
+        Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, script.build(), stack, Coin.ZERO,
+                ScriptVerifyFlag.GENESIS_SET);
+        return stack.isEmpty() ? null : stack.getLast().bytes();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+
+/**
+ * Measures the interpreter on PICK and ROLL heavy scripts. Each script pushes a stack of the given depth, then
+ * 1,000 times picks the item half way down and drops it, and rolls the item half way down to the top.
+ */
+public class ScriptStackBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int PICKS = 1_000;
+
+    public static void main(String[] args) {
+        for (int depth : new int[]{1_000, 10_000, 100_000}) {
+            ScriptBuilder builder = new ScriptBuilder();
+            for (int i = 0; i < depth; i++)
+                builder.smallNum(i % 16);
+            for (int i = 0; i < PICKS; i++) {
+                builder.number(depth / 2).op(ScriptOpCodes.OP_PICK).op(ScriptOpCodes.OP_DROP);
+                builder.number(depth / 2).op(ScriptOpCodes.OP_ROLL);
+            }
+            Script script = builder.build();
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, script, new ScriptStack(), Coin.ZERO,
+                        ScriptVerifyFlag.GENESIS_SET);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("depth=%,d picks and rolls=%,d: %,d us%n", depth, PICKS * 2, best / 1000);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.FullBlockBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptStackTest {
+
+    @Test
+    public void testPushAndPollKeepStackBytes() {
+        ScriptStack stack = new ScriptStack();
+        // Well past the initial capacity.
+        for (int i = 0; i < 1000; i++)
+            stack.add(item(i, i % 7));
+        assertEquals(1000, stack.size());
+        assertEquals(stack.calculateStackMemoryUsage(), stack.getStackMemoryUsage());
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i % 7, stack.get(i).length());
+
+        for (int i = 999; i >= 500; i--)
+            assertEquals(item(i, i % 7), stack.pollLast());
+        assertEquals(500, stack.size());
+        assertEquals(stack.calculateStackMemoryUsage(), stack.getStackMemoryUsage());
+
+        stack.set(0, item(0, 100));
+        assertEquals(stack.calculateStackMemoryUsage(), stack.getStackMemoryUsage());
+
+        stack.clear();
+        assertTrue(stack.isEmpty());
+        assertEquals(0, stack.getStackBytes());
+        assertNull(stack.pollLast());
+        assertNull(stack.peekLast());
+        assertThrows(NoSuchElementException.class, stack::getLast);
+        assertThrows(IndexOutOfBoundsException.class, () -> stack.get(0));
+    }
+
+    @Test
+    public void testRemoveFromMiddle() {
+        ScriptStack stack = new ScriptStack();
+        for (int i = 0; i < 5; i++)
+            stack.add(item(i, i + 1));
+        assertEquals(item(1, 2), stack.remove(1));
+        assertEquals(4, stack.size());
+        assertEquals(item(2, 3), stack.get(1));
+        assertEquals(item(4, 5), stack.getLast());
+        assertEquals(stack.calculateStackMemoryUsage(), stack.getStackMemoryUsage());
+    }
+
+    @Test
+    public void testDescendingIterator() {
+        ScriptStack stack = new ScriptStack();
+        for (int i = 0; i < 5; i++)
+            stack.add(item(i, 1));
+        Iterator<StackItem> it = stack.descendingIterator();
+        assertEquals(item(4, 1), it.next());
+        assertEquals(item(3, 1), it.next());
+        it.remove();
+        assertEquals(item(2, 1), it.next());
+        assertEquals(item(1, 1), it.next());
+        assertEquals(item(0, 1), it.next());
+        assertFalse(it.hasNext());
+        assertEquals("[0x04,0x02,0x01,0x00]", stack.toString());
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        ScriptStack stack = new ScriptStack();
+        stack.add(item(1, 1));
+        ScriptStack copy = new ScriptStack(stack);
+        copy.add(item(2, 1));
+        assertEquals(1, stack.size());
+        assertEquals(2, copy.size());
+        assertEquals(2, copy.getStackBytes());
+        assertEquals(stack.getFirst(), copy.getFirst());
+    }
+
+    @Test
+    public void testPoppedItemsOnlyTrackedWhenAsked() {
+        ScriptStack stack = new ScriptStack();
+        stack.add(item(1, 1));
+        stack.add(item(2, 1));
+        stack.pollLast();
+        assertEquals(1, stack.getPoppedItems().size());
+
+        stack.setTrackPoppedItems(false);
+        assertTrue(stack.getPoppedItems().isEmpty());
+        stack.pollLast();
+        assertTrue(stack.getPoppedItems().isEmpty());
+    }
+
+    @Test
+    public void testPickAndRollDeepInStack() {
+        int depth = 10_000;
+        ScriptBuilder builder = new ScriptBuilder();
+        for (int i = 0; i < depth; i++)
+            builder.number(i);
+        // Copy the bottom item to the top, then move the next one up.
+        builder.number(depth - 1).op(ScriptOpCodes.OP_PICK);
+        builder.number(depth - 1).op(ScriptOpCodes.OP_ROLL);
+        Script script = builder.build();
+
+        ScriptStack stack = new ScriptStack();
+        Interpreter.executeScript(new TxBean(new FullBlockBean()), 0, script, stack, Coin.ZERO,
+                ScriptVerifyFlag.GENESIS_SET);
+        assertEquals(depth + 1, stack.size());
+        assertEquals(1, stack.pollLast().getInteger().intValue());
+        assertEquals(0, stack.pollLast().getInteger().intValue());
+        assertEquals(depth - 1, stack.pollLast().getInteger().intValue());
+        assertEquals(0, stack.getFirst().getInteger().intValue());
+        assertEquals(2, stack.get(1).getInteger().intValue());
+        assertEquals(stack.calculateStackMemoryUsage(), stack.getStackMemoryUsage());
+        // Nothing is listening, so nothing popped was kept.
+        assertTrue(stack.getPoppedItems().isEmpty());
+    }
+
+    private static StackItem item(int id, int length) {
+        byte[] bytes = new byte[length];
+        if (length > 0)
+            bytes[0] = (byte) id;
+        return StackItem.wrap(bytes);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.ecc.ECDSA;
+import io.bitcoinsv.bitcoinjsv.ecc.SignatureCache;
+import io.bitcoinsv.bitcoinjsv.script.ScriptUtils;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
+import test.utils.TestTxGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures checking 2,000 P2PK inputs through {@link StandardScriptVerifier} against the interpreter, with
+ * signatures faked so what is timed is everything around the ECDSA, then once with signatures verified for scale.
+ */
+public class StandardScriptVerifierBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        List<TxOutput> spent = new ArrayList<>();
+        Tx tx = TestTxGenerator.signedTx(new ECKeyLite(), 2_000, new Random(1), spent);
+        SignatureCache signatureCache = Interpreter.getSignatureCache();
+        Interpreter.setSignatureCache(null);
+        try {
+            ECDSA.FAKE_SIGNATURES = true;
+            long interpreted = best(tx, spent, false, 20);
+            long fast = best(tx, spent, true, 20);
+            System.out.printf("faked signatures     interpreter: %,d us  templates: %,d us  (%.1fx)%n",
+                    interpreted / 1000, fast / 1000, interpreted / (double) fast);
+            ECDSA.FAKE_SIGNATURES = false;
+            interpreted = best(tx, spent, false, 1);
+            fast = best(tx, spent, true, 1);
+            System.out.printf("verified signatures  interpreter: %,d ms  templates: %,d ms  (%.2fx)%n",
+                    interpreted / 1_000_000, fast / 1_000_000, interpreted / (double) fast);
+        } finally {
+            ECDSA.FAKE_SIGNATURES = false;
+            Interpreter.setSignatureCache(signatureCache);
+            StandardScriptVerifier.setEnabled(true);
+        }
+    }
+
+    /** Returns the fastest of a few runs, in nanoseconds per check of every input. */
+    private static long best(Tx tx, List<TxOutput> spent, boolean templates, int repeat) {
+        StandardScriptVerifier.setEnabled(templates);
+        SigHashContext context = new SigHashContext(tx);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+                for (int i = 0; i < spent.size(); i++)
+                    ScriptUtils.correctlySpends(tx.getInputs().get(i).getScriptSig(), tx, i,
+                            ScriptUtils.compileScriptPubKey(spent.get(i).getScriptBytes()), spent.get(i).getValue(),
+                            ScriptVerifyFlag.ALL_VERIFY_FLAGS, context);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / repeat);
+        }
+        return best;
+    }
+}
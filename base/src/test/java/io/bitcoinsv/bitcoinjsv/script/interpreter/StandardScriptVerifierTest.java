@@ -0,0 +1,164 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.script.interpreter;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.ScriptUtils;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
+import io.bitcoinsv.bitcoinjsv.script.SigHash;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
+import io.bitcoinsv.bitcoinjsv.script.interpreter.StandardScriptVerifier.Template;
+import org.junit.jupiter.api.Test;
+import test.utils.TestTxGenerator;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static io.bitcoinsv.bitcoinjsv.script.ScriptOpCodes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StandardScriptVerifierTest {
+
+    private static final List<Set<ScriptVerifyFlag>> FLAG_SETS = Arrays.asList(ScriptVerifyFlag.ALL_VERIFY_FLAGS,
+            ScriptVerifyFlag.ALL_VERIFY_FLAGS_PRE_GENESIS, EnumSet.noneOf(ScriptVerifyFlag.class));
+    private static final Coin VALUE = Coin.valueOf(12345);
+
+    private final Random random = new Random(1);
+    private final Tx tx = TestTxGenerator.randomTx(1, 2, random);
+    private final ECKeyLite[] keys = {new ECKeyLite(), new ECKeyLite(), new ECKeyLite()};
+
+    @Test
+    public void testTemplates() {
+        assertEquals(Template.PAY_TO_PUBKEY_HASH, new CompiledScript(p2pkh(keys[0])).getTemplate());
+        assertEquals(Template.PAY_TO_PUBKEY, new CompiledScript(p2pk(keys[0])).getTemplate());
+        assertEquals(Template.MULTISIG, new CompiledScript(multisig(2)).getTemplate());
+        assertEquals(Template.OTHER, new CompiledScript(new Script(new ScriptBuilder()
+                .op(OP_HASH160).data(new byte[20]).op(OP_EQUAL).build().getProgram())).getTemplate());
+    }
+
+    @Test
+    public void testPayToPubKeyHash() {
+        Script scriptPubKey = p2pkh(keys[0]);
+        for (boolean forkId : new boolean[]{true, false}) {
+            byte[] sig = sign(keys[0], scriptPubKey, forkId);
+            assertFastAndAgrees(scriptPubKey, new ScriptBuilder().data(sig).data(keys[0].getPubKey()).build());
+            // The wrong key, a signature by another key, a damaged signature and a scriptSig with more in it.
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(sig).data(keys[1].getPubKey()).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(sign(keys[1], scriptPubKey, forkId))
+                    .data(keys[0].getPubKey()).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(damage(sig)).data(keys[0].getPubKey()).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().smallNum(1).op(OP_DROP).data(sig)
+                    .data(keys[0].getPubKey()).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(sig).build());
+        }
+    }
+
+    @Test
+    public void testPayToPubKey() {
+        Script scriptPubKey = p2pk(keys[0]);
+        for (boolean forkId : new boolean[]{true, false}) {
+            byte[] sig = sign(keys[0], scriptPubKey, forkId);
+            assertFastAndAgrees(scriptPubKey, new ScriptBuilder().data(sig).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(sign(keys[1], scriptPubKey, forkId)).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(damage(sig)).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().data(sig).data(sig).build());
+            assertAgrees(scriptPubKey, new ScriptBuilder().build());
+        }
+    }
+
+    @Test
+    public void testMultiSig() {
+        Script scriptPubKey = multisig(2);
+        byte[][] sigs = new byte[3][];
+        for (int i = 0; i < 3; i++)
+            sigs[i] = sign(keys[i], scriptPubKey, true);
+        // Any two keys, in the order they appear.
+        assertFastAndAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[0]).data(sigs[1]).build());
+        assertFastAndAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[0]).data(sigs[2]).build());
+        assertFastAndAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[1]).data(sigs[2]).build());
+        // Out of order, repeated, damaged, short and with a dummy that isn't empty.
+        assertAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[1]).data(sigs[0]).build());
+        assertAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[1]).data(sigs[1]).build());
+        assertAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[0]).data(damage(sigs[1])).build());
+        assertAgrees(scriptPubKey, new ScriptBuilder().smallNum(0).data(sigs[0]).build());
+        assertAgrees(scriptPubKey, new ScriptBuilder().smallNum(1).data(sigs[0]).data(sigs[1]).build());
+    }
+
+    private void assertFastAndAgrees(Script scriptPubKey, Script scriptSig) {
+        scriptSig = new Script(scriptSig.getProgram());
+        for (Set<ScriptVerifyFlag> flags : FLAG_SETS)
+            assertTrue(StandardScriptVerifier.verify(scriptSig, tx, 0, new CompiledScript(scriptPubKey), VALUE, flags,
+                    null), scriptSig + " with " + flags);
+        assertAgrees(scriptPubKey, scriptSig);
+    }
+
+    // Checks the input with and without the fast path, which must reach the same verdict for the same reason.
+    private void assertAgrees(Script scriptPubKey, Script scriptSig) {
+        Script parsed = new Script(scriptSig.getProgram());
+        for (Set<ScriptVerifyFlag> flags : FLAG_SETS) {
+            String fast = outcome(parsed, scriptPubKey, flags, true);
+            String interpreted = outcome(parsed, scriptPubKey, flags, false);
+            assertEquals(interpreted, fast, scriptSig + " with " + flags);
+        }
+    }
+
+    private String outcome(Script scriptSig, Script scriptPubKey, Set<ScriptVerifyFlag> flags, boolean fast) {
+        boolean saved = StandardScriptVerifier.isEnabled();
+        try {
+            StandardScriptVerifier.setEnabled(fast);
+            ScriptUtils.correctlySpends(scriptSig, tx, 0, new CompiledScript(scriptPubKey), VALUE, flags,
+                    new SigHashContext(tx));
+            return "ok";
+        } catch (ScriptExecutionException e) {
+            return e.getMessage();
+        } finally {
+            StandardScriptVerifier.setEnabled(saved);
+        }
+    }
+
+    private byte[] sign(ECKeyLite key, Script scriptPubKey, boolean forkId) {
+        Sha256Hash hash = forkId
+                ? SigHash.hashForForkIdSignature(new SigHashContext(tx), 0, scriptPubKey.getProgram(), VALUE,
+                        SigHash.Flags.ALL, false)
+                : SigHash.hashForLegacySignature(tx, 0, scriptPubKey.getProgram(), (byte) SigHash.Flags.ALL.value);
+        return new TransactionSignature(key.sign(hash), SigHash.Flags.ALL, false, forkId).encodeToBitcoin();
+    }
+
+    private static byte[] damage(byte[] sig) {
+        byte[] damaged = sig.clone();
+        damaged[10] ^= 1;
+        return damaged;
+    }
+
+    private static Script p2pkh(ECKeyLite key) {
+        return parsed(new ScriptBuilder().op(OP_DUP).op(OP_HASH160).data(Utils.sha256hash160(key.getPubKey()))
+                .op(OP_EQUALVERIFY).op(OP_CHECKSIG));
+    }
+
+    private static Script p2pk(ECKeyLite key) {
+        return parsed(new ScriptBuilder().data(key.getPubKey()).op(OP_CHECKSIG));
+    }
+
+    private Script multisig(int threshold) {
+        ScriptBuilder builder = new ScriptBuilder().smallNum(threshold);
+        for (ECKeyLite key : keys)
+            builder.data(key.getPubKey());
+        return parsed(builder.smallNum(keys.length).op(OP_CHECKMULTISIG));
+    }
+
+    private static Script parsed(ScriptBuilder builder) {
+        return new Script(builder.build().getProgram());
+    }
+}
@@ -9,6 +9,7 @@ import io.bitcoinsv.bitcoinjsv.blockchain.ChainUtils;
 import io.bitcoinsv.bitcoinjsv.core.Coin;
 import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
 import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.core.VarInt;
 import io.bitcoinsv.bitcoinjsv.params.Net;
 
 import java.util.Arrays;
@@ -114,6 +115,65 @@ public class TestBlockGenerator {
         return tx;
     }
 
+    /** Size in bytes of each transaction built by {@link #syntheticBlockBytes(int, long)}. */
+    public static final int SYNTHETIC_TX_SIZE = 226;
+
+    /**
+     * Builds the serialized form of a block of {@code numTxs} synthetic transactions, each spending one random
+     * outpoint to two P2PKH outputs. The merkle root in the header is correct, the transactions are not, so this is
+     * only useful for parsing, hashing and merkle tests and benchmarks.
+     */
+    public static byte[] syntheticBlockBytes(int numTxs, long seed) {
+        Random random = new Random(seed);
+        int txsOffset = Header.FIXED_MESSAGE_SIZE + VarInt.sizeOf(numTxs);
+        byte[] bytes = new byte[txsOffset + numTxs * SYNTHETIC_TX_SIZE];
+        Utils.uint32ToByteArrayLE(1, bytes, 0);
+        Utils.uint32ToByteArrayLE(1231006505L, bytes, 68);
+        Utils.uint32ToByteArrayLE(0x207fffffL, bytes, 72);
+        byte[] count = new VarInt(numTxs).encode();
+        System.arraycopy(count, 0, bytes, Header.FIXED_MESSAGE_SIZE, count.length);
+
+        byte[] tx = new byte[SYNTHETIC_TX_SIZE];
+        // Leaf hashes, then each level of the tree is written over the one below it.
+        byte[] tree = new byte[numTxs * 32];
+        for (int i = 0; i < numTxs; i++) {
+            random.nextBytes(tx);
+            int cursor = 0;
+            Utils.uint32ToByteArrayLE(1, tx, cursor);
+            cursor += 4;
+            tx[cursor++] = 1; // inputs
+            cursor += 32 + 4; // random outpoint
+            tx[cursor++] = 107; // script sig: sig + pubkey sized
+            cursor += 107;
+            Utils.uint32ToByteArrayLE(0xffffffffL, tx, cursor);
+            cursor += 4;
+            tx[cursor++] = 2; // outputs
+            for (int j = 0; j < 2; j++) {
+                Utils.uint64ToByteArrayLE(1000 + random.nextInt(100000), tx, cursor);
+                cursor += 8;
+                tx[cursor++] = 25;
+                tx[cursor] = 0x76; // OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG
+                tx[cursor + 1] = (byte) 0xa9;
+                tx[cursor + 2] = 20;
+                tx[cursor + 23] = (byte) 0x88;
+                tx[cursor + 24] = (byte) 0xac;
+                cursor += 25;
+            }
+            Utils.uint32ToByteArrayLE(0, tx, cursor);
+            System.arraycopy(tx, 0, bytes, txsOffset + i * SYNTHETIC_TX_SIZE, SYNTHETIC_TX_SIZE);
+            System.arraycopy(Sha256Hash.hashTwice(tx), 0, tree, i * 32, 32);
+        }
+        for (int level = numTxs; level > 1; level = (level + 1) / 2) {
+            for (int left = 0; left < level; left += 2) {
+                int right = Math.min(left + 1, level - 1);
+                byte[] parent = Sha256Hash.hashTwice(tree, left * 32, 32, tree, right * 32, 32);
+                System.arraycopy(parent, 0, tree, left / 2 * 32, 32);
+            }
+        }
+        System.arraycopy(tree, 0, bytes, 36, 32);
+        return bytes;
+    }
+
     public static LiteBlock orphanBlock(Net networkParams) {
         LiteBlock nextBlock = new LiteBlockBean();
         nextBlock.setHeader(new HeaderBean(nextBlock));
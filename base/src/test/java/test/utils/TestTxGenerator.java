@@ -0,0 +1,90 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package test.utils;
+
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.BitcoinObject;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxInput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutPoint;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxInputBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxOutPointBean;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxOutputBean;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKeyLite;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
+import io.bitcoinsv.bitcoinjsv.script.Script;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.script.SigHash;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Transactions for tests and benchmarks of sighashes and script verification.
+ */
+public class TestTxGenerator {
+
+    /**
+     * Returns a transaction with random outpoints, sequence numbers, output values and output scripts. The inputs
+     * have empty scriptSigs.
+     */
+    public static Tx randomTx(int numInputs, int numOutputs, Random random) {
+        Tx tx = new TxBean((BitcoinObject) null);
+        List<TxInput> inputs = new ArrayList<>();
+        for (int i = 0; i < numInputs; i++) {
+            TxInput input = new TxInputBean(tx);
+            TxOutPoint outPoint = new TxOutPointBean(input);
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            outPoint.setHash(Sha256Hash.wrap(hash));
+            outPoint.setIndex(random.nextInt(10));
+            input.setOutpoint(outPoint);
+            input.setScriptBytes(new byte[0]);
+            input.setSequenceNumber(random.nextInt() & 0xffffffffL);
+            inputs.add(input);
+        }
+        List<TxOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < numOutputs; i++) {
+            TxOutput output = new TxOutputBean(tx);
+            output.setValue(Coin.valueOf(random.nextInt(Integer.MAX_VALUE)));
+            byte[] script = new byte[1 + random.nextInt(40)];
+            random.nextBytes(script);
+            output.setScriptBytes(script);
+            outputs.add(output);
+        }
+        tx.setInputs(inputs);
+        tx.setOutputs(outputs);
+        tx.setVersion(1);
+        tx.setLockTime(random.nextInt(500000));
+        return tx;
+    }
+
+    /**
+     * Returns a transaction whose inputs spend pay to pubkey outputs of the key, and adds those outputs to
+     * spentOutputs. Every input is signed with SIGHASH_ALL and forkid.
+     */
+    public static Tx signedTx(ECKeyLite key, int numInputs, Random random, List<TxOutput> spentOutputs) {
+        Tx tx = randomTx(numInputs, 2, random);
+        Script scriptPubKey = ScriptBuilder.createOutputScript(key);
+        SigHashContext context = new SigHashContext(tx);
+        for (int i = 0; i < numInputs; i++) {
+            TxOutput spent = new TxOutputBean((Tx) null);
+            spent.setValue(Coin.valueOf(1000 + random.nextInt(1000000)));
+            spent.setScriptBytes(scriptPubKey.getProgram());
+            spentOutputs.add(spent);
+
+            Sha256Hash hash = SigHash.hashForForkIdSignature(context, i, scriptPubKey.getProgram(), spent.getValue(),
+                    SigHash.Flags.ALL, false);
+            TransactionSignature signature = new TransactionSignature(key.sign(hash), SigHash.Flags.ALL, false, true);
+            tx.getInputs().get(i).setScriptBytes(ScriptBuilder.createInputScript(signature).getProgram());
+        }
+        return tx;
+    }
+}
@@ -20,14 +20,21 @@ package io.bitcoinsv.bitcoinjsv.chain_legacy;
 import io.bitcoinsv.bitcoinjsv.blockchain.ChainEventListener;
 import io.bitcoinsv.bitcoinjsv.exception.PrunedException;
 import io.bitcoinsv.bitcoinjsv.exception.VerificationException;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.Tx;
+import io.bitcoinsv.bitcoinjsv.msg.Translate;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.Block;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.Transaction;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.TransactionInput;
+import io.bitcoinsv.bitcoinjsv.msg.protocol.TransactionOutPoint;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.TransactionOutput;
 import io.bitcoinsv.bitcoinjsv.params.NetworkParameters;
+import io.bitcoinsv.bitcoinjsv.bitcoin.api.base.TxOutput;
+import io.bitcoinsv.bitcoinjsv.bitcoin.bean.base.TxOutputBean;
+import io.bitcoinsv.bitcoinjsv.script.ParallelScriptVerifier;
 import io.bitcoinsv.bitcoinjsv.script.Script;
 import io.bitcoinsv.bitcoinjsv.script.ScriptUtils;
-import io.bitcoinsv.bitcoinjsv.script.ScriptUtils_legacy;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerificationScheduler;
+import io.bitcoinsv.bitcoinjsv.script.ScriptVerificationScheduler.Priority;
 import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
 import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
 import io.bitcoinsv.bitcoinjsv.store_legacy.FullPrunedBlockStore;
@@ -38,9 +45,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
 
@@ -65,6 +75,17 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
     // Whether or not to execute scriptPubKeys before accepting a transaction (i.e. check signatures).
     private boolean runScripts = true;
 
+    private final ScriptVerificationScheduler scriptVerificationScheduler;
+
+    // Shared by every chain not given a scheduler, as nothing would shut down one each made for itself.
+    @Nullable private static ScriptVerificationScheduler defaultScriptVerificationScheduler;
+
+    private static synchronized ScriptVerificationScheduler defaultScriptVerificationScheduler() {
+        if (defaultScriptVerificationScheduler == null || defaultScriptVerificationScheduler.isShutdown())
+            defaultScriptVerificationScheduler = new ScriptVerificationScheduler();
+        return defaultScriptVerificationScheduler;
+    }
+
     /**
      * Constructs a block chain connected to the given store.
      */
@@ -73,11 +94,23 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
     }
 
     /**
-     * Constructs a block chain connected to the given list of wallets and a store.
+     * Constructs a block chain connected to the given list of wallets and a store, verifying scripts with a scheduler
+     * shared by all chains constructed this way.
      */
     public FullPrunedBlockChain_legacy(NetworkParameters params, List<ChainEventListener> listeners, FullPrunedBlockStore blockStore) throws BlockStoreException {
+        this(params, listeners, blockStore, defaultScriptVerificationScheduler());
+    }
+
+    /**
+     * Constructs a block chain connected to the given list of wallets and a store, verifying scripts with the given
+     * scheduler, which may be shared with other work such as checking mempool transactions.
+     */
+    public FullPrunedBlockChain_legacy(NetworkParameters params, List<ChainEventListener> listeners,
+                                       FullPrunedBlockStore blockStore,
+                                       ScriptVerificationScheduler scriptVerificationScheduler) throws BlockStoreException {
         super(params, listeners, blockStore);
         this.blockStore = blockStore;
+        this.scriptVerificationScheduler = scriptVerificationScheduler;
         // Ignore upgrading for now
         this.chainHead = blockStore.getVerifiedChainHead();
     }
@@ -119,39 +152,120 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
         this.runScripts = value;
     }
 
+    /**
+     * Returns the scheduler verifying scripts, whose queue depth shows how far verification is behind. Unless one
+     * was given to the constructor, it is shared with other chains and should not be shut down.
+     */
+    public ScriptVerificationScheduler getScriptVerificationScheduler() {
+        return scriptVerificationScheduler;
+    }
+
     // TODO: Remove lots of duplicated code in the two connectTransactions
 
-    // TODO: execute in order of largest transaction (by input count) first
-    ExecutorService scriptVerificationExecutor = Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors(), new ContextPropagatingThreadFactory("Script verification"));
+    // Reading outputs from the store is mostly waiting on the disk or the database, so more reads run at once than
+    // there are cores.
+    private static final int PREFETCH_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    // The fewest outpoints handed to a prefetch thread at a time.
+    private static final int MIN_PREFETCH_BATCH = 32;
+
+    // How many blocks beyond the one being connected addAll reads ahead of.
+    private static final int READ_AHEAD_BLOCKS = 2;
+
+    // Shared by every chain, as nothing would shut down a pool each made for itself. Its threads are daemons.
+    @Nullable private static ExecutorService utxoPrefetchExecutor;
+
+    private static synchronized ExecutorService utxoPrefetchExecutor() {
+        if (utxoPrefetchExecutor == null || utxoPrefetchExecutor.isShutdown())
+            utxoPrefetchExecutor = Executors.newFixedThreadPool(
+                    PREFETCH_THREADS, new ContextPropagatingThreadFactory("UTXO prefetch"));
+        return utxoPrefetchExecutor;
+    }
+
+    // Outputs being read ahead of the blocks passed to addAll, by block hash.
+    private final Map<Sha256Hash, OutputReads> readAheads = new HashMap<Sha256Hash, OutputReads>();
+    // Counts blocks connected and disconnected, so outputs read ahead of a block are only used if nothing else has
+    // changed them since.
+    private long utxoChanges;
+    // Whether the store batch under way has been written to, which other threads may not see.
+    private boolean batchWritten;
 
     /**
-     * A job submitted to the executor which verifies signatures.
+     * The scripts of a block's transactions, handed to the scheduler while the block is connected, as soon as there
+     * are enough inputs for a batch, so small transactions go together and verifying overlaps connecting.
      */
-    private static class Verifier implements Callable<VerificationException> {
-        final Transaction tx;
-        final List<Script> prevOutScripts;
-        final Set<ScriptVerifyFlag> verifyFlags;
-
-        public Verifier(final Transaction tx, final List<Script> prevOutScripts, final Set<ScriptVerifyFlag> verifyFlags) {
-            this.tx = tx;
-            this.prevOutScripts = prevOutScripts;
+    private class ScriptChecks {
+        private List<Tx> txs = new ArrayList<Tx>();
+        private List<List<TxOutput>> spentOutputs = new ArrayList<List<TxOutput>>();
+        @Nullable private Set<ScriptVerifyFlag> verifyFlags;
+        private int inputs;
+        private final List<ScriptVerificationScheduler.Verification> verifications =
+                new ArrayList<ScriptVerificationScheduler.Verification>();
+
+        /** Adds the transaction, whose inputs spend the outputs in order. */
+        void add(Transaction tx, List<UTXO> spent, Set<ScriptVerifyFlag> verifyFlags) throws BlockStoreException {
+            if (this.verifyFlags != null && !this.verifyFlags.equals(verifyFlags))
+                submit();
             this.verifyFlags = verifyFlags;
+            List<TxOutput> outputs = new ArrayList<TxOutput>(spent.size());
+            for (UTXO prevOut : spent) {
+                TxOutput output = new TxOutputBean((Tx) null);
+                output.setValue(prevOut.getValue());
+                output.setScriptBytes(prevOut.getScriptBytes());
+                outputs.add(output);
+            }
+            txs.add(Translate.toTx(tx));
+            spentOutputs.add(outputs);
+            inputs += spent.size();
+            if (inputs >= scriptVerificationScheduler.getInputsPerBatch())
+                submit();
         }
 
-        @Nullable
-        @Override
-        public VerificationException call() throws Exception {
+        private void submit() throws BlockStoreException {
+            if (txs.isEmpty())
+                return;
             try {
-                ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
-                for (int index = 0; index < tx.getInputs().size(); index++) {
-                    Coin value = tx.getInput(index).getConnectedOutput() != null ? tx.getInput(index).getConnectedOutput().getValue() : Coin.ZERO;
-                    ScriptUtils_legacy.correctlySpends(tx.getInputs().get(index).getScriptSig(), tx, index, prevOutIt.next(), value, verifyFlags);
+                verifications.add(scriptVerificationScheduler.submit(txs, spentOutputs, verifyFlags, Priority.BLOCK));
+            } catch (ScriptVerificationScheduler.ShutDownException e) {
+                throw notVerified(e);
+            }
+            txs = new ArrayList<Tx>();
+            spentOutputs = new ArrayList<List<TxOutput>>();
+            inputs = 0;
+        }
+
+        /**
+         * Submits what is left and waits for it all, throwing the first failure, or a BlockStoreException if the
+         * scripts couldn't all be checked.
+         */
+        void await() throws VerificationException, BlockStoreException {
+            submit();
+            for (ScriptVerificationScheduler.Verification verification : verifications) {
+                ParallelScriptVerifier.Result result;
+                try {
+                    result = verification.get();
+                } catch (InterruptedException thrownE) {
+                    throw new RuntimeException(thrownE); // Shouldn't happen
+                } catch (CancellationException thrownE) {
+                    throw notVerified(thrownE);
+                } catch (ExecutionException thrownE) {
+                    log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
+                    throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
                 }
-            } catch (VerificationException e) {
-                return e;
+                if (!result.isValid())
+                    throw result.getFirstFailure().getException();
             }
-            return null;
+        }
+
+        // The scheduler was shut down under the block. That says nothing about the block, so rather than a
+        // VerificationException, which would reject it, fail as the store would and leave it to be added again.
+        private BlockStoreException notVerified(Exception e) {
+            return new BlockStoreException("Could not verify scripts: " + e.getMessage(), e);
+        }
+
+        /** Stops checking what has been submitted, as the block has failed. */
+        void cancel() {
+            for (ScriptVerificationScheduler.Verification verification : verifications)
+                verification.cancel();
         }
     }
 
@@ -183,6 +297,193 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
         return address;
     }
 
+    /**
+     * Outputs being read from the store on the prefetch threads, in batches so the reads overlap instead of each
+     * waiting for the last, and several batches a thread so one that happens to be slow doesn't hold up the rest.
+     */
+    private class OutputReads {
+        final Map<TransactionOutPoint, UTXO> outputs;
+        final List<Future<Void>> reads = new ArrayList<Future<Void>>();
+        // When read ahead, the chain head and count of changes to the outputs at which they can be used.
+        @Nullable Sha256Hash prevBlockHash;
+        long utxoChanges;
+
+        /**
+         * Starts reading the outputs at the outpoints. Reads made concurrently are safe while this thread writes to
+         * the store, as when reading ahead of later blocks, but don't see what it has written.
+         */
+        OutputReads(List<TransactionOutPoint> outPoints, final boolean concurrently) {
+            outputs = new ConcurrentHashMap<TransactionOutPoint, UTXO>(outPoints.size() * 2);
+            ExecutorService executor = utxoPrefetchExecutor();
+            int batchSize = Math.max(MIN_PREFETCH_BATCH, outPoints.size() / (PREFETCH_THREADS * 4) + 1);
+            for (int from = 0; from < outPoints.size(); from += batchSize) {
+                final List<TransactionOutPoint> batch = outPoints.subList(from, Math.min(from + batchSize, outPoints.size()));
+                reads.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws BlockStoreException {
+                        for (TransactionOutPoint outPoint : batch) {
+                            UTXO out = concurrently
+                                    ? blockStore.getTransactionOutputConcurrently(outPoint.getHash(), outPoint.getIndex())
+                                    : blockStore.getTransactionOutput(outPoint.getHash(), outPoint.getIndex());
+                            if (out != null)
+                                outputs.put(outPoint, out);
+                        }
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        /** Waits for the reads and returns the outputs by outpoint, leaving out any the store doesn't have. */
+        Map<TransactionOutPoint, UTXO> await() throws BlockStoreException {
+            try {
+                for (Future<Void> read : reads)
+                    read.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e); // Shouldn't happen
+            } catch (ExecutionException e) {
+                cancel();
+                if (e.getCause() instanceof BlockStoreException)
+                    throw (BlockStoreException) e.getCause();
+                throw new BlockStoreException("Failed to prefetch spent outputs", e.getCause());
+            }
+            return outputs;
+        }
+
+        /** Drops the reads not yet started, leaving those under way to finish, unused. */
+        void cancel() {
+            for (Future<Void> read : reads)
+                read.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the outpoints the transactions spend, apart from those of outputs created by the transactions or by
+     * any with the given hashes, or given as touched.
+     */
+    private static List<TransactionOutPoint> spentOutPoints(List<Transaction> transactions, Set<Sha256Hash> created,
+                                                            Set<TransactionOutPoint> touched) {
+        for (Transaction tx : transactions)
+            created.add(tx.getHash());
+        List<TransactionOutPoint> outPoints = new ArrayList<TransactionOutPoint>();
+        for (Transaction tx : transactions) {
+            if (tx.isCoinBase())
+                continue;
+            for (TransactionInput in : tx.getInputs())
+                if (!created.contains(in.getOutpoint().getHash()) && !touched.contains(in.getOutpoint()))
+                    outPoints.add(in.getOutpoint());
+        }
+        return outPoints;
+    }
+
+    /**
+     * Reads every output the transactions spend from the store before they are connected, apart from those the
+     * transactions create themselves. Returns them by outpoint, leaving out any the store doesn't have.
+     *
+     * The reads are made on other threads, which may not see what has already been written in the batch, so this
+     * must be called before anything is written in it. If something has been, nothing is read and each output is
+     * read as it is spent.
+     */
+    private Map<TransactionOutPoint, UTXO> prefetchOutputs(List<Transaction> transactions) throws BlockStoreException {
+        if (batchWritten)
+            return new HashMap<TransactionOutPoint, UTXO>();
+        return new OutputReads(spentOutPoints(transactions, new HashSet<Sha256Hash>(),
+                Collections.<TransactionOutPoint>emptySet()), false).await();
+    }
+
+    /**
+     * Starts reading the outputs spent by the block at the given index of those passed to {@link #addAll}, before
+     * the blocks from the first index up to it have been connected. Only outputs those blocks neither create nor
+     * spend are read, whose state is the same whether or not they have been connected yet.
+     */
+    private void readAhead(List<Block> blocks, int first, int index) {
+        Block block = blocks.get(index);
+        if (block.getParsedTransactions() == null || readAheads.containsKey(block.getHash()))
+            return;
+        Set<Sha256Hash> created = new HashSet<Sha256Hash>();
+        Set<TransactionOutPoint> touched = new HashSet<TransactionOutPoint>();
+        Sha256Hash prevBlockHash = getChainHead().getHeader().getHash();
+        for (int i = first; i < index; i++) {
+            Block earlier = blocks.get(i);
+            // Only a run of blocks each building on the last can be read ahead of.
+            if (earlier.getParsedTransactions() == null || !earlier.getPrevBlockHash().equals(prevBlockHash))
+                return;
+            for (Transaction tx : earlier.getParsedTransactions()) {
+                created.add(tx.getHash());
+                for (TransactionInput in : tx.getInputs())
+                    touched.add(in.getOutpoint());
+            }
+            prevBlockHash = earlier.getHash();
+        }
+        if (!block.getPrevBlockHash().equals(prevBlockHash))
+            return;
+        OutputReads reads = new OutputReads(spentOutPoints(block.getParsedTransactions(), created, touched), true);
+        reads.prevBlockHash = prevBlockHash;
+        reads.utxoChanges = utxoChanges + (index - first);
+        readAheads.put(block.getHash(), reads);
+    }
+
+    /**
+     * Returns the outputs read ahead for the block, if they were, and the chain has since changed only by connecting
+     * the blocks before it they were read ahead of, or else null.
+     */
+    @Nullable
+    private Map<TransactionOutPoint, UTXO> takeReadAhead(Block block) throws BlockStoreException {
+        OutputReads reads = readAheads.remove(block.getHash());
+        if (reads == null)
+            return null;
+        if (batchWritten || utxoChanges != reads.utxoChanges
+                || !getChainHead().getHeader().getHash().equals(reads.prevBlockHash)) {
+            reads.cancel();
+            return null;
+        }
+        return reads.await();
+    }
+
+    /**
+     * Adds the blocks in order, as {@link #add(Block)} would one at a time, for syncing a run of blocks. While each
+     * block is connected, its scripts verified and the result written to the store, the outputs spent by the next
+     * few are read from the store on the prefetch threads, so the processors and the store are both kept busy.
+     *
+     * Outputs that blocks earlier in the run create or spend aren't read ahead, but when their block is connected, as
+     * are all of a block's outputs if the chain has meanwhile changed any other way, as by a re-org. Reading ahead
+     * writes nothing, so a block that fails leaves the store as {@link #add(Block)} would, with the blocks before
+     * it added and none after.
+     */
+    public void addAll(List<Block> blocks) throws VerificationException, PrunedException {
+        lock.lock();
+        try {
+            int readAhead = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                for (; readAhead < blocks.size() && readAhead <= i + READ_AHEAD_BLOCKS; readAhead++)
+                    readAhead(blocks, i, readAhead);
+                Block block = blocks.get(i);
+                add(block);
+                // Not connected, being a duplicate, on a fork or an orphan.
+                OutputReads unused = readAheads.remove(block.getHash());
+                if (unused != null)
+                    unused.cancel();
+            }
+        } finally {
+            for (OutputReads reads : readAheads.values())
+                reads.cancel();
+            readAheads.clear();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the output the input spends, taking it from those prefetched if it is there, or else reading it from
+     * the store, as for an output created earlier in the block. An output is taken from those prefetched only once,
+     * so one spent twice is looked for in the store the second time, and not found.
+     */
+    private UTXO getSpentOutput(Map<TransactionOutPoint, UTXO> prefetched, TransactionInput in) throws BlockStoreException {
+        UTXO prevOut = prefetched.remove(in.getOutpoint());
+        if (prevOut == null)
+            prevOut = blockStore.getTransactionOutput(in.getOutpoint().getHash(), in.getOutpoint().getIndex());
+        return prevOut;
+    }
+
     @Override
     protected TransactionOutputChanges connectTransactions(int height, Block block)
             throws VerificationException, BlockStoreException {
@@ -198,10 +499,7 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
         LinkedList<UTXO> txOutsCreated = new LinkedList<UTXO>();
         long sigOps = 0;
 
-        if (scriptVerificationExecutor.isShutdown())
-            scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
-        List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<Future<VerificationException>>(block.getParsedTransactions().size());
+        ScriptChecks scriptChecks = new ScriptChecks();
         try {
             if (!params.isCheckpoint(height)) {
                 // BIP30 violator blocks are ones that contain a duplicated transaction. They are all in the
@@ -219,13 +517,18 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                         sigOps += tx.getSigOpCount();
                 }
             }
+            Map<TransactionOutPoint, UTXO> prefetched = takeReadAhead(block);
+            if (prefetched == null)
+                prefetched = prefetchOutputs(block.getParsedTransactions());
+            utxoChanges++;
+            batchWritten = true;
             Coin totalFees = Coin.ZERO;
             Coin coinbaseValue = null;
             for (final Transaction tx : block.getParsedTransactions()) {
                 boolean isCoinBase = tx.isCoinBase();
                 Coin valueIn = Coin.ZERO;
                 Coin valueOut = Coin.ZERO;
-                final List<Script> prevOutScripts = new LinkedList<Script>();
+                final List<UTXO> spentOutputs = new ArrayList<UTXO>(tx.getInputs().size());
                 Integer countaboveBip65 = getVersionTally().getCountAtOrAbove(BitcoinJ.BLOCK_VERSION_BIP65);
                 final Set<ScriptVerifyFlag> verifyFlags = Verification.getTransactionVerificationFlags(params, block, countaboveBip65, height);
                 if (!isCoinBase) {
@@ -233,8 +536,7 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                     // outputs.
                     for (int index = 0; index < tx.getInputs().size(); index++) {
                         TransactionInput in = tx.getInputs().get(index);
-                        UTXO prevOut = blockStore.getTransactionOutput(in.getOutpoint().getHash(),
-                                in.getOutpoint().getIndex());
+                        UTXO prevOut = getSpentOutput(prefetched, in);
                         if (prevOut == null)
                             throw new VerificationException("Attempted to spend a non-existent or already spent output!");
                         // Coinbases can't be spent until they mature, to avoid re-orgs destroying entire transaction
@@ -254,7 +556,7 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                                 throw new VerificationException("Too many P2SH SigOps in block");
                         }
 
-                        prevOutScripts.add(prevOut.getScript());
+                        spentOutputs.add(prevOut);
                         blockStore.removeUnspentTransactionOutput(prevOut);
                         txOutsSpent.add(prevOut);
                     }
@@ -287,33 +589,21 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
 
                 if (!isCoinBase && runScripts) {
                     // Because correctlySpends modifies transactions, this must come after we are done with tx
-                    FutureTask<VerificationException> future = new FutureTask<VerificationException>(new Verifier(tx, prevOutScripts, verifyFlags));
-                    scriptVerificationExecutor.execute(future);
-                    listScriptVerificationResults.add(future);
+                    scriptChecks.add(tx, spentOutputs, verifyFlags);
                 }
             }
             if (totalFees.compareTo(params.getMaxMoney()) > 0 || block.getBlockInflation(height).add(totalFees).compareTo(coinbaseValue) < 0)
                 throw new VerificationException("Transaction fees out of range");
-            for (Future<VerificationException> future : listScriptVerificationResults) {
-                VerificationException e;
-                try {
-                    e = future.get();
-                } catch (InterruptedException thrownE) {
-                    throw new RuntimeException(thrownE); // Shouldn't happen
-                } catch (ExecutionException thrownE) {
-                    log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
-                    throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
-                }
-                if (e != null)
-                    throw e;
-            }
+            scriptChecks.await();
         } catch (VerificationException e) {
-            scriptVerificationExecutor.shutdownNow();
+            scriptChecks.cancel();
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw e;
         } catch (BlockStoreException e) {
-            scriptVerificationExecutor.shutdownNow();
+            scriptChecks.cancel();
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw e;
         }
         return new TransactionOutputChanges(txOutsCreated, txOutsSpent);
@@ -334,9 +624,11 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
         if (block == null) {
             // We're trying to re-org too deep and the data needed has been deleted.
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw new PrunedException(newBlock.getHeader().getHash());
         }
         TransactionOutputChanges txOutChanges;
+        ScriptChecks scriptChecks = new ScriptChecks();
         try {
             List<Transaction> transactions = block.getTransactions();
             if (transactions != null) {
@@ -354,9 +646,11 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                 Coin totalFees = Coin.ZERO;
                 Coin coinbaseValue = null;
 
-                if (scriptVerificationExecutor.isShutdown())
-                    scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-                List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<Future<VerificationException>>(transactions.size());
+                // A re-org has already disconnected blocks in this batch, which other threads can't see, so each
+                // output is read as it is spent rather than prefetched.
+                Map<TransactionOutPoint, UTXO> prefetched = new HashMap<TransactionOutPoint, UTXO>();
+                utxoChanges++;
+                batchWritten = true;
                 for (final Transaction tx : transactions) {
                     int countAboveBip34 = getVersionTally().getCountAtOrAbove(BitcoinJ.BLOCK_VERSION_BIP34);
                     final Set<ScriptVerifyFlag> verifyFlags =
@@ -364,13 +658,12 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                     boolean isCoinBase = tx.isCoinBase();
                     Coin valueIn = Coin.ZERO;
                     Coin valueOut = Coin.ZERO;
-                    final List<Script> prevOutScripts = new LinkedList<Script>();
+                    final List<UTXO> spentOutputs = new ArrayList<UTXO>(tx.getInputs().size());
 
                     if (!isCoinBase) {
                         for (int index = 0; index < tx.getInputs().size(); index++) {
                             final TransactionInput in = tx.getInputs().get(index);
-                            final UTXO prevOut = blockStore.getTransactionOutput(in.getOutpoint().getHash(),
-                                    in.getOutpoint().getIndex());
+                            final UTXO prevOut = getSpentOutput(prefetched, in);
                             if (prevOut == null)
                                 throw new VerificationException("Attempted spend of a non-existent or already spent output!");
                             if (prevOut.isCoinbase() && newBlock.getHeight() - prevOut.getHeight() < params.getSpendableCoinbaseDepth())
@@ -385,7 +678,7 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
 
                             // TODO: Enforce DER signature format
 
-                            prevOutScripts.add(prevOut.getScript());
+                            spentOutputs.add(prevOut);
 
                             blockStore.removeUnspentTransactionOutput(prevOut);
                             txOutsSpent.add(prevOut);
@@ -419,28 +712,14 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
 
                     if (!isCoinBase) {
                         // Because correctlySpends modifies transactions, this must come after we are done with tx
-                        FutureTask<VerificationException> future = new FutureTask<VerificationException>(new Verifier(tx, prevOutScripts, verifyFlags));
-                        scriptVerificationExecutor.execute(future);
-                        listScriptVerificationResults.add(future);
+                        scriptChecks.add(tx, spentOutputs, verifyFlags);
                     }
                 }
                 if (totalFees.compareTo(params.getMaxMoney()) > 0 ||
                         newBlock.getHeader().getBlockInflation(newBlock.getHeight()).add(totalFees).compareTo(coinbaseValue) < 0)
                     throw new VerificationException("Transaction fees out of range");
                 txOutChanges = new TransactionOutputChanges(txOutsCreated, txOutsSpent);
-                for (Future<VerificationException> future : listScriptVerificationResults) {
-                    VerificationException e;
-                    try {
-                        e = future.get();
-                    } catch (InterruptedException thrownE) {
-                        throw new RuntimeException(thrownE); // Shouldn't happen
-                    } catch (ExecutionException thrownE) {
-                        log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
-                        throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
-                    }
-                    if (e != null)
-                        throw e;
-                }
+                scriptChecks.await();
             } else {
                 txOutChanges = block.getTxOutChanges();
                 if (!params.isCheckpoint(newBlock.getHeight()))
@@ -455,12 +734,14 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                     blockStore.removeUnspentTransactionOutput(out);
             }
         } catch (VerificationException e) {
-            scriptVerificationExecutor.shutdownNow();
+            scriptChecks.cancel();
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw e;
         } catch (BlockStoreException e) {
-            scriptVerificationExecutor.shutdownNow();
+            scriptChecks.cancel();
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw e;
         }
         return txOutChanges;
@@ -474,6 +755,8 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
     protected void disconnectTransactions(StoredBlock_legacy oldBlock) throws PrunedException, BlockStoreException {
         checkState(lock.isHeldByCurrentThread());
         blockStore.beginDatabaseBatchWrite();
+        utxoChanges++;
+        batchWritten = true;
         try {
             StoredUndoableBlock_legacy undoBlock = blockStore.getUndoBlock(oldBlock.getHeader().getHash());
             if (undoBlock == null) throw new PrunedException(oldBlock.getHeader().getHash());
@@ -484,9 +767,11 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
                 blockStore.removeUnspentTransactionOutput(out);
         } catch (PrunedException e) {
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw e;
         } catch (BlockStoreException e) {
             blockStore.abortDatabaseBatchWrite();
+            batchWritten = false;
             throw e;
         }
     }
@@ -496,11 +781,13 @@ public class FullPrunedBlockChain_legacy extends AbstractBlockChain_legacy {
         checkState(lock.isHeldByCurrentThread());
         blockStore.setVerifiedChainHead(chainHead);
         blockStore.commitDatabaseBatchWrite();
+        batchWritten = false;
     }
 
     @Override
     protected void notSettingChainHead() throws BlockStoreException {
         blockStore.abortDatabaseBatchWrite();
+        batchWritten = false;
     }
 
     @Override
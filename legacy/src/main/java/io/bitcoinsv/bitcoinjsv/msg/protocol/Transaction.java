@@ -789,7 +789,23 @@ public class Transaction extends ChildMessage {
             SigHash.Flags hashType,
             boolean anyoneCanPay)
     {
-        Sha256Hash hash = SigHash.hashForForkIdSignature(Translate.toTx(this), inputIndex, redeemScript, value, hashType, anyoneCanPay);
+        return calculateForkIdSignature(new SigHashContext(Translate.toTx(this)), inputIndex, key, redeemScript, value, hashType, anyoneCanPay);
+    }
+
+    /**
+     * As {@link #calculateForkIdSignature(int, ECKey, byte[], Coin, SigHash.Flags, boolean)}, using a sighash context
+     * made from this transaction. Signing every input with one context only hashes the inputs and outputs once.
+     */
+    public TransactionSignature calculateForkIdSignature(
+            SigHashContext sigHashContext,
+            int inputIndex,
+            ECKey key,
+            byte[] redeemScript,
+            Coin value,
+            SigHash.Flags hashType,
+            boolean anyoneCanPay)
+    {
+        Sha256Hash hash = SigHash.hashForForkIdSignature(sigHashContext, inputIndex, redeemScript, value, hashType, anyoneCanPay);
         return new TransactionSignature(key.sign(hash), hashType, anyoneCanPay, true);
     }
     /**
@@ -21,11 +21,13 @@ import java.util.EnumSet;
 import io.bitcoinsv.bitcoinjsv.core.ECKey;
 import io.bitcoinsv.bitcoinjsv.crypto.DeterministicKey;
 import io.bitcoinsv.bitcoinjsv.ecc.TransactionSignature;
+import io.bitcoinsv.bitcoinjsv.msg.Translate;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.Transaction;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.TransactionInput;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.TxHelper;
 import io.bitcoinsv.bitcoinjsv.script.Script;
 import io.bitcoinsv.bitcoinjsv.script.SigHash;
+import io.bitcoinsv.bitcoinjsv.script.SigHashContext;
 import io.bitcoinsv.bitcoinjsv.script.interpreter.ScriptExecutionException;
 import io.bitcoinsv.bitcoinjsv.script.ScriptUtils_legacy;
 import io.bitcoinsv.bitcoinjsv.script.ScriptVerifyFlag;
@@ -65,6 +67,8 @@ public class LocalTransactionSigner extends StatelessTransactionSigner {
     public boolean signInputs(ProposedTransaction propTx, KeyBag keyBag) {
         Transaction tx = propTx.partialTx;
         int numInputs = tx.getInputs().size();
+        // Signing only changes the input scripts, which the shared parts of the sighash don't cover.
+        SigHashContext sigHashContext = propTx.useForkId ? new SigHashContext(Translate.toTx(tx)) : null;
         for (int i = 0; i < numInputs; i++) {
             TransactionInput txIn = tx.getInput(i);
             if (txIn.getConnectedOutput() == null) {
@@ -109,7 +113,7 @@ public class LocalTransactionSigner extends StatelessTransactionSigner {
             byte[] script = redeemData.redeemScript.getProgram();
             try {
                 TransactionSignature signature = propTx.useForkId ?
-                        tx.calculateForkIdSignature(i, key, script, tx.getInput(i).getConnectedOutput().getValue(), SigHash.Flags.ALL, false) :
+                        tx.calculateForkIdSignature(sigHashContext, i, key, script, tx.getInput(i).getConnectedOutput().getValue(), SigHash.Flags.ALL, false) :
                         tx.calculateLegacySignature(i, key, script, SigHash.Flags.ALL, false);
 
                 // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We already
@@ -0,0 +1,546 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.store_legacy;
+
+import io.bitcoinsv.bitcoinjsv.chain_legacy.StoredBlock_legacy;
+import io.bitcoinsv.bitcoinjsv.chain_legacy.StoredUndoableBlock_legacy;
+import io.bitcoinsv.bitcoinjsv.core.Address;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.UTXO;
+import io.bitcoinsv.bitcoinjsv.core.UTXOCache;
+import io.bitcoinsv.bitcoinjsv.core.Utils;
+import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
+import io.bitcoinsv.bitcoinjsv.exception.UTXOProviderException;
+import io.bitcoinsv.bitcoinjsv.params.NetworkParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>A {@link FullPrunedBlockStore} that keeps the changes made to another in memory and writes them back in one
+ * large batch once enough have built up or enough time has passed, rather than a batch per block. Outputs created
+ * and spent between two flushes never reach the backing store at all, and those spent are written as one removal
+ * however they got there.</p>
+ *
+ * <p>Blocks, undo data and chain heads are held back along with the outputs, so the backing store only ever holds
+ * the state as of a flush, which it writes atomically together with the verified chain head it belongs to. After a
+ * crash the backing store opens at that head, and the chain connects the blocks after it again, as none of them are
+ * in the store. Committed changes not yet flushed are lost, as with any cache; call {@link #flush()} or
+ * {@link #close()} to keep them.</p>
+ *
+ * <p>Whether the backing store has an output added or spent with no change pending here must be known, so that
+ * spending one created since the last flush writes nothing, while one added over an output still stored, as the
+ * duplicated coinbases before BIP30 were, replaces it and is removed when spent. Outputs read from the backing store
+ * are kept in a {@link UTXOCache}, and transactions {@link #hasUnspentOutputs(Sha256Hash, int)} found it has no
+ * outputs of are remembered until the next flush, so the outputs of a transaction the chain checked for BIP30 are
+ * added without reading the store again. Anything else is looked up in the backing store, without holding the
+ * lock.</p>
+ *
+ * <p>One thread at a time may write a batch. Other threads see what has been committed, whether or not it has been
+ * flushed.</p>
+ */
+@SuppressWarnings("deprecation") // FullPrunedBlockStore is written in terms of StoredBlock_legacy
+public class CachingFullPrunedBlockStore implements FullPrunedBlockStore {
+    private static final Logger log = LoggerFactory.getLogger(CachingFullPrunedBlockStore.class);
+
+    public static final int DEFAULT_MAX_PENDING_CHANGES = 500_000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10 * 60 * 1000;
+    public static final int DEFAULT_READ_CACHE_ENTRIES = 200_000;
+
+    /**
+     * A change to an output not yet in the backing store. One spent keeps the output, to remove it by, and one
+     * added while the backing store holds the outpoint replaces what is there.
+     */
+    private static class Change {
+        final UTXO utxo;
+        final boolean spent;
+        // Whether the backing store lacks the output, so spending it again needs nothing written.
+        final boolean fresh;
+
+        Change(UTXO utxo, boolean spent, boolean fresh) {
+            this.utxo = utxo;
+            this.spent = spent;
+            this.fresh = fresh;
+        }
+    }
+
+    private static class PendingBlock {
+        final StoredBlock_legacy block;
+        @Nullable final StoredUndoableBlock_legacy undoableBlock;
+
+        PendingBlock(StoredBlock_legacy block, @Nullable StoredUndoableBlock_legacy undoableBlock) {
+            this.block = block;
+            this.undoableBlock = undoableBlock;
+        }
+    }
+
+    /** Changes made together: those of the batch being written, or those committed since the last flush. */
+    private static class Layer {
+        final Map<StoredTransactionOutPoint, Change> outputs = new HashMap<StoredTransactionOutPoint, Change>();
+        final Map<Sha256Hash, PendingBlock> blocks = new LinkedHashMap<Sha256Hash, PendingBlock>();
+        // Each head in turn, so the backing store prunes undo data at every height as it would have.
+        final List<StoredBlock_legacy> verifiedChainHeads = new ArrayList<StoredBlock_legacy>();
+        @Nullable StoredBlock_legacy chainHead;
+
+        boolean isEmpty() {
+            return outputs.isEmpty() && blocks.isEmpty() && verifiedChainHeads.isEmpty() && chainHead == null;
+        }
+
+        void clear() {
+            outputs.clear();
+            blocks.clear();
+            verifiedChainHeads.clear();
+            chainHead = null;
+        }
+    }
+
+    private final FullPrunedBlockStore store;
+    private final int maxPendingChanges;
+    private final long flushIntervalMillis;
+    private final UTXOCache readCache;
+
+    private final Layer batch = new Layer();
+    private final Layer committed = new Layer();
+    // Transactions the backing store has no outputs of, as of the last flush.
+    private final Set<Sha256Hash> absentFromStore = new HashSet<Sha256Hash>();
+    @Nullable private Thread batchThread;
+    private long lastFlushTime;
+    // Counts flushes, so an output read from the backing store before one isn't cached after it.
+    private long flushes;
+    private long coalescedOutputs;
+
+    /** Wraps the store, flushing every {@link #DEFAULT_MAX_PENDING_CHANGES} changes or ten minutes. */
+    public CachingFullPrunedBlockStore(FullPrunedBlockStore store) throws BlockStoreException {
+        this(store, DEFAULT_MAX_PENDING_CHANGES, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_READ_CACHE_ENTRIES);
+    }
+
+    /**
+     * @param store the store written back to, which must not be written to any other way while wrapped
+     * @param maxPendingChanges the number of outputs and blocks pending at which a commit flushes
+     * @param flushIntervalMillis the time since the last flush at which a commit flushes
+     * @param readCacheEntries the number of outputs read from the store to keep
+     */
+    public CachingFullPrunedBlockStore(FullPrunedBlockStore store, int maxPendingChanges, long flushIntervalMillis,
+                                       int readCacheEntries) throws BlockStoreException {
+        checkArgument(maxPendingChanges > 0, "maxPendingChanges must be positive: %s", maxPendingChanges);
+        checkArgument(flushIntervalMillis > 0, "flushIntervalMillis must be positive: %s", flushIntervalMillis);
+        this.store = store;
+        this.maxPendingChanges = maxPendingChanges;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.readCache = new UTXOCache(readCacheEntries);
+        this.lastFlushTime = Utils.currentTimeMillis();
+        StoredBlock_legacy verifiedChainHead = store.getVerifiedChainHead();
+        log.info("Caching writes to {} from verified chain head {} at height {}", store,
+                verifiedChainHead.getHeader().getHashAsString(), verifiedChainHead.getHeight());
+    }
+
+    private boolean inBatch() {
+        return batchThread == Thread.currentThread();
+    }
+
+    // The batch if this thread is writing one, otherwise changes are committed as they are made.
+    private Layer writeLayer() {
+        return inBatch() ? batch : committed;
+    }
+
+    @Nullable
+    private Change findChange(StoredTransactionOutPoint outPoint) {
+        Change change = inBatch() ? batch.outputs.get(outPoint) : null;
+        return change != null ? change : committed.outputs.get(outPoint);
+    }
+
+    @Nullable
+    private PendingBlock findBlock(Sha256Hash hash) {
+        PendingBlock pending = inBatch() ? batch.blocks.get(hash) : null;
+        return pending != null ? pending : committed.blocks.get(hash);
+    }
+
+    private void write(Layer layer, StoredTransactionOutPoint outPoint, Change change) {
+        if (layer == batch) {
+            batch.outputs.put(outPoint, change);
+            return;
+        }
+        // Whatever the change, the backing store's copy is no longer the one to read.
+        readCache.remove(outPoint.getHash(), outPoint.getIndex());
+        Change previous = committed.outputs.get(outPoint);
+        // Once committed, only what the backing store must gain, lose or have replaced is kept.
+        if (change.spent && change.fresh) {
+            coalescedOutputs++;
+            committed.outputs.remove(outPoint);
+        } else if (!change.spent && !change.fresh && previous != null && previous.spent) {
+            // Putting back an output spent since the last flush leaves the stored one as it was.
+            committed.outputs.remove(outPoint);
+        } else {
+            committed.outputs.put(outPoint, change);
+        }
+    }
+
+    @Override
+    public synchronized void put(StoredBlock_legacy block) throws BlockStoreException {
+        writeLayer().blocks.put(block.getHeader().getHash(), new PendingBlock(block, null));
+    }
+
+    @Override
+    public synchronized void put(StoredBlock_legacy storedBlock, StoredUndoableBlock_legacy undoableBlock) throws BlockStoreException {
+        writeLayer().blocks.put(storedBlock.getHeader().getHash(), new PendingBlock(storedBlock, undoableBlock));
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock_legacy get(Sha256Hash hash) throws BlockStoreException {
+        PendingBlock pending = findBlock(hash);
+        return pending != null ? pending.block : store.get(hash);
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock_legacy getOnceUndoableStoredBlock(Sha256Hash hash) throws BlockStoreException {
+        PendingBlock pending = findBlock(hash);
+        return pending != null && pending.undoableBlock != null ? pending.block : store.getOnceUndoableStoredBlock(hash);
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredUndoableBlock_legacy getUndoBlock(Sha256Hash hash) throws BlockStoreException {
+        PendingBlock pending = findBlock(hash);
+        return pending != null && pending.undoableBlock != null ? pending.undoableBlock : store.getUndoBlock(hash);
+    }
+
+    @Override
+    public synchronized StoredBlock_legacy getChainHead() throws BlockStoreException {
+        if (inBatch() && batch.chainHead != null)
+            return batch.chainHead;
+        return committed.chainHead != null ? committed.chainHead : store.getChainHead();
+    }
+
+    @Override
+    public synchronized void setChainHead(StoredBlock_legacy chainHead) throws BlockStoreException {
+        writeLayer().chainHead = chainHead;
+    }
+
+    @Override
+    public synchronized StoredBlock_legacy getVerifiedChainHead() throws BlockStoreException {
+        if (inBatch() && !batch.verifiedChainHeads.isEmpty())
+            return batch.verifiedChainHeads.get(batch.verifiedChainHeads.size() - 1);
+        if (!committed.verifiedChainHeads.isEmpty())
+            return committed.verifiedChainHeads.get(committed.verifiedChainHeads.size() - 1);
+        return store.getVerifiedChainHead();
+    }
+
+    @Override
+    public synchronized void setVerifiedChainHead(StoredBlock_legacy chainHead) throws BlockStoreException {
+        Layer layer = writeLayer();
+        layer.verifiedChainHeads.add(chainHead);
+        if (getChainHead().getHeight() < chainHead.getHeight())
+            layer.chainHead = chainHead;
+    }
+
+    @Override
+    @Nullable
+    public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+        return getTransactionOutput(hash, index, false);
+    }
+
+    @Override
+    @Nullable
+    public UTXO getTransactionOutputConcurrently(Sha256Hash hash, long index) throws BlockStoreException {
+        return getTransactionOutput(hash, index, true);
+    }
+
+    @Nullable
+    private UTXO getTransactionOutput(Sha256Hash hash, long index, boolean concurrently) throws BlockStoreException {
+        StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, index);
+        long flushesBefore;
+        synchronized (this) {
+            Change change = concurrently ? committed.outputs.get(outPoint) : findChange(outPoint);
+            if (change != null)
+                return change.spent ? null : change.utxo;
+            UTXO cached = readCache.get(hash, index);
+            if (cached != null)
+                return cached;
+            flushesBefore = flushes;
+        }
+        // Read without the lock, so reads from several threads wait on the backing store together.
+        UTXO out = concurrently
+                ? store.getTransactionOutputConcurrently(hash, index)
+                : store.getTransactionOutput(hash, index);
+        if (out != null) {
+            synchronized (this) {
+                if (flushes == flushesBefore && !committed.outputs.containsKey(outPoint))
+                    readCache.put(out);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+        while (true) {
+            long flushesBefore;
+            synchronized (this) {
+                Change change = findChange(outPoint);
+                if (change != null || readCache.get(out.getHash(), out.getIndex()) != null) {
+                    write(writeLayer(), outPoint, new Change(out, false, change != null && change.fresh));
+                    return;
+                }
+                if (absentFromStore.contains(out.getHash())) {
+                    write(writeLayer(), outPoint, new Change(out, false, true));
+                    return;
+                }
+                flushesBefore = flushes;
+            }
+            // Read without the lock, as getTransactionOutput does.
+            boolean stored = store.getTransactionOutput(out.getHash(), out.getIndex()) != null;
+            synchronized (this) {
+                // Look again if a flush or a change to the output came in meanwhile.
+                if (flushes == flushesBefore && findChange(outPoint) == null) {
+                    write(writeLayer(), outPoint, new Change(out, false, !stored));
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+        while (true) {
+            long flushesBefore;
+            synchronized (this) {
+                Change change = findChange(outPoint);
+                if (change != null && change.spent)
+                    throw new BlockStoreException("Tried to remove a UTXO from CachingFullPrunedBlockStore that it didn't have!");
+                if (change != null || readCache.get(out.getHash(), out.getIndex()) != null) {
+                    write(writeLayer(), outPoint, new Change(out, true, change != null && change.fresh));
+                    return;
+                }
+                flushesBefore = flushes;
+            }
+            // Read without the lock, as getTransactionOutput does.
+            boolean stored = store.getTransactionOutput(out.getHash(), out.getIndex()) != null;
+            synchronized (this) {
+                // Look again if a flush or a change to the output came in meanwhile.
+                if (flushes == flushesBefore && findChange(outPoint) == null) {
+                    if (!stored)
+                        throw new BlockStoreException("Tried to remove a UTXO from CachingFullPrunedBlockStore that it didn't have!");
+                    write(writeLayer(), outPoint, new Change(out, true, false));
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
+        boolean pending = false;
+        long flushesBefore;
+        synchronized (this) {
+            for (int i = 0; i < numOutputs; i++) {
+                Change change = findChange(new StoredTransactionOutPoint(hash, i));
+                if (change != null) {
+                    if (!change.spent)
+                        return true;
+                    pending = true;
+                } else if (readCache.get(hash, i) != null) {
+                    return true;
+                }
+            }
+            flushesBefore = flushes;
+        }
+        if (pending) {
+            // The backing store may still have outputs spent here, so only those not pending are asked after.
+            for (int i = 0; i < numOutputs; i++) {
+                synchronized (this) {
+                    if (findChange(new StoredTransactionOutPoint(hash, i)) != null)
+                        continue;
+                }
+                if (getTransactionOutput(hash, i) != null)
+                    return true;
+            }
+            return false;
+        }
+        // Asked in one go, so the store can answer it as cheaply as it knows how.
+        if (store.hasUnspentOutputs(hash, numOutputs))
+            return true;
+        synchronized (this) {
+            if (flushes == flushesBefore)
+                absentFromStore.add(hash);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void beginDatabaseBatchWrite() throws BlockStoreException {
+        if (inBatch())
+            return;
+        checkState(batchThread == null, "Another thread is already writing a batch");
+        batchThread = Thread.currentThread();
+    }
+
+    /**
+     * Commits the batch, then flushes if enough changes are pending or enough time has passed. The batch is committed
+     * even if the flush fails, which is logged, and what it would have written is kept for the next one.
+     */
+    @Override
+    public synchronized void commitDatabaseBatchWrite() throws BlockStoreException {
+        if (!inBatch())
+            return;
+        for (Map.Entry<StoredTransactionOutPoint, Change> entry : batch.outputs.entrySet())
+            write(committed, entry.getKey(), entry.getValue());
+        committed.blocks.putAll(batch.blocks);
+        committed.verifiedChainHeads.addAll(batch.verifiedChainHeads);
+        if (batch.chainHead != null)
+            committed.chainHead = batch.chainHead;
+        batch.clear();
+        batchThread = null;
+        if (getPendingChanges() >= maxPendingChanges
+                || Utils.currentTimeMillis() - lastFlushTime >= flushIntervalMillis) {
+            try {
+                flush();
+            } catch (BlockStoreException | RuntimeException e) {
+                log.error("Failed to flush to " + store + ", will try again on the next commit", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void abortDatabaseBatchWrite() throws BlockStoreException {
+        if (!inBatch())
+            return;
+        batch.clear();
+        batchThread = null;
+    }
+
+    /**
+     * Writes everything committed to the backing store in one batch, ending with the verified chain heads, so the
+     * store has either all of it or, if this fails or the process dies, none of it. If it fails everything stays
+     * committed, to be written by the next flush. A batch being written is left as it is.
+     */
+    public synchronized void flush() throws BlockStoreException {
+        if (committed.isEmpty()) {
+            lastFlushTime = Utils.currentTimeMillis();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int added = 0, removed = 0;
+        store.beginDatabaseBatchWrite();
+        try {
+            for (PendingBlock pending : committed.blocks.values()) {
+                if (pending.undoableBlock != null)
+                    store.put(pending.block, pending.undoableBlock);
+                else
+                    store.put(pending.block);
+            }
+            // Removals first, as the store may not let an output be added while one with its outpoint is there. An
+            // output added over a stored one is removed and added again.
+            for (Change change : committed.outputs.values()) {
+                if (change.spent || !change.fresh)
+                    store.removeUnspentTransactionOutput(change.utxo);
+                if (change.spent)
+                    removed++;
+            }
+            for (Change change : committed.outputs.values()) {
+                if (!change.spent) {
+                    store.addUnspentTransactionOutput(change.utxo);
+                    added++;
+                }
+            }
+            for (StoredBlock_legacy verifiedChainHead : committed.verifiedChainHeads)
+                store.setVerifiedChainHead(verifiedChainHead);
+            if (committed.chainHead != null)
+                store.setChainHead(committed.chainHead);
+            store.commitDatabaseBatchWrite();
+        } catch (BlockStoreException | RuntimeException e) {
+            store.abortDatabaseBatchWrite();
+            throw e;
+        }
+        for (Change change : committed.outputs.values())
+            if (!change.spent)
+                readCache.put(change.utxo);
+        log.info("Flushed {} blocks, {} new and {} spent outputs in {} ms, up to height {}",
+                committed.blocks.size(), added, removed, System.currentTimeMillis() - start,
+                getVerifiedChainHead().getHeight());
+        committed.clear();
+        absentFromStore.clear();
+        flushes++;
+        lastFlushTime = Utils.currentTimeMillis();
+    }
+
+    /** Returns the number of outputs and blocks committed but not yet flushed. */
+    public synchronized int getPendingChanges() {
+        return committed.outputs.size() + committed.blocks.size();
+    }
+
+    /** Returns the number of outputs spent before they were flushed, which the backing store never saw. */
+    public synchronized long getCoalescedOutputs() {
+        return coalescedOutputs;
+    }
+
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    /** Flushes, then closes the backing store. A batch being written is dropped. */
+    @Override
+    public synchronized void close() throws BlockStoreException {
+        batch.clear();
+        batchThread = null;
+        flush();
+        store.close();
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return store.getParams();
+    }
+
+    @Override
+    public int getChainHeadHeight() throws UTXOProviderException {
+        try {
+            return getVerifiedChainHead().getHeight();
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+    }
+
+    /** Returns the outputs as of the last commit. */
+    @Override
+    public synchronized List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        List<UTXO> foundOutputs = new ArrayList<UTXO>();
+        // Any output pending is spent, new to the backing store, or replaces the one there.
+        for (UTXO output : store.getOpenTransactionOutputs(addresses))
+            if (!committed.outputs.containsKey(new StoredTransactionOutPoint(output)))
+                foundOutputs.add(output);
+        for (Change change : committed.outputs.values()) {
+            if (change.spent)
+                continue;
+            for (Address address : addresses) {
+                if (change.utxo.getAddress().equals(address.toString())) {
+                    foundOutputs.add(change.utxo);
+                    break;
+                }
+            }
+        }
+        return foundOutputs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CachingFullPrunedBlockStore{pending=%d, coalesced=%d, flushes=%d, readCache=%s}",
+                getPendingChanges(), coalescedOutputs, flushes, readCache);
+    }
+}
@@ -77,9 +77,20 @@ public interface FullPrunedBlockStore extends BlockStore_legacy, UTXOProvider {
     StoredUndoableBlock_legacy getUndoBlock(Sha256Hash hash) throws BlockStoreException;
     
     /**
-     * Gets a {@link UTXO} with the given hash and index, or null if none is found
+     * Gets a {@link UTXO} with the given hash and index, or null if none is found. This may be called from several
+     * threads at once, so long as nothing is being written meanwhile.
      */
     UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException;
+
+    /**
+     * Gets a {@link UTXO} as {@link #getTransactionOutput} does, but may be called while another thread is writing a
+     * batch. An output the batch doesn't touch is found just the same, and one it does is found as it was either
+     * before the batch or after. By default this is {@link #getTransactionOutput}, for stores which already keep a
+     * batch apart from other threads until it is committed.
+     */
+    default UTXO getTransactionOutputConcurrently(Sha256Hash hash, long index) throws BlockStoreException {
+        return getTransactionOutput(hash, index);
+    }
     
     /**
      * Adds a {@link UTXO} to the list of unspent TransactionOutputs
@@ -19,7 +19,6 @@ package io.bitcoinsv.bitcoinjsv.store_legacy;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -88,8 +87,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                    // block!
     // ONLY used for performance benchmarking.
 
-    // LRU Cache for getTransactionOutput
-    protected Map<ByteBuffer, UTXO> utxoCache;
+    // Cache for getTransactionOutput
+    protected UTXOCache utxoCache;
     // Additional cache to cope with case when transactions are rolled back
     // e.g. when block fails to verify.
     protected Map<ByteBuffer, UTXO> utxoUncommittedCache;
@@ -121,22 +120,6 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     static final int LEVELDB_WRITE_CACHE_DEFAULT = 10 * 1048576; // 10 meg
     static final int OPENOUT_CACHE_DEFAULT = 100000;
 
-    // LRUCache
-    public class LRUCache extends LinkedHashMap<ByteBuffer, UTXO> {
-        private static final long serialVersionUID = 1L;
-        private int capacity;
-
-        public LRUCache(int capacity, float loadFactor) {
-            super(capacity, loadFactor, true);
-            this.capacity = capacity;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, UTXO> eldest) {
-            return size() > this.capacity;
-        }
-    }
-
     // Simple bloomfilter. We take advantage of fact that a Transaction Hash
     // can be split into 3 30bit numbers that are all random and uncorrelated
     // so ideal to use as the input to a 3 function bloomfilter. No has function
@@ -290,7 +273,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             throw new RuntimeException("Can not open DB", e);
         }
 
-        utxoCache = new LRUCache(openOutCache, 0.75f);
+        utxoCache = new UTXOCache(openOutCache);
         try {
             if (batchGet(getKey(KeyType.CREATED)) == null) {
                 createNewStore(params);
@@ -342,11 +325,11 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         }
     }
 
-    void beginMethod(String name) {
+    synchronized void beginMethod(String name) {
         methodStartTime.put(name, Stopwatch.createStarted());
     }
 
-    void endMethod(String name) {
+    synchronized void endMethod(String name) {
         if (methodCalls.containsKey(name)) {
             methodCalls.put(name, methodCalls.get(name) + 1);
             methodTotalTime.put(name,
@@ -711,7 +694,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             // Use cache
             if (autoCommit) {
                 // Simple case of auto commit on so cache is consistent.
-                result = utxoCache.get(ByteBuffer.wrap(key));
+                result = utxoCache.get(hash, index);
             } else {
                 // Check if we have an uncommitted delete.
                 if (utxoUncommittedDeletedCache.contains(ByteBuffer.wrap(key))) {
@@ -724,7 +707,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                 // Check if we have an uncommitted entry
                 result = utxoUncommittedCache.get(ByteBuffer.wrap(key));
                 if (result == null)
-                    result = utxoCache.get(ByteBuffer.wrap(key));
+                    result = utxoCache.get(hash, index);
                 // And lastly above check if we have a committed cached entry
 
             }
@@ -760,6 +743,27 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         throw new BlockStoreException("problem");
     }
 
+    @Override
+    public UTXO getTransactionOutputConcurrently(Sha256Hash hash, long index) throws BlockStoreException {
+        // Reads only what has been committed, as the maps of uncommitted changes aren't safe to read while they are
+        // being written.
+        UTXO result = utxoCache.get(hash, index);
+        if (result != null)
+            return result;
+        try {
+            byte[] inbytes = db.get(getTxKey(KeyType.OPENOUT_ALL, hash, (int) index));
+            if (inbytes == null)
+                return null;
+            return new UTXO(new ByteArrayInputStream(inbytes));
+        } catch (DBException e) {
+            log.error("Exception in getTransactionOutputConcurrently.", e);
+            throw new BlockStoreException(e);
+        } catch (IOException e) {
+            log.error("Exception in getTransactionOutputConcurrently.", e);
+            throw new BlockStoreException(e);
+        }
+    }
+
     @Override
     public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
 
@@ -779,7 +783,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         batchPut(key, bos.toByteArray());
 
         if (autoCommit) {
-            utxoCache.put(ByteBuffer.wrap(key), out);
+            utxoCache.put(out);
         } else {
             utxoUncommittedCache.put(ByteBuffer.wrap(key), out);
             // leveldb just stores the last key/value added.
@@ -870,7 +874,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         byte[] key = getTxKey(KeyType.OPENOUT_ALL, out.getHash(), (int) out.getIndex());
 
         if (autoCommit) {
-            utxoCache.remove(ByteBuffer.wrap(key));
+            utxoCache.remove(out.getHash(), out.getIndex());
         } else {
             utxoUncommittedDeletedCache.add(ByteBuffer.wrap(key));
             utxoUncommittedCache.remove(ByteBuffer.wrap(key));
@@ -1059,13 +1063,14 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         // order of these is not important as we only allow entry to be in one
         // or the other.
         // must update cache with uncommitted adds/deletes.
-        for (Map.Entry<ByteBuffer, UTXO> entry : utxoUncommittedCache.entrySet()) {
-
-            utxoCache.put(entry.getKey(), entry.getValue());
+        for (UTXO out : utxoUncommittedCache.values()) {
+            utxoCache.put(out);
         }
         utxoUncommittedCache = null;
         for (ByteBuffer entry : utxoUncommittedDeletedCache) {
-            utxoCache.remove(entry);
+            // The key is the type byte, the transaction hash and the index.
+            byte[] key = entry.array();
+            utxoCache.remove(Sha256Hash.wrap(Arrays.copyOfRange(key, 1, 33)), entry.getInt(33) & 0xFFFFFFFFL);
         }
         utxoUncommittedDeletedCache = null;
 
@@ -1118,7 +1123,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             uncommitedDeletes = null;
             autoCommit = true;
             bloom = new BloomFilter();
-            utxoCache = new LRUCache(openOutCache, 0.75f);
+            utxoCache = new UTXOCache(openOutCache);
         } catch (IOException e) {
             log.error("Exception in resetStore.", e);
         }
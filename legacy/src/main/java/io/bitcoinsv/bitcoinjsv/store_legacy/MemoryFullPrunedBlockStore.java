@@ -18,7 +18,6 @@ package io.bitcoinsv.bitcoinjsv.store_legacy;
 
 import io.bitcoinsv.bitcoinjsv.chain_legacy.StoredBlock_legacy;
 import io.bitcoinsv.bitcoinjsv.chain_legacy.StoredUndoableBlock_legacy;
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import io.bitcoinsv.bitcoinjsv.core.Address;
@@ -27,7 +26,6 @@ import io.bitcoinsv.bitcoinjsv.exception.UTXOProviderException;
 import io.bitcoinsv.bitcoinjsv.exception.VerificationException;
 import io.bitcoinsv.bitcoinjsv.msg.Genesis_legacy;
 import io.bitcoinsv.bitcoinjsv.msg.protocol.Transaction;
-import io.bitcoinsv.bitcoinjsv.msg.protocol.TransactionOutPoint;
 import io.bitcoinsv.bitcoinjsv.params.NetworkParameters;
 import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
 import io.bitcoinsv.bitcoinjsv.core.UTXO;
@@ -35,60 +33,6 @@ import io.bitcoinsv.bitcoinjsv.core.UTXO;
 import javax.annotation.Nullable;
 import java.util.*;
 
-/**
- * Used as a key for memory map (to avoid having to think about NetworkParameters,
- * which is required for {@link TransactionOutPoint}
- */
-class StoredTransactionOutPoint {
-
-    /** Hash of the transaction to which we refer. */
-    Sha256Hash hash;
-    /** Which output of that transaction we are talking about. */
-    long index;
-    
-    StoredTransactionOutPoint(Sha256Hash hash, long index) {
-        this.hash = hash;
-        this.index = index;
-    }
-    
-    StoredTransactionOutPoint(UTXO out) {
-        this.hash = out.getHash();
-        this.index = out.getIndex();
-    }
-    
-    /**
-     * The hash of the transaction to which we refer
-     */
-    Sha256Hash getHash() {
-        return hash;
-    }
-    
-    /**
-     * The index of the output in transaction to which we refer
-     */
-    long getIndex() {
-        return index;
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hashCode(getIndex(), getHash());
-    }
-    
-    @Override
-    public String toString() {
-        return "Stored transaction out point: " + hash + ":" + index;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        StoredTransactionOutPoint other = (StoredTransactionOutPoint) o;
-        return getIndex() == other.getIndex() && Objects.equal(getHash(), other.getHash());
-    }
-}
-
 /**
  * A HashMap<KeyType, ValueType> that is DB transaction-aware
  * This class is not thread-safe.
@@ -0,0 +1,326 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package io.bitcoinsv.bitcoinjsv.store;
+
+import io.bitcoinsv.bitcoinjsv.chain_legacy.StoredBlock_legacy;
+import io.bitcoinsv.bitcoinjsv.chain_legacy.StoredUndoableBlock_legacy;
+import io.bitcoinsv.bitcoinjsv.core.Address;
+import io.bitcoinsv.bitcoinjsv.core.Coin;
+import io.bitcoinsv.bitcoinjsv.core.ECKey;
+import io.bitcoinsv.bitcoinjsv.core.Sha256Hash;
+import io.bitcoinsv.bitcoinjsv.core.UTXO;
+import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
+import io.bitcoinsv.bitcoinjsv.msg.protocol.Transaction;
+import io.bitcoinsv.bitcoinjsv.params.NetworkParameters;
+import io.bitcoinsv.bitcoinjsv.params.UnitTestParams;
+import io.bitcoinsv.bitcoinjsv.script.ScriptBuilder;
+import io.bitcoinsv.bitcoinjsv.store_legacy.CachingFullPrunedBlockStore;
+import io.bitcoinsv.bitcoinjsv.store_legacy.MemoryFullPrunedBlockStore;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingFullPrunedBlockStoreTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+    private final Address to = new ECKey().toAddress(params);
+    private final MemoryFullPrunedBlockStore backing = new MemoryFullPrunedBlockStore(params, 10);
+
+    @Test
+    public void createdThenSpentNeverReachesStore() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        StoredBlock_legacy b1 = nextBlock(backing.getVerifiedChainHead());
+        UTXO a = utxo(1), b = utxo(2);
+        connect(store, b1, a);
+        StoredBlock_legacy b2 = nextBlock(b1);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(a);
+        store.addUnspentTransactionOutput(b);
+        store.put(b2, undo(b2));
+        store.setVerifiedChainHead(b2);
+        store.commitDatabaseBatchWrite();
+
+        assertNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNotNull(store.getTransactionOutput(b.getHash(), b.getIndex()));
+        assertEquals(b2, store.getVerifiedChainHead());
+        assertEquals(1, store.getCoalescedOutputs());
+        assertNull(backing.getTransactionOutput(b.getHash(), b.getIndex()));
+        assertNull(backing.get(b1.getHeader().getHash()));
+        assertEquals(0, backing.getVerifiedChainHead().getHeight());
+
+        store.flush();
+        assertEquals(0, store.getPendingChanges());
+        assertNull(backing.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNotNull(backing.getTransactionOutput(b.getHash(), b.getIndex()));
+        assertEquals(b2, backing.getVerifiedChainHead());
+        assertEquals(b2, backing.getChainHead());
+        assertNotNull(backing.getUndoBlock(b1.getHeader().getHash()));
+    }
+
+    @Test
+    public void spendingFlushedOutputRemovesItOnNextFlush() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1);
+        StoredBlock_legacy b1 = nextBlock(backing.getVerifiedChainHead());
+        connect(store, b1, a);
+        store.flush();
+
+        StoredBlock_legacy b2 = nextBlock(b1);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(a);
+        store.setVerifiedChainHead(b2);
+        store.commitDatabaseBatchWrite();
+        assertNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNotNull(backing.getTransactionOutput(a.getHash(), a.getIndex()));
+        // Putting it back, as disconnecting the block would, leaves nothing to write.
+        store.addUnspentTransactionOutput(a);
+        assertEquals(0, store.getPendingChanges());
+        assertNotNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        store.removeUnspentTransactionOutput(a);
+        store.flush();
+        assertNull(backing.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertEquals(0, store.getCoalescedOutputs());
+    }
+
+    @Test
+    public void addingOverStoredOutputReplacesIt() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1);
+        StoredBlock_legacy b1 = nextBlock(backing.getVerifiedChainHead());
+        connect(store, b1, a);
+        store.flush();
+
+        // A duplicated coinbase, as before BIP30, is added while the first is still unspent.
+        UTXO duplicate = duplicateOf(a);
+        StoredBlock_legacy b2 = nextBlock(b1);
+        connect(store, b2, duplicate);
+        assertEquals(2, store.getTransactionOutput(a.getHash(), a.getIndex()).getHeight());
+        store.flush();
+        assertEquals(2, backing.getTransactionOutput(a.getHash(), a.getIndex()).getHeight());
+    }
+
+    @Test
+    public void spendingOutputAddedOverStoredOneRemovesIt() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1);
+        StoredBlock_legacy b1 = nextBlock(backing.getVerifiedChainHead());
+        connect(store, b1, a);
+        store.flush();
+
+        UTXO duplicate = duplicateOf(a);
+        connect(store, nextBlock(b1), duplicate);
+        // It was never new to the backing store, so spending it before a flush still has to reach it.
+        store.removeUnspentTransactionOutput(duplicate);
+        store.flush();
+        assertNull(backing.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertEquals(0, store.getCoalescedOutputs());
+    }
+
+    @Test
+    public void abortDropsBatch() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1);
+        StoredBlock_legacy b1 = nextBlock(backing.getVerifiedChainHead());
+        connect(store, b1, a);
+
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(a);
+        store.addUnspentTransactionOutput(utxo(2));
+        StoredBlock_legacy b2 = nextBlock(b1);
+        store.put(b2, undo(b2));
+        store.setVerifiedChainHead(b2);
+        store.abortDatabaseBatchWrite();
+
+        assertNotNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNull(store.get(b2.getHeader().getHash()));
+        assertEquals(b1, store.getVerifiedChainHead());
+        assertEquals(2, store.getPendingChanges());
+    }
+
+    @Test
+    public void batchIsHiddenFromOtherThreads() throws Exception {
+        final CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        final UTXO a = utxo(1);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(a);
+        assertNotNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Callable<UTXO> read = new Callable<UTXO>() {
+                @Override
+                public UTXO call() throws Exception {
+                    return store.getTransactionOutputConcurrently(a.getHash(), a.getIndex());
+                }
+            };
+            assertNull(executor.submit(read).get());
+            store.commitDatabaseBatchWrite();
+            assertNotNull(executor.submit(read).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void flushesWhenEnoughIsPending() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 10, Long.MAX_VALUE, 100);
+        StoredBlock_legacy head = backing.getVerifiedChainHead();
+        for (int i = 0; i < 4; i++) {
+            head = nextBlock(head);
+            connect(store, head, utxo(i * 2), utxo(i * 2 + 1));
+        }
+        // Three blocks and their outputs made nine changes, the fourth took it past ten.
+        assertEquals(1, store.getFlushes());
+        assertEquals(head, backing.getVerifiedChainHead());
+        assertEquals(0, store.getPendingChanges());
+    }
+
+    @Test
+    public void outputsOfCheckedTransactionAreAddedWithoutReads() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        MemoryFullPrunedBlockStore countingStore = new MemoryFullPrunedBlockStore(params, 10) {
+            @Override
+            public synchronized UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+                reads.incrementAndGet();
+                return super.getTransactionOutput(hash, index);
+            }
+        };
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(countingStore, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1), b = utxo(2);
+        StoredBlock_legacy b1 = nextBlock(countingStore.getVerifiedChainHead());
+        store.beginDatabaseBatchWrite();
+        assertFalse(store.hasUnspentOutputs(a.getHash(), 1));
+        int readsBefore = reads.get();
+        store.addUnspentTransactionOutput(a);
+        assertEquals(readsBefore, reads.get());
+        // Not checked, so it is looked up.
+        store.addUnspentTransactionOutput(b);
+        assertEquals(readsBefore + 1, reads.get());
+        store.put(b1, undo(b1));
+        store.setVerifiedChainHead(b1);
+        store.commitDatabaseBatchWrite();
+        assertTrue(store.hasUnspentOutputs(a.getHash(), 1));
+
+        // Spent since the last flush, so the backing store's copy doesn't count.
+        store.flush();
+        StoredBlock_legacy b2 = nextBlock(b1);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(a);
+        assertFalse(store.hasUnspentOutputs(a.getHash(), 1));
+        store.put(b2, undo(b2));
+        store.setVerifiedChainHead(b2);
+        store.commitDatabaseBatchWrite();
+        store.flush();
+        assertNull(countingStore.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNotNull(countingStore.getTransactionOutput(b.getHash(), b.getIndex()));
+    }
+
+    @Test
+    public void failedFlushKeepsCommitAndRetries() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        MemoryFullPrunedBlockStore failingStore = new MemoryFullPrunedBlockStore(params, 10) {
+            @Override
+            public void commitDatabaseBatchWrite() throws BlockStoreException {
+                if (failing.get())
+                    throw new BlockStoreException("Disk full");
+                super.commitDatabaseBatchWrite();
+            }
+        };
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(failingStore, 1, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1), b = utxo(2);
+        StoredBlock_legacy b1 = nextBlock(failingStore.getVerifiedChainHead());
+        // The flush this commit starts fails, but the block is connected all the same.
+        connect(store, b1, a);
+        assertEquals(0, store.getFlushes());
+        assertEquals(b1, store.getVerifiedChainHead());
+        assertNotNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNull(failingStore.getTransactionOutput(a.getHash(), a.getIndex()));
+        try {
+            store.flush();
+            fail();
+        } catch (BlockStoreException e) {
+            // Asked for explicitly, so the failure is passed on.
+        }
+        assertEquals(b1, store.getVerifiedChainHead());
+
+        failing.set(false);
+        StoredBlock_legacy b2 = nextBlock(b1);
+        connect(store, b2, b);
+        assertEquals(1, store.getFlushes());
+        assertEquals(0, store.getPendingChanges());
+        assertEquals(b2, failingStore.getVerifiedChainHead());
+        assertNotNull(failingStore.get(b1.getHeader().getHash()));
+        assertNotNull(failingStore.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNotNull(failingStore.getTransactionOutput(b.getHash(), b.getIndex()));
+    }
+
+    @Test
+    public void crashRecoversAtLastFlush() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1), b = utxo(2);
+        StoredBlock_legacy b1 = nextBlock(backing.getVerifiedChainHead());
+        connect(store, b1, a);
+        store.flush();
+        StoredBlock_legacy b2 = nextBlock(b1);
+        connect(store, b2, b);
+
+        // Dropped without a flush, as if the process died.
+        store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        assertEquals(b1, store.getVerifiedChainHead());
+        assertEquals(b1, store.getChainHead());
+        assertNull(store.get(b2.getHeader().getHash()));
+        assertNotNull(store.getTransactionOutput(a.getHash(), a.getIndex()));
+        assertNull(store.getTransactionOutput(b.getHash(), b.getIndex()));
+    }
+
+    @Test(expected = BlockStoreException.class)
+    public void removingMissingOutputFails() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        store.removeUnspentTransactionOutput(utxo(1));
+    }
+
+    @Test(expected = BlockStoreException.class)
+    public void spendingTwiceFails() throws Exception {
+        CachingFullPrunedBlockStore store = new CachingFullPrunedBlockStore(backing, 1000, Long.MAX_VALUE, 100);
+        UTXO a = utxo(1);
+        connect(store, nextBlock(backing.getVerifiedChainHead()), a);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(a);
+        store.removeUnspentTransactionOutput(a);
+    }
+
+    private void connect(CachingFullPrunedBlockStore store, StoredBlock_legacy block, UTXO... outputs)
+            throws BlockStoreException {
+        store.beginDatabaseBatchWrite();
+        for (UTXO output : outputs)
+            store.addUnspentTransactionOutput(output);
+        store.put(block, undo(block));
+        store.setVerifiedChainHead(block);
+        store.commitDatabaseBatchWrite();
+    }
+
+    private StoredBlock_legacy nextBlock(StoredBlock_legacy prev) {
+        return prev.build(prev.getHeader().createNextBlock(to).cloneAsHeader());
+    }
+
+    private StoredUndoableBlock_legacy undo(StoredBlock_legacy block) {
+        return new StoredUndoableBlock_legacy(block.getHeader().getHash(), Collections.<Transaction>emptyList());
+    }
+
+    private UTXO duplicateOf(UTXO out) {
+        return new UTXO(out.getHash(), out.getIndex(), out.getValue(), out.getHeight() + 1, true, out.getScript());
+    }
+
+    private UTXO utxo(int n) {
+        return new UTXO(Sha256Hash.of(new byte[]{(byte) n}), 0, Coin.COIN, 1, false,
+                ScriptBuilder.createOutputScript(to));
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * © 2020 Bitcoin Association
+ * Open BSV Licence, see the accompanying file LICENSE
+ */
+package org.bitcoinj.moved.core;
+
+import org.bitcoinj.moved.msg.protocol.AbstractFullPrunedBlockChainIT;
+import io.bitcoinsv.bitcoinjsv.exception.BlockStoreException;
+import io.bitcoinsv.bitcoinjsv.params.NetworkParameters;
+import io.bitcoinsv.bitcoinjsv.store_legacy.CachingFullPrunedBlockStore;
+import io.bitcoinsv.bitcoinjsv.store_legacy.FullPrunedBlockStore;
+import io.bitcoinsv.bitcoinjsv.store_legacy.MemoryFullPrunedBlockStore;
+import org.junit.Ignore;
+
+/**
+ * A CachingFullPrunedBlockStore over a MemoryStore implementation of the FullPrunedBlockStoreTest. It flushes every
+ * few blocks, so outputs are spent both before and after they reach the backing store.
+ */
+@Ignore
+public class CachingFullPrunedBlockChainIT extends AbstractFullPrunedBlockChainIT
+{
+    @Override
+    public FullPrunedBlockStore createStore(NetworkParameters params, int blockCount) throws BlockStoreException
+    {
+        return new CachingFullPrunedBlockStore(new MemoryFullPrunedBlockStore(params, blockCount), 16,
+                CachingFullPrunedBlockStore.DEFAULT_FLUSH_INTERVAL_MILLIS, 1000);
+    }
+
+    @Override
+    public void resetStore(FullPrunedBlockStore store) throws BlockStoreException
+    {
+        //No-op for memory store, because it's not persistent
+    }
+}
@@ -43,6 +43,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -359,6 +360,173 @@ public abstract class AbstractFullPrunedBlockChainIT {
         } catch (Exception e) {}
     }
 
+    @Test
+    public void testSpendOutputCreatedInSameBlock() throws Exception {
+        store = createStore(PARAMS, 10);
+        chain = new FullPrunedBlockChain_legacy(PARAMS, store);
+        ECKey outKey = new ECKey();
+        List<Transaction> coinbases = new ArrayList<Transaction>();
+        Block rollingBlock = addCoinbases(outKey, PARAMS.getSpendableCoinbaseDepth(), coinbases);
+
+        // The first is read before the block is connected, the second only as it is spent.
+        rollingBlock = rollingBlock.createNextBlock(null);
+        Transaction t1 = spend(coinbases.get(0), 0, outKey, 2);
+        Transaction t2 = spend(t1, 0, outKey, 1);
+        rollingBlock.addTransaction(t1);
+        rollingBlock.addTransaction(t2);
+        rollingBlock.solve();
+        assertTrue(chain.add(rollingBlock));
+
+        assertEquals(rollingBlock.getHash(), chain.getChainHead().getHeader().getHash());
+        assertNotUnspent(coinbases.get(0), 0);
+        assertNotUnspent(t1, 0);
+        assertUnspent(t1, 1);
+        assertUnspent(t2, 0);
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
+    @Test
+    public void testPrefetchedOutputSpentTwiceInBlock() throws Exception {
+        store = createStore(PARAMS, 10);
+        chain = new FullPrunedBlockChain_legacy(PARAMS, store);
+        ECKey outKey = new ECKey();
+        List<Transaction> coinbases = new ArrayList<Transaction>();
+        Block rollingBlock = addCoinbases(outKey, PARAMS.getSpendableCoinbaseDepth(), coinbases);
+        Block chainHead = rollingBlock;
+
+        // Both spend an output read before the block is connected, which only the first may take.
+        rollingBlock = rollingBlock.createNextBlock(null);
+        Transaction t1 = spend(coinbases.get(0), 0, outKey, 1);
+        Transaction t2 = spend(coinbases.get(0), 0, outKey, 2);
+        rollingBlock.addTransaction(t1);
+        rollingBlock.addTransaction(t2);
+        rollingBlock.solve();
+        try {
+            chain.add(rollingBlock);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+
+        assertEquals(chainHead.getHash(), chain.getChainHead().getHeader().getHash());
+        assertUnspent(coinbases.get(0), 0);
+        assertNotUnspent(t1, 0);
+        assertNotUnspent(t2, 0);
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
+    @Test
+    public void testOutputCreatedInBlockSpentTwice() throws Exception {
+        store = createStore(PARAMS, 10);
+        chain = new FullPrunedBlockChain_legacy(PARAMS, store);
+        ECKey outKey = new ECKey();
+        List<Transaction> coinbases = new ArrayList<Transaction>();
+        Block rollingBlock = addCoinbases(outKey, PARAMS.getSpendableCoinbaseDepth(), coinbases);
+        Block chainHead = rollingBlock;
+
+        rollingBlock = rollingBlock.createNextBlock(null);
+        Transaction t1 = spend(coinbases.get(0), 0, outKey, 1);
+        Transaction t2 = spend(t1, 0, outKey, 1);
+        Transaction t3 = spend(t1, 0, outKey, 2);
+        rollingBlock.addTransaction(t1);
+        rollingBlock.addTransaction(t2);
+        rollingBlock.addTransaction(t3);
+        rollingBlock.solve();
+        try {
+            chain.add(rollingBlock);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+
+        assertEquals(chainHead.getHash(), chain.getChainHead().getHeader().getHash());
+        assertUnspent(coinbases.get(0), 0);
+        assertNotUnspent(t1, 0);
+        assertNotUnspent(t2, 0);
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
+    @Test
+    public void testAddAll() throws Exception {
+        store = createStore(PARAMS, 10);
+        chain = new FullPrunedBlockChain_legacy(PARAMS, store);
+        ECKey outKey = new ECKey();
+        List<Transaction> coinbases = new ArrayList<Transaction>();
+        Block base = addCoinbases(outKey, PARAMS.getSpendableCoinbaseDepth() + 3, coinbases);
+
+        Transaction t1 = spend(coinbases.get(0), 0, outKey, 4);
+        Block m1 = nextBlock(base, t1);
+        Transaction t2 = spend(t1, 0, outKey, 2);
+        Transaction t2b = spend(coinbases.get(1), 0, outKey, 1);
+        Block m2 = nextBlock(m1, t2, t2b);
+        Transaction t3 = spend(t1, 1, outKey, 1);
+        Transaction t3b = spend(coinbases.get(2), 0, outKey, 1);
+        Block m3 = nextBlock(m2, t3, t3b);
+        // A fork from m2 that takes over, spending again what m3 spent.
+        Transaction t4 = spend(t1, 2, outKey, 1);
+        Block f3 = nextBlock(m2, t4);
+        Transaction t5 = spend(t1, 1, outKey, 2);
+        Block f4 = nextBlock(f3, t5);
+        Transaction t6 = spend(coinbases.get(3), 0, outKey, 1);
+        Transaction t6b = spend(t1, 3, outKey, 1);
+        Block z1 = nextBlock(f4, t6, t6b);
+        Transaction t7 = spend(t2, 0, outKey, 1);
+        Transaction t7b = spend(coinbases.get(4), 0, outKey, 1);
+        Block z2 = nextBlock(z1, t7, t7b);
+        // Read ahead of while z1 and z2 are connected.
+        Transaction t8 = spend(coinbases.get(5), 0, outKey, 1);
+        Block z3 = nextBlock(z2, t8);
+        // Spends what z3 does, which is still in the store when read ahead of, so isn't read until z4 is connected.
+        Transaction t9 = spend(coinbases.get(5), 0, outKey, 2);
+        Block z4 = nextBlock(z3, t9);
+        Block z5 = nextBlock(z4);
+
+        // m3 comes before its parent, so is connected as an orphan along with it, after which m2 is a fork.
+        try {
+            chain.addAll(Arrays.asList(m1, m3, m2, f3, f4, z1, z2, z3, z4, z5));
+            fail();
+        } catch (VerificationException e) {
+            // Expected, z4 being invalid.
+        }
+
+        // As add(Block) would have left it, with the blocks up to z4 added and none after.
+        assertEquals(z3.getHash(), chain.getChainHead().getHeader().getHash());
+        assertEquals(z3.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+        assertNull(store.get(z4.getHash()));
+        assertNull(store.get(z5.getHash()));
+        assertNotUnspent(coinbases.get(0), 0);
+        assertNotUnspent(coinbases.get(1), 0);
+        assertUnspent(coinbases.get(2), 0);
+        assertNotUnspent(coinbases.get(3), 0);
+        assertNotUnspent(coinbases.get(4), 0);
+        assertNotUnspent(coinbases.get(5), 0);
+        for (int i = 0; i < 4; i++)
+            assertNotUnspent(t1, i);
+        assertNotUnspent(t2, 0);
+        assertUnspent(t2, 1);
+        assertUnspent(t2b, 0);
+        assertNotUnspent(t3, 0);
+        assertNotUnspent(t3b, 0);
+        assertUnspent(t4, 0);
+        assertUnspent(t5, 0);
+        assertUnspent(t5, 1);
+        assertUnspent(t6, 0);
+        assertUnspent(t6b, 0);
+        assertUnspent(t7, 0);
+        assertUnspent(t7b, 0);
+        assertUnspent(t8, 0);
+        assertNotUnspent(t9, 0);
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
     /**
      * Test that if the block height is missing from coinbase of a version 2
      * block, it's rejected.
@@ -412,4 +580,45 @@ public abstract class AbstractFullPrunedBlockChainIT {
             }
         }
     }
+
+    /**
+     * Adds blocks on the genesis block paying their coinbases to the key, collecting the coinbases, and returns the
+     * last. The first coinbase can be spent by the block after it once count is the spendable coinbase depth.
+     */
+    private Block addCoinbases(ECKey outKey, int count, List<Transaction> coinbases) throws Exception {
+        Block rollingBlock = Genesis_legacy.getFor(NET);
+        for (int height = 1; height <= count; height++) {
+            rollingBlock = rollingBlock.createNextBlockWithCoinbase(BitcoinJ.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height);
+            chain.add(rollingBlock);
+            coinbases.add(rollingBlock.getTransactions().get(0));
+        }
+        return rollingBlock;
+    }
+
+    private static Block nextBlock(Block prev, Transaction... transactions) {
+        Block block = prev.createNextBlock(null);
+        for (Transaction t : transactions)
+            block.addTransaction(t);
+        block.solve();
+        return block;
+    }
+
+    /** Returns a transaction spending the output, paid to the key, that pays it to the key split between outputs. */
+    private static Transaction spend(Transaction from, int index, ECKey key, int outputs) {
+        Transaction t = new Transaction(NET);
+        Coin value = from.getOutput(index).getValue().divide(outputs);
+        for (int i = 0; i < outputs; i++)
+            t.addOutput(new TransactionOutput(NET, t, value, key));
+        TxHelper.addSignedInput(t, new TransactionOutPoint(NET, index, from.getHash()),
+                new Script(from.getOutput(index).getScriptBytes()), key);
+        return t;
+    }
+
+    private void assertUnspent(Transaction tx, int index) throws BlockStoreException {
+        assertNotNull(store.getTransactionOutput(tx.getHash(), index));
+    }
+
+    private void assertNotUnspent(Transaction tx, int index) throws BlockStoreException {
+        assertNull(store.getTransactionOutput(tx.getHash(), index));
+    }
 }